@@ -0,0 +1,82 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.benchmark;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.challenge.Http01Challenge;
+import org.shredzone.acme4j.challenge.TokenChallenge;
+import org.shredzone.acme4j.toolbox.JSON;
+
+/**
+ * Benchmarks {@link TokenChallenge#computeAuthorization()}, which computes the key
+ * authorization from the account key's thumbprint.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChallengeBenchmark {
+
+    @Param({"RSA2048", "EC256"})
+    public KeyType keyType;
+
+    private BenchmarkChallenge challenge;
+
+    @Setup
+    public void setup() {
+        Session session = new Session(URI.create("http://localhost/directory"), keyType.createKeyPair());
+        challenge = new BenchmarkChallenge(session);
+        challenge.unmarshall(JSON.parse("{\"type\": \"http-01\", \"status\": \"pending\","
+                + " \"uri\": \"https://example.com/authz/asdf/0\","
+                + " \"token\": \"IlirfxKKXAsHtmzK29Pj8A\"}"));
+    }
+
+    @Benchmark
+    public String computeAuthorization() {
+        return challenge.computeAuthorization();
+    }
+
+    /**
+     * Exposes {@link TokenChallenge#computeAuthorization()} to the benchmark.
+     */
+    private static class BenchmarkChallenge extends Http01Challenge {
+        private static final long serialVersionUID = -1393064364758536427L;
+
+        public BenchmarkChallenge(Session session) {
+            super(session);
+        }
+
+        @Override
+        public String computeAuthorization() {
+            return super.computeAuthorization();
+        }
+    }
+
+}
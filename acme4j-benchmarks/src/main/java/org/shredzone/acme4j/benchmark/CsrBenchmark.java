@@ -0,0 +1,63 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.benchmark;
+
+import java.io.IOException;
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.shredzone.acme4j.util.CSRBuilder;
+
+/**
+ * Benchmarks building and signing a CSR with {@link CSRBuilder}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CsrBenchmark {
+
+    @Param({"RSA2048", "EC256"})
+    public KeyType keyType;
+
+    private KeyPair domainKeyPair;
+
+    @Setup
+    public void setup() {
+        domainKeyPair = keyType.createKeyPair();
+    }
+
+    @Benchmark
+    public byte[] sign() throws IOException {
+        CSRBuilder csrb = new CSRBuilder();
+        csrb.addDomains("example.org", "www.example.org", "m.example.org");
+        csrb.setOrganization("Example Inc.");
+        csrb.sign(domainKeyPair);
+        return csrb.getEncoded();
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.benchmark;
+
+import java.net.URI;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.shredzone.acme4j.connector.Resource;
+import org.shredzone.acme4j.toolbox.JSON;
+import org.shredzone.acme4j.toolbox.JSONBuilder;
+
+/**
+ * Benchmarks parsing and generating JSON.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+    private static final String AUTHORIZATION_JSON = "{"
+            + "\"status\": \"pending\","
+            + "\"expires\": \"2016-01-02T17:12:40Z\","
+            + "\"identifier\": {\"type\": \"dns\", \"value\": \"example.org\"},"
+            + "\"challenges\": ["
+            + "{\"type\": \"http-01\", \"status\": \"pending\","
+            + " \"uri\": \"https://example.com/authz/asdf/0\","
+            + " \"token\": \"IlirfxKKXAsHtmzK29Pj8A\"},"
+            + "{\"type\": \"dns-01\", \"status\": \"pending\","
+            + " \"uri\": \"https://example.com/authz/asdf/1\","
+            + " \"token\": \"DGyRejmCefe7v4NfDGDKfA\"}"
+            + "],"
+            + "\"combinations\": [[0], [0,1]]"
+            + "}";
+
+    private final URI contact = URI.create("mailto:acme@example.com");
+    private final URI agreement = URI.create("https://example.com/acme/terms");
+    private final Instant notAfter = Instant.parse("2017-12-31T23:59:59Z");
+
+    @Benchmark
+    public JSON parse() {
+        return JSON.parse(AUTHORIZATION_JSON);
+    }
+
+    @Benchmark
+    public String builderToString() {
+        JSONBuilder claims = new JSONBuilder();
+        claims.putResource(Resource.NEW_REG);
+        claims.array("contact", contact);
+        claims.put("agreement", agreement);
+        claims.put("notAfter", notAfter);
+        claims.object("identifier")
+                .put("type", "dns")
+                .put("value", "example.org");
+        return claims.toString();
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.benchmark;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+
+/**
+ * Key types that are used as benchmark parameters.
+ */
+public enum KeyType {
+
+    RSA2048("RSA", 2048, null),
+    RSA4096("RSA", 4096, null),
+    EC256("EC", 0, "secp256r1"),
+    EC384("EC", 0, "secp384r1");
+
+    private final String algorithm;
+    private final int keySize;
+    private final String curve;
+
+    KeyType(String algorithm, int keySize, String curve) {
+        this.algorithm = algorithm;
+        this.keySize = keySize;
+        this.curve = curve;
+    }
+
+    /**
+     * Creates a new {@link KeyPair} of this type.
+     */
+    public KeyPair createKeyPair() {
+        try {
+            KeyPairGenerator keyGen = KeyPairGenerator.getInstance(algorithm);
+            if (curve != null) {
+                keyGen.initialize(new ECGenParameterSpec(curve));
+            } else {
+                keyGen.initialize(keySize);
+            }
+            return keyGen.generateKeyPair();
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("Could not create " + name() + " key pair", ex);
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.benchmark;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.connector.Connection;
+import org.shredzone.acme4j.connector.DefaultConnection;
+
+/**
+ * Benchmarks the {@code Link} header parsing of {@link DefaultConnection#getLinks(String)}.
+ * The response of the {@link StubServer} is fetched once, so only the parsing is
+ * measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LinkHeaderBenchmark {
+
+    @Param({"up", "next", "missing"})
+    public String relation;
+
+    private StubServer server;
+    private Connection connection;
+
+    @Setup
+    public void setup() throws Exception {
+        server = new StubServer();
+        Session session = new Session(server.resolve("directory"), KeyType.EC256.createKeyPair());
+        connection = session.provider().connect();
+        connection.sendRequest(server.resolve("acme/cert/1"), session);
+    }
+
+    @TearDown
+    public void teardown() {
+        connection.close();
+        server.close();
+    }
+
+    @Benchmark
+    public Collection<URI> getLinks() {
+        return connection.getLinks(relation);
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.benchmark;
+
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.connector.Connection;
+import org.shredzone.acme4j.connector.Resource;
+import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.toolbox.JSONBuilder;
+
+/**
+ * Benchmarks the cost of a signed request, including the JWS construction, against the
+ * {@link StubServer}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignedRequestBenchmark {
+
+    @Param({"RSA2048", "RSA4096", "EC256", "EC384"})
+    public KeyType keyType;
+
+    private StubServer server;
+    private Session session;
+    private URI requestUri;
+
+    @Setup
+    public void setup() throws Exception {
+        server = new StubServer();
+        session = new Session(server.resolve("directory"), keyType.createKeyPair());
+        requestUri = server.resolve("acme/new-authz");
+    }
+
+    @TearDown
+    public void teardown() {
+        server.close();
+    }
+
+    @Benchmark
+    public int sendSignedRequest() throws AcmeException {
+        JSONBuilder claims = new JSONBuilder();
+        claims.putResource(Resource.NEW_AUTHZ);
+        claims.object("identifier")
+                .put("type", "dns")
+                .put("value", "example.org");
+
+        try (Connection conn = session.provider().connect()) {
+            conn.sendSignedRequest(requestUri, claims, session);
+            return conn.accept(HttpURLConnection.HTTP_OK);
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.shredzone.acme4j.toolbox.AcmeUtils;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A minimal in-process HTTP server that answers every request like an ACME server would.
+ * It sends a fresh {@code Replay-Nonce}, some {@code Link} headers, and a small JSON
+ * body. Request bodies are read and discarded.
+ */
+public class StubServer implements AutoCloseable {
+
+    private static final byte[] BODY = "{\"status\":\"valid\"}".getBytes(StandardCharsets.UTF_8);
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicLong nonceCounter = new AtomicLong();
+
+    /**
+     * Starts a new {@link StubServer} on a random local port.
+     */
+    public StubServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Returns the base {@link URI} of the server.
+     */
+    public URI getBaseUri() {
+        InetSocketAddress address = server.getAddress();
+        return URI.create("http://" + address.getHostString() + ":" + address.getPort() + "/");
+    }
+
+    /**
+     * Returns a {@link URI} of the server.
+     *
+     * @param path
+     *            Path, relative to the server's base URI
+     */
+    public URI resolve(String path) {
+        return getBaseUri().resolve(path);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[4096];
+            while (in.read(buffer) >= 0) {
+                // discard request body
+            }
+        }
+
+        Headers headers = exchange.getResponseHeaders();
+        headers.add("Replay-Nonce", AcmeUtils.base64UrlEncode(
+                        Long.toString(nonceCounter.incrementAndGet()).getBytes(StandardCharsets.UTF_8)));
+        headers.add("Content-Type", "application/json");
+        headers.add("Link", "<https://example.com/acme/terms>;rel=\"terms-of-service\"");
+        headers.add("Link", "<../issuer-cert>; rel=\"up\"");
+        headers.add("Link", "<https://example.com/acme/authz/1>;rel=\"next\"");
+        headers.add("Link", "<https://example.com/acme/recover-reg>;rel=\"recover\"");
+
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+
+        exchange.sendResponseHeaders(200, BODY.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(BODY);
+        }
+    }
+
+}
@@ -16,6 +16,11 @@ package org.shredzone.acme4j;
 import java.io.Serializable;
 import java.net.URI;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import org.shredzone.acme4j.exception.AcmeException;
 
 /**
  * A generic ACME resource.
@@ -85,4 +90,46 @@ public abstract class AcmeResource implements Serializable {
         return location;
     }
 
+    /**
+     * Invokes an operation asynchronously, using the {@link Executor} of the bound
+     * {@link Session}.
+     * <p>
+     * The operation still uses the blocking {@link org.shredzone.acme4j.connector.Connection},
+     * and occupies a thread of the executor until it is completed. It is only as
+     * concurrent as the executor, see {@link Session#setExecutor(Executor)}.
+     * <p>
+     * If the operation throws an {@link AcmeException}, the returned future is completed
+     * exceptionally with a {@link CompletionException} having the {@link AcmeException}
+     * as cause.
+     *
+     * @param operation
+     *            Operation to be invoked
+     * @return {@link CompletableFuture} of the operation's result
+     */
+    protected <T> CompletableFuture<T> invokeAsync(AcmeOperation<T> operation) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return operation.invoke();
+            } catch (AcmeException ex) {
+                throw new CompletionException(ex);
+            }
+        }, getSession().getExecutor());
+    }
+
+    /**
+     * An operation on an {@link AcmeResource} that may throw an {@link AcmeException}.
+     *
+     * @param <T>
+     *            Result type
+     */
+    @FunctionalInterface
+    protected interface AcmeOperation<T> {
+        /**
+         * Invokes the operation.
+         *
+         * @return Result of the operation
+         */
+        T invoke() throws AcmeException;
+    }
+
 }
@@ -0,0 +1,191 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j;
+
+import static org.shredzone.acme4j.toolbox.AcmeUtils.toAce;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the {@link Authorization} of an account, indexed by domain name in ACE form.
+ * <p>
+ * If a cache is set via {@link Registration#setAuthorizationCache(AuthorizationCache)},
+ * {@link Registration#authorizeDomain(String)} returns a cached, valid authorization
+ * instead of requesting a new one, so the challenge does not need to be completed
+ * again. Only authorizations that are valid and do not expire within the minimum
+ * validity are returned. Expired authorizations are evicted.
+ * <p>
+ * The cache only reflects the status of the cached {@link Authorization} objects. If an
+ * authorization was deactivated or revoked, use {@link #remove(String)}. A cache must
+ * only be used for a single account. This class is thread-safe.
+ */
+public class AuthorizationCache {
+    private static final Logger LOG = LoggerFactory.getLogger(AuthorizationCache.class);
+
+    private final ConcurrentMap<String, Authorization> authorizations = new ConcurrentHashMap<>();
+    private volatile Duration minValidity = Duration.ofHours(1);
+
+    /**
+     * Gets the minimum time a cached authorization must still be valid.
+     */
+    public Duration getMinValidity() {
+        return minValidity;
+    }
+
+    /**
+     * Sets the minimum time a cached authorization must still be valid, so it is not
+     * expiring while the certificate is requested. Default is one hour.
+     *
+     * @param minValidity
+     *            Minimum validity, must not be negative
+     */
+    public void setMinValidity(Duration minValidity) {
+        Objects.requireNonNull(minValidity, "minValidity");
+        if (minValidity.isNegative()) {
+            throw new IllegalArgumentException("minValidity must not be negative");
+        }
+        this.minValidity = minValidity;
+    }
+
+    /**
+     * Gets a valid {@link Authorization} of a domain.
+     *
+     * @param domain
+     *            Domain name, will be ACE encoded
+     * @return Valid {@link Authorization}, or {@code null} if there is none in the cache
+     */
+    public Authorization get(String domain) {
+        String ace = toAce(Objects.requireNonNull(domain, "domain"));
+        Authorization auth = authorizations.get(ace);
+        if (auth == null) {
+            return null;
+        }
+
+        Instant expires = auth.getExpires();
+        Status status = auth.getStatus();
+        if (expires == null || !expires.isAfter(Instant.now())
+                        || status == Status.INVALID || status == Status.DEACTIVATED
+                        || status == Status.REVOKED) {
+            LOG.debug("Evicting authorization {} of {}", auth.getLocation(), ace);
+            authorizations.remove(ace, auth);
+            return null;
+        }
+
+        if (status != Status.VALID || !expires.isAfter(Instant.now().plus(minValidity))) {
+            return null;
+        }
+
+        return auth;
+    }
+
+    /**
+     * Puts an {@link Authorization} into the cache. It replaces a cached authorization of
+     * the same domain, unless the cached one is valid for a longer time. Authorizations
+     * without domain or expiry date are ignored.
+     * <p>
+     * The authorization is kept even if it is still pending, so it is returned by
+     * {@link #get(String)} as soon as it became valid.
+     *
+     * @param auth
+     *            {@link Authorization} to put into the cache
+     */
+    public void put(Authorization auth) {
+        Objects.requireNonNull(auth, "auth");
+        String domain = auth.getDomain();
+        Instant expires = auth.getExpires();
+        if (domain == null || expires == null) {
+            return;
+        }
+
+        authorizations.merge(toAce(domain), auth, (cached, added) -> {
+            if (cached.getStatus() == Status.VALID && added.getStatus() != Status.VALID) {
+                return cached;
+            }
+            Instant cachedExpires = cached.getExpires();
+            if (cached.getStatus() == added.getStatus() && cachedExpires != null
+                            && cachedExpires.isAfter(expires)) {
+                return cached;
+            }
+            return added;
+        });
+    }
+
+    /**
+     * Puts all valid {@link Authorization} into the cache, e.g. the ones returned by
+     * {@link Registration#getAuthorizations()}. Invoking a getter of a lazily bound
+     * authorization will fetch it from the server.
+     *
+     * @param auths
+     *            {@link Iterator} of {@link Authorization}
+     * @return Number of valid authorizations that were put into the cache
+     */
+    public int putAll(Iterator<Authorization> auths) {
+        int count = 0;
+        Instant now = Instant.now();
+        while (auths.hasNext()) {
+            Authorization auth = auths.next();
+            Instant expires = auth.getExpires();
+            if (auth.getStatus() == Status.VALID && expires != null && expires.isAfter(now)) {
+                put(auth);
+                count++;
+            }
+        }
+        LOG.debug("Cached {} valid authorizations", count);
+        return count;
+    }
+
+    /**
+     * Removes the {@link Authorization} of a domain from the cache.
+     *
+     * @param domain
+     *            Domain name, will be ACE encoded
+     */
+    public void remove(String domain) {
+        authorizations.remove(toAce(Objects.requireNonNull(domain, "domain")));
+    }
+
+    /**
+     * Removes all expired authorizations from the cache.
+     */
+    public void evictExpired() {
+        Instant now = Instant.now();
+        authorizations.values().removeIf(auth -> {
+            Instant expires = auth.getExpires();
+            return expires == null || !expires.isAfter(now);
+        });
+    }
+
+    /**
+     * Gets the number of cached authorizations.
+     */
+    public int size() {
+        return authorizations.size();
+    }
+
+    /**
+     * Removes all authorizations from the cache.
+     */
+    public void clear() {
+        authorizations.clear();
+    }
+
+}
@@ -13,19 +13,31 @@
  */
 package org.shredzone.acme4j;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 import org.shredzone.acme4j.connector.Connection;
+import org.shredzone.acme4j.connector.IntermediateCertificateCache;
+import org.shredzone.acme4j.connector.IntermediateCertificateCache.ChainLink;
 import org.shredzone.acme4j.connector.Resource;
 import org.shredzone.acme4j.exception.AcmeException;
 import org.shredzone.acme4j.exception.AcmeProtocolException;
 import org.shredzone.acme4j.exception.AcmeRetryAfterException;
 import org.shredzone.acme4j.toolbox.JSONBuilder;
+import org.shredzone.acme4j.toolbox.PemEncodingChannel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,6 +51,7 @@ public class Certificate extends AcmeResource {
 
     private URI chainCertUri;
     private X509Certificate cert = null;
+    private byte[] encoded = null;
     private X509Certificate[] chain = null;
 
     protected Certificate(Session session, URI certUri) {
@@ -75,7 +88,9 @@ public class Certificate extends AcmeResource {
     }
 
     /**
-     * Downloads the certificate. The result is cached.
+     * Downloads the certificate. The result is cached. If the certificate was already
+     * cached by {@link #download(WritableByteChannel, boolean, boolean)}, it is parsed
+     * without connecting to the server.
      *
      * @return {@link X509Certificate} that was downloaded
      * @throws AcmeRetryAfterException
@@ -85,6 +100,16 @@ public class Certificate extends AcmeResource {
      *             before trying again.
      */
     public X509Certificate download() throws AcmeException {
+        if (cert == null && encoded != null) {
+            try {
+                CertificateFactory cf = CertificateFactory.getInstance("X.509");
+                cert = (X509Certificate) cf.generateCertificate(new ByteArrayInputStream(encoded));
+                encoded = null;
+            } catch (CertificateException ex) {
+                throw new AcmeProtocolException("Failed to read certificate", ex);
+            }
+        }
+
         if (cert == null) {
             LOG.debug("download");
             try (Connection conn = getSession().provider().connect()) {
@@ -100,7 +125,100 @@ public class Certificate extends AcmeResource {
     }
 
     /**
-     * Downloads the certificate chain. The result is cached.
+     * Downloads the certificate, and streams it to the target channel without parsing
+     * it. The certificate is not cached. If it was already downloaded, it is written
+     * without connecting to the server.
+     * <p>
+     * This method is meant for distributing a large number of certificates. Use
+     * {@link #download()} to get the parsed certificate.
+     *
+     * @param target
+     *            {@link WritableByteChannel} to write the certificate to. It is not
+     *            closed.
+     * @param pem
+     *            {@code true} to write the certificate PEM armored, {@code false} to
+     *            write the DER encoded binary representation
+     * @throws AcmeRetryAfterException
+     *             the certificate is still being created, and the server returned an
+     *             estimated date when it will be ready for download. You should wait for
+     *             the date given in {@link AcmeRetryAfterException#getRetryAfter()}
+     *             before trying again.
+     * @throws IOException
+     *             if the certificate could not be written to the target channel
+     */
+    public void download(WritableByteChannel target, boolean pem) throws AcmeException, IOException {
+        download(target, pem, false);
+    }
+
+    /**
+     * Downloads the certificate, and streams it to the target channel without parsing
+     * it. If the certificate was already downloaded, it is written without connecting to
+     * the server.
+     *
+     * @param target
+     *            {@link WritableByteChannel} to write the certificate to. It is not
+     *            closed.
+     * @param pem
+     *            {@code true} to write the certificate PEM armored, {@code false} to
+     *            write the DER encoded binary representation
+     * @param cache
+     *            {@code true} to keep a copy of the DER encoded certificate, so further
+     *            downloads and {@link #download()} do not connect to the server again.
+     *            The copy needs about as much memory as the certificate itself.
+     *            {@code false} to only stream the certificate.
+     * @throws AcmeRetryAfterException
+     *             the certificate is still being created, and the server returned an
+     *             estimated date when it will be ready for download. You should wait for
+     *             the date given in {@link AcmeRetryAfterException#getRetryAfter()}
+     *             before trying again.
+     * @throws IOException
+     *             if the certificate could not be written to the target channel. The
+     *             certificate is not cached then.
+     */
+    public void download(WritableByteChannel target, boolean pem, boolean cache)
+                throws AcmeException, IOException {
+        Objects.requireNonNull(target, "target");
+
+        WritableByteChannel out = pem ? new PemEncodingChannel(target, "CERTIFICATE") : target;
+
+        byte[] der = encoded;
+        if (der == null && cert != null) {
+            try {
+                der = cert.getEncoded();
+            } catch (CertificateEncodingException ex) {
+                throw new AcmeProtocolException("Failed to encode certificate", ex);
+            }
+        }
+
+        if (der != null) {
+            ByteBuffer buffer = ByteBuffer.wrap(der);
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        } else {
+            LOG.debug("download to channel");
+            ByteArrayOutputStream copy = cache ? new ByteArrayOutputStream() : null;
+            try (Connection conn = getSession().provider().connect()) {
+                conn.sendRequest(getLocation(), getSession());
+                conn.accept(HttpURLConnection.HTTP_OK, HttpURLConnection.HTTP_ACCEPTED);
+                conn.handleRetryAfter("certificate is not available for download yet");
+
+                chainCertUri = conn.getLink("up");
+                conn.readCertificate(copy != null ? new CopyingChannel(out, copy) : out);
+            }
+            if (copy != null) {
+                encoded = copy.toByteArray();
+            }
+        }
+
+        if (pem) {
+            out.close();
+        }
+    }
+
+    /**
+     * Downloads the certificate chain. The result is cached. Intermediate certificates
+     * are looked up in the session's {@link IntermediateCertificateCache} first.
      *
      * @return Chain of {@link X509Certificate}s
      * @throws AcmeRetryAfterException
@@ -121,16 +239,15 @@ public class Certificate extends AcmeResource {
 
             LOG.debug("downloadChain");
 
+            IntermediateCertificateCache cache = getSession().getIntermediateCertificateCache();
             List<X509Certificate> certChain = new ArrayList<>();
             URI link = chainCertUri;
             while (link != null && certChain.size() < MAX_CHAIN_LENGTH) {
-                try (Connection conn = getSession().provider().connect()) {
-                    conn.sendRequest(chainCertUri, getSession());
-                    conn.accept(HttpURLConnection.HTTP_OK);
-
-                    certChain.add(conn.readCertificate());
-                    link = conn.getLink("up");
-                }
+                ChainLink chainLink = cache != null
+                                ? cache.get(link, this::fetchChainLink)
+                                : fetchChainLink(link);
+                certChain.add(chainLink.getCertificate());
+                link = chainLink.getUp();
             }
             if (link != null) {
                 throw new AcmeProtocolException("Recursion limit reached (" + MAX_CHAIN_LENGTH
@@ -142,6 +259,49 @@ public class Certificate extends AcmeResource {
         return chain;
     }
 
+    /**
+     * Fetches a certificate of the chain.
+     *
+     * @param uri
+     *            {@link URI} of the certificate
+     * @return {@link ChainLink} with the certificate and the link to its issuer
+     */
+    private ChainLink fetchChainLink(URI uri) throws AcmeException {
+        try (Connection conn = getSession().provider().connect()) {
+            conn.sendRequest(uri, getSession());
+            conn.accept(HttpURLConnection.HTTP_OK);
+
+            X509Certificate chainCert = conn.readCertificate();
+            return new ChainLink(chainCert, conn.getLink("up"));
+        }
+    }
+
+    /**
+     * Downloads the certificate asynchronously, using the {@link Session}'s executor.
+     * <p>
+     * The download blocks an executor thread, see {@link Session#setExecutor}.
+     *
+     * @return {@link CompletableFuture} of the {@link X509Certificate}
+     * @see #download()
+     */
+    public CompletableFuture<X509Certificate> downloadAsync() {
+        return invokeAsync(this::download);
+    }
+
+    /**
+     * Downloads the certificate chain asynchronously, using the {@link Session}'s
+     * executor.
+     * <p>
+     * Each download of the chain blocks an executor thread, see
+     * {@link Session#setExecutor}.
+     *
+     * @return {@link CompletableFuture} of the chain of {@link X509Certificate}s
+     * @see #downloadChain()
+     */
+    public CompletableFuture<X509Certificate[]> downloadChainAsync() {
+        return invokeAsync(this::downloadChain);
+    }
+
     /**
      * Revokes this certificate.
      */
@@ -202,4 +362,38 @@ public class Certificate extends AcmeResource {
         new Certificate(session, URI.create(""), null, cert).revoke(reason);
     }
 
+    /**
+     * A {@link WritableByteChannel} that writes to a target channel, and keeps a copy of
+     * all bytes that were written. Closing it does not close the target channel.
+     */
+    private static class CopyingChannel implements WritableByteChannel {
+        private final WritableByteChannel target;
+        private final ByteArrayOutputStream copy;
+
+        private CopyingChannel(WritableByteChannel target, ByteArrayOutputStream copy) {
+            this.target = target;
+            this.copy = copy;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            ByteBuffer written = src.duplicate();
+            int len = target.write(src);
+            byte[] bytes = new byte[len];
+            written.get(bytes);
+            copy.write(bytes, 0, len);
+            return len;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return target.isOpen();
+        }
+
+        @Override
+        public void close() {
+            // the target channel is not closed
+        }
+    }
+
 }
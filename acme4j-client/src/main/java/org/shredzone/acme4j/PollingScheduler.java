@@ -0,0 +1,489 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j;
+
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.shredzone.acme4j.challenge.Challenge;
+import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.exception.AcmeRetryAfterException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Polls the status of ACME resources until they are completed.
+ * <p>
+ * If the server sends a retry-after instant, the next poll is scheduled for that
+ * instant. Otherwise the delay between two polls is increased exponentially, with a
+ * random jitter so concurrent polls do not hit the server at the same time.
+ * <p>
+ * Due polls are collected in a hashed timer wheel and dispatched to the {@link Executor}
+ * once per tick. A single timer thread serves any number of pending polls, and no
+ * thread is blocked while a poll is waiting. While no polls are pending, the timer
+ * thread is parked and does not tick.
+ * <p>
+ * A {@link PollingScheduler} must be closed after use. Pending polls are cancelled
+ * then.
+ */
+public class PollingScheduler implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(PollingScheduler.class);
+    private static final int WHEEL_SIZE = 512;
+    private static final AtomicInteger SCHEDULER_NUMBER = new AtomicInteger();
+
+    private final long tickNanos;
+    private final Executor executor;
+    private final Queue<PollEntry<?>> pending = new ConcurrentLinkedQueue<>();
+    private final List<List<PollEntry<?>>> wheel = new ArrayList<>(WHEEL_SIZE);
+    private final long startNanos;
+    private final Thread timer;
+    private volatile boolean closed = false;
+    private volatile Duration initialDelay = Duration.ofSeconds(1);
+    private volatile Duration maxDelay = Duration.ofSeconds(30);
+    private volatile Duration timeout = Duration.ofMinutes(5);
+
+    /**
+     * Creates a new {@link PollingScheduler} with a tick duration of 100 ms, that runs
+     * the polls in the default I/O executor of the {@link Session}s. Polls block while
+     * waiting for the server, so they are never run in the common
+     * {@link java.util.concurrent.ForkJoinPool}.
+     */
+    public PollingScheduler() {
+        this(Duration.ofMillis(100), Session.defaultExecutor());
+    }
+
+    /**
+     * Creates a new {@link PollingScheduler}.
+     *
+     * @param tick
+     *            Tick duration of the timer wheel. Polls that are due within the same
+     *            tick are dispatched together.
+     * @param executor
+     *            {@link Executor} that runs the polls
+     */
+    public PollingScheduler(Duration tick, Executor executor) {
+        Objects.requireNonNull(tick, "tick");
+        if (tick.isNegative() || tick.isZero()) {
+            throw new IllegalArgumentException("tick must be positive");
+        }
+
+        this.tickNanos = tick.toNanos();
+        this.executor = Objects.requireNonNull(executor, "executor");
+
+        for (int ix = 0; ix < WHEEL_SIZE; ix++) {
+            wheel.add(new ArrayList<>());
+        }
+
+        this.startNanos = System.nanoTime();
+        this.timer = new Thread(this::runTimer, "acme4j-poller-" + SCHEDULER_NUMBER.incrementAndGet());
+        this.timer.setDaemon(true);
+        this.timer.start();
+    }
+
+    /**
+     * Returns the delay before the first poll.
+     */
+    public Duration getInitialDelay() {
+        return initialDelay;
+    }
+
+    /**
+     * Sets the delay before the first poll. The delay is doubled on every subsequent
+     * poll, until the maximum delay is reached. Default is 1 second.
+     *
+     * @param initialDelay
+     *            Initial delay, must be positive
+     */
+    public void setInitialDelay(Duration initialDelay) {
+        this.initialDelay = requirePositive(initialDelay, "initialDelay");
+    }
+
+    /**
+     * Returns the maximum delay between two polls.
+     */
+    public Duration getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * Sets the maximum delay between two polls. A retry-after instant sent by the server
+     * is always honored, even if it exceeds this delay. Default is 30 seconds.
+     *
+     * @param maxDelay
+     *            Maximum delay, must be positive
+     */
+    public void setMaxDelay(Duration maxDelay) {
+        this.maxDelay = requirePositive(maxDelay, "maxDelay");
+    }
+
+    /**
+     * Returns the maximum time a resource is polled.
+     */
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Sets the maximum time a resource is polled. If the resource is not completed by
+     * then, or if the server asks to retry after that time, the poll fails. Default is
+     * 5 minutes.
+     *
+     * @param timeout
+     *            Timeout, must be positive
+     */
+    public void setTimeout(Duration timeout) {
+        this.timeout = requirePositive(timeout, "timeout");
+    }
+
+    /**
+     * Polls a {@link Challenge} until it is valid.
+     *
+     * @param challenge
+     *            {@link Challenge} to poll. It must have been triggered before.
+     * @return {@link CompletableFuture} that is completed with the {@link Challenge}
+     *         when it is valid, or completed exceptionally if the challenge failed or
+     *         the poll timed out
+     */
+    public CompletableFuture<Challenge> poll(Challenge challenge) {
+        Objects.requireNonNull(challenge, "challenge");
+        return schedule(() -> {
+            try {
+                challenge.update();
+            } catch (AcmeRetryAfterException ex) {
+                if (!isCompleted(challenge.getStatus())) {
+                    throw ex;
+                }
+            }
+            return evaluate(challenge.getStatus(), challenge, challenge.getError());
+        }, Instant.now().plus(delay(0)), challenge.getStatus(), challenge, challenge.getError());
+    }
+
+    /**
+     * Polls an {@link Authorization} until it is valid.
+     *
+     * @param auth
+     *            {@link Authorization} to poll
+     * @return {@link CompletableFuture} that is completed with the {@link Authorization}
+     *         when it is valid, or completed exceptionally if the authorization failed
+     *         or the poll timed out
+     */
+    public CompletableFuture<Authorization> poll(Authorization auth) {
+        Objects.requireNonNull(auth, "auth");
+        return schedule(() -> {
+            try {
+                auth.update();
+            } catch (AcmeRetryAfterException ex) {
+                if (!isCompleted(auth.getStatus())) {
+                    throw ex;
+                }
+            }
+            return evaluate(auth.getStatus(), auth, null);
+        }, Instant.now().plus(delay(0)), auth.getStatus(), auth, null);
+    }
+
+    /**
+     * Polls a {@link Certificate} until it is available for download. The first poll is
+     * started immediately.
+     *
+     * @param certificate
+     *            {@link Certificate} to download
+     * @return {@link CompletableFuture} that is completed with the downloaded
+     *         {@link X509Certificate}, or completed exceptionally if the download failed
+     *         or timed out
+     */
+    public CompletableFuture<X509Certificate> download(Certificate certificate) {
+        Objects.requireNonNull(certificate, "certificate");
+        return schedule(certificate::download, Instant.now());
+    }
+
+    /**
+     * Schedules a generic poll. The first poll is started after the initial delay.
+     *
+     * @param poll
+     *            {@link Poll} to invoke
+     * @return {@link CompletableFuture} that is completed with the first
+     *         non-{@code null} result of the poll, or completed exceptionally if the
+     *         poll failed or timed out
+     */
+    public <T> CompletableFuture<T> schedule(Poll<T> poll) {
+        Objects.requireNonNull(poll, "poll");
+        return schedule(poll, Instant.now().plus(delay(0)));
+    }
+
+    /**
+     * Schedules a generic poll for the given instant.
+     *
+     * @param poll
+     *            {@link Poll} to invoke
+     * @param first
+     *            Instant of the first poll
+     * @return {@link CompletableFuture} that is completed with the first
+     *         non-{@code null} result of the poll, or completed exceptionally if the
+     *         poll failed or timed out
+     */
+    public <T> CompletableFuture<T> schedule(Poll<T> poll, Instant first) {
+        Objects.requireNonNull(poll, "poll");
+        Objects.requireNonNull(first, "first");
+        PollEntry<T> entry = new PollEntry<>(poll, Instant.now().plus(timeout));
+        enqueue(entry, first);
+        return entry.future;
+    }
+
+    /**
+     * Cancels all pending polls and stops the timer thread.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        timer.interrupt();
+    }
+
+    /**
+     * Schedules a poll of a resource, unless the resource is already completed.
+     */
+    private <T> CompletableFuture<T> schedule(Poll<T> poll, Instant first, Status status,
+                T resource, Problem error) {
+        if (isCompleted(status)) {
+            CompletableFuture<T> result = new CompletableFuture<>();
+            try {
+                result.complete(evaluate(status, resource, error));
+            } catch (AcmeException ex) {
+                result.completeExceptionally(ex);
+            }
+            return result;
+        }
+        return schedule(poll, first);
+    }
+
+    /**
+     * Enqueues a {@link PollEntry} for being polled at the given instant.
+     */
+    private void enqueue(PollEntry<?> entry, Instant when) {
+        if (when.isAfter(entry.deadline)) {
+            entry.future.completeExceptionally(new AcmeException("Polling timed out"));
+            return;
+        }
+
+        long delayNanos = Math.max(Duration.between(Instant.now(), when).toNanos(), 0L);
+        entry.dueNanos = System.nanoTime() + delayNanos;
+        pending.add(entry);
+        LockSupport.unpark(timer);
+
+        if (closed) {
+            cancelPending();
+        }
+    }
+
+    /**
+     * Computes the delay before the next poll, with exponential backoff and jitter.
+     *
+     * @param attempt
+     *            Number of previous polls
+     * @return Delay before the next poll
+     */
+    private Duration delay(int attempt) {
+        long max = maxDelay.toMillis();
+        long delay = Math.min(initialDelay.toMillis() << Math.min(attempt, 20), max);
+        if (delay <= 0) {
+            delay = max;
+        }
+        long half = delay / 2;
+        return Duration.ofMillis(half + ThreadLocalRandom.current().nextLong(delay - half + 1));
+    }
+
+    /**
+     * Main loop of the timer thread. On every tick, all newly enqueued entries are
+     * transferred to the wheel, and all entries that are due are dispatched. If no
+     * entries are scheduled, the thread is parked until a new entry is enqueued.
+     */
+    private void runTimer() {
+        long tick = 0;
+        int scheduled = 0;
+        while (!closed) {
+            if (scheduled == 0 && pending.isEmpty()) {
+                LockSupport.park(this);
+                Thread.interrupted();
+                tick = Math.max(tick, (System.nanoTime() - startNanos) / tickNanos);
+                continue;
+            }
+
+            long sleepNanos = startNanos + (tick + 1) * tickNanos - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException ex) {
+                    continue;
+                }
+            }
+
+            tick++;
+
+            PollEntry<?> entry;
+            while ((entry = pending.poll()) != null) {
+                long dueTick = (entry.dueNanos - startNanos + tickNanos - 1) / tickNanos;
+                entry.dueTick = Math.max(dueTick, tick);
+                wheel.get((int) (entry.dueTick % WHEEL_SIZE)).add(entry);
+                scheduled++;
+            }
+
+            Iterator<PollEntry<?>> it = wheel.get((int) (tick % WHEEL_SIZE)).iterator();
+            while (it.hasNext()) {
+                PollEntry<?> due = it.next();
+                if (due.dueTick <= tick) {
+                    it.remove();
+                    scheduled--;
+                    dispatch(due);
+                }
+            }
+        }
+
+        for (List<PollEntry<?>> slot : wheel) {
+            slot.forEach(e -> e.future.cancel(false));
+            slot.clear();
+        }
+        cancelPending();
+    }
+
+    /**
+     * Dispatches a due {@link PollEntry} to the executor.
+     */
+    private void dispatch(PollEntry<?> entry) {
+        if (entry.future.isDone()) {
+            return;
+        }
+
+        try {
+            executor.execute(entry::run);
+        } catch (RejectedExecutionException ex) {
+            LOG.debug("poll was rejected by executor", ex);
+            entry.future.completeExceptionally(new AcmeException("Poll was rejected", ex));
+        }
+    }
+
+    /**
+     * Cancels all pending entries that were not transferred to the wheel yet.
+     */
+    private void cancelPending() {
+        PollEntry<?> entry;
+        while ((entry = pending.poll()) != null) {
+            entry.future.cancel(false);
+        }
+    }
+
+    private static Duration requirePositive(Duration duration, String name) {
+        Objects.requireNonNull(duration, name);
+        if (duration.isNegative() || duration.isZero()) {
+            throw new IllegalArgumentException(name + " must be positive");
+        }
+        return duration;
+    }
+
+    private static boolean isCompleted(Status status) {
+        return status != Status.PENDING && status != Status.PROCESSING
+                        && status != Status.UNKNOWN;
+    }
+
+    /**
+     * Evaluates the status of a polled resource.
+     *
+     * @return The resource if it is valid, or {@code null} if it is not completed yet
+     * @throws AcmeException
+     *             if the resource has failed
+     */
+    private static <T> T evaluate(Status status, T resource, Problem error) throws AcmeException {
+        if (status == Status.VALID) {
+            return resource;
+        }
+        if (isCompleted(status)) {
+            throw new AcmeException("Resource has status " + status
+                    + (error != null ? ": " + error.getDetail() : ""));
+        }
+        return null;
+    }
+
+    /**
+     * A single poll of a resource.
+     */
+    @FunctionalInterface
+    public interface Poll<T> {
+
+        /**
+         * Polls the resource.
+         *
+         * @return Result if the resource is completed, or {@code null} if it needs to
+         *         be polled again
+         * @throws AcmeRetryAfterException
+         *             if the resource needs to be polled again at the given instant
+         * @throws AcmeException
+         *             if the poll failed. The poll is not repeated then.
+         */
+        T poll() throws AcmeException;
+    }
+
+    /**
+     * A pending poll.
+     */
+    private final class PollEntry<T> {
+        private final Poll<T> poll;
+        private final Instant deadline;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private int attempt = 0;
+        private long dueNanos;
+        private long dueTick;
+
+        private PollEntry(Poll<T> poll, Instant deadline) {
+            this.poll = poll;
+            this.deadline = deadline;
+        }
+
+        private void run() {
+            if (future.isDone()) {
+                return;
+            }
+
+            Instant next;
+            try {
+                T result = poll.poll();
+                if (result != null) {
+                    future.complete(result);
+                    return;
+                }
+                next = Instant.now().plus(delay(++attempt));
+            } catch (AcmeRetryAfterException ex) {
+                LOG.debug("server asked to retry after {}", ex.getRetryAfter());
+                next = ex.getRetryAfter();
+            } catch (AcmeException | RuntimeException ex) {
+                future.completeExceptionally(ex);
+                return;
+            }
+
+            enqueue(this, next);
+        }
+    }
+
+}
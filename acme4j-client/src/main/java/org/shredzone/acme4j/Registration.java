@@ -26,11 +26,12 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
-import org.jose4j.jwk.PublicJsonWebKey;
 import org.jose4j.jws.JsonWebSignature;
 import org.jose4j.lang.JoseException;
 import org.shredzone.acme4j.connector.Connection;
+import org.shredzone.acme4j.connector.RateLimiter;
 import org.shredzone.acme4j.connector.Resource;
 import org.shredzone.acme4j.connector.ResourceIterator;
 import org.shredzone.acme4j.exception.AcmeException;
@@ -38,6 +39,7 @@ import org.shredzone.acme4j.exception.AcmeProtocolException;
 import org.shredzone.acme4j.exception.AcmeRetryAfterException;
 import org.shredzone.acme4j.toolbox.JSON;
 import org.shredzone.acme4j.toolbox.JSONBuilder;
+import org.shredzone.acme4j.toolbox.KeyPairJwk;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -60,6 +62,7 @@ public class Registration extends AcmeResource {
     private URI certificates;
     private Status status;
     private boolean loaded = false;
+    private transient volatile AuthorizationCache authorizationCache;
 
     protected Registration(Session session, URI location) {
         super(session);
@@ -85,6 +88,29 @@ public class Registration extends AcmeResource {
         return new Registration(session, location);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The location is also used as key identifier of the bound {@link Session}.
+     */
+    @Override
+    public void rebind(Session session) {
+        super.rebind(session);
+        if (getLocation() != null) {
+            session.setKeyIdentifier(getLocation());
+        }
+    }
+
+    /**
+     * Sets the registration's location, and uses it as key identifier of the bound
+     * {@link Session}.
+     */
+    @Override
+    protected void setLocation(URI location) {
+        super.setLocation(location);
+        getSession().setKeyIdentifier(location);
+    }
+
     /**
      * Returns the URI of the agreement document the user is required to accept.
      */
@@ -121,8 +147,23 @@ public class Registration extends AcmeResource {
      *         {@link Iterator#hasNext()} and {@link Iterator#next()} may throw
      *         {@link AcmeProtocolException} if a batch of authorization URIs could not be
      *         fetched from the server.
+     * @see #fetchAuthorizations()
      */
     public Iterator<Authorization> getAuthorizations() throws AcmeException {
+        return fetchAuthorizations();
+    }
+
+    /**
+     * Returns a {@link ResourceIterator} of all {@link Authorization} belonging to this
+     * {@link Registration}. Use {@link ResourceIterator#prefetch()} and
+     * {@link ResourceIterator#hydrate(ResourceIterator.Hydrator, int)} (e.g. with
+     * {@code Authorization::update}) to speed up walking through large lists, or
+     * {@link ResourceIterator#stream()} to process them as a stream.
+     *
+     * @return {@link ResourceIterator} instance that returns {@link Authorization}
+     *         objects
+     */
+    public ResourceIterator<Authorization> fetchAuthorizations() throws AcmeException {
         LOG.debug("getAuthorizations");
         load();
         return new ResourceIterator<>(getSession(), KEY_AUTHORIZATIONS, authorizations, Authorization::bind);
@@ -138,13 +179,104 @@ public class Registration extends AcmeResource {
      *         {@link Iterator#hasNext()} and {@link Iterator#next()} may throw
      *         {@link AcmeProtocolException} if a batch of certificate URIs could not be
      *         fetched from the server.
+     * @see #fetchCertificates()
      */
     public Iterator<Certificate> getCertificates() throws AcmeException {
+        return fetchCertificates();
+    }
+
+    /**
+     * Returns a {@link ResourceIterator} of all {@link Certificate} belonging to this
+     * {@link Registration}. Use {@link ResourceIterator#prefetch()} and
+     * {@link ResourceIterator#hydrate(ResourceIterator.Hydrator, int)} (e.g. with
+     * {@code Certificate::download}) to speed up walking through large lists, or
+     * {@link ResourceIterator#stream()} to process them as a stream.
+     *
+     * @return {@link ResourceIterator} instance that returns {@link Certificate} objects
+     */
+    public ResourceIterator<Certificate> fetchCertificates() throws AcmeException {
         LOG.debug("getCertificates");
         load();
         return new ResourceIterator<>(getSession(), KEY_CERTIFICATES, certificates, Certificate::bind);
     }
 
+    /**
+     * Binds an existing {@link Authorization} of this registration, e.g. one whose
+     * location was restored from a {@link org.shredzone.acme4j.store.StateStore}. The
+     * authorization is bound to the registration's {@link Session}, and is lazily loaded.
+     *
+     * @param location
+     *            Location of the {@link Authorization}
+     * @return {@link Authorization} bound to the registration's session
+     */
+    public Authorization bindAuthorization(URI location) {
+        return Authorization.bind(getSession(), Objects.requireNonNull(location, "location"));
+    }
+
+    /**
+     * Binds an existing {@link Certificate} of this registration, e.g. one whose
+     * location was restored from a {@link org.shredzone.acme4j.store.StateStore}. The
+     * certificate is bound to the registration's {@link Session}.
+     *
+     * @param location
+     *            Location of the {@link Certificate}
+     * @return {@link Certificate} bound to the registration's session
+     */
+    public Certificate bindCertificate(URI location) {
+        return Certificate.bind(getSession(), Objects.requireNonNull(location, "location"));
+    }
+
+    /**
+     * Gets the {@link AuthorizationCache} of this registration, or {@code null} if
+     * authorizations are not cached.
+     */
+    public AuthorizationCache getAuthorizationCache() {
+        return authorizationCache;
+    }
+
+    /**
+     * Sets the {@link AuthorizationCache} of this registration. Authorizations returned
+     * by {@link #authorizeDomain(String)} are put into the cache, and valid cached
+     * authorizations are reused. Default is {@code null}, so every invocation requests a
+     * new authorization.
+     * <p>
+     * The cache is not serialized with the registration.
+     *
+     * @param authorizationCache
+     *            {@link AuthorizationCache} to be used, or {@code null}
+     */
+    public void setAuthorizationCache(AuthorizationCache authorizationCache) {
+        this.authorizationCache = authorizationCache;
+    }
+
+    /**
+     * Warms up the {@link AuthorizationCache} with all valid authorizations of
+     * {@link #fetchAuthorizations()}. The authorizations are fetched concurrently, using
+     * the {@link Session}'s executor.
+     *
+     * @param parallelism
+     *            Maximum number of authorizations to be fetched concurrently
+     * @return Number of valid authorizations that were put into the cache
+     * @throws IllegalStateException
+     *             if no {@link AuthorizationCache} is set
+     */
+    public int warmUpAuthorizationCache(int parallelism) throws AcmeException {
+        AuthorizationCache cache = authorizationCache;
+        if (cache == null) {
+            throw new IllegalStateException("No authorization cache is set");
+        }
+
+        LOG.debug("warmUpAuthorizationCache");
+        return cache.putAll(fetchAuthorizations().hydrate(auth -> {
+            try {
+                auth.update();
+            } catch (AcmeRetryAfterException ex) {
+                // ignore... The object was still updated.
+                LOG.debug("Retry-After", ex);
+            }
+        }, parallelism));
+    }
+
     /**
      * Updates the registration to the current account status.
      */
@@ -166,6 +298,9 @@ public class Registration extends AcmeResource {
      * Authorizes a domain. The domain is associated with this registration.
      * <p>
      * IDN domain names will be ACE encoded automatically.
+     * <p>
+     * If an {@link AuthorizationCache} is set and contains a valid authorization of the
+     * domain, it is returned without connecting to the server.
      *
      * @param domain
      *            Domain name to be authorized
@@ -177,6 +312,15 @@ public class Registration extends AcmeResource {
             throw new IllegalArgumentException("domain must not be empty");
         }
 
+        AuthorizationCache cache = authorizationCache;
+        if (cache != null) {
+            Authorization cached = cache.get(domain);
+            if (cached != null) {
+                LOG.debug("authorizeDomain {}: using cached {}", domain, cached.getLocation());
+                return cached;
+            }
+        }
+
         LOG.debug("authorizeDomain {}", domain);
         try (Connection conn = getSession().provider().connect()) {
             JSONBuilder claims = new JSONBuilder();
@@ -192,10 +336,27 @@ public class Registration extends AcmeResource {
 
             Authorization auth = new Authorization(getSession(), conn.getLocation());
             auth.unmarshalAuthorization(json);
+            if (cache != null) {
+                cache.put(auth);
+            }
             return auth;
         }
     }
 
+    /**
+     * Authorizes a domain asynchronously, using the {@link Session}'s executor.
+     * <p>
+     * The request blocks an executor thread, see {@link Session#setExecutor}.
+     *
+     * @param domain
+     *            Domain name to be authorized
+     * @return {@link CompletableFuture} of the {@link Authorization} for this domain
+     * @see #authorizeDomain(String)
+     */
+    public CompletableFuture<Authorization> authorizeDomainAsync(String domain) {
+        return invokeAsync(() -> authorizeDomain(domain));
+    }
+
     /**
      * Requests a certificate for the given CSR.
      * <p>
@@ -243,6 +404,11 @@ public class Registration extends AcmeResource {
             conn.sendSignedRequest(getSession().resourceUri(Resource.NEW_CERT), claims, getSession());
             int rc = conn.accept(HttpURLConnection.HTTP_CREATED, HttpURLConnection.HTTP_ACCEPTED);
 
+            RateLimiter rateLimiter = getSession().provider().getRateLimiter(getSession().getServerUri());
+            if (rateLimiter != null) {
+                rateLimiter.addIssued(csr);
+            }
+
             X509Certificate cert = null;
             if (rc == HttpURLConnection.HTTP_CREATED) {
                 try {
@@ -258,6 +424,43 @@ public class Registration extends AcmeResource {
         }
     }
 
+    /**
+     * Requests a certificate for the given CSR asynchronously, using the
+     * {@link Session}'s executor.
+     * <p>
+     * The request blocks an executor thread, see {@link Session#setExecutor}.
+     *
+     * @param csr
+     *            PKCS#10 Certificate Signing Request to be sent to the server
+     * @return {@link CompletableFuture} of the {@link Certificate}
+     * @see #requestCertificate(byte[])
+     */
+    public CompletableFuture<Certificate> requestCertificateAsync(byte[] csr) {
+        return requestCertificateAsync(csr, null, null);
+    }
+
+    /**
+     * Requests a certificate for the given CSR asynchronously, using the
+     * {@link Session}'s executor.
+     * <p>
+     * The request blocks an executor thread, see {@link Session#setExecutor}.
+     *
+     * @param csr
+     *            PKCS#10 Certificate Signing Request to be sent to the server
+     * @param notBefore
+     *            requested value of the notBefore field in the certificate, {@code null}
+     *            for default. May be ignored by the server.
+     * @param notAfter
+     *            requested value of the notAfter field in the certificate, {@code null}
+     *            for default. May be ignored by the server.
+     * @return {@link CompletableFuture} of the {@link Certificate}
+     * @see #requestCertificate(byte[], Instant, Instant)
+     */
+    public CompletableFuture<Certificate> requestCertificateAsync(byte[] csr, Instant notBefore,
+                Instant notAfter) {
+        return invokeAsync(() -> requestCertificate(csr, notBefore, notAfter));
+    }
+
     /**
      * Changes the {@link KeyPair} associated with the registration.
      * <p>
@@ -278,7 +481,7 @@ public class Registration extends AcmeResource {
 
         try (Connection conn = getSession().provider().connect()) {
             URI keyChangeUri = getSession().resourceUri(Resource.KEY_CHANGE);
-            PublicJsonWebKey newKeyJwk = PublicJsonWebKey.Factory.newPublicJwk(newKeyPair.getPublic());
+            KeyPairJwk newKeyJwk = KeyPairJwk.of(newKeyPair);
 
             JSONBuilder payloadClaim = new JSONBuilder();
             payloadClaim.put("account", getLocation());
@@ -287,8 +490,8 @@ public class Registration extends AcmeResource {
             JsonWebSignature innerJws = new JsonWebSignature();
             innerJws.setPayload(payloadClaim.toString());
             innerJws.getHeaders().setObjectHeaderValue("url", keyChangeUri);
-            innerJws.getHeaders().setJwkHeaderValue("jwk", newKeyJwk);
-            innerJws.setAlgorithmHeaderValue(keyAlgorithm(newKeyJwk));
+            innerJws.getHeaders().setObjectHeaderValue("jwk", newKeyJwk.getParams());
+            innerJws.setAlgorithmHeaderValue(newKeyJwk.getAlgorithm());
             innerJws.setKey(newKeyPair.getPrivate());
             innerJws.sign();
 
@@ -298,10 +501,11 @@ public class Registration extends AcmeResource {
             outerClaim.put("signature", innerJws.getEncodedSignature());
             outerClaim.put("payload", innerJws.getEncodedPayload());
 
-            conn.sendSignedRequest(keyChangeUri, outerClaim, getSession());
+            conn.sendSignedRequest(keyChangeUri, outerClaim, getSession(), true);
             conn.accept(HttpURLConnection.HTTP_OK);
 
             getSession().setKeyPair(newKeyPair);
+            getSession().setKeyIdentifier(getLocation());
         } catch (JoseException ex) {
             throw new AcmeProtocolException("Cannot sign key-change", ex);
         }
@@ -83,7 +83,7 @@ public class RegistrationBuilder {
                 claims.put("contact", contacts);
             }
 
-            conn.sendSignedRequest(session.resourceUri(Resource.NEW_REG), claims, session);
+            conn.sendSignedRequest(session.resourceUri(Resource.NEW_REG), claims, session, true);
             conn.accept(HttpURLConnection.HTTP_CREATED);
 
             URI location = conn.getLocation();
@@ -21,16 +21,32 @@ import java.util.EnumMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
-import java.util.ServiceLoader;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.stream.StreamSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.shredzone.acme4j.challenge.Challenge;
 import org.shredzone.acme4j.challenge.TokenChallenge;
+import org.shredzone.acme4j.connector.Connection;
+import org.shredzone.acme4j.connector.IntermediateCertificateCache;
+import org.shredzone.acme4j.connector.JwsSigner;
 import org.shredzone.acme4j.connector.Resource;
 import org.shredzone.acme4j.exception.AcmeException;
 import org.shredzone.acme4j.provider.AcmeProvider;
+import org.shredzone.acme4j.provider.AcmeProviderRegistry;
+import org.shredzone.acme4j.toolbox.AcmeUtils;
 import org.shredzone.acme4j.toolbox.JSON;
+import org.shredzone.acme4j.toolbox.KeyPairJwk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A session stores the ACME server URI and the account's key pair. It also tracks
@@ -40,16 +56,35 @@ import org.shredzone.acme4j.toolbox.JSON;
  * volatile data.
  */
 public class Session {
+    private static final Logger LOG = LoggerFactory.getLogger(Session.class);
+    private static final int NONCE_POOL_SIZE = 64;
+    private static final int IO_THREADS = 16;
+    private static final int IO_QUEUE_SIZE = 256;
+    private static final Executor DEFAULT_EXECUTOR = AcmeUtils.newVirtualThreadExecutor()
+                    .map(Executor.class::cast)
+                    .orElseGet(Session::createIoExecutor);
+
+    private final BlockingDeque<byte[]> noncePool = new LinkedBlockingDeque<>(NONCE_POOL_SIZE);
+    private final AtomicBoolean noncePrefetching = new AtomicBoolean();
+    private final ReentrantLock directoryLock = new ReentrantLock();
     private final AtomicReference<Map<Resource, URI>> resourceMap = new AtomicReference<>();
     private final AtomicReference<Metadata> metadata = new AtomicReference<>();
     private final URI serverUri;
     private final AcmeProvider provider;
 
-    private KeyPair keyPair;
-    private byte[] nonce;
-    private JSON directoryJson;
+    private volatile KeyPair keyPair;
+    private final AtomicReference<KeyPairJwk> keyPairJwk = new AtomicReference<>();
+    private final AtomicReference<JwsSigner> jwsSigner = new AtomicReference<>();
+    private volatile URI keyIdentifier;
+    private volatile boolean keyIdentifierEnabled = false;
+    private volatile int nonceLowWaterMark = 0;
+    private final AtomicInteger nonceDemand = new AtomicInteger();
+    private volatile Executor executor = DEFAULT_EXECUTOR;
+    private volatile IntermediateCertificateCache intermediateCache =
+                    IntermediateCertificateCache.getDefault();
+    private volatile JSON directoryJson;
     private Locale locale = Locale.getDefault();
-    protected Instant directoryCacheExpiry;
+    protected volatile Instant directoryCacheExpiry;
 
     /**
      * Creates a new {@link Session}.
@@ -64,7 +99,8 @@ public class Session {
     }
 
     /**
-     * Creates a new {@link Session}.
+     * Creates a new {@link Session}. The {@link AcmeProvider} is taken from the
+     * {@link AcmeProviderRegistry#getDefault()}.
      *
      * @param serverUri
      *            {@link URI} of the ACME server
@@ -74,21 +110,33 @@ public class Session {
      *             if no ACME provider was found for the server URI.
      */
     public Session(URI serverUri, KeyPair keyPair) {
+        this(serverUri, keyPair, AcmeProviderRegistry.getDefault()
+                        .find(Objects.requireNonNull(serverUri, "serverUri")));
+    }
+
+    /**
+     * Creates a new {@link Session} that uses the given {@link AcmeProvider}. Sessions
+     * that share a provider instance also share its directory cache and its persistent
+     * HTTP connector.
+     *
+     * @param serverUri
+     *            {@link URI} of the ACME server
+     * @param keyPair
+     *            {@link KeyPair} of the ACME account
+     * @param provider
+     *            {@link AcmeProvider} to be used, must accept the server URI
+     * @throws IllegalArgumentException
+     *             if the provider does not accept the server URI.
+     */
+    public Session(URI serverUri, KeyPair keyPair, AcmeProvider provider) {
         this.serverUri = Objects.requireNonNull(serverUri, "serverUri");
         this.keyPair = Objects.requireNonNull(keyPair, "keyPair");
+        this.provider = Objects.requireNonNull(provider, "provider");
 
-        final URI localServerUri = serverUri;
-
-        Iterable<AcmeProvider> providers = ServiceLoader.load(AcmeProvider.class);
-        provider = StreamSupport.stream(providers.spliterator(), false)
-            .filter(p -> p.accepts(localServerUri))
-            .reduce((a, b) -> {
-                    throw new IllegalArgumentException("Both ACME providers "
-                        + a.getClass().getSimpleName() + " and "
-                        + b.getClass().getSimpleName() + " accept "
-                        + localServerUri + ". Please check your classpath.");
-                })
-            .orElseThrow(() -> new IllegalArgumentException("No ACME provider found for " + localServerUri));
+        if (!provider.accepts(serverUri)) {
+            throw new IllegalArgumentException(provider.getClass().getSimpleName()
+                        + " does not accept " + serverUri);
+        }
     }
 
     /**
@@ -106,24 +154,270 @@ public class Session {
     }
 
     /**
-     * Sets a different {@link KeyPair}.
+     * Sets a different {@link KeyPair}. The cached {@link KeyPairJwk} and
+     * {@link JwsSigner}, and the key identifier are invalidated.
      */
     public void setKeyPair(KeyPair keyPair) {
         this.keyPair = keyPair;
+        keyPairJwk.set(null);
+        jwsSigner.set(null);
+        keyIdentifier = null;
+    }
+
+    /**
+     * Gets the key identifier of the account, which is the location of its
+     * {@link Registration}. {@code null} if the registration location is not known yet.
+     */
+    public URI getKeyIdentifier() {
+        return keyIdentifier;
+    }
+
+    /**
+     * Sets the key identifier of the account. It is set automatically when a
+     * {@link Registration} is bound to this session.
+     *
+     * @param keyIdentifier
+     *            Location of the account's {@link Registration}, or {@code null} if
+     *            unknown
+     */
+    public void setKeyIdentifier(URI keyIdentifier) {
+        this.keyIdentifier = keyIdentifier;
+    }
+
+    /**
+     * Checks if signed requests refer to the account by its key identifier.
+     */
+    public boolean isKeyIdentifierEnabled() {
+        return keyIdentifierEnabled;
+    }
+
+    /**
+     * Enables the key identifier mode. If enabled and the key identifier is known,
+     * signed requests carry a {@code kid} header with the registration location instead
+     * of the full public key, which reduces the request size considerably. Creating a
+     * registration and changing the account key are always signed with the public key.
+     * <p>
+     * The default is {@code false}, as not all ACME servers support this mode yet.
+     */
+    public void setKeyIdentifierEnabled(boolean keyIdentifierEnabled) {
+        this.keyIdentifierEnabled = keyIdentifierEnabled;
+    }
+
+    /**
+     * Gets the {@link KeyPairJwk} of the current {@link KeyPair}. It is computed once and
+     * then cached until the {@link KeyPair} is changed.
+     */
+    public KeyPairJwk getKeyPairJwk() {
+        KeyPair current = keyPair;
+        KeyPairJwk cached = keyPairJwk.get();
+        if (cached == null || cached.getKeyPair() != current) {
+            cached = KeyPairJwk.of(current);
+            keyPairJwk.set(cached);
+        }
+        return cached;
+    }
+
+    /**
+     * Gets the {@link JwsSigner} for the current {@link KeyPair}. It is created once and
+     * then cached, until the key pair is changed.
+     */
+    public JwsSigner getJwsSigner() {
+        KeyPairJwk current = getKeyPairJwk();
+        JwsSigner cached = jwsSigner.get();
+        if (cached == null || cached.getKeyPairJwk() != current) {
+            cached = new JwsSigner(current);
+            jwsSigner.set(cached);
+        }
+        return cached;
     }
 
     /**
-     * Gets the last nonce, or {@code null} if the session is new.
+     * Gets the most recent nonce without consuming it, or {@code null} if there is no
+     * nonce in the pool.
      */
     public byte[] getNonce() {
-        return nonce;
+        return noncePool.peekFirst();
     }
 
     /**
-     * Sets the nonce received by the server.
+     * Adds a nonce received by the server to the nonce pool. If the pool is full, the
+     * oldest nonce is discarded. {@code null} clears the pool.
      */
     public void setNonce(byte[] nonce) {
-        this.nonce = nonce;
+        if (nonce == null) {
+            noncePool.clear();
+            return;
+        }
+
+        while (!noncePool.offerFirst(nonce)) {
+            noncePool.pollLast();
+        }
+    }
+
+    /**
+     * Takes a nonce from the nonce pool. Each nonce is handed out exactly once. If the
+     * pool runs below the low-water mark, new nonces are prefetched in the background.
+     *
+     * @return Nonce, or {@code null} if the pool is empty
+     * @see #setNonceLowWaterMark(int)
+     */
+    public byte[] pollNonce() {
+        byte[] nonce = noncePool.pollFirst();
+        prefetchNonces();
+        return nonce;
+    }
+
+    /**
+     * Gets the number of nonces that are currently available in the nonce pool.
+     */
+    public int getNonceCount() {
+        return noncePool.size();
+    }
+
+    /**
+     * Gets the low-water mark of the nonce pool.
+     */
+    public int getNonceLowWaterMark() {
+        return nonceLowWaterMark;
+    }
+
+    /**
+     * Sets the low-water mark of the nonce pool. If fewer nonces are available, new
+     * nonces are prefetched in the background, using the session's {@link Executor}.
+     * <p>
+     * The default is 0, which disables prefetching.
+     *
+     * @param nonceLowWaterMark
+     *            Low-water mark, must not be greater than the nonce pool size of 64
+     */
+    public void setNonceLowWaterMark(int nonceLowWaterMark) {
+        if (nonceLowWaterMark < 0 || nonceLowWaterMark > NONCE_POOL_SIZE) {
+            throw new IllegalArgumentException("nonceLowWaterMark out of range: " + nonceLowWaterMark);
+        }
+        this.nonceLowWaterMark = nonceLowWaterMark;
+    }
+
+    /**
+     * Gets the current nonce demand of all running batches.
+     *
+     * @see #addNonceDemand(int)
+     */
+    public int getNonceDemand() {
+        return nonceDemand.get();
+    }
+
+    /**
+     * Temporarily raises the low-water mark of the nonce pool, e.g. while a batch of
+     * concurrent requests is running. The demands of overlapping batches add up, and
+     * are added to the low-water mark. The result is limited to the nonce pool size.
+     * <p>
+     * Every invocation must be followed by a {@link #releaseNonceDemand(int)} with the
+     * same demand, usually in a {@code finally} block.
+     *
+     * @param demand
+     *            Number of nonces that are additionally kept in the pool
+     */
+    public void addNonceDemand(int demand) {
+        if (demand < 0) {
+            throw new IllegalArgumentException("demand must not be negative");
+        }
+        nonceDemand.addAndGet(demand);
+    }
+
+    /**
+     * Releases a demand that was added by {@link #addNonceDemand(int)}.
+     *
+     * @param demand
+     *            Number of nonces that were additionally kept in the pool
+     */
+    public void releaseNonceDemand(int demand) {
+        if (demand < 0) {
+            throw new IllegalArgumentException("demand must not be negative");
+        }
+        nonceDemand.addAndGet(-demand);
+    }
+
+    /**
+     * Returns the default {@link Executor} for network I/O, which is shared by all
+     * sessions.
+     */
+    static Executor defaultExecutor() {
+        return DEFAULT_EXECUTOR;
+    }
+
+    /**
+     * Creates the default {@link Executor} for JVMs without virtual thread support. It
+     * is a bounded pool of daemon threads, which are stopped when idle. If all threads
+     * are busy and the queue is full, further tasks are run by the submitting thread,
+     * which slows down the producer instead of queueing without limit.
+     */
+    private static Executor createIoExecutor() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(IO_THREADS, IO_THREADS,
+                        60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(IO_QUEUE_SIZE), r -> {
+            Thread thread = new Thread(r, "acme4j-io-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Gets the {@link Executor} that is used for background tasks and asynchronous
+     * operations of this session.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the {@link Executor} that is used for background tasks and asynchronous
+     * operations of this session.
+     * <p>
+     * If the JVM supports virtual threads, the default is a shared executor that runs
+     * every task in a new virtual thread. Otherwise it is a shared pool of up to 16
+     * daemon threads that is dedicated to the network I/O of all sessions. Its queue is
+     * bounded; when it is full, the submitting thread runs the task itself. The
+     * {@link java.util.concurrent.ForkJoinPool#commonPool()} is never used, as blocking
+     * I/O would starve it. Applications that make heavy use of the asynchronous
+     * operations should supply their own executor, sized for their workload.
+     * <p>
+     * The {@link Connection} API is blocking, and a non-blocking implementation is out
+     * of scope as long as Java 8 is supported. Every asynchronous operation occupies a
+     * thread of this executor while it waits for the server, so the asynchronous
+     * operations are only as concurrent as the executor permits.
+     * <p>
+     * Blocking operations of acme4j do not hold any monitors while waiting for network
+     * I/O, so they can be used from virtual threads without pinning the carrier
+     * thread.
+     * <p>
+     * Note that resource objects are not thread-safe. Do not invoke asynchronous
+     * operations on the same resource concurrently.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = Objects.requireNonNull(executor, "executor");
+    }
+
+    /**
+     * Gets the {@link IntermediateCertificateCache} that is used for downloading
+     * certificate chains, or {@code null} if intermediate certificates are not cached.
+     */
+    public IntermediateCertificateCache getIntermediateCertificateCache() {
+        return intermediateCache;
+    }
+
+    /**
+     * Sets the {@link IntermediateCertificateCache} that is used for downloading
+     * certificate chains. The default is the process-wide
+     * {@link IntermediateCertificateCache#getDefault()}.
+     *
+     * @param intermediateCache
+     *            {@link IntermediateCertificateCache} to be used, or {@code null} to
+     *            always download the intermediate certificates
+     */
+    public void setIntermediateCertificateCache(IntermediateCertificateCache intermediateCache) {
+        this.intermediateCache = intermediateCache;
     }
 
     /**
@@ -198,35 +492,93 @@ public class Session {
         return metadata.get();
     }
 
+    /**
+     * Prefetches nonces in the background, if the nonce pool is below the low-water mark
+     * plus the current nonce demand. Only one prefetch is running at a time.
+     */
+    private void prefetchNonces() {
+        int lowWaterMark = Math.min(nonceLowWaterMark + nonceDemand.get(), NONCE_POOL_SIZE);
+        if (lowWaterMark <= 0 || noncePool.size() >= lowWaterMark
+                        || !noncePrefetching.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            executor.execute(() -> {
+                try (Connection conn = provider().connect()) {
+                    URI uri = provider().resolve(getServerUri());
+                    for (int ix = 0; ix < lowWaterMark && noncePool.size() < lowWaterMark; ix++) {
+                        conn.fetchNonce(uri, this);
+                    }
+                } catch (AcmeException | RuntimeException ex) {
+                    LOG.debug("Could not prefetch nonces", ex);
+                } finally {
+                    noncePrefetching.set(false);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            LOG.debug("Nonce prefetch was rejected", ex);
+            noncePrefetching.set(false);
+        }
+    }
+
     /**
      * Reads the provider's directory, then rebuild the resource map. The response is
-     * cached.
+     * cached until {@link AcmeProvider#getDirectoryExpiry(URI)}, or for one hour if the
+     * provider does not know. The resource map and metadata are only rebuilt if the
+     * provider returned a different directory, and are published without locking.
+     * <p>
+     * No monitor is held while the directory is fetched, so this method is also safe to
+     * be invoked from virtual threads. If the cache has expired, only one thread
+     * fetches the directory, while the other threads wait for the result.
      */
     private void readDirectory() throws AcmeException {
-        synchronized (this) {
-            Instant now = Instant.now();
-            if (directoryJson != null && directoryCacheExpiry.isAfter(now)) {
+        if (isDirectoryCached()) {
+            return;
+        }
+
+        directoryLock.lock();
+        try {
+            if (isDirectoryCached()) {
                 return;
             }
-            directoryJson = provider().directory(this, getServerUri());
-            directoryCacheExpiry = now.plus(Duration.ofHours(1));
-        }
 
-        JSON meta = directoryJson.get("meta").asObject();
-        if (meta != null) {
-            metadata.set(new Metadata(meta));
-        } else {
-            metadata.set(new Metadata(JSON.empty()));
-        }
+            Instant now = Instant.now();
+            JSON json = provider().directory(this, getServerUri());
 
-        Map<Resource, URI> map = new EnumMap<>(Resource.class);
-        for (Resource res : Resource.values()) {
-            URI uri = directoryJson.get(res.path()).asURI();
-            if (uri != null) {
-                map.put(res, uri);
+            if (json != directoryJson) {
+                JSON meta = json.get("meta").asObject();
+                if (meta != null) {
+                    metadata.set(new Metadata(meta));
+                } else {
+                    metadata.set(new Metadata(JSON.empty()));
+                }
+
+                Map<Resource, URI> map = new EnumMap<>(Resource.class);
+                for (Resource res : Resource.values()) {
+                    URI uri = json.get(res.path()).asURI();
+                    if (uri != null) {
+                        map.put(res, uri);
+                    }
+                }
+                resourceMap.set(map);
+
+                directoryJson = json;
             }
+
+            Instant expiry = provider().getDirectoryExpiry(getServerUri());
+            directoryCacheExpiry = expiry != null ? expiry : now.plus(Duration.ofHours(1));
+        } finally {
+            directoryLock.unlock();
         }
-        resourceMap.set(map);
+    }
+
+    /**
+     * Checks if there is a cached directory that has not expired yet.
+     */
+    private boolean isDirectoryCached() {
+        Instant expiry = directoryCacheExpiry;
+        return directoryJson != null && expiry != null && expiry.isAfter(Instant.now());
     }
 
 }
@@ -0,0 +1,451 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.net.URI;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import org.shredzone.acme4j.provider.AcmeProvider;
+import org.shredzone.acme4j.provider.AcmeProviderRegistry;
+
+/**
+ * A pool of {@link Session} instances of several ACME accounts at the same server.
+ * <p>
+ * All sessions of the pool share one {@link AcmeProvider} instance, so the provider is
+ * only looked up once, and the sessions share the provider's directory cache and
+ * persistent HTTP connector.
+ * <p>
+ * Work is assigned to the accounts by leases. {@link #acquire()} leases the least-loaded
+ * account, while {@link #acquire(String)} always leases the same account for the same
+ * key (e.g. a domain name), using consistent hashing. Adding or removing an account only
+ * moves a small share of the keys to another account. The number of concurrent leases
+ * of each account can be limited.
+ * <p>
+ * This class is thread-safe. Note that the sessions are shared by all leases of an
+ * account, so resource objects should still not be shared between threads.
+ */
+public class SessionPool {
+    private static final int VIRTUAL_NODES = 64;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final List<Account> accounts = new ArrayList<>();
+    private final NavigableMap<Integer, Account> ring = new TreeMap<>();
+    private final URI serverUri;
+    private final AcmeProvider provider;
+    private volatile Consumer<Session> sessionConfigurer = session -> {};
+    private volatile int defaultMaxConcurrency = Integer.MAX_VALUE;
+
+    /**
+     * Creates a new, empty {@link SessionPool}.
+     *
+     * @param serverUri
+     *            {@link URI} of the ACME server
+     * @throws IllegalArgumentException
+     *             if no ACME provider was found for the server URI.
+     */
+    public SessionPool(URI serverUri) {
+        this(serverUri, AcmeProviderRegistry.getDefault()
+                        .find(Objects.requireNonNull(serverUri, "serverUri")));
+    }
+
+    /**
+     * Creates a new, empty {@link SessionPool} that uses the given {@link AcmeProvider}.
+     *
+     * @param serverUri
+     *            {@link URI} of the ACME server
+     * @param provider
+     *            {@link AcmeProvider} to be used by all sessions
+     */
+    public SessionPool(URI serverUri, AcmeProvider provider) {
+        this.serverUri = Objects.requireNonNull(serverUri, "serverUri");
+        this.provider = Objects.requireNonNull(provider, "provider");
+    }
+
+    /**
+     * Gets the ACME server {@link URI} of this pool.
+     */
+    public URI getServerUri() {
+        return serverUri;
+    }
+
+    /**
+     * Gets the {@link AcmeProvider} that is shared by all sessions of this pool.
+     */
+    public AcmeProvider getProvider() {
+        return provider;
+    }
+
+    /**
+     * Sets a configurer that is invoked for each {@link Session} created by this pool,
+     * e.g. to set the locale or the executor. It only affects accounts that are added
+     * afterwards.
+     */
+    public void setSessionConfigurer(Consumer<Session> sessionConfigurer) {
+        this.sessionConfigurer = Objects.requireNonNull(sessionConfigurer, "sessionConfigurer");
+    }
+
+    /**
+     * Gets the maximum number of concurrent leases of accounts that are added to the
+     * pool.
+     */
+    public int getDefaultMaxConcurrency() {
+        return defaultMaxConcurrency;
+    }
+
+    /**
+     * Sets the maximum number of concurrent leases of accounts that are added to the
+     * pool afterwards. The default is unlimited.
+     */
+    public void setDefaultMaxConcurrency(int defaultMaxConcurrency) {
+        this.defaultMaxConcurrency = requirePositive(defaultMaxConcurrency);
+    }
+
+    /**
+     * Adds an account that is not registered yet.
+     *
+     * @param keyPair
+     *            {@link KeyPair} of the account
+     * @return {@link Account} that was added
+     */
+    public Account addAccount(KeyPair keyPair) {
+        return addAccount(keyPair, null);
+    }
+
+    /**
+     * Adds an account.
+     *
+     * @param keyPair
+     *            {@link KeyPair} of the account
+     * @param location
+     *            Location of the account's {@link Registration}, or {@code null} if
+     *            unknown. It is used as key identifier of the session.
+     * @return {@link Account} that was added
+     */
+    public Account addAccount(KeyPair keyPair, URI location) {
+        Session session = new Session(serverUri, keyPair, provider);
+        session.setKeyIdentifier(location);
+        sessionConfigurer.accept(session);
+
+        Account account = new Account(session, defaultMaxConcurrency);
+
+        lock.lock();
+        try {
+            accounts.add(account);
+            for (int ix = 0; ix < VIRTUAL_NODES; ix++) {
+                ring.put(hash(account.id + '#' + ix), account);
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        return account;
+    }
+
+    /**
+     * Removes an account from the pool. Running leases of the account are not affected.
+     *
+     * @param account
+     *            {@link Account} to be removed
+     * @return {@code true} if the account was removed, {@code false} if it was not part
+     *         of the pool
+     */
+    public boolean removeAccount(Account account) {
+        lock.lock();
+        try {
+            if (!accounts.remove(account)) {
+                return false;
+            }
+            ring.values().removeIf(a -> a == account);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a snapshot of all accounts of this pool.
+     */
+    public List<Account> getAccounts() {
+        lock.lock();
+        try {
+            return Collections.unmodifiableList(new ArrayList<>(accounts));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Leases the least-loaded account. If all accounts are at their concurrency limit,
+     * the caller is blocked until a lease is closed.
+     *
+     * @return {@link Lease}, must be closed when the work is done
+     * @throws IllegalStateException
+     *             if the pool is empty
+     */
+    public Lease acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                Account best = null;
+                for (Account account : requireAccounts()) {
+                    if (account.inFlight < account.maxConcurrency
+                                    && (best == null || account.getLoad() < best.getLoad())) {
+                        best = account;
+                    }
+                }
+                if (best != null) {
+                    return best.lease();
+                }
+                released.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Leases the account that is assigned to the given key. The same key is always
+     * assigned to the same account, as long as the accounts of the pool are not changed.
+     * If the account is at its concurrency limit, the caller is blocked until one of its
+     * leases is closed.
+     *
+     * @param key
+     *            Key of the work, e.g. the domain name
+     * @return {@link Lease}, must be closed when the work is done
+     * @throws IllegalStateException
+     *             if the pool is empty
+     */
+    public Lease acquire(String key) throws InterruptedException {
+        Objects.requireNonNull(key, "key");
+        int hash = hash(key);
+
+        lock.lock();
+        try {
+            while (true) {
+                requireAccounts();
+                Map.Entry<Integer, Account> entry = ring.ceilingEntry(hash);
+                Account account = (entry != null ? entry : ring.firstEntry()).getValue();
+                if (account.inFlight < account.maxConcurrency) {
+                    return account.lease();
+                }
+                released.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the accounts of the pool. Must be invoked while holding the lock.
+     */
+    private List<Account> requireAccounts() {
+        if (accounts.isEmpty()) {
+            throw new IllegalStateException("There are no accounts in the pool");
+        }
+        return accounts;
+    }
+
+    /**
+     * Computes the position of a key on the hash ring.
+     */
+    private static int hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(UTF_8));
+            return (digest[0] & 0xFF) << 24 | (digest[1] & 0xFF) << 16
+                            | (digest[2] & 0xFF) << 8 | (digest[3] & 0xFF);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+
+    private static int requirePositive(int maxConcurrency) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("maxConcurrency must be positive");
+        }
+        return maxConcurrency;
+    }
+
+    /**
+     * An account of the pool.
+     */
+    public final class Account {
+        private final Session session;
+        private final String id;
+        private int maxConcurrency;
+        private int inFlight;
+        private long leases;
+
+        private Account(Session session, int maxConcurrency) {
+            this.session = session;
+            this.id = session.getKeyPairJwk().getThumbprint();
+            this.maxConcurrency = maxConcurrency;
+        }
+
+        /**
+         * Gets the {@link Session} of this account.
+         */
+        public Session getSession() {
+            return session;
+        }
+
+        /**
+         * Gets the JWK thumbprint of the account's public key, which identifies the
+         * account in the pool.
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Gets the maximum number of concurrent leases of this account.
+         */
+        public int getMaxConcurrency() {
+            lock.lock();
+            try {
+                return maxConcurrency;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Sets the maximum number of concurrent leases of this account. Running leases
+         * are not affected if the limit is lowered.
+         */
+        public void setMaxConcurrency(int maxConcurrency) {
+            int max = requirePositive(maxConcurrency);
+            lock.lock();
+            try {
+                this.maxConcurrency = max;
+                released.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Gets the number of currently running leases of this account.
+         */
+        public int getInFlight() {
+            lock.lock();
+            try {
+                return inFlight;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Gets the total number of leases of this account.
+         */
+        public long getLeaseCount() {
+            lock.lock();
+            try {
+                return leases;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Gets the load of this account, which is the ratio of running leases to the
+         * concurrency limit. Must be invoked while holding the lock.
+         */
+        private double getLoad() {
+            return (double) inFlight / maxConcurrency;
+        }
+
+        /**
+         * Creates a new lease. Must be invoked while holding the lock.
+         */
+        private Lease lease() {
+            inFlight++;
+            leases++;
+            return new Lease(this);
+        }
+
+        /**
+         * Releases a lease.
+         */
+        private void release() {
+            lock.lock();
+            try {
+                inFlight--;
+                released.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Account[" + id + "]";
+        }
+    }
+
+    /**
+     * A lease of an {@link Account}. It must be closed when the work is done, so the
+     * account can be leased again.
+     */
+    public static final class Lease implements AutoCloseable {
+        private final Account account;
+        private boolean closed;
+
+        private Lease(Account account) {
+            this.account = account;
+        }
+
+        /**
+         * Gets the leased {@link Account}.
+         */
+        public Account getAccount() {
+            return account;
+        }
+
+        /**
+         * Gets the {@link Session} of the leased account.
+         */
+        public Session getSession() {
+            return account.getSession();
+        }
+
+        /**
+         * Releases the lease. Closing a lease more than once has no effect.
+         */
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                account.release();
+            }
+        }
+    }
+
+}
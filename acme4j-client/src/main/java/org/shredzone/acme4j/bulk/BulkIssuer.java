@@ -0,0 +1,535 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.bulk;
+
+import static java.util.stream.Collectors.toList;
+import static org.shredzone.acme4j.toolbox.AcmeUtils.base64UrlEncode;
+import static org.shredzone.acme4j.toolbox.AcmeUtils.hexEncode;
+import static org.shredzone.acme4j.toolbox.AcmeUtils.sha256hash;
+import static org.shredzone.acme4j.toolbox.AcmeUtils.toAce;
+
+import java.io.IOException;
+import java.net.URI;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.shredzone.acme4j.Authorization;
+import org.shredzone.acme4j.Certificate;
+import org.shredzone.acme4j.PollingScheduler;
+import org.shredzone.acme4j.Registration;
+import org.shredzone.acme4j.Status;
+import org.shredzone.acme4j.challenge.Challenge;
+import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.exception.AcmeRateLimitExceededException;
+import org.shredzone.acme4j.exception.AcmeRetryAfterException;
+import org.shredzone.acme4j.store.Checkpoint;
+import org.shredzone.acme4j.store.StateStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Issues a batch of certificates for a {@link Registration}.
+ * <p>
+ * All domains of all {@link IssuanceRequest} are authorized in parallel. Domains that
+ * are shared between several requests are only authorized once. As soon as all domains
+ * of a request are authorized, the certificate is requested and downloaded, while the
+ * authorization of other domains is still in progress.
+ * <p>
+ * The number of concurrent ACME operations is limited by the number of worker threads.
+ * Challenges and certificates are polled by a {@link PollingScheduler}, so no worker
+ * thread is blocked while waiting for the CA.
+ * If the CA responds with a rate limit error, all operations of this {@link BulkIssuer}
+ * will pause until the given retry-after instant, and then retry the operation. Other
+ * {@link BulkIssuer} instances, e.g. of other accounts, are not affected. Paused operations are rescheduled on the {@link PollingScheduler}, so no worker thread
+ * is blocked while waiting for the rate limit to expire.
+ * <p>
+ * If a {@link StateStore} is set, the locations and states of all authorizations,
+ * triggered challenges and requested certificates are checkpointed. After a restart,
+ * pending and valid authorizations are resumed instead of being created again, and
+ * requested certificates are downloaded instead of being requested again.
+ * <p>
+ * A {@link BulkIssuer} must be closed after use, to shut down its worker threads.
+ */
+public class BulkIssuer implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(BulkIssuer.class);
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    private final Registration registration;
+    private final ChallengeHandler challengeHandler;
+    private final ExecutorService executor;
+    private final PollingScheduler scheduler;
+    private final AtomicReference<Instant> rateLimitedUntil = new AtomicReference<>();
+    private volatile Duration timeout = Duration.ofMinutes(5);
+    private volatile int maxRateLimitRetries = 3;
+    private volatile StateStore stateStore;
+
+    /**
+     * Creates a new {@link BulkIssuer}.
+     *
+     * @param registration
+     *            {@link Registration} to issue the certificates for
+     * @param challengeHandler
+     *            {@link ChallengeHandler} that prepares the challenges
+     * @param maxConcurrency
+     *            Maximum number of concurrent ACME operations
+     */
+    public BulkIssuer(Registration registration, ChallengeHandler challengeHandler,
+                int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be positive");
+        }
+
+        this.registration = Objects.requireNonNull(registration, "registration");
+        this.challengeHandler = Objects.requireNonNull(challengeHandler, "challengeHandler");
+
+        String prefix = "acme4j-bulk-" + POOL_NUMBER.incrementAndGet() + "-";
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(maxConcurrency, r -> {
+            Thread thread = new Thread(r, prefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler = new PollingScheduler(Duration.ofMillis(100), executor);
+        this.scheduler.setTimeout(timeout);
+    }
+
+    /**
+     * Returns the {@link PollingScheduler} that polls the challenges and certificates.
+     * It can be used to adjust the polling delays.
+     */
+    public PollingScheduler getPollingScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Returns the maximum time to wait for a challenge to be validated, or for a
+     * certificate to be available for download.
+     */
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Sets the maximum time to wait for a challenge to be validated, or for a
+     * certificate to be available for download. Rate limits with a retry-after instant
+     * beyond this timeout are not waited for. Default is 5 minutes.
+     *
+     * @param timeout
+     *            Timeout, must be positive
+     */
+    public void setTimeout(Duration timeout) {
+        Objects.requireNonNull(timeout, "timeout");
+        if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("timeout must be positive");
+        }
+        this.timeout = timeout;
+        scheduler.setTimeout(timeout);
+    }
+
+    /**
+     * Returns how often an operation is retried after a rate limit error.
+     */
+    public int getMaxRateLimitRetries() {
+        return maxRateLimitRetries;
+    }
+
+    /**
+     * Sets how often an operation is retried after a rate limit error. Default is 3.
+     *
+     * @param maxRateLimitRetries
+     *            Number of retries, {@code 0} disables retries
+     */
+    public void setMaxRateLimitRetries(int maxRateLimitRetries) {
+        if (maxRateLimitRetries < 0) {
+            throw new IllegalArgumentException("maxRateLimitRetries must not be negative");
+        }
+        this.maxRateLimitRetries = maxRateLimitRetries;
+    }
+
+    /**
+     * Returns the {@link StateStore} that keeps the checkpoints, or {@code null} if
+     * there is none.
+     */
+    public StateStore getStateStore() {
+        return stateStore;
+    }
+
+    /**
+     * Sets a {@link StateStore} that keeps checkpoints of the issuance progress, so the
+     * issuance can be resumed after a restart. The store should only be used for a
+     * single {@link Registration}. Default is {@code null}, so no checkpoints are taken.
+     *
+     * @param stateStore
+     *            {@link StateStore} to be used, or {@code null}
+     */
+    public void setStateStore(StateStore stateStore) {
+        this.stateStore = stateStore;
+    }
+
+    /**
+     * Issues certificates for all the given {@link IssuanceRequest}.
+     *
+     * @param requests
+     *            {@link IssuanceRequest} to be processed
+     * @return {@link CompletableFuture} that is completed when all requests have been
+     *         processed. It returns an {@link IssuanceResult} for each request, in the
+     *         order of the requests. The future is never completed exceptionally, failed
+     *         requests are reported in their {@link IssuanceResult}.
+     */
+    public CompletableFuture<List<IssuanceResult>> issue(Collection<IssuanceRequest> requests) {
+        Objects.requireNonNull(requests, "requests");
+
+        Map<String, CompletableFuture<Authorization>> authorizations = new HashMap<>();
+        List<CompletableFuture<IssuanceResult>> results = new ArrayList<>(requests.size());
+
+        for (IssuanceRequest request : requests) {
+            CompletableFuture<?>[] domainAuths = request.getDomains().stream()
+                    .map(domain -> authorizations.computeIfAbsent(toAce(domain), this::authorizeAsync))
+                    .toArray(CompletableFuture[]::new);
+
+            results.add(CompletableFuture.allOf(domainAuths)
+                    .thenCompose(v -> issueCertificateAsync(request))
+                    .exceptionally(ex -> IssuanceResult.failure(request, unwrap(ex))));
+        }
+
+        LOG.debug("issue {} certificates for {} domains", results.size(), authorizations.size());
+
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[results.size()]))
+                .thenApply(v -> results.stream().map(CompletableFuture::join).collect(toList()));
+    }
+
+    /**
+     * Shuts down the worker threads. Pending polls are cancelled.
+     */
+    @Override
+    public void close() {
+        scheduler.close();
+        executor.shutdown();
+    }
+
+    /**
+     * Authorizes a domain asynchronously. A checkpointed authorization is resumed if
+     * possible.
+     *
+     * @param domain
+     *            Domain to authorize
+     * @return {@link CompletableFuture} that is completed with the valid
+     *         {@link Authorization}
+     */
+    private CompletableFuture<Authorization> authorizeAsync(String domain) {
+        return restoreAuthorization(domain)
+                .thenCompose(restored -> {
+                    if (restored != null) {
+                        return CompletableFuture.completedFuture(restored);
+                    }
+                    return invokeAsync(() -> registration.authorizeDomain(domain))
+                            .thenApply(auth -> {
+                                checkpoint(Checkpoint.Type.AUTHORIZATION, domain, auth.getLocation(),
+                                        auth.getStatus(), auth.getExpires());
+                                return auth;
+                            });
+                })
+                .thenCompose(auth -> {
+                    if (auth.getStatus() == Status.VALID) {
+                        LOG.debug("domain {} is already authorized", domain);
+                        return CompletableFuture.completedFuture(auth);
+                    }
+
+                    return triggerChallenge(auth, domain)
+                            .thenCompose(challenge -> scheduler.poll(challenge)
+                                .handle((c, ex) -> {
+                                    challengeHandler.cleanup(auth, challenge);
+                                    forget(Checkpoint.Type.CHALLENGE, domain);
+                                    if (ex != null) {
+                                        forget(Checkpoint.Type.AUTHORIZATION, domain);
+                                        throw new CompletionException(new AcmeException(
+                                            "Failed to validate domain " + domain, unwrap(ex)));
+                                    }
+                                    checkpoint(Checkpoint.Type.AUTHORIZATION, domain,
+                                            auth.getLocation(), Status.VALID, auth.getExpires());
+                                    return auth;
+                                }));
+                });
+    }
+
+    /**
+     * Restores a checkpointed {@link Authorization} of a domain. It is updated, and
+     * only returned if it is still pending or valid.
+     *
+     * @param domain
+     *            Domain to authorize
+     * @return {@link CompletableFuture} that is completed with the restored
+     *         {@link Authorization}, or with {@code null} if there is none
+     */
+    private CompletableFuture<Authorization> restoreAuthorization(String domain) {
+        StateStore store = stateStore;
+        Checkpoint checkpoint = store != null ? store.get(Checkpoint.Type.AUTHORIZATION, domain) : null;
+        if (checkpoint == null || checkpoint.isExpired(Instant.now())
+                || !(checkpoint.getStatus() == Status.PENDING || checkpoint.getStatus() == Status.VALID)) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        Authorization auth = registration.bindAuthorization(checkpoint.getLocation());
+        return invokeAsync(() -> {
+                    try {
+                        auth.update();
+                    } catch (AcmeRetryAfterException ex) {
+                        LOG.debug("Retry-After", ex);
+                    }
+                    return auth;
+                })
+                .handle((updated, ex) -> {
+                    if (ex != null) {
+                        LOG.info("Could not resume authorization {} of domain {}",
+                                auth.getLocation(), domain, unwrap(ex));
+                        return null;
+                    }
+
+                    if (auth.getStatus() != Status.PENDING && auth.getStatus() != Status.VALID) {
+                        LOG.debug("Authorization {} of domain {} is {}", auth.getLocation(), domain, auth.getStatus());
+                        return null;
+                    }
+
+                    LOG.debug("resumed authorization {} of domain {}", auth.getLocation(), domain);
+                    checkpoint(Checkpoint.Type.AUTHORIZATION, domain, auth.getLocation(),
+                            auth.getStatus(), auth.getExpires());
+                    return auth;
+                });
+    }
+
+    /**
+     * Prepares and triggers the challenge of an {@link Authorization}.
+     *
+     * @param auth
+     *            {@link Authorization} to be validated
+     * @param domain
+     *            Domain that is validated
+     * @return {@link CompletableFuture} that is completed with the triggered
+     *         {@link Challenge}
+     */
+    private CompletableFuture<Challenge> triggerChallenge(Authorization auth, String domain) {
+        return supplyAsync(() -> {
+                    Challenge challenge = challengeHandler.prepare(auth);
+                    if (challenge == null) {
+                        throw new AcmeException("No challenge found for domain " + domain);
+                    }
+                    return challenge;
+                })
+                .thenCompose(challenge -> {
+                    StateStore store = stateStore;
+                    Checkpoint triggered = store != null ? store.get(Checkpoint.Type.CHALLENGE, domain) : null;
+                    if (triggered != null && triggered.getLocation().equals(challenge.getLocation())) {
+                        LOG.debug("challenge {} of domain {} was already triggered", challenge.getLocation(), domain);
+                        return CompletableFuture.completedFuture(challenge);
+                    }
+                    if (challenge.getStatus() == Status.VALID) {
+                        return CompletableFuture.completedFuture(challenge);
+                    }
+
+                    return invokeAsync(() -> {
+                                challenge.trigger();
+                                return challenge;
+                            })
+                            .handle((c, ex) -> {
+                                if (ex != null) {
+                                    challengeHandler.cleanup(auth, challenge);
+                                    throw ex instanceof CompletionException
+                                            ? (CompletionException) ex
+                                            : new CompletionException(ex);
+                                }
+                                checkpoint(Checkpoint.Type.CHALLENGE, domain, challenge.getLocation(),
+                                        challenge.getStatus(), null);
+                                return challenge;
+                            });
+                });
+    }
+
+    /**
+     * Requests and downloads the certificate of an {@link IssuanceRequest}. If the
+     * certificate was already requested, it is only downloaded. The checkpoint is only
+     * removed when the download succeeded. If the download failed, it is kept, so the
+     * next run downloads the certificate instead of requesting it again.
+     *
+     * @param request
+     *            {@link IssuanceRequest} with all domains being authorized
+     * @return {@link CompletableFuture} that is completed with the {@link IssuanceResult}
+     *         of the successful issuance
+     */
+    private CompletableFuture<IssuanceResult> issueCertificateAsync(IssuanceRequest request) {
+        byte[] csr = request.getCsr();
+        String key = hexEncode(sha256hash(base64UrlEncode(csr)));
+
+        StateStore store = stateStore;
+        Checkpoint checkpoint = store != null ? store.get(Checkpoint.Type.CERTIFICATE, key) : null;
+
+        CompletableFuture<Certificate> requested;
+        if (checkpoint != null) {
+            LOG.debug("resumed certificate {} for {}", checkpoint.getLocation(), request.getDomains());
+            requested = CompletableFuture.completedFuture(
+                    registration.bindCertificate(checkpoint.getLocation()));
+        } else {
+            requested = invokeAsync(() -> registration.requestCertificate(csr))
+                    .thenApply(certificate -> {
+                        checkpoint(Checkpoint.Type.CERTIFICATE, key, certificate.getLocation(),
+                                Status.PROCESSING, null);
+                        return certificate;
+                    });
+        }
+
+        return requested.thenCompose(certificate -> scheduler.download(certificate)
+                .thenCompose(cert -> invokeAsync(certificate::downloadChain)
+                    .thenApply(chain -> {
+                        LOG.debug("issued certificate {} for {}",
+                                certificate.getLocation(), request.getDomains());
+                        forget(Checkpoint.Type.CERTIFICATE, key);
+                        return IssuanceResult.success(request, certificate, cert, chain);
+                    })));
+    }
+
+    /**
+     * Stores a {@link Checkpoint} if a {@link StateStore} is set. Failures are logged,
+     * but do not abort the issuance.
+     */
+    private void checkpoint(Checkpoint.Type type, String key, URI location, Status status,
+                Instant expires) {
+        StateStore store = stateStore;
+        if (store != null) {
+            try {
+                store.put(new Checkpoint(type, key, location, status, expires));
+            } catch (IOException ex) {
+                LOG.warn("Could not checkpoint {} {}", type, key, ex);
+            }
+        }
+    }
+
+    /**
+     * Removes a {@link Checkpoint} if a {@link StateStore} is set. Failures are logged,
+     * but do not abort the issuance.
+     */
+    private void forget(Checkpoint.Type type, String key) {
+        StateStore store = stateStore;
+        if (store != null) {
+            try {
+                store.remove(type, key);
+            } catch (IOException ex) {
+                LOG.warn("Could not remove checkpoint {} {}", type, key, ex);
+            }
+        }
+    }
+
+    /**
+     * Runs an ACME operation asynchronously on the worker threads.
+     *
+     * @param operation
+     *            {@link Operation} to run
+     * @return {@link CompletableFuture} that is completed with the result
+     */
+    private <T> CompletableFuture<T> supplyAsync(Operation<T> operation) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return operation.invoke();
+            } catch (AcmeException ex) {
+                throw new CompletionException(ex);
+            }
+        }, executor);
+    }
+
+    /**
+     * Invokes an ACME operation asynchronously on the worker threads. If the account is
+     * currently known to be rate limited, the invocation is rescheduled for the end of
+     * the rate limit. If the operation fails because of a rate limit, it is rescheduled
+     * for the retry-after instant given by the CA. No worker thread is blocked while
+     * waiting.
+     *
+     * @param operation
+     *            {@link Operation} to invoke
+     * @return {@link CompletableFuture} that is completed with the result
+     */
+    private <T> CompletableFuture<T> invokeAsync(Operation<T> operation) {
+        URI server = registration.getLocation().resolve("/");
+        AtomicInteger attempts = new AtomicInteger();
+
+        PollingScheduler.Poll<Optional<T>> poll = () -> {
+            Instant until = rateLimitedUntil.get();
+            if (until != null) {
+                if (until.isAfter(Instant.now())) {
+                    throw new AcmeRetryAfterException("CA is rate limited", until);
+                }
+                rateLimitedUntil.compareAndSet(until, null);
+            }
+
+            try {
+                return Optional.ofNullable(operation.invoke());
+            } catch (AcmeRateLimitExceededException ex) {
+                Instant retryAfter = ex.getRetryAfter();
+                if (retryAfter == null || attempts.getAndIncrement() >= maxRateLimitRetries
+                        || retryAfter.isAfter(Instant.now().plus(timeout))) {
+                    throw ex;
+                }
+
+                LOG.info("Rate limit of {} exceeded, retrying after {}", server, retryAfter);
+                rateLimitedUntil.accumulateAndGet(retryAfter,
+                        (a, b) -> a != null && a.isAfter(b) ? a : b);
+                throw new AcmeRetryAfterException("Rate limit exceeded", retryAfter);
+            }
+        };
+
+        return supplyAsync(() -> {
+                    try {
+                        return CompletableFuture.completedFuture(poll.poll());
+                    } catch (AcmeRetryAfterException ex) {
+                        return scheduler.schedule(poll, ex.getRetryAfter());
+                    }
+                })
+                .thenCompose(future -> future)
+                .thenApply(result -> result.orElse(null));
+    }
+
+    /**
+     * Unwraps the {@link AcmeException} that caused a future to fail.
+     */
+    private static AcmeException unwrap(Throwable ex) {
+        Throwable cause = ex;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof AcmeException) {
+            return (AcmeException) cause;
+        }
+        return new AcmeException("Certificate issuance failed", cause);
+    }
+
+    /**
+     * An ACME operation that is invoked by the {@link BulkIssuer}.
+     */
+    @FunctionalInterface
+    private interface Operation<T> {
+        T invoke() throws AcmeException;
+    }
+
+}
@@ -0,0 +1,338 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.bulk;
+
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.shredzone.acme4j.Certificate;
+import org.shredzone.acme4j.PollingScheduler;
+import org.shredzone.acme4j.RevocationReason;
+import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.connector.Resource;
+import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.exception.AcmeProtocolException;
+import org.shredzone.acme4j.exception.AcmeRateLimitExceededException;
+import org.shredzone.acme4j.exception.AcmeRetryAfterException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Revokes a large number of certificates, e.g. after a key compromise.
+ * <p>
+ * The certificates are taken from a {@link Stream} and revoked by a number of worker
+ * threads in parallel. The stream is consumed lazily, so only as many certificates are
+ * held in memory as revocation requests are in progress. All requests are signed with
+ * the key pair of the {@link Session}. While a batch is running, the session's nonce
+ * demand is raised, so a fresh nonce is ready for every request. Overlapping batches
+ * on the same session add up their demands. If the session's
+ * provider uses persistent connections, the requests also reuse the open connections
+ * to the CA.
+ * <p>
+ * If the CA responds with a rate limit error, all revocations are paused until the given
+ * retry-after instant, and then retried. Paused revocations are rescheduled on a
+ * {@link PollingScheduler}, so no worker thread is blocked while waiting.
+ * <p>
+ * A {@link BulkRevoker} must be closed after use, to shut down its worker threads.
+ */
+public class BulkRevoker implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(BulkRevoker.class);
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    private final Session session;
+    private final int maxConcurrency;
+    private final ExecutorService executor;
+    private final PollingScheduler scheduler;
+    private final AtomicReference<Instant> pausedUntil = new AtomicReference<>();
+    private volatile Duration timeout = Duration.ofMinutes(5);
+    private volatile int maxRateLimitRetries = 3;
+    private volatile Consumer<RevocationResult> resultListener;
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a new {@link BulkRevoker}.
+     *
+     * @param session
+     *            {@link Session} to be used for signing the revocation requests. It is
+     *            either bound to the account key pair, or to the domain key pair that
+     *            was used for signing the CSRs.
+     * @param maxConcurrency
+     *            Maximum number of concurrent revocation requests
+     */
+    public BulkRevoker(Session session, int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be positive");
+        }
+
+        this.session = Objects.requireNonNull(session, "session");
+        this.maxConcurrency = maxConcurrency;
+
+        String prefix = "acme4j-revoke-" + POOL_NUMBER.incrementAndGet() + "-";
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(maxConcurrency, r -> {
+            Thread thread = new Thread(r, prefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler = new PollingScheduler(Duration.ofMillis(100), executor);
+        this.scheduler.setTimeout(timeout);
+    }
+
+    /**
+     * Returns the maximum time to wait for a rate limit to expire.
+     */
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Sets the maximum time to wait for a rate limit to expire. Rate limits with a
+     * retry-after instant beyond this timeout are reported as failure. Default is 5
+     * minutes.
+     *
+     * @param timeout
+     *            Timeout, must be positive
+     */
+    public void setTimeout(Duration timeout) {
+        Objects.requireNonNull(timeout, "timeout");
+        if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("timeout must be positive");
+        }
+        this.timeout = timeout;
+        scheduler.setTimeout(timeout);
+    }
+
+    /**
+     * Returns how often a revocation is retried after a rate limit error.
+     */
+    public int getMaxRateLimitRetries() {
+        return maxRateLimitRetries;
+    }
+
+    /**
+     * Sets how often a revocation is retried after a rate limit error. Default is 3.
+     *
+     * @param maxRateLimitRetries
+     *            Number of retries, {@code 0} disables retries
+     */
+    public void setMaxRateLimitRetries(int maxRateLimitRetries) {
+        if (maxRateLimitRetries < 0) {
+            throw new IllegalArgumentException("maxRateLimitRetries must not be negative");
+        }
+        this.maxRateLimitRetries = maxRateLimitRetries;
+    }
+
+    /**
+     * Sets a listener that is invoked with the {@link RevocationResult} of each
+     * certificate as soon as it is available, e.g. for reporting the progress. The
+     * listener is invoked by the worker threads, so it must be thread-safe.
+     *
+     * @param resultListener
+     *            Listener, or {@code null} to remove the listener
+     */
+    public void setResultListener(Consumer<RevocationResult> resultListener) {
+        this.resultListener = resultListener;
+    }
+
+    /**
+     * Revokes all certificates of the given stream. This method blocks until all
+     * certificates have been processed.
+     *
+     * @param certificates
+     *            {@link Stream} of {@link X509Certificate} to be revoked. It is not
+     *            closed.
+     * @param reason
+     *            {@link RevocationReason} stating the reason of the revocation, or
+     *            {@code null} to give no reason
+     * @return {@link RevocationReport} with the outcome of every certificate. Failed
+     *         revocations do not throw an exception, but are reported there.
+     * @throws AcmeException
+     *             if the CA does not support revocation, or if the batch was interrupted
+     * @throws IllegalStateException
+     *             if this {@link BulkRevoker} was closed
+     */
+    public RevocationReport revoke(Stream<X509Certificate> certificates,
+                RevocationReason reason) throws AcmeException {
+        Objects.requireNonNull(certificates, "certificates");
+        assertNotClosed();
+
+        if (session.resourceUri(Resource.REVOKE_CERT) == null) {
+            throw new AcmeProtocolException("CA does not support certificate revocation");
+        }
+
+        List<RevocationResult> results = Collections.synchronizedList(new ArrayList<>());
+        Semaphore permits = new Semaphore(maxConcurrency);
+        session.addNonceDemand(maxConcurrency);
+
+        long start = System.nanoTime();
+        try {
+            Iterator<X509Certificate> it = certificates.iterator();
+            while (it.hasNext()) {
+                X509Certificate cert = Objects.requireNonNull(it.next(), "certificate");
+                assertNotClosed();
+                permits.acquire();
+
+                CompletableFuture<RevocationResult> future;
+                try {
+                    future = revokeAsync(cert, reason);
+                } catch (RejectedExecutionException ex) {
+                    // closed concurrently
+                    permits.release();
+                    results.add(RevocationResult.failure(cert,
+                            new AcmeException("BulkRevoker is closed", ex)));
+                    throw new IllegalStateException("BulkRevoker is closed", ex);
+                }
+
+                future.exceptionally(ex -> RevocationResult.failure(cert, unwrap(ex)))
+                        .thenAccept(result -> {
+                            results.add(result);
+                            Consumer<RevocationResult> listener = resultListener;
+                            if (listener != null) {
+                                listener.accept(result);
+                            }
+                        })
+                        .whenComplete((v, ex) -> permits.release());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new AcmeException("Interrupted while revoking certificates", ex);
+        } finally {
+            // wait for the remaining revocations, so the nonce demand is not released
+            // while they are still in progress, and no result is lost
+            permits.acquireUninterruptibly(maxConcurrency);
+            permits.release(maxConcurrency);
+            session.releaseNonceDemand(maxConcurrency);
+        }
+
+        RevocationReport report = new RevocationReport(results,
+                Duration.ofNanos(System.nanoTime() - start));
+        LOG.debug("bulk revocation: {}", report);
+        return report;
+    }
+
+    /**
+     * Shuts down the worker threads.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.close();
+        executor.shutdown();
+    }
+
+    /**
+     * Throws an {@link IllegalStateException} if this {@link BulkRevoker} was closed.
+     */
+    private void assertNotClosed() {
+        if (closed) {
+            throw new IllegalStateException("BulkRevoker is closed");
+        }
+    }
+
+    /**
+     * Revokes a single certificate asynchronously on the worker threads. While the CA is
+     * rate limited, or if the revocation fails because of a rate limit, the revocation
+     * is rescheduled for the retry-after instant. No worker thread is blocked while
+     * waiting.
+     *
+     * @param cert
+     *            {@link X509Certificate} to be revoked
+     * @param reason
+     *            {@link RevocationReason}, or {@code null}
+     * @return {@link CompletableFuture} of the {@link RevocationResult}
+     * @throws RejectedExecutionException
+     *             if the worker threads were shut down
+     */
+    private CompletableFuture<RevocationResult> revokeAsync(X509Certificate cert,
+                RevocationReason reason) {
+        AtomicInteger attempts = new AtomicInteger();
+
+        PollingScheduler.Poll<RevocationResult> poll = () -> {
+            Instant until = pausedUntil.get();
+            if (until != null) {
+                if (until.isAfter(Instant.now())) {
+                    throw new AcmeRetryAfterException("CA is rate limited", until);
+                }
+                pausedUntil.compareAndSet(until, null);
+            }
+
+            try {
+                Certificate.revoke(session, cert, reason);
+                LOG.debug("revoked certificate {}", cert.getSerialNumber());
+                return RevocationResult.success(cert);
+            } catch (AcmeRateLimitExceededException ex) {
+                Instant retryAfter = ex.getRetryAfter();
+                if (retryAfter == null || attempts.getAndIncrement() >= maxRateLimitRetries
+                        || retryAfter.isAfter(Instant.now().plus(timeout))) {
+                    return RevocationResult.failure(cert, ex);
+                }
+
+                LOG.info("Rate limit exceeded, retrying after {}", retryAfter);
+                pausedUntil.accumulateAndGet(retryAfter,
+                        (a, b) -> a != null && a.isAfter(b) ? a : b);
+                throw new AcmeRetryAfterException("Rate limit exceeded", retryAfter);
+            } catch (AcmeException ex) {
+                LOG.debug("Could not revoke certificate {}", cert.getSerialNumber(), ex);
+                return RevocationResult.failure(cert, ex);
+            } catch (RuntimeException ex) {
+                LOG.debug("Could not revoke certificate {}", cert.getSerialNumber(), ex);
+                return RevocationResult.failure(cert,
+                        new AcmeException("Certificate revocation failed", ex));
+            }
+        };
+
+        return CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return CompletableFuture.completedFuture(poll.poll());
+                    } catch (AcmeRetryAfterException ex) {
+                        return scheduler.schedule(poll, ex.getRetryAfter());
+                    } catch (AcmeException ex) {
+                        // not thrown by the poll
+                        throw new CompletionException(ex);
+                    }
+                }, executor)
+                .thenCompose(future -> future);
+    }
+
+    /**
+     * Unwraps the {@link AcmeException} that caused a future to fail.
+     */
+    private static AcmeException unwrap(Throwable ex) {
+        Throwable cause = ex;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof AcmeException) {
+            return (AcmeException) cause;
+        }
+        return new AcmeException("Certificate revocation failed", cause);
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.bulk;
+
+import org.shredzone.acme4j.Authorization;
+import org.shredzone.acme4j.challenge.Challenge;
+import org.shredzone.acme4j.exception.AcmeException;
+
+/**
+ * Prepares and cleans up the challenges of a bulk issuance.
+ * <p>
+ * Implementations are invoked concurrently for different domains, and must be
+ * thread-safe.
+ */
+public interface ChallengeHandler {
+
+    /**
+     * Selects a challenge of the {@link Authorization}, and deploys the response (e.g.
+     * the HTTP resource or the DNS record) so it can be validated by the CA.
+     *
+     * @param auth
+     *            {@link Authorization} of the domain to be validated
+     * @return {@link Challenge} to be triggered
+     * @throws AcmeException
+     *             if no suitable challenge was found, or if the challenge could not be
+     *             deployed
+     */
+    Challenge prepare(Authorization auth) throws AcmeException;
+
+    /**
+     * Removes the challenge response after the validation has been completed, either
+     * successfully or not. The default implementation does nothing.
+     *
+     * @param auth
+     *            {@link Authorization} of the domain
+     * @param challenge
+     *            {@link Challenge} that was returned by {@link #prepare(Authorization)}
+     */
+    default void cleanup(Authorization auth, Challenge challenge) {
+        // does nothing by default
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.bulk;
+
+import static org.shredzone.acme4j.toolbox.AcmeUtils.toAce;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A single certificate request of a bulk issuance. It consists of the CSR and the set of
+ * domains that are contained in the CSR and need to be authorized.
+ */
+public class IssuanceRequest {
+
+    private final byte[] csr;
+    private final Set<String> domains;
+
+    /**
+     * Creates a new {@link IssuanceRequest}.
+     *
+     * @param csr
+     *            Binary representation of a CSR containing the domains. The CSR is not
+     *            parsed, so the domains must be passed in separately.
+     * @param domains
+     *            Domains to be authorized for this certificate. Must not be empty.
+     */
+    public IssuanceRequest(byte[] csr, Collection<String> domains) {
+        Objects.requireNonNull(csr, "csr");
+        Objects.requireNonNull(domains, "domains");
+        if (domains.isEmpty()) {
+            throw new IllegalArgumentException("domains must not be empty");
+        }
+
+        Set<String> aceDomains = new LinkedHashSet<>();
+        for (String domain : domains) {
+            aceDomains.add(toAce(domain));
+        }
+
+        this.csr = csr.clone();
+        this.domains = Collections.unmodifiableSet(aceDomains);
+    }
+
+    /**
+     * Returns the binary representation of the CSR.
+     */
+    public byte[] getCsr() {
+        return csr.clone();
+    }
+
+    /**
+     * Returns the domains to be authorized, in ACE form.
+     */
+    public Set<String> getDomains() {
+        return domains;
+    }
+
+    @Override
+    public String toString() {
+        return "IssuanceRequest" + domains;
+    }
+
+}
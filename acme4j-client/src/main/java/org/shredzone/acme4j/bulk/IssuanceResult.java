@@ -0,0 +1,121 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.bulk;
+
+import java.security.cert.X509Certificate;
+import java.util.Objects;
+
+import org.shredzone.acme4j.Certificate;
+import org.shredzone.acme4j.exception.AcmeException;
+
+/**
+ * The outcome of a single {@link IssuanceRequest}. It either contains the issued
+ * certificate and its chain, or the exception that made the issuance fail.
+ */
+public class IssuanceResult {
+
+    private final IssuanceRequest request;
+    private final Certificate certificate;
+    private final X509Certificate x509Certificate;
+    private final X509Certificate[] chain;
+    private final AcmeException error;
+
+    private IssuanceResult(IssuanceRequest request, Certificate certificate,
+                X509Certificate x509Certificate, X509Certificate[] chain, AcmeException error) {
+        this.request = Objects.requireNonNull(request, "request");
+        this.certificate = certificate;
+        this.x509Certificate = x509Certificate;
+        this.chain = chain;
+        this.error = error;
+    }
+
+    /**
+     * Creates a successful {@link IssuanceResult}.
+     *
+     * @param request
+     *            {@link IssuanceRequest} that was processed
+     * @param certificate
+     *            {@link Certificate} resource of the issued certificate
+     * @param x509Certificate
+     *            Downloaded {@link X509Certificate}
+     * @param chain
+     *            Downloaded certificate chain
+     * @return {@link IssuanceResult}
+     */
+    public static IssuanceResult success(IssuanceRequest request, Certificate certificate,
+                X509Certificate x509Certificate, X509Certificate[] chain) {
+        Objects.requireNonNull(certificate, "certificate");
+        Objects.requireNonNull(x509Certificate, "x509Certificate");
+        Objects.requireNonNull(chain, "chain");
+        return new IssuanceResult(request, certificate, x509Certificate, chain, null);
+    }
+
+    /**
+     * Creates a failed {@link IssuanceResult}.
+     *
+     * @param request
+     *            {@link IssuanceRequest} that was processed
+     * @param error
+     *            {@link AcmeException} that made the issuance fail
+     * @return {@link IssuanceResult}
+     */
+    public static IssuanceResult failure(IssuanceRequest request, AcmeException error) {
+        Objects.requireNonNull(error, "error");
+        return new IssuanceResult(request, null, null, null, error);
+    }
+
+    /**
+     * Returns the {@link IssuanceRequest} this result belongs to.
+     */
+    public IssuanceRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * Returns {@code true} if the certificate was successfully issued and downloaded.
+     */
+    public boolean isSuccessful() {
+        return error == null;
+    }
+
+    /**
+     * Returns the {@link Certificate} resource, or {@code null} if the issuance failed.
+     */
+    public Certificate getCertificate() {
+        return certificate;
+    }
+
+    /**
+     * Returns the issued {@link X509Certificate}, or {@code null} if the issuance failed.
+     */
+    public X509Certificate getX509Certificate() {
+        return x509Certificate;
+    }
+
+    /**
+     * Returns the certificate chain, or {@code null} if the issuance failed.
+     */
+    public X509Certificate[] getChain() {
+        return chain != null ? chain.clone() : null;
+    }
+
+    /**
+     * Returns the {@link AcmeException} that made the issuance fail, or {@code null} if
+     * the issuance was successful.
+     */
+    public AcmeException getError() {
+        return error;
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.bulk;
+
+import static java.util.stream.Collectors.toList;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Summary of a batch revocation by a {@link BulkRevoker}. It contains the
+ * {@link RevocationResult} of every certificate, and the time the batch took.
+ */
+public class RevocationReport {
+
+    private final List<RevocationResult> results;
+    private final Duration duration;
+
+    /**
+     * Creates a new {@link RevocationReport}.
+     *
+     * @param results
+     *            {@link RevocationResult} of all certificates
+     * @param duration
+     *            Time it took to process all certificates
+     */
+    public RevocationReport(Collection<RevocationResult> results, Duration duration) {
+        this.results = Collections.unmodifiableList(
+                new ArrayList<>(Objects.requireNonNull(results, "results")));
+        this.duration = Objects.requireNonNull(duration, "duration");
+    }
+
+    /**
+     * Returns the {@link RevocationResult} of all certificates, in the order of their
+     * completion.
+     */
+    public List<RevocationResult> getResults() {
+        return results;
+    }
+
+    /**
+     * Returns the {@link RevocationResult} of all certificates that could not be
+     * revoked.
+     */
+    public List<RevocationResult> getFailures() {
+        return results.stream().filter(r -> !r.isSuccessful()).collect(toList());
+    }
+
+    /**
+     * Returns the number of certificates that were successfully revoked.
+     */
+    public int getRevokedCount() {
+        return (int) results.stream().filter(RevocationResult::isSuccessful).count();
+    }
+
+    /**
+     * Returns the number of certificates that could not be revoked.
+     */
+    public int getFailedCount() {
+        return results.size() - getRevokedCount();
+    }
+
+    /**
+     * Returns the time it took to process all certificates.
+     */
+    public Duration getDuration() {
+        return duration;
+    }
+
+    /**
+     * Returns the number of certificates that were processed per second, regardless of
+     * their outcome.
+     */
+    public double getThroughput() {
+        long nanos = duration.toNanos();
+        if (nanos <= 0) {
+            return 0.0;
+        }
+        return results.size() * 1_000_000_000.0 / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d revoked, %d failed in %d ms (%.1f/s)",
+                getRevokedCount(), getFailedCount(), duration.toMillis(), getThroughput());
+    }
+
+}
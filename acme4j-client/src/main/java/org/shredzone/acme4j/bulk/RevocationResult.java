@@ -0,0 +1,82 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.bulk;
+
+import java.security.cert.X509Certificate;
+import java.util.Objects;
+
+import org.shredzone.acme4j.exception.AcmeException;
+
+/**
+ * The outcome of revoking a single certificate by a {@link BulkRevoker}. It contains the
+ * exception that made the revocation fail, if any.
+ */
+public class RevocationResult {
+
+    private final X509Certificate certificate;
+    private final AcmeException error;
+
+    private RevocationResult(X509Certificate certificate, AcmeException error) {
+        this.certificate = Objects.requireNonNull(certificate, "certificate");
+        this.error = error;
+    }
+
+    /**
+     * Creates a successful {@link RevocationResult}.
+     *
+     * @param certificate
+     *            {@link X509Certificate} that was revoked
+     * @return {@link RevocationResult}
+     */
+    public static RevocationResult success(X509Certificate certificate) {
+        return new RevocationResult(certificate, null);
+    }
+
+    /**
+     * Creates a failed {@link RevocationResult}.
+     *
+     * @param certificate
+     *            {@link X509Certificate} that could not be revoked
+     * @param error
+     *            {@link AcmeException} that made the revocation fail
+     * @return {@link RevocationResult}
+     */
+    public static RevocationResult failure(X509Certificate certificate, AcmeException error) {
+        Objects.requireNonNull(error, "error");
+        return new RevocationResult(certificate, error);
+    }
+
+    /**
+     * Returns the {@link X509Certificate} this result belongs to.
+     */
+    public X509Certificate getCertificate() {
+        return certificate;
+    }
+
+    /**
+     * Returns {@code true} if the certificate was successfully revoked.
+     */
+    public boolean isSuccessful() {
+        return error == null;
+    }
+
+    /**
+     * Returns the {@link AcmeException} that made the revocation fail, or {@code null}
+     * if the revocation was successful.
+     */
+    public AcmeException getError() {
+        return error;
+    }
+
+}
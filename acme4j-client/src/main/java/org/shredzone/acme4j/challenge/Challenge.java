@@ -17,6 +17,7 @@ import java.net.HttpURLConnection;
 import java.net.URI;
 import java.time.Instant;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 import org.shredzone.acme4j.AcmeResource;
 import org.shredzone.acme4j.Problem;
@@ -199,6 +200,23 @@ public class Challenge extends AcmeResource {
         }
     }
 
+    /**
+     * Triggers this {@link Challenge} asynchronously, using the {@link Session}'s
+     * executor.
+     * <p>
+     * The request blocks an executor thread, see {@link Session#setExecutor}.
+     *
+     * @return {@link CompletableFuture} that is completed when the challenge was
+     *         triggered
+     * @see #trigger()
+     */
+    public CompletableFuture<Void> triggerAsync() {
+        return invokeAsync(() -> {
+            trigger();
+            return null;
+        });
+    }
+
     /**
      * Updates the state of this challenge.
      *
@@ -221,4 +239,23 @@ public class Challenge extends AcmeResource {
         }
     }
 
+    /**
+     * Updates the state of this challenge asynchronously, using the {@link Session}'s
+     * executor.
+     * <p>
+     * The request blocks an executor thread, see {@link Session#setExecutor}.
+     *
+     * @return {@link CompletableFuture} that is completed when the challenge was
+     *         updated. It is completed exceptionally with an
+     *         {@link AcmeRetryAfterException} cause if the challenge is still being
+     *         validated.
+     * @see #update()
+     */
+    public CompletableFuture<Void> updateAsync() {
+        return invokeAsync(() -> {
+            update();
+            return null;
+        });
+    }
+
 }
@@ -13,12 +13,18 @@
  */
 package org.shredzone.acme4j.connector;
 
+import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
+import java.time.Instant;
 import java.util.Collection;
 
 import org.shredzone.acme4j.Session;
 import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.exception.AcmeProtocolException;
 import org.shredzone.acme4j.exception.AcmeRetryAfterException;
 import org.shredzone.acme4j.toolbox.JSON;
 import org.shredzone.acme4j.toolbox.JSONBuilder;
@@ -39,7 +45,51 @@ public interface Connection extends AutoCloseable {
     void sendRequest(URI uri, Session session) throws AcmeException;
 
     /**
-     * Sends a signed POST request.
+     * Sends a conditional GET request. If an entity tag is given, the server may respond
+     * with {@code 304 Not Modified} if the resource has not been changed since.
+     * <p>
+     * The default implementation ignores the entity tag, and sends an unconditional
+     * request via {@link #sendRequest(URI, Session)}.
+     *
+     * @param uri
+     *            {@link URI} to send the request to.
+     * @param session
+     *            {@link Session} instance to be used for tracking
+     * @param etag
+     *            Entity tag of the cached resource, or {@code null} to send an
+     *            unconditional request
+     */
+    default void sendConditionalRequest(URI uri, Session session, String etag) throws AcmeException {
+        sendRequest(uri, session);
+    }
+
+    /**
+     * Sends a HEAD request for fetching a fresh nonce. The nonce is added to the
+     * {@link Session}'s nonce pool.
+     * <p>
+     * The default implementation sends a GET request via
+     * {@link #sendRequest(URI, Session)}, and takes the nonce from the response via
+     * {@link #updateSession(Session)}.
+     *
+     * @param uri
+     *            {@link URI} to send the request to.
+     * @param session
+     *            {@link Session} instance to be used for tracking
+     */
+    default void fetchNonce(URI uri, Session session) throws AcmeException {
+        sendRequest(uri, session);
+        updateSession(session);
+    }
+
+    /**
+     * Sends a signed POST request. If the {@link Session} has the key identifier mode
+     * enabled and knows the key identifier, the request refers to the account by a
+     * {@code kid} header. Otherwise the public key is sent in a {@code jwk} header.
+     * <p>
+     * If the provider has a {@link RateLimiter}, the request is checked against it first.
+     * The request may then fail with an
+     * {@link org.shredzone.acme4j.exception.AcmeRateLimitExceededException}, or be
+     * delayed up to {@link RateLimiter#getMaxWait()}.
      *
      * @param uri
      *            {@link URI} to send the request to.
@@ -50,6 +100,27 @@ public interface Connection extends AutoCloseable {
      */
     void sendSignedRequest(URI uri, JSONBuilder claims, Session session) throws AcmeException;
 
+    /**
+     * Sends a signed POST request.
+     * <p>
+     * By default, the {@code enforceJwk} flag is ignored, and
+     * {@link #sendSignedRequest(URI, JSONBuilder, Session)} is invoked.
+     *
+     * @param uri
+     *            {@link URI} to send the request to.
+     * @param claims
+     *            {@link JSONBuilder} containing claims. Must not be {@code null}.
+     * @param session
+     *            {@link Session} instance to be used for signing and tracking
+     * @param enforceJwk
+     *            {@code true} to always sign with the public key in a {@code jwk}
+     *            header, even if the session's key identifier is known
+     */
+    default void sendSignedRequest(URI uri, JSONBuilder claims, Session session,
+                boolean enforceJwk) throws AcmeException {
+        sendSignedRequest(uri, claims, session);
+    }
+
     /**
      * Checks if the HTTP response status is in the given list of acceptable HTTP states,
      * otherwise raises an {@link AcmeException} matching the error.
@@ -74,6 +145,35 @@ public interface Connection extends AutoCloseable {
      */
     X509Certificate readCertificate() throws AcmeException;
 
+    /**
+     * Reads a certificate, and writes its DER encoded binary representation to the
+     * target channel, without parsing it.
+     * <p>
+     * The default implementation reads and re-encodes the certificate. Implementations
+     * should override this method and stream the response body instead.
+     *
+     * @param target
+     *            {@link WritableByteChannel} to write the certificate to. It is not
+     *            closed.
+     * @return Number of bytes that were written
+     * @throws IOException
+     *             if the certificate could not be written to the target channel
+     */
+    default long readCertificate(WritableByteChannel target) throws AcmeException, IOException {
+        byte[] der;
+        try {
+            der = readCertificate().getEncoded();
+        } catch (CertificateEncodingException ex) {
+            throw new AcmeProtocolException("Failed to encode certificate", ex);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(der);
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+        return der.length;
+    }
+
     /**
      * Throws an {@link AcmeRetryAfterException} if the last status was HTTP Accepted and
      * a Retry-After header was received.
@@ -84,7 +184,8 @@ public interface Connection extends AutoCloseable {
     void handleRetryAfter(String message) throws AcmeException;
 
     /**
-     * Updates a {@link Session} by evaluating the HTTP response header.
+     * Updates a {@link Session} by evaluating the HTTP response header. A
+     * {@code Replay-Nonce} is added to the session's nonce pool.
      *
      * @param session
      *            {@link Session} instance to be updated
@@ -123,6 +224,30 @@ public interface Connection extends AutoCloseable {
      */
     Collection<URI> getLinks(String relation);
 
+    /**
+     * Gets the entity tag from the {@code ETag} header.
+     * <p>
+     * The default implementation returns {@code null}, so resources are not
+     * revalidated.
+     *
+     * @return Entity tag, or {@code null} if no ETag header was set
+     */
+    default String getETag() {
+        return null;
+    }
+
+    /**
+     * Gets the instant until which the response may be cached, as given by the
+     * {@code max-age} directive of the {@code Cache-Control} header.
+     *
+     * @return Expiry instant, or {@code null} if the server gave no caching hint. If the
+     *         server disallowed caching, the current instant is returned.
+     *         The default implementation always returns {@code null}.
+     */
+    default Instant getCacheExpiry() {
+        return null;
+    }
+
     /**
      * Closes the {@link Connection}, releasing all resources.
      */
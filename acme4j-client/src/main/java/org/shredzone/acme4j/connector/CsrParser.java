@@ -0,0 +1,203 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A minimal DER reader that extracts the domain names of a PKCS#10 certificate signing
+ * request, without depending on a crypto library.
+ * <p>
+ * The domain names are taken from the common name of the subject, and the DNS names of
+ * a subject alternative name extension request.
+ */
+final class CsrParser {
+    private static final int TAG_SEQUENCE = 0x30;
+    private static final int TAG_SET = 0x31;
+    private static final int TAG_OID = 0x06;
+    private static final int TAG_OCTET_STRING = 0x04;
+    private static final int TAG_ATTRIBUTES = 0xA0;
+    private static final int TAG_DNS_NAME = 0x82;
+
+    private static final byte[] OID_COMMON_NAME = {0x55, 0x04, 0x03};
+    private static final byte[] OID_EXTENSION_REQUEST =
+                {0x2A, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xF7, 0x0D, 0x01, 0x09, 0x0E};
+    private static final byte[] OID_SUBJECT_ALT_NAME = {0x55, 0x1D, 0x11};
+
+    private final byte[] data;
+    private int pos;
+    private int tag;
+    private int length;
+
+    private CsrParser(byte[] data, int pos) {
+        this.data = data;
+        this.pos = pos;
+    }
+
+    /**
+     * Returns the domain names of a CSR.
+     *
+     * @param csr
+     *            DER encoded CSR
+     * @return Set of domain names, in the order of their occurence. Empty if the CSR
+     *         could not be parsed.
+     */
+    static Set<String> getDomains(byte[] csr) {
+        Set<String> result = new LinkedHashSet<>();
+        try {
+            CsrParser request = new CsrParser(csr, 0);
+            request.expect(TAG_SEQUENCE);
+            CsrParser info = request.content();
+            info.expect(TAG_SEQUENCE);
+            info = info.content();
+
+            info.next();                        // version
+            info.skip();
+            info.expect(TAG_SEQUENCE);          // subject
+            readCommonNames(info.content(), result);
+            info.skip();
+            info.expect(TAG_SEQUENCE);          // subjectPKInfo
+            info.skip();
+
+            if (info.hasNext() && info.next() == TAG_ATTRIBUTES) {
+                readAttributes(info.content(), result);
+            }
+        } catch (IndexOutOfBoundsException | IllegalArgumentException ex) {
+            result.clear();
+        }
+        return result;
+    }
+
+    /**
+     * Reads the common names of a subject.
+     */
+    private static void readCommonNames(CsrParser subject, Set<String> result) {
+        while (subject.hasNext()) {
+            subject.expect(TAG_SET);
+            CsrParser rdn = subject.content();
+            subject.skip();
+            while (rdn.hasNext()) {
+                rdn.expect(TAG_SEQUENCE);
+                CsrParser atv = rdn.content();
+                rdn.skip();
+                atv.expect(TAG_OID);
+                boolean cn = atv.contentEquals(OID_COMMON_NAME);
+                atv.skip();
+                atv.next();
+                if (cn) {
+                    result.add(atv.contentString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the subject alternative names of the extension request attribute.
+     */
+    private static void readAttributes(CsrParser attributes, Set<String> result) {
+        while (attributes.hasNext()) {
+            attributes.expect(TAG_SEQUENCE);
+            CsrParser attribute = attributes.content();
+            attributes.skip();
+            attribute.expect(TAG_OID);
+            if (!attribute.contentEquals(OID_EXTENSION_REQUEST)) {
+                continue;
+            }
+            attribute.skip();
+            attribute.expect(TAG_SET);
+            CsrParser values = attribute.content();
+            values.expect(TAG_SEQUENCE);
+            CsrParser extensions = values.content();
+            while (extensions.hasNext()) {
+                extensions.expect(TAG_SEQUENCE);
+                CsrParser extension = extensions.content();
+                extensions.skip();
+                extension.expect(TAG_OID);
+                if (!extension.contentEquals(OID_SUBJECT_ALT_NAME)) {
+                    continue;
+                }
+                extension.skip();
+                if (extension.next() != TAG_OCTET_STRING) {
+                    extension.skip();            // critical flag
+                    extension.expect(TAG_OCTET_STRING);
+                }
+                CsrParser names = extension.content();
+                names.expect(TAG_SEQUENCE);
+                names = names.content();
+                while (names.hasNext()) {
+                    if (names.next() == TAG_DNS_NAME) {
+                        result.add(names.contentString());
+                    }
+                    names.skip();
+                }
+            }
+        }
+    }
+
+    private boolean hasNext() {
+        return pos < data.length;
+    }
+
+    /**
+     * Reads the tag and length of the next element, and positions at its content.
+     *
+     * @return Tag of the element
+     */
+    private int next() {
+        tag = data[pos++] & 0xFF;
+        int len = data[pos++] & 0xFF;
+        if (len > 0x7F) {
+            int bytes = len & 0x7F;
+            if (bytes > 3) {
+                throw new IllegalArgumentException("element too long");
+            }
+            len = 0;
+            for (int ix = 0; ix < bytes; ix++) {
+                len = (len << 8) | (data[pos++] & 0xFF);
+            }
+        }
+        if (pos + len > data.length) {
+            throw new IllegalArgumentException("truncated element");
+        }
+        length = len;
+        return tag;
+    }
+
+    private void expect(int expectedTag) {
+        if (next() != expectedTag) {
+            throw new IllegalArgumentException("unexpected tag " + tag);
+        }
+    }
+
+    private void skip() {
+        pos += length;
+    }
+
+    private CsrParser content() {
+        return new CsrParser(Arrays.copyOfRange(data, pos, pos + length), 0);
+    }
+
+    private boolean contentEquals(byte[] value) {
+        return length == value.length
+                && Arrays.equals(Arrays.copyOfRange(data, pos, pos + length), value);
+    }
+
+    private String contentString() {
+        return new String(data, pos, length, StandardCharsets.UTF_8);
+    }
+
+}
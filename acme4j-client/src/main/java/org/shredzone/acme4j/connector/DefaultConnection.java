@@ -13,8 +13,7 @@
  */
 package org.shredzone.acme4j.connector;
 
-import static org.shredzone.acme4j.toolbox.AcmeUtils.keyAlgorithm;
-
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -23,15 +22,18 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.security.KeyPair;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.OptionalInt;
@@ -39,9 +41,6 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.jose4j.base64url.Base64Url;
-import org.jose4j.jwk.PublicJsonWebKey;
-import org.jose4j.jws.JsonWebSignature;
-import org.jose4j.lang.JoseException;
 import org.shredzone.acme4j.Session;
 import org.shredzone.acme4j.exception.AcmeAgreementRequiredException;
 import org.shredzone.acme4j.exception.AcmeConflictException;
@@ -52,6 +51,8 @@ import org.shredzone.acme4j.exception.AcmeRateLimitExceededException;
 import org.shredzone.acme4j.exception.AcmeRetryAfterException;
 import org.shredzone.acme4j.exception.AcmeServerException;
 import org.shredzone.acme4j.exception.AcmeUnauthorizedException;
+import org.shredzone.acme4j.metrics.Metrics;
+import org.shredzone.acme4j.metrics.MetricsRecorder;
 import org.shredzone.acme4j.toolbox.AcmeUtils;
 import org.shredzone.acme4j.toolbox.JSON;
 import org.shredzone.acme4j.toolbox.JSONBuilder;
@@ -67,8 +68,11 @@ public class DefaultConnection implements Connection {
     private static final String ACCEPT_HEADER = "Accept";
     private static final String ACCEPT_CHARSET_HEADER = "Accept-Charset";
     private static final String ACCEPT_LANGUAGE_HEADER = "Accept-Language";
+    private static final String CACHE_CONTROL_HEADER = "Cache-Control";
     private static final String CONTENT_TYPE_HEADER = "Content-Type";
     private static final String DATE_HEADER = "Date";
+    private static final String ETAG_HEADER = "ETag";
+    private static final String IF_NONE_MATCH_HEADER = "If-None-Match";
     private static final String LINK_HEADER = "Link";
     private static final String LOCATION_HEADER = "Location";
     private static final String REPLAY_NONCE_HEADER = "Replay-Nonce";
@@ -76,9 +80,14 @@ public class DefaultConnection implements Connection {
     private static final String DEFAULT_CHARSET = "utf-8";
 
     private static final Pattern BASE64URL_PATTERN = Pattern.compile("[0-9A-Za-z_-]+");
+    private static final Pattern MAX_AGE_PATTERN = Pattern.compile("max-age\\s*=\\s*\"?(\\d+)\"?");
+
+    private static final int MAX_BAD_NONCE_RETRIES = 3;
 
     protected final HttpConnector httpConnector;
     protected HttpURLConnection conn;
+    private int status;
+    private JSON problem;
 
     /**
      * Creates a new {@link DefaultConnection}.
@@ -92,53 +101,161 @@ public class DefaultConnection implements Connection {
 
     @Override
     public void sendRequest(URI uri, Session session) throws AcmeException {
+        sendConditionalRequest(uri, session, null);
+    }
+
+    @Override
+    public void sendConditionalRequest(URI uri, Session session, String etag) throws AcmeException {
         Objects.requireNonNull(uri, "uri");
         Objects.requireNonNull(session, "session");
         assertConnectionIsClosed();
 
         LOG.debug("GET {}", uri);
 
+        long start = System.nanoTime();
         try {
             conn = httpConnector.openConnection(uri);
             conn.setRequestMethod("GET");
             conn.setRequestProperty(ACCEPT_CHARSET_HEADER, DEFAULT_CHARSET);
             conn.setRequestProperty(ACCEPT_LANGUAGE_HEADER, session.getLocale().toLanguageTag());
+            if (etag != null) {
+                conn.setRequestProperty(IF_NONE_MATCH_HEADER, etag);
+            }
             conn.setDoOutput(false);
 
             conn.connect();
 
+            recordRequest("get", start);
+
             logHeaders();
+
+            updateSession(session);
         } catch (IOException ex) {
+            recordFailure("get", start);
             throw new AcmeNetworkException(ex);
         }
     }
 
+    @Override
+    public void fetchNonce(URI uri, Session session) throws AcmeException {
+        byte[] nonce = requestNonce(uri, session);
+        if (nonce != null) {
+            session.setNonce(nonce);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If the server rejects the request because of a bad nonce, the request is signed
+     * again with the fresh nonce of the error response, and resent. This is repeated up
+     * to three times.
+     */
     @Override
     public void sendSignedRequest(URI uri, JSONBuilder claims, Session session) throws AcmeException {
+        sendSignedRequest(uri, claims, session, false);
+    }
+
+    @Override
+    public void sendSignedRequest(URI uri, JSONBuilder claims, Session session,
+                boolean enforceJwk) throws AcmeException {
         Objects.requireNonNull(uri, "uri");
         Objects.requireNonNull(claims, "claims");
         Objects.requireNonNull(session, "session");
         assertConnectionIsClosed();
 
+        JwsSigner signer = session.getJwsSigner();
+        URI kid = !enforceJwk && session.isKeyIdentifierEnabled() ? session.getKeyIdentifier() : null;
+
+        RateLimiter rateLimiter = session.provider().getRateLimiter(session.getServerUri());
+        if (rateLimiter != null) {
+            rateLimiter.acquire(claims.toMap(), signer.getKeyPairJwk().getThumbprint());
+        }
+
+        for (int retry = 0; ; retry++) {
+            performSignedRequest(uri, claims, session, signer, kid);
+
+            if (retry >= MAX_BAD_NONCE_RETRIES || !isBadNonceResponse()) {
+                return;
+            }
+
+            LOG.debug("Bad nonce, retrying request ({}/{})", retry + 1, MAX_BAD_NONCE_RETRIES);
+            Metrics.recorder().badNonceRetry();
+            conn = null;
+            problem = null;
+        }
+    }
+
+    /**
+     * Sends a HEAD request for fetching a fresh nonce.
+     *
+     * @param uri
+     *            {@link URI} to send the request to
+     * @param session
+     *            {@link Session} instance to be used for tracking
+     * @return Fresh nonce, or {@code null} if the server did not provide one
+     */
+    private byte[] requestNonce(URI uri, Session session) throws AcmeException {
+        Objects.requireNonNull(uri, "uri");
+        Objects.requireNonNull(session, "session");
+        assertConnectionIsClosed();
+
+        LOG.debug("Getting a nonce, HEAD {}", uri);
+
+        long start = System.nanoTime();
         try {
-            KeyPair keypair = session.getKeyPair();
-
-            if (session.getNonce() == null) {
-                LOG.debug("Getting initial nonce, HEAD {}", uri);
-                conn = httpConnector.openConnection(uri);
-                conn.setRequestMethod("HEAD");
-                conn.setRequestProperty(ACCEPT_LANGUAGE_HEADER, session.getLocale().toLanguageTag());
-                conn.connect();
-                updateSession(session);
-                conn = null;
+            conn = httpConnector.openConnection(uri);
+            conn.setRequestMethod("HEAD");
+            conn.setRequestProperty(ACCEPT_LANGUAGE_HEADER, session.getLocale().toLanguageTag());
+            conn.connect();
+            recordRequest("nonce", start);
+            return readNonce();
+        } catch (IOException ex) {
+            recordFailure("nonce", start);
+            throw new AcmeNetworkException(ex);
+        } finally {
+            conn = null;
+        }
+    }
+
+    /**
+     * Signs and sends a POST request, using a nonce of the session's pool or a freshly
+     * fetched nonce.
+     *
+     * @param uri
+     *            {@link URI} to send the request to
+     * @param claims
+     *            {@link JSONBuilder} containing claims
+     * @param session
+     *            {@link Session} instance to be used for tracking
+     * @param signer
+     *            {@link JwsSigner} to sign the request with
+     * @param kid
+     *            Key identifier to be sent, or {@code null} to send the public key
+     */
+    private void performSignedRequest(URI uri, JSONBuilder claims, Session session,
+                JwsSigner signer, URI kid) throws AcmeException {
+        String endpoint = null;
+        long start = 0L;
+        try {
+            MetricsRecorder metrics = Metrics.recorder();
+            byte[] nonce = session.pollNonce();
+            if (nonce != null) {
+                metrics.nonceHit();
+            } else {
+                metrics.nonceMiss();
+                // use the fresh nonce directly, so no other thread can take it from the pool
+                nonce = requestNonce(uri, session);
             }
 
-            if (session.getNonce() == null) {
+            if (nonce == null) {
                 throw new AcmeProtocolException("Server did not provide a nonce");
             }
 
             LOG.debug("POST {} with claims: {}", uri, claims);
 
+            endpoint = String.valueOf(claims.toMap().get("resource"));
+            start = System.nanoTime();
             conn = httpConnector.openConnection(uri);
             conn.setRequestMethod("POST");
             conn.setRequestProperty(ACCEPT_HEADER, "application/json");
@@ -147,22 +264,7 @@ public class DefaultConnection implements Connection {
             conn.setRequestProperty(CONTENT_TYPE_HEADER, "application/jose+json");
             conn.setDoOutput(true);
 
-            final PublicJsonWebKey jwk = PublicJsonWebKey.Factory.newPublicJwk(keypair.getPublic());
-
-            JsonWebSignature jws = new JsonWebSignature();
-            jws.setPayload(claims.toString());
-            jws.getHeaders().setObjectHeaderValue("nonce", Base64Url.encode(session.getNonce()));
-            jws.getHeaders().setObjectHeaderValue("url", uri);
-            jws.getHeaders().setJwkHeaderValue("jwk", jwk);
-            jws.setAlgorithmHeaderValue(keyAlgorithm(jwk));
-            jws.setKey(keypair.getPrivate());
-            jws.sign();
-
-            JSONBuilder jb = new JSONBuilder();
-            jb.put("protected", jws.getHeaders().getEncodedHeader());
-            jb.put("payload", jws.getEncodedPayload());
-            jb.put("signature", jws.getEncodedSignature());
-            byte[] outputData = jb.toString().getBytes(DEFAULT_CHARSET);
+            byte[] outputData = signer.sign(claims.toString().getBytes(DEFAULT_CHARSET), nonce, uri, kid);
 
             conn.setFixedLengthStreamingMode(outputData.length);
             conn.connect();
@@ -170,17 +272,59 @@ public class DefaultConnection implements Connection {
             try (OutputStream out = conn.getOutputStream()) {
                 out.write(outputData);
             }
+            metrics.bytesSent(outputData.length);
+
+            recordRequest(endpoint, start);
 
             logHeaders();
 
             updateSession(session);
         } catch (IOException ex) {
+            if (start != 0L) {
+                recordFailure(endpoint, start);
+            }
             throw new AcmeNetworkException(ex);
-        } catch (JoseException ex) {
-            throw new AcmeProtocolException("Failed to generate a JSON request", ex);
         }
     }
 
+    /**
+     * Reads the replay nonce of the current response.
+     *
+     * @return Nonce, or {@code null} if the response does not contain a nonce
+     */
+    private byte[] readNonce() {
+        String nonceHeader = conn.getHeaderField(REPLAY_NONCE_HEADER);
+        if (nonceHeader == null || nonceHeader.trim().isEmpty()) {
+            return null;
+        }
+
+        if (!BASE64URL_PATTERN.matcher(nonceHeader).matches()) {
+            throw new AcmeProtocolException("Invalid replay nonce: " + nonceHeader);
+        }
+
+        LOG.debug("Replay Nonce: {}", nonceHeader);
+
+        return Base64Url.decode(nonceHeader);
+    }
+
+    /**
+     * Checks if the server rejected the current request because of a bad nonce. If the
+     * response is a problem document, it is read and kept for
+     * {@link #readJsonResponse()}.
+     *
+     * @return {@code true} if the nonce was rejected
+     */
+    private boolean isBadNonceResponse() throws AcmeException {
+        if (status != HttpURLConnection.HTTP_BAD_REQUEST
+                || !"application/problem+json".equals(conn.getHeaderField(CONTENT_TYPE_HEADER))) {
+            return false;
+        }
+
+        problem = readJsonResponse();
+        return problem != null
+                && "badNonce".equals(AcmeUtils.stripErrorPrefix(problem.get("type").asString()));
+    }
+
     @Override
     public int accept(int... httpStatus) throws AcmeException {
         assertConnectionIsOpen();
@@ -212,6 +356,10 @@ public class DefaultConnection implements Connection {
     public JSON readJsonResponse() throws AcmeException {
         assertConnectionIsOpen();
 
+        if (problem != null) {
+            return problem;
+        }
+
         String contentType = conn.getHeaderField(CONTENT_TYPE_HEADER);
         if (!("application/json".equals(contentType)
                     || "application/problem+json".equals(contentType))) {
@@ -224,7 +372,7 @@ public class DefaultConnection implements Connection {
             InputStream in =
                     conn.getResponseCode() < 400 ? conn.getInputStream() : conn.getErrorStream();
             if (in != null) {
-                result = JSON.parse(in);
+                result = JSON.parse(new CountingInputStream(in));
                 LOG.debug("Result JSON: {}", result);
             }
         } catch (IOException ex) {
@@ -243,7 +391,7 @@ public class DefaultConnection implements Connection {
             throw new AcmeProtocolException("Unexpected content type: " + contentType);
         }
 
-        try (InputStream in = conn.getInputStream()) {
+        try (InputStream in = new CountingInputStream(conn.getInputStream())) {
             CertificateFactory cf = CertificateFactory.getInstance("X.509");
             return (X509Certificate) cf.generateCertificate(in);
         } catch (IOException ex) {
@@ -253,6 +401,69 @@ public class DefaultConnection implements Connection {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The response body is streamed to the target channel, using a small buffer. Errors
+     * while reading the response are thrown as {@link AcmeNetworkException}, while
+     * errors while writing to the target channel are passed on as {@link IOException}.
+     */
+    @Override
+    public long readCertificate(WritableByteChannel target) throws AcmeException, IOException {
+        assertConnectionIsOpen();
+        Objects.requireNonNull(target, "target");
+
+        String contentType = conn.getHeaderField(CONTENT_TYPE_HEADER);
+        if (!("application/pkix-cert".equals(contentType))) {
+            throw new AcmeProtocolException("Unexpected content type: " + contentType);
+        }
+
+        InputStream in;
+        try {
+            in = new CountingInputStream(conn.getInputStream());
+        } catch (IOException ex) {
+            throw new AcmeNetworkException(ex);
+        }
+
+        long total = 0;
+        try {
+            byte[] buffer = new byte[4096];
+            ByteBuffer bb = ByteBuffer.wrap(buffer);
+            int len;
+            while ((len = readBody(in, buffer)) >= 0) {
+                bb.clear().limit(len);
+                while (bb.hasRemaining()) {
+                    target.write(bb);
+                }
+                total += len;
+            }
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ex) {
+                LOG.debug("Failed to close response body", ex);
+            }
+        }
+
+        if (total == 0) {
+            throw new AcmeProtocolException("Empty certificate response");
+        }
+        return total;
+    }
+
+    /**
+     * Reads the next chunk of the response body.
+     *
+     * @return Number of bytes that were read, or -1 at the end of the body
+     */
+    private int readBody(InputStream in, byte[] buffer) throws AcmeNetworkException {
+        try {
+            return in.read(buffer);
+        } catch (IOException ex) {
+            throw new AcmeNetworkException(ex);
+        }
+    }
+
     @Override
     public void handleRetryAfter(String message) throws AcmeException {
         assertConnectionIsOpen();
@@ -261,6 +472,7 @@ public class DefaultConnection implements Connection {
             if (conn.getResponseCode() == HttpURLConnection.HTTP_ACCEPTED) {
                 Optional<Instant> retryAfter = getRetryAfterHeader();
                 if (retryAfter.isPresent()) {
+                    recordRetryAfter(retryAfter.get());
                     throw new AcmeRetryAfterException(message, retryAfter.get());
                 }
             }
@@ -273,18 +485,10 @@ public class DefaultConnection implements Connection {
     public void updateSession(Session session) {
         assertConnectionIsOpen();
 
-        String nonceHeader = conn.getHeaderField(REPLAY_NONCE_HEADER);
-        if (nonceHeader == null || nonceHeader.trim().isEmpty()) {
-            return;
+        byte[] nonce = readNonce();
+        if (nonce != null) {
+            session.setNonce(nonce);
         }
-
-        if (!BASE64URL_PATTERN.matcher(nonceHeader).matches()) {
-            throw new AcmeProtocolException("Invalid replay nonce: " + nonceHeader);
-        }
-
-        LOG.debug("Replay Nonce: {}", nonceHeader);
-
-        session.setNonce(Base64Url.decode(nonceHeader));
     }
 
     @Override
@@ -336,9 +540,46 @@ public class DefaultConnection implements Connection {
         return !result.isEmpty() ? result : null;
     }
 
+    @Override
+    public String getETag() {
+        assertConnectionIsOpen();
+        return conn.getHeaderField(ETAG_HEADER);
+    }
+
+    @Override
+    public Instant getCacheExpiry() {
+        assertConnectionIsOpen();
+
+        String header = conn.getHeaderField(CACHE_CONTROL_HEADER);
+        if (header == null) {
+            return null;
+        }
+
+        long date = conn.getHeaderFieldDate(DATE_HEADER, System.currentTimeMillis());
+        Instant expiry = null;
+        for (String directive : header.split(",")) {
+            String d = directive.trim().toLowerCase(Locale.ENGLISH);
+            if ("no-cache".equals(d) || "no-store".equals(d)) {
+                return Instant.ofEpochMilli(date);
+            }
+
+            Matcher m = MAX_AGE_PATTERN.matcher(d);
+            if (m.matches()) {
+                try {
+                    expiry = Instant.ofEpochMilli(date).plusSeconds(Long.parseLong(m.group(1)));
+                } catch (NumberFormatException ex) {
+                    throw new AcmeProtocolException("Bad cache-control header value: " + header, ex);
+                }
+            }
+        }
+
+        return expiry;
+    }
+
     @Override
     public void close() {
         conn = null;
+        problem = null;
     }
 
     /**
@@ -396,6 +637,7 @@ public class DefaultConnection implements Connection {
         if ("rateLimited".equals(error)) {
             Optional<Instant> retryAfter = getRetryAfterHeader();
             Collection<URI> rateLimits = getLinks("rate-limit");
+            retryAfter.ifPresent(this::recordRetryAfter);
             return new AcmeRateLimitExceededException(type, detail, retryAfter.orElse(null), rateLimits);
         }
 
@@ -420,6 +662,39 @@ public class DefaultConnection implements Connection {
         }
     }
 
+    /**
+     * Records the latency and status of the current request.
+     *
+     * @param endpoint
+     *            Endpoint name
+     * @param start
+     *            {@link System#nanoTime()} when the request was started
+     */
+    private void recordRequest(String endpoint, long start) throws IOException {
+        status = conn.getResponseCode();
+        Metrics.recorder().request(endpoint, status, System.nanoTime() - start);
+    }
+
+    /**
+     * Records a request that failed without a response.
+     *
+     * @param endpoint
+     *            Endpoint name
+     * @param start
+     *            {@link System#nanoTime()} when the request was started
+     */
+    private void recordFailure(String endpoint, long start) {
+        Metrics.recorder().request(endpoint, -1, System.nanoTime() - start);
+    }
+
+    /**
+     * Records the delay requested by a Retry-After header.
+     */
+    private void recordRetryAfter(Instant retryAfter) {
+        Duration delay = Duration.between(Instant.now(), retryAfter);
+        Metrics.recorder().retryAfter(delay.isNegative() ? Duration.ZERO : delay);
+    }
+
     /**
      * Log all HTTP headers in debug mode.
      */
@@ -457,4 +732,50 @@ public class DefaultConnection implements Connection {
         }
     }
 
+    /**
+     * An {@link InputStream} that reports the number of bytes read when it is closed.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int ch = super.read();
+            if (ch >= 0) {
+                count++;
+            }
+            return ch;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                Metrics.recorder().bytesReceived(count);
+                count = 0L;
+            }
+        }
+    }
+
 }
@@ -0,0 +1,284 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import java.net.URI;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.shredzone.acme4j.exception.AcmeException;
+
+/**
+ * Caches intermediate certificates of certificate chains, keyed by their {@link URI}.
+ * <p>
+ * The intermediate certificates are usually identical for all certificates issued by
+ * the same CA, so after the first download, assembling a chain is just a lookup. Each
+ * cached certificate also remembers the {@code up} link to its own issuer, so longer
+ * chains are cached as well.
+ * <p>
+ * Certificates are cached for the configured TTL. If the cache exceeds its maximum
+ * size, the least recently used certificates are evicted. Concurrent requests for the
+ * same certificate are collapsed into a single fetch.
+ */
+public class IntermediateCertificateCache {
+    private static final IntermediateCertificateCache DEFAULT = new IntermediateCertificateCache();
+
+    private final ConcurrentMap<URI, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<URI, CompletableFuture<ChainLink>> loading = new ConcurrentHashMap<>();
+    private volatile Duration ttl = Duration.ofHours(24);
+    private volatile int maxSize = 100;
+
+    /**
+     * Returns the process-wide {@link IntermediateCertificateCache} that is used by
+     * default.
+     */
+    public static IntermediateCertificateCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the maximum time a certificate is cached.
+     */
+    public Duration getTtl() {
+        return ttl;
+    }
+
+    /**
+     * Sets the maximum time a certificate is cached. Default is 24 hours.
+     *
+     * @param ttl
+     *            Maximum time to live, must not be negative
+     */
+    public void setTtl(Duration ttl) {
+        Objects.requireNonNull(ttl, "ttl");
+        if (ttl.isNegative()) {
+            throw new IllegalArgumentException("ttl must not be negative");
+        }
+        this.ttl = ttl;
+    }
+
+    /**
+     * Returns the maximum number of cached certificates.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum number of cached certificates. Default is 100.
+     *
+     * @param maxSize
+     *            Maximum number of certificates, must not be negative. 0 disables the
+     *            cache.
+     */
+    public void setMaxSize(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must not be negative");
+        }
+        this.maxSize = maxSize;
+        evict();
+    }
+
+    /**
+     * Returns a certificate. If the certificate is not cached or has expired, it is
+     * fetched and the caller is blocked until the certificate is available.
+     *
+     * @param uri
+     *            {@link URI} of the certificate
+     * @param fetcher
+     *            {@link Fetcher} that fetches the certificate from the server
+     * @return {@link ChainLink} containing the certificate and its {@code up} link
+     */
+    public ChainLink get(URI uri, Fetcher fetcher) throws AcmeException {
+        Objects.requireNonNull(uri, "uri");
+        Objects.requireNonNull(fetcher, "fetcher");
+
+        Entry entry = entries.get(uri);
+        if (entry != null) {
+            long now = System.nanoTime();
+            if (now - entry.expiry < 0) {
+                entry.lastAccess = now;
+                return entry.link;
+            }
+            entries.remove(uri, entry);
+        }
+
+        return load(uri, fetcher);
+    }
+
+    /**
+     * Returns the number of cached certificates, including expired ones that have not
+     * been evicted yet.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Removes a certificate from the cache. It will be fetched again on the next access.
+     *
+     * @param uri
+     *            {@link URI} of the certificate
+     */
+    public void invalidate(URI uri) {
+        entries.remove(Objects.requireNonNull(uri, "uri"));
+    }
+
+    /**
+     * Removes all certificates from the cache.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Fetches a certificate and stores it in the cache. If the certificate is already
+     * being fetched, the result of that fetch is awaited instead.
+     */
+    private ChainLink load(URI uri, Fetcher fetcher) throws AcmeException {
+        CompletableFuture<ChainLink> future = new CompletableFuture<>();
+        CompletableFuture<ChainLink> running = loading.putIfAbsent(uri, future);
+        if (running != null) {
+            return await(running);
+        }
+
+        try {
+            ChainLink link = Objects.requireNonNull(fetcher.fetch(uri), "fetch result");
+            if (maxSize > 0) {
+                long now = System.nanoTime();
+                entries.put(uri, new Entry(link, now, now + ttl.toNanos()));
+                evict();
+            }
+            future.complete(link);
+            return link;
+        } catch (AcmeException | RuntimeException ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            loading.remove(uri, future);
+        }
+    }
+
+    /**
+     * Evicts expired certificates, then the least recently used ones, until the cache
+     * does not exceed its maximum size.
+     */
+    private void evict() {
+        if (entries.size() <= maxSize) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        entries.values().removeIf(entry -> now - entry.expiry >= 0);
+
+        while (entries.size() > maxSize) {
+            entries.entrySet().stream()
+                    .min(Comparator.comparingLong(e -> e.getValue().lastAccess - now))
+                    .ifPresent(e -> entries.remove(e.getKey(), e.getValue()));
+        }
+    }
+
+    /**
+     * Awaits a running fetch.
+     */
+    private static ChainLink await(CompletableFuture<ChainLink> future) throws AcmeException {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof AcmeException) {
+                throw (AcmeException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new AcmeException("Failed to fetch certificate", cause);
+        }
+    }
+
+    /**
+     * Fetches a certificate from the server.
+     */
+    @FunctionalInterface
+    public interface Fetcher {
+
+        /**
+         * Fetches the certificate.
+         *
+         * @param uri
+         *            {@link URI} of the certificate
+         * @return {@link ChainLink} with the certificate and its {@code up} link
+         */
+        ChainLink fetch(URI uri) throws AcmeException;
+    }
+
+    /**
+     * A certificate of a chain, and the link to its issuer.
+     */
+    public static class ChainLink {
+        private final X509Certificate certificate;
+        private final URI up;
+
+        /**
+         * Creates a new {@link ChainLink}.
+         *
+         * @param certificate
+         *            {@link X509Certificate} that was fetched
+         * @param up
+         *            {@link URI} of the issuer's certificate, or {@code null} if this is
+         *            the end of the chain
+         */
+        public ChainLink(X509Certificate certificate, URI up) {
+            this.certificate = Objects.requireNonNull(certificate, "certificate");
+            this.up = up;
+        }
+
+        /**
+         * Returns the certificate.
+         */
+        public X509Certificate getCertificate() {
+            return certificate;
+        }
+
+        /**
+         * Returns the {@link URI} of the issuer's certificate, or {@code null} if this is
+         * the end of the chain.
+         */
+        public URI getUp() {
+            return up;
+        }
+    }
+
+    /**
+     * A cached certificate.
+     */
+    private static class Entry {
+        private final ChainLink link;
+        private final long expiry;
+        private volatile long lastAccess;
+
+        private Entry(ChainLink link, long now, long expiry) {
+            this.link = link;
+            this.lastAccess = now;
+            this.expiry = expiry;
+        }
+    }
+
+}
@@ -0,0 +1,293 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.net.URI;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.shredzone.acme4j.exception.AcmeProtocolException;
+import org.shredzone.acme4j.toolbox.KeyPairJwk;
+
+/**
+ * Signs ACME requests and generates flattened JWS JSON serializations.
+ * <p>
+ * A {@link JwsSigner} is bound to a key pair. The static part of the protected header
+ * is encoded once, and initialized {@link Signature} instances are kept in a small
+ * pool for reuse, so only the nonce, the URL and the payload are processed per request.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class JwsSigner {
+    private static final Base64.Encoder BASE64URL = Base64.getUrlEncoder().withoutPadding();
+
+    private static final byte[] JWS_PROTECTED = "{\"protected\":\"".getBytes(UTF_8);
+    private static final byte[] JWS_PAYLOAD = "\",\"payload\":\"".getBytes(UTF_8);
+    private static final byte[] JWS_SIGNATURE = "\",\"signature\":\"".getBytes(UTF_8);
+    private static final byte[] JWS_END = "\"}".getBytes(UTF_8);
+    private static final byte[] HEADER_URL = "\",\"url\":\"".getBytes(UTF_8);
+    private static final byte[] HEADER_END = "\"}".getBytes(UTF_8);
+    private static final int MAX_POOLED_SIGNATURES = 8;
+
+    private final KeyPairJwk keyPairJwk;
+    private final String jcaAlgorithm;
+    private final int ecFieldSize;
+    private final byte[] jwkHeaderPrefix;
+    private final PrivateKey privateKey;
+    private final Queue<Signature> signaturePool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger signaturePoolSize = new AtomicInteger();
+    private volatile KidHeader kidHeader;
+
+    /**
+     * Creates a new {@link JwsSigner}.
+     *
+     * @param keyPairJwk
+     *            {@link KeyPairJwk} of the key pair to sign with
+     */
+    public JwsSigner(KeyPairJwk keyPairJwk) {
+        this.keyPairJwk = Objects.requireNonNull(keyPairJwk, "keyPairJwk");
+
+        String alg = keyPairJwk.getAlgorithm();
+        switch (alg) {
+            case "RS256": jcaAlgorithm = "SHA256withRSA";   ecFieldSize = 0;  break;
+            case "ES256": jcaAlgorithm = "SHA256withECDSA"; ecFieldSize = 32; break;
+            case "ES384": jcaAlgorithm = "SHA384withECDSA"; ecFieldSize = 48; break;
+            case "ES512": jcaAlgorithm = "SHA512withECDSA"; ecFieldSize = 66; break;
+            default: throw new IllegalArgumentException("Unsupported algorithm " + alg);
+        }
+
+        jwkHeaderPrefix = ("{\"alg\":\"" + alg + "\",\"jwk\":" + keyPairJwk.getJson()
+                        + ",\"nonce\":\"").getBytes(UTF_8);
+
+        privateKey = keyPairJwk.getKeyPair().getPrivate();
+    }
+
+    /**
+     * Returns the {@link KeyPairJwk} this signer is bound to.
+     */
+    public KeyPairJwk getKeyPairJwk() {
+        return keyPairJwk;
+    }
+
+    /**
+     * Signs a request, with the public key in a {@code jwk} header.
+     *
+     * @param payload
+     *            JSON payload, UTF-8 encoded
+     * @param nonce
+     *            Nonce to be used
+     * @param url
+     *            {@link URI} the request is sent to
+     * @return Flattened JWS JSON serialization, UTF-8 encoded
+     */
+    public byte[] sign(byte[] payload, byte[] nonce, URI url) {
+        return sign(payload, nonce, url, null);
+    }
+
+    /**
+     * Signs a request, with a {@code kid} header referring to the account.
+     *
+     * @param payload
+     *            JSON payload, UTF-8 encoded
+     * @param nonce
+     *            Nonce to be used
+     * @param url
+     *            {@link URI} the request is sent to
+     * @param kid
+     *            Key identifier, which is the location of the account's registration.
+     *            If {@code null}, the public key is sent in a {@code jwk} header instead.
+     * @return Flattened JWS JSON serialization, UTF-8 encoded
+     */
+    public byte[] sign(byte[] payload, byte[] nonce, URI url, URI kid) {
+        Objects.requireNonNull(payload, "payload");
+        Objects.requireNonNull(nonce, "nonce");
+        Objects.requireNonNull(url, "url");
+
+        byte[] encodedNonce = BASE64URL.encode(nonce);
+        byte[] encodedUrl = jsonEscape(url.toString()).getBytes(UTF_8);
+        byte[] headerPrefix = kid != null ? kidHeaderPrefix(kid) : jwkHeaderPrefix;
+
+        byte[] header = concat(headerPrefix, encodedNonce, HEADER_URL, encodedUrl, HEADER_END);
+        byte[] encodedHeader = BASE64URL.encode(header);
+        byte[] encodedPayload = BASE64URL.encode(payload);
+        byte[] encodedSignature = BASE64URL.encode(signature(encodedHeader, encodedPayload));
+
+        return concat(JWS_PROTECTED, encodedHeader, JWS_PAYLOAD, encodedPayload,
+                        JWS_SIGNATURE, encodedSignature, JWS_END);
+    }
+
+    /**
+     * Returns the static part of the protected header for the given key identifier. The
+     * most recently used one is cached, as it rarely changes.
+     */
+    private byte[] kidHeaderPrefix(URI kid) {
+        KidHeader cached = kidHeader;
+        if (cached == null || !cached.kid.equals(kid)) {
+            cached = new KidHeader(kid, ("{\"alg\":\"" + keyPairJwk.getAlgorithm()
+                            + "\",\"kid\":\"" + jsonEscape(kid.toString())
+                            + "\",\"nonce\":\"").getBytes(UTF_8));
+            kidHeader = cached;
+        }
+        return cached.prefix;
+    }
+
+    /**
+     * Computes the signature of the JWS signing input.
+     */
+    private byte[] signature(byte[] encodedHeader, byte[] encodedPayload) {
+        Signature sig = acquireSignature();
+        byte[] result;
+        try {
+            sig.update(encodedHeader);
+            sig.update((byte) '.');
+            sig.update(encodedPayload);
+            result = sig.sign();
+        } catch (GeneralSecurityException ex) {
+            // the Signature instance may be in an undefined state now, so it is dropped
+            throw new AcmeProtocolException("Failed to sign request", ex);
+        }
+        releaseSignature(sig);
+        return ecFieldSize > 0 ? derToConcat(result, ecFieldSize) : result;
+    }
+
+    /**
+     * Takes an initialized {@link Signature} from the pool, or creates a new one if the
+     * pool is empty.
+     */
+    private Signature acquireSignature() {
+        Signature sig = signaturePool.poll();
+        if (sig != null) {
+            signaturePoolSize.decrementAndGet();
+            return sig;
+        }
+
+        try {
+            sig = Signature.getInstance(jcaAlgorithm);
+            sig.initSign(privateKey);
+            return sig;
+        } catch (GeneralSecurityException ex) {
+            throw new AcmeProtocolException("Cannot initialize " + jcaAlgorithm, ex);
+        }
+    }
+
+    /**
+     * Returns a {@link Signature} to the pool. It is dropped if the pool is full.
+     */
+    private void releaseSignature(Signature sig) {
+        if (signaturePoolSize.incrementAndGet() <= MAX_POOLED_SIGNATURES) {
+            signaturePool.offer(sig);
+        } else {
+            signaturePoolSize.decrementAndGet();
+        }
+    }
+
+    /**
+     * Converts a DER encoded ECDSA signature to the concatenated R and S values that are
+     * required by JWS.
+     *
+     * @param der
+     *            DER encoded signature
+     * @param size
+     *            Size of R and S, in bytes
+     * @return JWS signature
+     */
+    static byte[] derToConcat(byte[] der, int size) {
+        int pos = 1;                        // SEQUENCE tag
+        if ((der[pos++] & 0x80) != 0) {     // SEQUENCE length
+            pos += der[pos - 1] & 0x7F;
+        }
+
+        byte[] result = new byte[size * 2];
+        for (int part = 0; part < 2; part++) {
+            if (der[pos++] != 0x02) {
+                throw new IllegalArgumentException("INTEGER expected");
+            }
+            int len = der[pos++] & 0xFF;
+            int offset = pos;
+            pos += len;
+            while (len > size && der[offset] == 0) {
+                offset++;
+                len--;
+            }
+            if (len > size) {
+                throw new IllegalArgumentException("INTEGER too long");
+            }
+            System.arraycopy(der, offset, result, (part + 1) * size - len, len);
+        }
+        return result;
+    }
+
+    /**
+     * Escapes a JSON string value.
+     */
+    private static String jsonEscape(String str) {
+        StringBuilder sb = null;
+        for (int ix = 0; ix < str.length(); ix++) {
+            char c = str.charAt(ix);
+            if (c == '"' || c == '\\' || c < 0x20) {
+                if (sb == null) {
+                    sb = new StringBuilder(str.length() + 8).append(str, 0, ix);
+                }
+                if (c < 0x20) {
+                    sb.append(String.format("\\u%04x", (int) c));
+                } else {
+                    sb.append('\\').append(c);
+                }
+            } else if (sb != null) {
+                sb.append(c);
+            }
+        }
+        return sb != null ? sb.toString() : str;
+    }
+
+    /**
+     * Concatenates byte arrays.
+     */
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] result = Arrays.copyOf(parts[0], length);
+        int pos = parts[0].length;
+        for (int ix = 1; ix < parts.length; ix++) {
+            System.arraycopy(parts[ix], 0, result, pos, parts[ix].length);
+            pos += parts[ix].length;
+        }
+        return result;
+    }
+
+    /**
+     * A key identifier and the static part of the protected header using it.
+     */
+    private static final class KidHeader {
+        private final URI kid;
+        private final byte[] prefix;
+
+        private KidHeader(URI kid, byte[] prefix) {
+            this.kid = kid;
+            this.prefix = prefix;
+        }
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+
+import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.toolbox.JSONBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link DefaultConnection} that releases the underlying HTTP connection for reuse.
+ * <p>
+ * On {@link #close()}, the remaining response body is consumed and the stream is closed,
+ * so the socket is returned to the JRE's keep-alive cache and can be used by the next
+ * request to the same server. It is meant to be used with a shared
+ * {@link PersistentHttpConnector}.
+ */
+public class PersistentConnection extends DefaultConnection {
+    private static final Logger LOG = LoggerFactory.getLogger(PersistentConnection.class);
+    private static final int MAX_DRAIN_SIZE = 64 * 1024;
+
+    private boolean responded = false;
+
+    /**
+     * Creates a new {@link PersistentConnection}.
+     *
+     * @param httpConnector
+     *            {@link HttpConnector} to be used for HTTP connections
+     */
+    public PersistentConnection(HttpConnector httpConnector) {
+        super(httpConnector);
+    }
+
+    @Override
+    public void sendConditionalRequest(URI uri, Session session, String etag) throws AcmeException {
+        super.sendConditionalRequest(uri, session, etag);
+        responded = true;
+    }
+
+    @Override
+    public void sendSignedRequest(URI uri, JSONBuilder claims, Session session,
+                boolean enforceJwk) throws AcmeException {
+        super.sendSignedRequest(uri, claims, session, enforceJwk);
+        responded = true;
+    }
+
+    @Override
+    public void close() {
+        if (conn != null) {
+            if (responded) {
+                release();
+            } else {
+                // the request has failed, the connection is in an unknown state
+                conn.disconnect();
+            }
+        }
+        responded = false;
+        super.close();
+    }
+
+    /**
+     * Consumes the remaining response body and closes the stream. If the response body
+     * is too large, the connection is disconnected instead.
+     */
+    private void release() {
+        try (InputStream in = conn.getResponseCode() < 400 ? conn.getInputStream() : conn.getErrorStream()) {
+            if (in == null) {
+                return;
+            }
+
+            byte[] buffer = new byte[4096];
+            int total = 0;
+            int len;
+            while ((len = in.read(buffer)) >= 0) {
+                total += len;
+                if (total > MAX_DRAIN_SIZE) {
+                    LOG.debug("Response body too large, disconnecting");
+                    conn.disconnect();
+                    return;
+                }
+            }
+        } catch (IOException ex) {
+            // stream was already consumed and closed, or the connection broke
+            LOG.trace("Could not release connection", ex);
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Objects;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * A {@link HttpConnector} that is meant to be shared and kept for the lifetime of an
+ * {@link org.shredzone.acme4j.provider.AcmeProvider}. It is to be used together with
+ * {@link PersistentConnection}.
+ * <p>
+ * All HTTPS connections use the same {@link SSLSocketFactory}, so idle connections can
+ * be reused from the JRE's keep-alive cache, and TLS sessions can be resumed instead of
+ * doing a full handshake.
+ */
+public class PersistentHttpConnector extends HttpConnector {
+
+    private static final int SESSION_CACHE_SIZE = 1000;
+    private static final int SESSION_TIMEOUT = 24 * 60 * 60;
+
+    private final SSLSocketFactory sslSocketFactory;
+
+    /**
+     * Creates a new {@link PersistentHttpConnector} with a new TLS session cache.
+     */
+    public PersistentHttpConnector() {
+        try {
+            SSLContext ctx = SSLContext.getInstance("TLS");
+            ctx.init(null, null, null);
+
+            SSLSessionContext sessionContext = ctx.getClientSessionContext();
+            sessionContext.setSessionCacheSize(SESSION_CACHE_SIZE);
+            sessionContext.setSessionTimeout(SESSION_TIMEOUT);
+
+            this.sslSocketFactory = ctx.getSocketFactory();
+        } catch (NoSuchAlgorithmException | KeyManagementException ex) {
+            throw new IllegalStateException("Could not create TLS context", ex);
+        }
+    }
+
+    /**
+     * Creates a new {@link PersistentHttpConnector} that uses the given
+     * {@link SSLSocketFactory} for all HTTPS connections.
+     *
+     * @param sslSocketFactory
+     *            {@link SSLSocketFactory} to be shared
+     */
+    public PersistentHttpConnector(SSLSocketFactory sslSocketFactory) {
+        this.sslSocketFactory = Objects.requireNonNull(sslSocketFactory, "sslSocketFactory");
+    }
+
+    @Override
+    public HttpURLConnection openConnection(URI uri) throws IOException {
+        HttpURLConnection conn = super.openConnection(uri);
+        if (conn instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) conn).setSSLSocketFactory(sslSocketFactory);
+        }
+        return conn;
+    }
+
+}
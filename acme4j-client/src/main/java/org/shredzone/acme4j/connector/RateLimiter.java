@@ -0,0 +1,483 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import static org.shredzone.acme4j.toolbox.AcmeUtils.toAce;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.exception.AcmeRateLimitExceededException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A client-side rate limiter that delays requests before they would exceed a rate
+ * limit of the CA.
+ * <p>
+ * Limits are token buckets, which are configured per {@link Resource}, and are applied
+ * to all requests to that resource, to the requests of each account, or to the requests
+ * concerning each registered domain. A limit of {@code count} requests per
+ * {@code period} permits bursts of up to {@code count} requests, and then evenly
+ * spreads the following requests over the period.
+ * <p>
+ * Like the CA, renewals of a certificate for exactly the same set of domains are not
+ * counted against the per domain limit of {@link Resource#NEW_CERT}. Issued certificates
+ * are recorded by {@link org.shredzone.acme4j.Registration#requestCertificate(byte[])}
+ * after the CA accepted the request, see {@link #addIssued(Collection)}. The records
+ * expire after the retention period, see {@link #setIssuedRetention(Duration)}.
+ * <p>
+ * By default, a request that exceeds a limit is not delayed. An
+ * {@link AcmeRateLimitExceededException} is thrown immediately instead, stating the
+ * moment when the request is expected to be permitted. If a maximum waiting time is set
+ * via {@link #setMaxWait(Duration)}, requests are delayed up to that time, blocking the
+ * invoking thread, before the exception is thrown.
+ * <p>
+ * A {@link RateLimiter} is thread-safe. It is usually shared by all sessions of an
+ * {@link org.shredzone.acme4j.provider.AcmeProvider}.
+ */
+public class RateLimiter {
+    private static final Logger LOG = LoggerFactory.getLogger(RateLimiter.class);
+    private static final String RATE_LIMITED_TYPE = "urn:ietf:params:acme:error:rateLimited";
+    private static final int CLEANUP_THRESHOLD = 10000;
+    private static final int MAX_ISSUED = 100000;
+    private static final Set<String> MULTI_LABEL_SUFFIXES = new HashSet<>(Arrays.asList(
+            "ac", "co", "com", "edu", "gob", "go", "gov", "info", "ltd", "me", "mil", "ne",
+            "net", "nic", "nom", "or", "org", "plc", "sch", "web"));
+
+    /**
+     * The scope of a limit.
+     */
+    public enum Scope {
+
+        /**
+         * All requests to the resource.
+         */
+        ENDPOINT,
+
+        /**
+         * Requests to the resource by the same account.
+         */
+        ACCOUNT,
+
+        /**
+         * Requests to the resource concerning the same registered domain.
+         */
+        DOMAIN;
+    }
+
+    private final ConcurrentMap<Key, Limit> limits = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Key, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Set<String>, Instant> issued = new ConcurrentHashMap<>();
+    private volatile Duration maxWait = Duration.ZERO;
+    private volatile Duration issuedRetention = Duration.ofDays(90);
+
+    /**
+     * Sets a limit. Replaces a previously set limit of the same resource and scope, and
+     * resets its buckets.
+     *
+     * @param resource
+     *            {@link Resource} to limit
+     * @param scope
+     *            {@link Scope} of the limit
+     * @param count
+     *            Maximum number of requests per period
+     * @param period
+     *            Period of the limit
+     * @return itself
+     */
+    public RateLimiter setLimit(Resource resource, Scope scope, int count, Duration period) {
+        Objects.requireNonNull(period, "period");
+        if (count < 1) {
+            throw new IllegalArgumentException("count must be positive");
+        }
+        if (period.isNegative() || period.isZero()) {
+            throw new IllegalArgumentException("period must be positive");
+        }
+        Key key = new Key(resource, scope, null);
+        limits.put(key, new Limit(count, period));
+        buckets.keySet().removeIf(k -> k.resource == resource && k.scope == scope);
+        return this;
+    }
+
+    /**
+     * Removes a limit.
+     *
+     * @param resource
+     *            {@link Resource} of the limit
+     * @param scope
+     *            {@link Scope} of the limit
+     * @return itself
+     */
+    public RateLimiter removeLimit(Resource resource, Scope scope) {
+        limits.remove(new Key(resource, scope, null));
+        buckets.keySet().removeIf(k -> k.resource == resource && k.scope == scope);
+        return this;
+    }
+
+    /**
+     * Returns the maximum time a request is delayed.
+     */
+    public Duration getMaxWait() {
+        return maxWait;
+    }
+
+    /**
+     * Sets the maximum time a request is delayed. If a request would have to wait
+     * longer, an {@link AcmeRateLimitExceededException} is thrown immediately. Default is
+     * zero, so requests are never delayed.
+     * <p>
+     * Note that the delay blocks the thread that sends the request, within
+     * {@link Connection#sendSignedRequest}.
+     *
+     * @param maxWait
+     *            Maximum waiting time, must not be negative
+     * @return itself
+     */
+    public RateLimiter setMaxWait(Duration maxWait) {
+        Objects.requireNonNull(maxWait, "maxWait");
+        if (maxWait.isNegative()) {
+            throw new IllegalArgumentException("maxWait must not be negative");
+        }
+        this.maxWait = maxWait;
+        return this;
+    }
+
+    /**
+     * Returns how long issued certificates are remembered for renewal detection.
+     */
+    public Duration getIssuedRetention() {
+        return issuedRetention;
+    }
+
+    /**
+     * Sets how long issued certificates are remembered for renewal detection. Default is
+     * 90 days, which is the lifetime of a Let's Encrypt certificate.
+     * <p>
+     * At most 100,000 sets of domains are remembered. If there are more, further
+     * certificates are not recorded, so their renewals are counted against the per
+     * domain limit.
+     *
+     * @param issuedRetention
+     *            Retention period, must be positive
+     * @return itself
+     */
+    public RateLimiter setIssuedRetention(Duration issuedRetention) {
+        Objects.requireNonNull(issuedRetention, "issuedRetention");
+        if (issuedRetention.isNegative() || issuedRetention.isZero()) {
+            throw new IllegalArgumentException("issuedRetention must be positive");
+        }
+        this.issuedRetention = issuedRetention;
+        return this;
+    }
+
+    /**
+     * Records that a certificate was issued for the given set of domains. Further
+     * certificate requests for exactly the same set of domains are renewals, which are
+     * exempt from the {@link Scope#DOMAIN} limit of {@link Resource#NEW_CERT}.
+     * <p>
+     * This method can also be used to add the certificates that were issued before, e.g.
+     * in a previous run.
+     *
+     * @param domains
+     *            Domains of the issued certificate
+     * @return itself
+     */
+    public RateLimiter addIssued(Collection<String> domains) {
+        Set<String> domainSet = toDomainSet(Objects.requireNonNull(domains, "domains"));
+        if (domainSet.isEmpty()) {
+            return this;
+        }
+
+        Instant now = Instant.now();
+        if (issued.size() > CLEANUP_THRESHOLD) {
+            issued.values().removeIf(expiry -> !expiry.isAfter(now));
+        }
+        if (issued.size() < MAX_ISSUED || issued.containsKey(domainSet)) {
+            issued.put(domainSet, now.plus(issuedRetention));
+        } else {
+            LOG.debug("Too many issued certificates, not recording {}", domainSet);
+        }
+        return this;
+    }
+
+    /**
+     * Records that a certificate was issued for the domains of the given CSR.
+     *
+     * @param csr
+     *            PKCS#10 Certificate Signing Request of the issued certificate
+     * @return itself
+     * @see #addIssued(Collection)
+     */
+    public RateLimiter addIssued(byte[] csr) {
+        return addIssued(CsrParser.getDomains(Objects.requireNonNull(csr, "csr")));
+    }
+
+    /**
+     * Checks if a certificate request for the given set of domains is a renewal, because
+     * a certificate for exactly the same set of domains was issued before, within the
+     * retention period.
+     *
+     * @param domains
+     *            Domains of the certificate request
+     * @return {@code true} if the request is a renewal
+     */
+    public boolean isRenewal(Collection<String> domains) {
+        Set<String> domainSet = toDomainSet(Objects.requireNonNull(domains, "domains"));
+        if (domainSet.isEmpty()) {
+            return false;
+        }
+
+        Instant expiry = issued.get(domainSet);
+        if (expiry == null) {
+            return false;
+        }
+        if (!expiry.isAfter(Instant.now())) {
+            issued.remove(domainSet, expiry);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Acquires a permit for a request. If the request is not permitted by all limits,
+     * it blocks for up to the maximum waiting time.
+     *
+     * @param resource
+     *            {@link Resource} that is requested
+     * @param account
+     *            Identifier of the account sending the request, or {@code null} if
+     *            unknown
+     * @param domains
+     *            Domains that the request concerns, may be empty
+     * @throws AcmeRateLimitExceededException
+     *             if the request would have to wait longer than the maximum waiting time.
+     *             {@link AcmeRateLimitExceededException#getRetryAfter()} gives the moment
+     *             when the request is expected to be permitted.
+     */
+    public void acquire(Resource resource, String account, Collection<String> domains)
+                throws AcmeException {
+        Objects.requireNonNull(resource, "resource");
+        Objects.requireNonNull(domains, "domains");
+
+        List<TokenBucket> reserved = new ArrayList<>();
+        long now = System.nanoTime();
+        long wait = 0L;
+
+        wait = Math.max(wait, reserve(new Key(resource, Scope.ENDPOINT, null), now, reserved));
+        if (account != null) {
+            wait = Math.max(wait, reserve(new Key(resource, Scope.ACCOUNT, account), now, reserved));
+        }
+        Set<String> domainSet = toDomainSet(domains);
+        boolean renewal = resource == Resource.NEW_CERT && isRenewal(domainSet);
+        Set<String> registeredDomains = new LinkedHashSet<>();
+        for (String domain : renewal ? Collections.<String>emptySet() : domainSet) {
+            String registeredDomain = getRegisteredDomain(domain);
+            if (registeredDomain != null) {
+                registeredDomains.add(registeredDomain);
+            }
+        }
+        for (String domain : registeredDomains) {
+            wait = Math.max(wait, reserve(new Key(resource, Scope.DOMAIN, domain), now, reserved));
+        }
+
+        if (wait > maxWait.toNanos()) {
+            reserved.forEach(TokenBucket::cancel);
+            throw new AcmeRateLimitExceededException(RATE_LIMITED_TYPE,
+                    "Client-side rate limit of " + resource.path() + " exceeded",
+                    Instant.now().plusNanos(wait), null);
+        }
+
+        if (wait == 0L) {
+            return;
+        }
+
+        LOG.debug("Delaying {} request by {} ms", resource.path(),
+                TimeUnit.NANOSECONDS.toMillis(wait));
+        try {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        } catch (InterruptedException ex) {
+            reserved.forEach(TokenBucket::cancel);
+            Thread.currentThread().interrupt();
+            throw new AcmeException("Interrupted while waiting for the rate limit", ex);
+        }
+    }
+
+    /**
+     * Acquires a permit for a signed request, taking the resource and the domains from
+     * the request claims.
+     *
+     * @param claims
+     *            Claims of the signed request
+     * @param account
+     *            Identifier of the account sending the request
+     */
+    void acquire(Map<String, Object> claims, String account) throws AcmeException {
+        Object resourceName = claims.get("resource");
+        for (Resource resource : Resource.values()) {
+            if (resource.path().equals(resourceName)) {
+                acquire(resource, account, getDomains(resource, claims));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the registered domain of a domain, which is the unit the CA applies domain
+     * limits to.
+     * <p>
+     * This implementation does not use the public suffix list. It returns the last two
+     * labels of the domain. If the domain is below a country code top level domain and
+     * the second label is a common second level domain (like {@code co.uk} or
+     * {@code com.au}), the public suffix consists of more than one label, and cannot be
+     * determined reliably. In that case {@code null} is returned, so the domain is not
+     * limited at all instead of sharing a limit with unrelated domains. Subclasses may
+     * override this method for a more precise result.
+     *
+     * @param domain
+     *            Domain name, in ACE form
+     * @return Registered domain, or {@code null} if it is unknown
+     */
+    protected String getRegisteredDomain(String domain) {
+        String[] labels = domain.split("\\.");
+        if (labels.length < 2) {
+            return domain;
+        }
+
+        String tld = labels[labels.length - 1];
+        String sld = labels[labels.length - 2];
+        if (tld.length() == 2 && MULTI_LABEL_SUFFIXES.contains(sld)) {
+            return null;
+        }
+
+        return sld + '.' + tld;
+    }
+
+    /**
+     * Reserves a token of the bucket of the given key, if a limit is configured.
+     *
+     * @return Nanoseconds to wait for the token
+     */
+    private long reserve(Key key, long now, List<TokenBucket> reserved) {
+        Limit limit = limits.get(new Key(key.resource, key.scope, null));
+        if (limit == null) {
+            return 0L;
+        }
+
+        if (buckets.size() > CLEANUP_THRESHOLD) {
+            buckets.values().removeIf(bucket -> bucket.isFull(now));
+        }
+
+        TokenBucket bucket = buckets.computeIfAbsent(key,
+                k -> new TokenBucket(limit.count, limit.period, now));
+        reserved.add(bucket);
+        return bucket.reserve(now);
+    }
+
+    /**
+     * Finds the domains a request is about.
+     */
+    @SuppressWarnings("unchecked")
+    private static Collection<String> getDomains(Resource resource, Map<String, Object> claims) {
+        if (resource == Resource.NEW_AUTHZ) {
+            Object identifier = claims.get("identifier");
+            if (identifier instanceof Map) {
+                Object value = ((Map<String, Object>) identifier).get("value");
+                if (value != null) {
+                    return Collections.singleton(value.toString());
+                }
+            }
+        } else if (resource == Resource.NEW_CERT) {
+            Object csr = claims.get("csr");
+            if (csr != null) {
+                try {
+                    return CsrParser.getDomains(Base64.getUrlDecoder().decode(csr.toString()));
+                } catch (IllegalArgumentException ex) {
+                    LOG.debug("Cannot decode CSR", ex);
+                }
+            }
+        }
+        return Collections.emptySet();
+    }
+
+    /**
+     * Converts a collection of domains to a set of domains in ACE form.
+     */
+    private static Set<String> toDomainSet(Collection<String> domains) {
+        Set<String> result = new HashSet<>();
+        for (String domain : domains) {
+            result.add(toAce(domain));
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * A configured limit.
+     */
+    private static class Limit {
+        private final int count;
+        private final Duration period;
+
+        private Limit(int count, Duration period) {
+            this.count = count;
+            this.period = period;
+        }
+    }
+
+    /**
+     * Key of a limit or a bucket.
+     */
+    private static class Key {
+        private final Resource resource;
+        private final Scope scope;
+        private final String value;
+
+        private Key(Resource resource, Scope scope, String value) {
+            this.resource = Objects.requireNonNull(resource, "resource");
+            this.scope = Objects.requireNonNull(scope, "scope");
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return resource == other.resource && scope == other.scope
+                    && Objects.equals(value, other.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(resource, scope, value);
+        }
+    }
+
+}
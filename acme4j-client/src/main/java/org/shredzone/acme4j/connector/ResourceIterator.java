@@ -16,11 +16,21 @@ package org.shredzone.acme4j.connector;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.function.BiFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.shredzone.acme4j.AcmeResource;
 import org.shredzone.acme4j.Session;
@@ -31,6 +41,12 @@ import org.shredzone.acme4j.toolbox.JSON;
 /**
  * An {@link Iterator} that fetches a batch of URIs from the ACME server, and generates
  * {@link AcmeResource} instances.
+ * <p>
+ * By default, the batches are fetched synchronously when they are needed, and the
+ * returned resources are lazily bound. {@link #prefetch(Executor)} fetches the next
+ * batch in the background while the current one is consumed, and
+ * {@link #hydrate(Hydrator, int)} loads the resources concurrently before they are
+ * returned. The resources are always returned in server order.
  *
  * @param <T>
  *            {@link AcmeResource} type to iterate over
@@ -40,9 +56,14 @@ public class ResourceIterator<T extends AcmeResource> implements Iterator<T> {
     private final Session session;
     private final String field;
     private final Deque<URI> uriList = new ArrayDeque<>();
+    private final Deque<CompletableFuture<T>> hydrating = new ArrayDeque<>();
     private final BiFunction<Session, URI, T> creator;
     private boolean eol = false;
     private URI nextUri;
+    private Executor executor;
+    private CompletableFuture<Page> nextPage;
+    private Hydrator<T> hydrator;
+    private int parallelism;
 
     /**
      * Creates a new {@link ResourceIterator}.
@@ -64,6 +85,58 @@ public class ResourceIterator<T extends AcmeResource> implements Iterator<T> {
         this.creator = Objects.requireNonNull(creator, "creator");
     }
 
+    /**
+     * Enables prefetching. As soon as a batch of URIs has been fetched, the next batch
+     * is requested in the background.
+     * <p>
+     * Must be invoked before the iteration is started.
+     *
+     * @param executor
+     *            {@link Executor} to fetch the batches and hydrate the resources with
+     * @return itself
+     */
+    public ResourceIterator<T> prefetch(Executor executor) {
+        this.executor = Objects.requireNonNull(executor, "executor");
+        return this;
+    }
+
+    /**
+     * Enables prefetching, using the {@link Session}'s executor.
+     *
+     * @return itself
+     * @see Session#getExecutor()
+     */
+    public ResourceIterator<T> prefetch() {
+        return prefetch(session.getExecutor());
+    }
+
+    /**
+     * Hydrates the resources concurrently before they are returned. Up to the given
+     * number of resources ahead of the current one are hydrated in parallel. If
+     * prefetching has not been enabled yet, it is enabled with the {@link Session}'s
+     * executor.
+     * <p>
+     * Must be invoked before the iteration is started.
+     *
+     * @param hydrator
+     *            {@link Hydrator} that loads the resource, e.g.
+     *            {@code Authorization::update}
+     * @param parallelism
+     *            Maximum number of resources to be hydrated concurrently
+     * @return itself
+     */
+    public ResourceIterator<T> hydrate(Hydrator<T> hydrator, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.hydrator = Objects.requireNonNull(hydrator, "hydrator");
+        this.parallelism = parallelism;
+        if (executor == null) {
+            prefetch();
+        }
+        return this;
+    }
+
     /**
      * Checks if there is another object in the result.
      *
@@ -76,38 +149,67 @@ public class ResourceIterator<T extends AcmeResource> implements Iterator<T> {
             return false;
         }
 
-        if (uriList.isEmpty()) {
+        if (uriList.isEmpty() && hydrating.isEmpty()) {
             fetch();
         }
 
-        if (uriList.isEmpty()) {
+        if (uriList.isEmpty() && hydrating.isEmpty()) {
             eol = true;
         }
 
-        return !uriList.isEmpty();
+        return !eol;
     }
 
     /**
      * Returns the next object of the result.
      *
      * @throws AcmeProtocolException
-     *             if the next batch of URIs could not be fetched from the server
+     *             if the next batch of URIs could not be fetched from the server, or
+     *             if the resource could not be hydrated
      * @throws NoSuchElementException
      *             if there are no more entries
      */
     @Override
     public T next() {
-        if (!eol && uriList.isEmpty()) {
-            fetch();
+        if (!hasNext()) {
+            throw new NoSuchElementException("no more " + field);
         }
 
-        URI next = uriList.poll();
-        if (next == null) {
-            eol = true;
-            throw new NoSuchElementException("no more " + field);
+        if (hydrator == null) {
+            return creator.apply(session, uriList.poll());
         }
 
-        return creator.apply(session, next);
+        while (hydrating.size() < parallelism) {
+            if (uriList.isEmpty()) {
+                if (hydrating.isEmpty()) {
+                    fetch();
+                } else {
+                    fetchIfReady();
+                }
+            }
+            URI uri = uriList.poll();
+            if (uri == null) {
+                break;
+            }
+            T resource = creator.apply(session, uri);
+            hydrating.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    hydrator.hydrate(resource);
+                    return resource;
+                } catch (AcmeException ex) {
+                    throw new AcmeProtocolException("failed to hydrate " + uri, ex);
+                }
+            }, executor));
+        }
+
+        try {
+            return hydrating.poll().join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
     }
 
     /**
@@ -118,51 +220,151 @@ public class ResourceIterator<T extends AcmeResource> implements Iterator<T> {
         throw new UnsupportedOperationException("cannot remove " + field);
     }
 
+    /**
+     * Returns a sequential {@link Stream} of the remaining resources. The stream
+     * consumes this iterator.
+     *
+     * @return {@link Stream} of resources
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Returns an ordered {@link Spliterator} of the remaining resources. The
+     * spliterator consumes this iterator.
+     *
+     * @return {@link Spliterator} of resources
+     */
+    public Spliterator<T> spliterator() {
+        return Spliterators.spliteratorUnknownSize(this,
+                        Spliterator.ORDERED | Spliterator.NONNULL);
+    }
+
     /**
      * Fetches the next batch of URIs. Handles exceptions. Does nothing if there is no
-     * URI of the next batch.
+     * URI of the next batch. Empty batches are skipped.
      */
     private void fetch() {
-        if (nextUri == null) {
-            return;
+        while (uriList.isEmpty() && (nextPage != null || nextUri != null)) {
+            Page page;
+            if (nextPage != null) {
+                page = join(nextPage);
+                nextPage = null;
+            } else {
+                page = readPage(nextUri);
+            }
+            queue(page);
         }
+    }
 
+    /**
+     * Takes the prefetched batch of URIs if it has already arrived. Never blocks.
+     */
+    private void fetchIfReady() {
+        if (nextPage != null && nextPage.isDone()) {
+            Page page = join(nextPage);
+            nextPage = null;
+            queue(page);
+        }
+    }
+
+    /**
+     * Queues the URIs of a batch, and starts prefetching the next batch if enabled.
+     */
+    private void queue(Page page) {
+        uriList.addAll(page.uris);
+        nextUri = page.next;
+
+        if (executor != null && nextUri != null) {
+            URI uri = nextUri;
+            nextUri = null;
+            nextPage = CompletableFuture.supplyAsync(() -> readPage(uri), executor);
+        }
+    }
+
+    /**
+     * Waits for a prefetched batch, and unwraps exceptions.
+     */
+    private Page join(CompletableFuture<Page> future) {
         try {
-            readAndQueue();
-        } catch (AcmeException ex) {
-            throw new AcmeProtocolException("failed to read next set of " + field, ex);
+            return future.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
         }
     }
 
     /**
-     * Reads the next batch of URIs from the server, and fills the queue with the URIs. If
-     * there is a "next" header, it is used for the next batch of URIs.
+     * Reads a batch of URIs from the server.
+     *
+     * @param uri
+     *            URI of the batch
+     * @return {@link Page} with the URIs of this batch, and the URI of the next batch
+     * @throws AcmeProtocolException
+     *             if the batch could not be fetched from the server
      */
-    private void readAndQueue() throws AcmeException {
+    private Page readPage(URI uri) {
         try (Connection conn = session.provider().connect()) {
-            conn.sendRequest(nextUri, session);
+            conn.sendRequest(uri, session);
             conn.accept(HttpURLConnection.HTTP_OK);
 
             JSON json = conn.readJsonResponse();
-            fillUriList(json);
-
-            nextUri = conn.getLink("next");
+            return new Page(readUris(json), conn.getLink("next"));
+        } catch (AcmeException ex) {
+            throw new AcmeProtocolException("failed to read next set of " + field, ex);
         }
     }
 
     /**
-     * Fills the uri list with the URIs found in the desired field.
+     * Reads the URIs found in the desired field.
      *
      * @param json
      *            JSON map to read from
+     * @return List of URIs, empty if the field is missing
      */
-    private void fillUriList(JSON json) {
+    private List<URI> readUris(JSON json) {
         JSON.Array array = json.get(field).asArray();
         if (array == null) {
-            return;
+            return Collections.emptyList();
         }
 
-        array.stream().map(JSON.Value::asURI).forEach(uriList::add);
+        List<URI> result = new ArrayList<>();
+        array.stream().map(JSON.Value::asURI).forEach(result::add);
+        return result;
+    }
+
+    /**
+     * Loads the state of a bound {@link AcmeResource}.
+     *
+     * @param <T>
+     *            {@link AcmeResource} type
+     */
+    @FunctionalInterface
+    public interface Hydrator<T extends AcmeResource> {
+
+        /**
+         * Hydrates the given resource.
+         *
+         * @param resource
+         *            Resource to be hydrated
+         */
+        void hydrate(T resource) throws AcmeException;
+    }
+
+    /**
+     * A batch of URIs.
+     */
+    private static final class Page {
+        private final List<URI> uris;
+        private final URI next;
+
+        private Page(List<URI> uris, URI next) {
+            this.uris = uris;
+            this.next = next;
+        }
     }
 
 }
@@ -0,0 +1,82 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free token bucket, implemented as generic cell rate algorithm.
+ * <p>
+ * The bucket holds up to {@code capacity} tokens, and is refilled at a rate of
+ * {@code capacity} tokens per {@code period}. Tokens are reserved in advance, so
+ * concurrent callers are served in order and never starve.
+ */
+final class TokenBucket {
+    private final long interval;
+    private final long tolerance;
+    private final AtomicLong theoreticalArrival;
+
+    /**
+     * Creates a new, full {@link TokenBucket}.
+     *
+     * @param capacity
+     *            Maximum number of tokens
+     * @param period
+     *            Period in which the bucket is refilled completely
+     * @param now
+     *            Current {@link System#nanoTime()}
+     */
+    TokenBucket(int capacity, Duration period, long now) {
+        this.interval = Math.max(period.toNanos() / capacity, 1L);
+        this.tolerance = interval * (capacity - 1);
+        this.theoreticalArrival = new AtomicLong(now);
+    }
+
+    /**
+     * Reserves a token.
+     *
+     * @param now
+     *            Current {@link System#nanoTime()}
+     * @return Nanoseconds to wait until the token is available, 0 if it is available
+     *         immediately
+     */
+    long reserve(long now) {
+        while (true) {
+            long tat = theoreticalArrival.get();
+            long base = tat - now > 0 ? tat : now;
+            if (theoreticalArrival.compareAndSet(tat, base + interval)) {
+                return Math.max(base - tolerance - now, 0L);
+            }
+        }
+    }
+
+    /**
+     * Returns a reserved token that is not going to be used.
+     */
+    void cancel() {
+        theoreticalArrival.addAndGet(-interval);
+    }
+
+    /**
+     * Checks if the bucket is full, so it can be discarded without any effect.
+     *
+     * @param now
+     *            Current {@link System#nanoTime()}
+     */
+    boolean isFull(long now) {
+        return theoreticalArrival.get() - now <= 0;
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative long values, with a fixed memory footprint.
+ * <p>
+ * Like an HDR histogram, values are counted in buckets of logarithmically growing
+ * size. Each power of two is divided into 64 linear sub-buckets, so recorded values are
+ * reproduced with a relative error of less than 1.6% over the whole range of
+ * {@code long}. Minimum, maximum, count and sum are tracked exactly.
+ */
+public class Histogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Records a value.
+     *
+     * @param value
+     *            Value to record. Negative values are recorded as 0.
+     */
+    public void record(long value) {
+        long v = Math.max(value, 0L);
+        counts.incrementAndGet(indexOf(v));
+        count.increment();
+        sum.add(v);
+        min.accumulateAndGet(v, Math::min);
+        max.accumulateAndGet(v, Math::max);
+    }
+
+    /**
+     * Returns the number of recorded values.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the smallest recorded value, or 0 if no value was recorded.
+     */
+    public long getMin() {
+        return getCount() > 0 ? min.get() : 0L;
+    }
+
+    /**
+     * Returns the largest recorded value, or 0 if no value was recorded.
+     */
+    public long getMax() {
+        return getCount() > 0 ? max.get() : 0L;
+    }
+
+    /**
+     * Returns the arithmetic mean of the recorded values, or 0 if no value was
+     * recorded.
+     */
+    public double getMean() {
+        long c = getCount();
+        return c > 0 ? (double) sum.sum() / c : 0.0;
+    }
+
+    /**
+     * Returns the value at the given percentile. The result is the highest value that
+     * is equivalent to the bucket the percentile falls into, but never exceeds the
+     * largest recorded value.
+     *
+     * @param percentile
+     *            Percentile, between 0.0 and 100.0
+     * @return Value at the percentile, or 0 if no value was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0.0 || percentile > 100.0) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+
+        long total = 0L;
+        long[] snapshot = new long[BUCKETS];
+        for (int ix = 0; ix < BUCKETS; ix++) {
+            snapshot[ix] = counts.get(ix);
+            total += snapshot[ix];
+        }
+        if (total == 0L) {
+            return 0L;
+        }
+
+        long rank = Math.max((long) Math.ceil(percentile / 100.0 * total), 1L);
+        long seen = 0L;
+        for (int ix = 0; ix < BUCKETS; ix++) {
+            seen += snapshot[ix];
+            if (seen >= rank) {
+                return Math.min(highestEquivalentValue(ix), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Removes all recorded values.
+     * <p>
+     * Values that are recorded concurrently may be partially lost.
+     */
+    public void reset() {
+        for (int ix = 0; ix < BUCKETS; ix++) {
+            counts.set(ix, 0L);
+        }
+        count.reset();
+        sum.reset();
+        min.set(Long.MAX_VALUE);
+        max.set(Long.MIN_VALUE);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d, min=%d, mean=%.1f, p50=%d, p99=%d, p999=%d, max=%d",
+                getCount(), getMin(), getMean(), getValueAtPercentile(50.0),
+                getValueAtPercentile(99.0), getValueAtPercentile(99.9), getMax());
+    }
+
+    /**
+     * Returns the bucket index of a value.
+     */
+    static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * Returns the highest value that is counted in the given bucket.
+     */
+    static long highestEquivalentValue(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1L;
+    }
+
+}
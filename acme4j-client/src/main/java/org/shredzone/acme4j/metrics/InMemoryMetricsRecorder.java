@@ -0,0 +1,170 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.metrics;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link MetricsRecorder} that keeps all metrics in memory, e.g. for exporting them
+ * to a dashboard.
+ * <p>
+ * Latencies are kept in a {@link Histogram} per endpoint, in nanoseconds. Retry-after
+ * delays are kept in a {@link Histogram}, in milliseconds.
+ * <p>
+ * To use it, either pass an instance to {@link Metrics#setRecorder(MetricsRecorder)},
+ * or register it as {@link MetricsRecorder} service.
+ */
+public class InMemoryMetricsRecorder implements MetricsRecorder {
+
+    private final ConcurrentMap<String, Histogram> latencies = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, LongAdder> statusCounts = new ConcurrentHashMap<>();
+    private final Histogram retryAfterDelays = new Histogram();
+    private final LongAdder nonceHits = new LongAdder();
+    private final LongAdder nonceMisses = new LongAdder();
+    private final LongAdder badNonceRetries = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+
+    @Override
+    public void request(String endpoint, int status, long nanos) {
+        latencies.computeIfAbsent(endpoint, k -> new Histogram()).record(nanos);
+        statusCounts.computeIfAbsent(status, k -> new LongAdder()).increment();
+    }
+
+    @Override
+    public void nonceHit() {
+        nonceHits.increment();
+    }
+
+    @Override
+    public void nonceMiss() {
+        nonceMisses.increment();
+    }
+
+    @Override
+    public void badNonceRetry() {
+        badNonceRetries.increment();
+    }
+
+    @Override
+    public void retryAfter(Duration delay) {
+        retryAfterDelays.record(delay.toMillis());
+    }
+
+    @Override
+    public void bytesSent(long bytes) {
+        bytesSent.add(bytes);
+    }
+
+    @Override
+    public void bytesReceived(long bytes) {
+        bytesReceived.add(bytes);
+    }
+
+    /**
+     * Returns the latency {@link Histogram} of an endpoint, in nanoseconds.
+     *
+     * @param endpoint
+     *            Endpoint name
+     * @return {@link Histogram}, or {@code null} if there was no request to that
+     *         endpoint yet
+     */
+    public Histogram getLatency(String endpoint) {
+        return latencies.get(endpoint);
+    }
+
+    /**
+     * Returns the latency {@link Histogram}s of all endpoints, in nanoseconds.
+     *
+     * @return Unmodifiable map of endpoint names and their {@link Histogram}
+     */
+    public Map<String, Histogram> getLatencies() {
+        return Collections.unmodifiableMap(new TreeMap<>(latencies));
+    }
+
+    /**
+     * Returns the number of responses per HTTP status code. Failed requests are
+     * counted with status -1.
+     *
+     * @return Unmodifiable map of status codes and their number of occurences
+     */
+    public Map<Integer, Long> getStatusCounts() {
+        Map<Integer, Long> result = new TreeMap<>();
+        statusCounts.forEach((status, adder) -> result.put(status, adder.sum()));
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Returns the {@link Histogram} of retry-after delays, in milliseconds.
+     */
+    public Histogram getRetryAfterDelays() {
+        return retryAfterDelays;
+    }
+
+    /**
+     * Returns the number of nonces taken from the nonce pool.
+     */
+    public long getNonceHits() {
+        return nonceHits.sum();
+    }
+
+    /**
+     * Returns the number of nonces that had to be fetched before a signed request.
+     */
+    public long getNonceMisses() {
+        return nonceMisses.sum();
+    }
+
+    /**
+     * Returns the number of requests that were retried because of a bad nonce.
+     */
+    public long getBadNonceRetries() {
+        return badNonceRetries.sum();
+    }
+
+    /**
+     * Returns the total number of bytes sent.
+     */
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    /**
+     * Returns the total number of bytes received.
+     */
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    /**
+     * Removes all recorded metrics.
+     */
+    public void reset() {
+        latencies.clear();
+        statusCounts.clear();
+        retryAfterDelays.reset();
+        nonceHits.reset();
+        nonceMisses.reset();
+        badNonceRetries.reset();
+        bytesSent.reset();
+        bytesReceived.reset();
+    }
+
+}
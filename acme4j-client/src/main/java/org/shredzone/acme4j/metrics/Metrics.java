@@ -0,0 +1,148 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.metrics;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.ServiceLoader;
+
+/**
+ * Gives access to the process-wide {@link MetricsRecorder}.
+ * <p>
+ * On first use, all {@link MetricsRecorder} implementations are located via
+ * {@link ServiceLoader}. If there is none, a {@link NoOpMetricsRecorder} is used. If
+ * there are several, all of them receive the metrics.
+ */
+public final class Metrics {
+
+    private static volatile MetricsRecorder recorder;
+
+    private Metrics() {
+        // utility class without constructor
+    }
+
+    /**
+     * Returns the current {@link MetricsRecorder}.
+     */
+    public static MetricsRecorder recorder() {
+        MetricsRecorder result = recorder;
+        if (result == null) {
+            result = Discovery.RECORDER;
+            recorder = result;
+        }
+        return result;
+    }
+
+    /**
+     * Sets the {@link MetricsRecorder}, replacing the discovered ones.
+     *
+     * @param recorder
+     *            {@link MetricsRecorder} to be used, or {@code null} to return to the
+     *            recorders found via {@link ServiceLoader}
+     */
+    public static void setRecorder(MetricsRecorder recorder) {
+        Metrics.recorder = recorder;
+    }
+
+    /**
+     * Combines the {@link MetricsRecorder} found via {@link ServiceLoader}.
+     *
+     * @param found
+     *            List of {@link MetricsRecorder} that were found
+     * @return {@link MetricsRecorder} to be used
+     */
+    static MetricsRecorder combine(List<MetricsRecorder> found) {
+        switch (found.size()) {
+            case 0:  return NoOpMetricsRecorder.INSTANCE;
+            case 1:  return found.get(0);
+            default: return new CompositeRecorder(found);
+        }
+    }
+
+    /**
+     * Locates the {@link MetricsRecorder} implementations once.
+     */
+    private static final class Discovery {
+        private static final MetricsRecorder RECORDER = discover();
+
+        private static MetricsRecorder discover() {
+            List<MetricsRecorder> found = new ArrayList<>();
+            ServiceLoader.load(MetricsRecorder.class).forEach(found::add);
+            return combine(found);
+        }
+    }
+
+    /**
+     * Passes all metrics to a list of {@link MetricsRecorder}.
+     */
+    private static final class CompositeRecorder implements MetricsRecorder {
+        private final MetricsRecorder[] recorders;
+
+        private CompositeRecorder(List<MetricsRecorder> recorders) {
+            this.recorders = recorders.toArray(new MetricsRecorder[recorders.size()]);
+        }
+
+        @Override
+        public void request(String endpoint, int status, long nanos) {
+            for (MetricsRecorder r : recorders) {
+                r.request(endpoint, status, nanos);
+            }
+        }
+
+        @Override
+        public void nonceHit() {
+            for (MetricsRecorder r : recorders) {
+                r.nonceHit();
+            }
+        }
+
+        @Override
+        public void nonceMiss() {
+            for (MetricsRecorder r : recorders) {
+                r.nonceMiss();
+            }
+        }
+
+        @Override
+        public void badNonceRetry() {
+            for (MetricsRecorder r : recorders) {
+                r.badNonceRetry();
+            }
+        }
+
+        @Override
+        public void retryAfter(Duration delay) {
+            for (MetricsRecorder r : recorders) {
+                r.retryAfter(delay);
+            }
+        }
+
+        @Override
+        public void bytesSent(long bytes) {
+            for (MetricsRecorder r : recorders) {
+                r.bytesSent(bytes);
+            }
+        }
+
+        @Override
+        public void bytesReceived(long bytes) {
+            for (MetricsRecorder r : recorders) {
+                r.bytesReceived(bytes);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.metrics;
+
+import java.time.Duration;
+
+/**
+ * Records metrics of the communication with ACME servers.
+ * <p>
+ * Implementations are discovered via {@link java.util.ServiceLoader}, like
+ * {@link org.shredzone.acme4j.provider.AcmeProvider}, or set via
+ * {@link Metrics#setRecorder(MetricsRecorder)}. All methods do nothing by default, so
+ * implementations only need to override the metrics they are interested in.
+ * <p>
+ * The methods are invoked concurrently from all threads that use acme4j, and in the
+ * middle of a request. Implementations must be thread-safe, and must return quickly.
+ */
+public interface MetricsRecorder {
+
+    /**
+     * A request has been answered by the server.
+     *
+     * @param endpoint
+     *            Endpoint of the request. For signed requests, it is the resource name
+     *            of the request (e.g. {@code "new-cert"} or {@code "challenge"}).
+     *            {@code "get"} for GET requests, and {@code "nonce"} for nonce
+     *            requests.
+     * @param status
+     *            HTTP status code, or -1 if the request failed without a response
+     * @param nanos
+     *            Latency of the request, in nanoseconds
+     */
+    default void request(String endpoint, int status, long nanos) {
+        // no-op
+    }
+
+    /**
+     * A signed request used a nonce from the session's nonce pool.
+     */
+    default void nonceHit() {
+        // no-op
+    }
+
+    /**
+     * A signed request had to fetch a fresh nonce from the server first.
+     */
+    default void nonceMiss() {
+        // no-op
+    }
+
+    /**
+     * A signed request was rejected because of a bad nonce, and is retried.
+     */
+    default void badNonceRetry() {
+        // no-op
+    }
+
+    /**
+     * The server asked the client to retry later.
+     *
+     * @param delay
+     *            Time until the client may retry
+     */
+    default void retryAfter(Duration delay) {
+        // no-op
+    }
+
+    /**
+     * A request body has been sent to the server.
+     *
+     * @param bytes
+     *            Number of bytes sent
+     */
+    default void bytesSent(long bytes) {
+        // no-op
+    }
+
+    /**
+     * A response body has been read from the server.
+     *
+     * @param bytes
+     *            Number of bytes read
+     */
+    default void bytesReceived(long bytes) {
+        // no-op
+    }
+
+}
@@ -0,0 +1,31 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.metrics;
+
+/**
+ * A {@link MetricsRecorder} that does not record anything. It is used if no other
+ * {@link MetricsRecorder} was found.
+ */
+public final class NoOpMetricsRecorder implements MetricsRecorder {
+
+    /**
+     * The shared instance.
+     */
+    public static final NoOpMetricsRecorder INSTANCE = new NoOpMetricsRecorder();
+
+    private NoOpMetricsRecorder() {
+        // singleton
+    }
+
+}
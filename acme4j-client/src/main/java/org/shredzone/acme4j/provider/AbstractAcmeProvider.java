@@ -15,10 +15,12 @@ package org.shredzone.acme4j.provider;
 
 import java.net.HttpURLConnection;
 import java.net.URI;
+import java.time.Instant;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 
 import org.shredzone.acme4j.Session;
@@ -30,7 +32,10 @@ import org.shredzone.acme4j.challenge.TlsSni02Challenge;
 import org.shredzone.acme4j.connector.Connection;
 import org.shredzone.acme4j.connector.DefaultConnection;
 import org.shredzone.acme4j.connector.HttpConnector;
+import org.shredzone.acme4j.connector.PersistentConnection;
+import org.shredzone.acme4j.connector.PersistentHttpConnector;
 import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.provider.DirectoryCache.FetchResult;
 import org.shredzone.acme4j.toolbox.JSON;
 
 /**
@@ -39,26 +44,73 @@ import org.shredzone.acme4j.toolbox.JSON;
  * <p>
  * Implementing classes must implement at least {@link AcmeProvider#accepts(URI)}
  * and {@link AbstractAcmeProvider#resolve(URI)}.
+ * <p>
+ * If the system property {@code acme4j.http.persistent} is {@code true}, or if a
+ * subclass overrides {@link #isPersistent()}, all connections share a single
+ * {@link PersistentHttpConnector}, and the HTTP connections are kept alive for reuse.
+ * <p>
+ * Directories are cached process-wide in the {@link DirectoryCache}, so sessions
+ * connecting to the same server share a single copy.
  */
 public abstract class AbstractAcmeProvider implements AcmeProvider {
 
     private static final Map<String, Function<Session, Challenge>> CHALLENGES = challengeMap();
 
+    private final AtomicReference<HttpConnector> persistentHttpConnector = new AtomicReference<>();
+
     @Override
     public Connection connect() {
+        if (isPersistent()) {
+            HttpConnector connector = persistentHttpConnector.get();
+            if (connector == null) {
+                persistentHttpConnector.compareAndSet(null, createPersistentHttpConnector());
+                connector = persistentHttpConnector.get();
+            }
+            return new PersistentConnection(connector);
+        }
+
         return new DefaultConnection(createHttpConnector());
     }
 
     @Override
     public JSON directory(Session session, URI serverUri) throws AcmeException {
-        try (Connection conn = connect()) {
-            conn.sendRequest(resolve(serverUri), session);
-            conn.accept(HttpURLConnection.HTTP_OK);
+        URI uri = resolve(serverUri);
+        return getDirectoryCache().get(uri,
+                etag -> fetchDirectory(session, uri, etag),
+                session.getExecutor());
+    }
+
+    @Override
+    public Instant getDirectoryExpiry(URI serverUri) {
+        return getDirectoryCache().getExpiry(resolve(serverUri));
+    }
+
+    /**
+     * Returns the {@link DirectoryCache} to be used. The default implementation returns
+     * the process-wide {@link DirectoryCache#getDefault()}.
+     */
+    protected DirectoryCache getDirectoryCache() {
+        return DirectoryCache.getDefault();
+    }
 
-            // use nonce header if there is one, saves a HEAD request...
-            conn.updateSession(session);
+    /**
+     * Fetches the directory from the server.
+     *
+     * @param session
+     *            {@link Session} to be used
+     * @param uri
+     *            Resolved directory {@link URI}
+     * @param etag
+     *            Entity tag of the cached directory, or {@code null}
+     * @return {@link FetchResult} containing the directory
+     */
+    private FetchResult fetchDirectory(Session session, URI uri, String etag) throws AcmeException {
+        try (Connection conn = connect()) {
+            conn.sendConditionalRequest(uri, session, etag);
+            int rc = conn.accept(HttpURLConnection.HTTP_OK, HttpURLConnection.HTTP_NOT_MODIFIED);
 
-            return conn.readJsonResponse();
+            JSON json = rc == HttpURLConnection.HTTP_OK ? conn.readJsonResponse() : null;
+            return new FetchResult(json, conn.getETag(), conn.getCacheExpiry());
         }
     }
 
@@ -97,4 +149,26 @@ public abstract class AbstractAcmeProvider implements AcmeProvider {
         return new HttpConnector();
     }
 
+    /**
+     * Checks if persistent connections are to be used. If {@code true},
+     * {@link #connect()} returns {@link PersistentConnection} instances that share one
+     * long-lived {@link HttpConnector}.
+     * <p>
+     * The default implementation evaluates the {@code acme4j.http.persistent} system
+     * property. Subclasses may override this method.
+     */
+    protected boolean isPersistent() {
+        return Boolean.getBoolean("acme4j.http.persistent");
+    }
+
+    /**
+     * Creates the {@link HttpConnector} that is shared by all persistent connections of
+     * this provider. The result is kept for the lifetime of the provider.
+     * <p>
+     * Subclasses may override this method to configure the {@link HttpConnector}.
+     */
+    protected HttpConnector createPersistentHttpConnector() {
+        return new PersistentHttpConnector();
+    }
+
 }
@@ -14,11 +14,13 @@
 package org.shredzone.acme4j.provider;
 
 import java.net.URI;
+import java.time.Instant;
 import java.util.ServiceLoader;
 
 import org.shredzone.acme4j.Session;
 import org.shredzone.acme4j.challenge.Challenge;
 import org.shredzone.acme4j.connector.Connection;
+import org.shredzone.acme4j.connector.RateLimiter;
 import org.shredzone.acme4j.exception.AcmeException;
 import org.shredzone.acme4j.toolbox.JSON;
 
@@ -73,6 +75,41 @@ public interface AcmeProvider {
      */
     JSON directory(Session session, URI serverUri) throws AcmeException;
 
+    /**
+     * Returns the instant until which the {@link Session} may keep its copy of the
+     * directory returned by {@link #directory(Session, URI)}.
+     * <p>
+     * The default implementation returns {@code null}, so the session uses its default
+     * cache time.
+     *
+     * @param serverUri
+     *            Server {@link URI}
+     * @return Expiry instant, or {@code null} if unknown
+     */
+    default Instant getDirectoryExpiry(URI serverUri) {
+        return null;
+    }
+
+    /**
+     * Returns the {@link RateLimiter} that is applied to all signed requests to the
+     * given server. The instance should be shared by all sessions to that server.
+     * <p>
+     * If a request exceeds a limit, the request is not sent, and an
+     * {@link org.shredzone.acme4j.exception.AcmeRateLimitExceededException} is thrown.
+     * Unless a maximum waiting time is set via {@link RateLimiter#setMaxWait(java.time.Duration)},
+     * requests are never delayed.
+     * <p>
+     * The default implementation returns {@code null}, so requests are not limited on
+     * client side.
+     *
+     * @param serverUri
+     *            Server {@link URI}
+     * @return {@link RateLimiter}, or {@code null} if requests are not limited
+     */
+    default RateLimiter getRateLimiter(URI serverUri) {
+        return null;
+    }
+
     /**
      * Creates a {@link Challenge} instance for the given challenge type.
      * <p>
@@ -0,0 +1,176 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.provider;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A registry of all {@link AcmeProvider} implementations that are registered via Java's
+ * {@link ServiceLoader} API.
+ * <p>
+ * The class path is only scanned once, and the providers are instantiated once and then
+ * shared by all sessions. The provider accepting a server URI is looked up once per
+ * scheme and host (e.g. {@code acme://letsencrypt.org}), and then taken from an index.
+ * The lookup result is still confirmed by {@link AcmeProvider#accepts(URI)}, so
+ * providers that also evaluate other parts of the URI are found correctly.
+ * <p>
+ * If providers are added to the class path at runtime, {@link #refresh()} must be
+ * invoked. This class is thread-safe.
+ */
+public class AcmeProviderRegistry {
+    private static final Logger LOG = LoggerFactory.getLogger(AcmeProviderRegistry.class);
+    private static final AcmeProviderRegistry DEFAULT = new AcmeProviderRegistry(null);
+
+    private final ClassLoader classLoader;
+    private final AtomicReference<Providers> providers = new AtomicReference<>();
+
+    /**
+     * Creates a new {@link AcmeProviderRegistry}.
+     *
+     * @param classLoader
+     *            {@link ClassLoader} to find the providers with, or {@code null} to use
+     *            the thread's context class loader
+     */
+    public AcmeProviderRegistry(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * Returns the process-wide {@link AcmeProviderRegistry} that is used by
+     * {@link org.shredzone.acme4j.Session}.
+     */
+    public static AcmeProviderRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Finds the {@link AcmeProvider} that accepts the given server {@link URI}.
+     *
+     * @param serverUri
+     *            {@link URI} of the ACME server
+     * @return {@link AcmeProvider} accepting the server URI
+     * @throws IllegalArgumentException
+     *             if no or more than one ACME provider was found for the server URI.
+     */
+    public AcmeProvider find(URI serverUri) {
+        Objects.requireNonNull(serverUri, "serverUri");
+
+        Providers current = getProviders0();
+        String key = indexKey(serverUri);
+
+        AcmeProvider provider = current.index.get(key);
+        if (provider != null && provider.accepts(serverUri)) {
+            return provider;
+        }
+
+        provider = scan(current.list, serverUri);
+        current.index.putIfAbsent(key, provider);
+        return provider;
+    }
+
+    /**
+     * Returns all registered {@link AcmeProvider} instances.
+     *
+     * @return Unmodifiable list of providers
+     */
+    public List<AcmeProvider> getProviders() {
+        return getProviders0().list;
+    }
+
+    /**
+     * Scans the class path for providers again. New provider instances are created, so
+     * sessions that are created afterwards will not share providers with the existing
+     * sessions.
+     */
+    public void refresh() {
+        providers.set(load());
+    }
+
+    /**
+     * Returns the current providers, loading them if necessary.
+     */
+    private Providers getProviders0() {
+        Providers current = providers.get();
+        if (current == null) {
+            providers.compareAndSet(null, load());
+            current = providers.get();
+        }
+        return current;
+    }
+
+    /**
+     * Loads and instantiates all providers.
+     */
+    private Providers load() {
+        ServiceLoader<AcmeProvider> loader = classLoader != null
+                        ? ServiceLoader.load(AcmeProvider.class, classLoader)
+                        : ServiceLoader.load(AcmeProvider.class);
+
+        List<AcmeProvider> list = new ArrayList<>();
+        loader.forEach(list::add);
+        LOG.debug("Found {} ACME providers", list.size());
+        return new Providers(Collections.unmodifiableList(list));
+    }
+
+    /**
+     * Finds the only provider that accepts the server {@link URI}.
+     */
+    private static AcmeProvider scan(List<AcmeProvider> list, URI serverUri) {
+        return list.stream()
+            .filter(p -> p.accepts(serverUri))
+            .reduce((a, b) -> {
+                    throw new IllegalArgumentException("Both ACME providers "
+                        + a.getClass().getSimpleName() + " and "
+                        + b.getClass().getSimpleName() + " accept "
+                        + serverUri + ". Please check your classpath.");
+                })
+            .orElseThrow(() -> new IllegalArgumentException("No ACME provider found for " + serverUri));
+    }
+
+    /**
+     * Returns the index key of a server {@link URI}, consisting of scheme and host.
+     */
+    private static String indexKey(URI serverUri) {
+        String scheme = serverUri.getScheme();
+        String host = serverUri.getHost();
+        return (scheme != null ? scheme.toLowerCase(Locale.ENGLISH) : "")
+                        + "://"
+                        + (host != null ? host.toLowerCase(Locale.ENGLISH) : "");
+    }
+
+    /**
+     * The loaded providers and their index.
+     */
+    private static class Providers {
+        private final List<AcmeProvider> list;
+        private final ConcurrentMap<String, AcmeProvider> index = new ConcurrentHashMap<>();
+
+        private Providers(List<AcmeProvider> list) {
+            this.list = list;
+        }
+    }
+
+}
@@ -0,0 +1,290 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.provider;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.exception.AcmeProtocolException;
+import org.shredzone.acme4j.toolbox.JSON;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches ACME directories, keyed by the resolved directory {@link URI}.
+ * <p>
+ * A directory is cached until the {@code max-age} given by the server, but never longer
+ * than the configured TTL. Expired directories are revalidated by a conditional request
+ * if the server has sent an {@code ETag}. When a directory has reached 80% of its
+ * lifetime, it is refreshed in the background, so callers will rarely have to wait for
+ * a directory.
+ * <p>
+ * Concurrent requests for the same directory are collapsed into a single fetch. Cached
+ * directories are read without locking.
+ */
+public class DirectoryCache {
+    private static final Logger LOG = LoggerFactory.getLogger(DirectoryCache.class);
+    private static final DirectoryCache DEFAULT = new DirectoryCache();
+
+    private final ConcurrentMap<URI, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<URI, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+    private volatile Duration ttl = Duration.ofHours(1);
+
+    /**
+     * Returns the process-wide {@link DirectoryCache} that is used by
+     * {@link AbstractAcmeProvider}.
+     */
+    public static DirectoryCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the maximum time a directory is cached.
+     */
+    public Duration getTtl() {
+        return ttl;
+    }
+
+    /**
+     * Sets the maximum time a directory is cached. The server may request a shorter time
+     * via {@code Cache-Control} header. Default is one hour.
+     *
+     * @param ttl
+     *            Maximum time to live, must not be negative
+     */
+    public void setTtl(Duration ttl) {
+        Objects.requireNonNull(ttl, "ttl");
+        if (ttl.isNegative()) {
+            throw new IllegalArgumentException("ttl must not be negative");
+        }
+        this.ttl = ttl;
+    }
+
+    /**
+     * Returns a directory. If the directory is not cached or has expired, it is fetched
+     * and the caller is blocked until the directory is available.
+     *
+     * @param uri
+     *            Resolved directory {@link URI}
+     * @param fetcher
+     *            {@link Fetcher} that fetches the directory from the server
+     * @param executor
+     *            {@link Executor} for background refreshes, or {@code null} to disable
+     *            background refreshes
+     * @return Directory data, as JSON object
+     */
+    public JSON get(URI uri, Fetcher fetcher, Executor executor) throws AcmeException {
+        Objects.requireNonNull(uri, "uri");
+        Objects.requireNonNull(fetcher, "fetcher");
+
+        Instant now = Instant.now();
+        Entry entry = entries.get(uri);
+        if (entry != null && entry.expiry.isAfter(now)) {
+            if (executor != null && !entry.refresh.isAfter(now)) {
+                refreshAsync(uri, entry, fetcher, executor);
+            }
+            return entry.json;
+        }
+
+        return load(uri, entry, fetcher).json;
+    }
+
+    /**
+     * Returns the instant the cached directory expires.
+     *
+     * @param uri
+     *            Resolved directory {@link URI}
+     * @return Expiry instant, or {@code null} if the directory is not cached
+     */
+    public Instant getExpiry(URI uri) {
+        Entry entry = entries.get(Objects.requireNonNull(uri, "uri"));
+        return entry != null ? entry.expiry : null;
+    }
+
+    /**
+     * Removes a directory from the cache. It will be fetched again on the next access.
+     *
+     * @param uri
+     *            Resolved directory {@link URI}
+     */
+    public void invalidate(URI uri) {
+        entries.remove(Objects.requireNonNull(uri, "uri"));
+    }
+
+    /**
+     * Removes all directories from the cache.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Refreshes a directory in the background, unless a refresh is already running.
+     */
+    private void refreshAsync(URI uri, Entry entry, Fetcher fetcher, Executor executor) {
+        if (loading.containsKey(uri)) {
+            return;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    load(uri, entry, fetcher);
+                } catch (AcmeException | RuntimeException ex) {
+                    LOG.debug("Background refresh of directory {} failed", uri, ex);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            LOG.debug("Background refresh of directory {} was rejected", uri, ex);
+        }
+    }
+
+    /**
+     * Fetches a directory and stores it in the cache. If the directory is already being
+     * fetched, the result of that fetch is awaited instead.
+     *
+     * @param uri
+     *            Resolved directory {@link URI}
+     * @param previous
+     *            Previous cache {@link Entry}, or {@code null} if there is none
+     * @param fetcher
+     *            {@link Fetcher} that fetches the directory
+     * @return New cache {@link Entry}
+     */
+    private Entry load(URI uri, Entry previous, Fetcher fetcher) throws AcmeException {
+        CompletableFuture<Entry> future = new CompletableFuture<>();
+        CompletableFuture<Entry> running = loading.putIfAbsent(uri, future);
+        if (running != null) {
+            return await(running);
+        }
+
+        try {
+            String etag = previous != null ? previous.etag : null;
+            FetchResult result = fetcher.fetch(etag);
+
+            JSON json = result.json;
+            if (json == null) {
+                if (previous == null) {
+                    throw new AcmeProtocolException("Directory was not modified, but is not cached");
+                }
+                LOG.debug("Directory {} was not modified", uri);
+                json = previous.json;
+            }
+
+            Instant now = Instant.now();
+            Instant expiry = now.plus(ttl);
+            if (result.expiry != null && result.expiry.isBefore(expiry)) {
+                expiry = result.expiry;
+            }
+
+            Entry entry = new Entry(json, result.etag != null ? result.etag : etag, now, expiry);
+            entries.put(uri, entry);
+            future.complete(entry);
+            return entry;
+        } catch (AcmeException | RuntimeException ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            loading.remove(uri, future);
+        }
+    }
+
+    /**
+     * Awaits a running fetch.
+     */
+    private static Entry await(CompletableFuture<Entry> future) throws AcmeException {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof AcmeException) {
+                throw (AcmeException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new AcmeException("Failed to fetch directory", cause);
+        }
+    }
+
+    /**
+     * Fetches a directory from the server.
+     */
+    @FunctionalInterface
+    public interface Fetcher {
+
+        /**
+         * Fetches the directory.
+         *
+         * @param etag
+         *            Entity tag of the cached directory, or {@code null} if the directory
+         *            is not cached or the server did not send an entity tag
+         * @return {@link FetchResult} of the fetch
+         */
+        FetchResult fetch(String etag) throws AcmeException;
+    }
+
+    /**
+     * The result of a directory fetch.
+     */
+    public static class FetchResult {
+        private final JSON json;
+        private final String etag;
+        private final Instant expiry;
+
+        /**
+         * Creates a new {@link FetchResult}.
+         *
+         * @param json
+         *            Directory data, or {@code null} if the server responded that the
+         *            cached directory was not modified
+         * @param etag
+         *            Entity tag sent by the server, or {@code null}
+         * @param expiry
+         *            Expiry instant requested by the server, or {@code null}
+         */
+        public FetchResult(JSON json, String etag, Instant expiry) {
+            this.json = json;
+            this.etag = etag;
+            this.expiry = expiry;
+        }
+    }
+
+    /**
+     * A cached directory.
+     */
+    private static class Entry {
+        private final JSON json;
+        private final String etag;
+        private final Instant expiry;
+        private final Instant refresh;
+
+        private Entry(JSON json, String etag, Instant fetched, Instant expiry) {
+            this.json = json;
+            this.etag = etag;
+            this.expiry = expiry;
+            this.refresh = fetched.plusMillis(Duration.between(fetched, expiry).toMillis() * 4 / 5);
+        }
+    }
+
+}
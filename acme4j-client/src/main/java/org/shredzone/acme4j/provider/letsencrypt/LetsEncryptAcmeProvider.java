@@ -15,8 +15,13 @@ package org.shredzone.acme4j.provider.letsencrypt;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.shredzone.acme4j.connector.HttpConnector;
+import org.shredzone.acme4j.connector.RateLimiter;
+import org.shredzone.acme4j.connector.RateLimiter.Scope;
+import org.shredzone.acme4j.connector.Resource;
 import org.shredzone.acme4j.exception.AcmeProtocolException;
 import org.shredzone.acme4j.provider.AbstractAcmeProvider;
 import org.shredzone.acme4j.provider.AcmeProvider;
@@ -30,7 +35,14 @@ import org.slf4j.LoggerFactory;
  * and {@code "acme://letsencrypt.org/staging"} for a testing server.
  * <p>
  * If you want to use <em>Let's Encrypt</em>, always prefer to use this provider.
+ * <p>
+ * Optionally, signed requests are limited on client side according to the published
+ * rate limits of <em>Let's Encrypt</em>. The limiter is disabled by default. It can be
+ * enabled via {@link #setRateLimited(boolean)}, or by setting the
+ * {@code acme4j.le.ratelimit} system property to {@code true}. The limits can then be
+ * adjusted via {@link #getRateLimiter(URI)}.
  *
+ * @see <a href="https://letsencrypt.org/docs/rate-limits/">Let's Encrypt rate limits</a>
  * @see <a href="https://letsencrypt.org/">Let's Encrypt</a>
  */
 public class LetsEncryptAcmeProvider extends AbstractAcmeProvider {
@@ -40,6 +52,29 @@ public class LetsEncryptAcmeProvider extends AbstractAcmeProvider {
     private static final String V01_DIRECTORY_URI = "https://acme-v01.api.letsencrypt.org/directory";
     private static final String STAGING_DIRECTORY_URI = "https://acme-staging.api.letsencrypt.org/directory";
 
+    private final AtomicReference<RateLimiter> productionRateLimiter = new AtomicReference<>();
+    private final AtomicReference<RateLimiter> stagingRateLimiter = new AtomicReference<>();
+    private volatile boolean rateLimited = Boolean.getBoolean("acme4j.le.ratelimit");
+
+    /**
+     * Checks if signed requests are limited on client side.
+     */
+    public boolean isRateLimited() {
+        return rateLimited;
+    }
+
+    /**
+     * Enables or disables the client side rate limiter. The limits are kept while the
+     * limiter is disabled. Default is the value of the {@code acme4j.le.ratelimit}
+     * system property, or {@code false} if it is not set.
+     *
+     * @param rateLimited
+     *            {@code true} to limit signed requests on client side
+     */
+    public void setRateLimited(boolean rateLimited) {
+        this.rateLimited = rateLimited;
+    }
+
     @Override
     public boolean accepts(URI serverUri) {
         return "acme".equals(serverUri.getScheme())
@@ -65,6 +100,26 @@ public class LetsEncryptAcmeProvider extends AbstractAcmeProvider {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Returns {@code null} unless the rate limiter was enabled via
+     * {@link #setRateLimited(boolean)}. Production and staging servers have separate
+     * limiters, which are kept for the lifetime of this provider.
+     */
+    @Override
+    public RateLimiter getRateLimiter(URI serverUri) {
+        if (!rateLimited) {
+            return null;
+        }
+
+        if (STAGING_DIRECTORY_URI.equals(resolve(serverUri).toString())) {
+            return lazyRateLimiter(stagingRateLimiter, 30000, 50);
+        } else {
+            return lazyRateLimiter(productionRateLimiter, 20, 10);
+        }
+    }
+
     @Override
     @SuppressWarnings("deprecation")
     protected HttpConnector createHttpConnector() {
@@ -76,4 +131,51 @@ public class LetsEncryptAcmeProvider extends AbstractAcmeProvider {
         }
     }
 
+    /**
+     * Uses the pinned {@link LetsEncryptHttpConnector} for persistent connections too,
+     * if the {@code acme4j.le.certfix} system property is set. It already shares a
+     * single {@link javax.net.ssl.SSLSocketFactory} between all connections, so HTTP
+     * keep-alive and TLS session resumption still work.
+     */
+    @Override
+    protected HttpConnector createPersistentHttpConnector() {
+        if (Boolean.getBoolean("acme4j.le.certfix")) {
+            return createHttpConnector();
+        } else {
+            return super.createPersistentHttpConnector();
+        }
+    }
+
+    /**
+     * Returns the {@link RateLimiter} of the given reference, creating it if necessary.
+     */
+    private static RateLimiter lazyRateLimiter(AtomicReference<RateLimiter> ref,
+                int certsPerDomain, int regsPerIp) {
+        RateLimiter limiter = ref.get();
+        if (limiter == null) {
+            ref.compareAndSet(null, createRateLimiter(certsPerDomain, regsPerIp));
+            limiter = ref.get();
+        }
+        return limiter;
+    }
+
+    /**
+     * Creates a {@link RateLimiter} with the limits of a Let's Encrypt server.
+     *
+     * @param certsPerDomain
+     *            Certificates per registered domain and week
+     * @param regsPerIp
+     *            Registrations per IP address and three hours
+     * @return {@link RateLimiter} that was created
+     */
+    private static RateLimiter createRateLimiter(int certsPerDomain, int regsPerIp) {
+        RateLimiter limiter = new RateLimiter();
+        for (Resource resource : Resource.values()) {
+            limiter.setLimit(resource, Scope.ENDPOINT, 20, Duration.ofSeconds(1));
+        }
+        limiter.setLimit(Resource.NEW_CERT, Scope.DOMAIN, certsPerDomain, Duration.ofDays(7));
+        limiter.setLimit(Resource.NEW_REG, Scope.ENDPOINT, regsPerIp, Duration.ofHours(3));
+        return limiter;
+    }
+
 }
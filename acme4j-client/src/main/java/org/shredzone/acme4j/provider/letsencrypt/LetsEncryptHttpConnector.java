@@ -21,6 +21,7 @@ import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
@@ -39,7 +40,7 @@ import org.shredzone.acme4j.connector.HttpConnector;
 @Deprecated
 public class LetsEncryptHttpConnector extends HttpConnector {
 
-    private static SSLSocketFactory sslSocketFactory;
+    private static final AtomicReference<SSLSocketFactory> SSL_SOCKET_FACTORY = new AtomicReference<>();
 
     @Override
     public HttpURLConnection openConnection(URI uri) throws IOException {
@@ -53,9 +54,13 @@ public class LetsEncryptHttpConnector extends HttpConnector {
     /**
      * Lazily creates an {@link SSLSocketFactory} that exclusively accepts the Let's
      * Encrypt certificate.
+     * <p>
+     * No lock is held while the truststore is read. If several threads create the
+     * factory at the same time, only the first one is kept.
      */
-    protected synchronized SSLSocketFactory createSocketFactory() throws IOException {
-        if (sslSocketFactory == null) {
+    protected SSLSocketFactory createSocketFactory() throws IOException {
+        SSLSocketFactory factory = SSL_SOCKET_FACTORY.get();
+        if (factory == null) {
             try {
                 KeyStore keystore = KeyStore.getInstance(KeyStore.getDefaultType());
                 keystore.load(getClass().getResourceAsStream("/org/shredzone/acme4j/letsencrypt.truststore"),
@@ -67,13 +72,14 @@ public class LetsEncryptHttpConnector extends HttpConnector {
                 SSLContext ctx = SSLContext.getInstance("TLS");
                 ctx.init(null, tmf.getTrustManagers(), null);
 
-                sslSocketFactory = ctx.getSocketFactory();
+                SSL_SOCKET_FACTORY.compareAndSet(null, ctx.getSocketFactory());
+                factory = SSL_SOCKET_FACTORY.get();
             } catch (KeyStoreException | CertificateException | NoSuchAlgorithmException
                             | KeyManagementException ex) {
                 throw new IOException("Could not create truststore", ex);
             }
         }
-        return sslSocketFactory;
+        return factory;
     }
 
 }
@@ -0,0 +1,180 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.store;
+
+import java.net.URI;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Objects;
+
+import org.shredzone.acme4j.Status;
+
+/**
+ * A checkpoint of an ACME resource that is in use by a long running operation. It
+ * contains the resource's location and its last known {@link Status}, so the operation
+ * can be resumed after a restart.
+ * <p>
+ * Instances are immutable.
+ */
+public final class Checkpoint {
+
+    /**
+     * The type of the checkpointed resource.
+     */
+    public enum Type {
+        /**
+         * An {@link org.shredzone.acme4j.Authorization}. The key is the domain name.
+         */
+        AUTHORIZATION,
+
+        /**
+         * A {@link org.shredzone.acme4j.challenge.Challenge} that has been triggered.
+         * The key is the domain name.
+         */
+        CHALLENGE,
+
+        /**
+         * A {@link org.shredzone.acme4j.Certificate} that has been requested. The key
+         * identifies the CSR.
+         */
+        CERTIFICATE
+    }
+
+    private final Type type;
+    private final String key;
+    private final URI location;
+    private final Status status;
+    private final Instant expires;
+    private final Instant timestamp;
+
+    /**
+     * Creates a new {@link Checkpoint} with the current time as timestamp, in millisecond
+     * precision.
+     *
+     * @param type
+     *            {@link Type} of the resource
+     * @param key
+     *            Key of the resource, unique for the type
+     * @param location
+     *            Location of the resource
+     * @param status
+     *            Last known {@link Status} of the resource
+     * @param expires
+     *            Expiration date of the resource, or {@code null} if unknown
+     */
+    public Checkpoint(Type type, String key, URI location, Status status, Instant expires) {
+        this(type, key, location, status, expires, Instant.now().truncatedTo(ChronoUnit.MILLIS));
+    }
+
+    /**
+     * Creates a new {@link Checkpoint}.
+     *
+     * @param type
+     *            {@link Type} of the resource
+     * @param key
+     *            Key of the resource, unique for the type
+     * @param location
+     *            Location of the resource
+     * @param status
+     *            Last known {@link Status} of the resource
+     * @param expires
+     *            Expiration date of the resource, or {@code null} if unknown
+     * @param timestamp
+     *            Instant the checkpoint was taken
+     */
+    public Checkpoint(Type type, String key, URI location, Status status, Instant expires,
+                Instant timestamp) {
+        this.type = Objects.requireNonNull(type, "type");
+        this.key = Objects.requireNonNull(key, "key");
+        this.location = Objects.requireNonNull(location, "location");
+        this.status = Objects.requireNonNull(status, "status");
+        this.expires = expires;
+        this.timestamp = Objects.requireNonNull(timestamp, "timestamp");
+    }
+
+    /**
+     * Gets the {@link Type} of the resource.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the key of the resource.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Gets the location of the resource.
+     */
+    public URI getLocation() {
+        return location;
+    }
+
+    /**
+     * Gets the last known {@link Status} of the resource.
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Gets the expiration date of the resource, or {@code null} if unknown.
+     */
+    public Instant getExpires() {
+        return expires;
+    }
+
+    /**
+     * Gets the instant the checkpoint was taken.
+     */
+    public Instant getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Checks if the resource has expired.
+     *
+     * @param now
+     *            Current instant
+     * @return {@code true} if the resource is known to be expired
+     */
+    public boolean isExpired(Instant now) {
+        return expires != null && !expires.isAfter(now);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Checkpoint)) {
+            return false;
+        }
+        Checkpoint cmp = (Checkpoint) obj;
+        return type == cmp.type && key.equals(cmp.key) && location.equals(cmp.location)
+                        && status == cmp.status && Objects.equals(expires, cmp.expires)
+                        && timestamp.equals(cmp.timestamp);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, key, location, status, expires, timestamp);
+    }
+
+    @Override
+    public String toString() {
+        return type + "[" + key + "] " + status + " " + location;
+    }
+
+}
@@ -0,0 +1,344 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.store;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import org.shredzone.acme4j.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link StateStore} that writes all changes to an append-only file.
+ * <p>
+ * Each change is appended as a single line with a checksum, and is flushed to the
+ * storage device before {@link #put(Checkpoint)} or {@link #remove(Checkpoint.Type,
+ * String)} returns. If the process crashes while a line is written, the incomplete line
+ * is discarded when the file is opened again. The file is compacted when it is opened
+ * and contains too many outdated lines, by writing a new file and atomically replacing
+ * the old one.
+ * <p>
+ * If a record cannot be written completely, e.g. because the storage device is full, the
+ * file is truncated to its last complete record.
+ * <p>
+ * Only one {@link FileStateStore} instance must use the file at a time. The instance
+ * itself is thread-safe. No monitor is held while the file is written.
+ */
+public class FileStateStore implements StateStore {
+    private static final Logger LOG = LoggerFactory.getLogger(FileStateStore.class);
+    private static final String PUT = "P";
+    private static final String REMOVE = "D";
+    private static final String NONE = "-";
+    private static final int COMPACTION_SLACK = 64;
+
+    private final Path file;
+    private final Map<String, Checkpoint> checkpoints = new LinkedHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private FileChannel channel;
+    private int records;
+    private volatile boolean sync = true;
+
+    /**
+     * Opens a {@link FileStateStore}. The file is created if it does not exist.
+     *
+     * @param file
+     *            {@link Path} of the state file
+     */
+    public FileStateStore(Path file) throws IOException {
+        this.file = Objects.requireNonNull(file, "file");
+        load();
+        if (records > checkpoints.size() * 2 + COMPACTION_SLACK) {
+            compact();
+        } else {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+    }
+
+    /**
+     * Gets the {@link Path} of the state file.
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Checks if changes are flushed to the storage device before returning.
+     */
+    public boolean isSync() {
+        return sync;
+    }
+
+    /**
+     * Sets if changes are flushed to the storage device before returning. Default is
+     * {@code true}. If disabled, changes are faster, but may be lost if the operating
+     * system crashes.
+     */
+    public void setSync(boolean sync) {
+        this.sync = sync;
+    }
+
+    @Override
+    public void put(Checkpoint checkpoint) throws IOException {
+        Objects.requireNonNull(checkpoint, "checkpoint");
+        lock.lock();
+        try {
+            append(format(checkpoint));
+            checkpoints.put(mapKey(checkpoint.getType(), checkpoint.getKey()), checkpoint);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Checkpoint get(Checkpoint.Type type, String key) {
+        lock.lock();
+        try {
+            return checkpoints.get(mapKey(type, key));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(Checkpoint.Type type, String key) throws IOException {
+        String mapKey = mapKey(type, key);
+        lock.lock();
+        try {
+            if (checkpoints.containsKey(mapKey)) {
+                append(REMOVE + '\t' + type.name() + '\t' + encode(key));
+                checkpoints.remove(mapKey);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<Checkpoint> getAll() {
+        lock.lock();
+        try {
+            return Collections.unmodifiableList(new ArrayList<>(checkpoints.values()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rewrites the file, so it only contains the current checkpoints.
+     */
+    public void compact() throws IOException {
+        lock.lock();
+        try {
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (Checkpoint checkpoint : checkpoints.values()) {
+                    write(out, format(checkpoint));
+                }
+                out.force(true);
+            } catch (IOException ex) {
+                Files.deleteIfExists(tmp);
+                throw ex;
+            }
+
+            if (channel != null) {
+                channel.close();
+            }
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            LOG.debug("Compacted {} records of {} to {}", records, file, checkpoints.size());
+            records = checkpoints.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the file. An incomplete or corrupted line and everything after it is
+     * discarded.
+     */
+    private void load() throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+
+        byte[] data = Files.readAllBytes(file);
+        int start = 0;
+        while (start < data.length) {
+            int end = start;
+            while (end < data.length && data[end] != '\n') {
+                end++;
+            }
+
+            String line = end < data.length ? new String(data, start, end - start, UTF_8) : null;
+            if (line == null || !parse(line)) {
+                LOG.warn("Discarding corrupted state of {} at offset {}", file, start);
+                try (FileChannel trunc = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    trunc.truncate(start);
+                    trunc.force(true);
+                }
+                break;
+            }
+
+            records++;
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Parses a line and applies it.
+     *
+     * @return {@code true} if the line was valid
+     */
+    private boolean parse(String line) {
+        int sep = line.indexOf('\t');
+        if (sep < 0) {
+            return false;
+        }
+
+        String payload = line.substring(sep + 1);
+        if (!line.substring(0, sep).equals(checksum(payload))) {
+            return false;
+        }
+
+        try {
+            String[] fields = payload.split("\t", -1);
+            Checkpoint.Type type = Checkpoint.Type.valueOf(fields[1]);
+            String key = URLDecoder.decode(fields[2], "UTF-8");
+
+            if (PUT.equals(fields[0]) && fields.length == 7) {
+                Instant expires = NONE.equals(fields[5]) ? null : Instant.ofEpochMilli(Long.parseLong(fields[5]));
+                Checkpoint checkpoint = new Checkpoint(type, key, new URI(fields[3]),
+                                Status.valueOf(fields[4]), expires,
+                                Instant.ofEpochMilli(Long.parseLong(fields[6])));
+                checkpoints.put(mapKey(type, key), checkpoint);
+                return true;
+            }
+
+            if (REMOVE.equals(fields[0]) && fields.length == 3) {
+                checkpoints.remove(mapKey(type, key));
+                return true;
+            }
+
+            return false;
+        } catch (Exception ex) {
+            LOG.debug("Invalid state record: {}", line, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Appends a record to the file. If the record could not be written completely, the
+     * file is truncated to its previous size, so later records are not appended to a
+     * torn line.
+     */
+    private void append(String payload) throws IOException {
+        if (channel == null) {
+            throw new IOException("State store " + file + " is closed");
+        }
+
+        long offset = channel.size();
+        try {
+            write(channel, payload);
+            if (sync) {
+                channel.force(false);
+            }
+        } catch (IOException ex) {
+            try {
+                channel.truncate(offset);
+            } catch (IOException ex2) {
+                ex.addSuppressed(ex2);
+            }
+            throw ex;
+        }
+        records++;
+    }
+
+    /**
+     * Writes a record as a single line, prefixed with its checksum.
+     */
+    void write(FileChannel out, String payload) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap((checksum(payload) + '\t' + payload + '\n').getBytes(UTF_8));
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * Formats a {@link Checkpoint} as record payload.
+     */
+    private static String format(Checkpoint checkpoint) {
+        Instant expires = checkpoint.getExpires();
+        return PUT + '\t' + checkpoint.getType().name()
+                + '\t' + encode(checkpoint.getKey())
+                + '\t' + checkpoint.getLocation()
+                + '\t' + checkpoint.getStatus().name()
+                + '\t' + (expires != null ? String.valueOf(expires.toEpochMilli()) : NONE)
+                + '\t' + checkpoint.getTimestamp().toEpochMilli();
+    }
+
+    private static String checksum(String payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload.getBytes(UTF_8));
+        return String.format("%08x", crc.getValue());
+    }
+
+    private static String encode(String key) {
+        try {
+            return URLEncoder.encode(key, "UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException("UTF-8 is not supported", ex);
+        }
+    }
+
+    private static String mapKey(Checkpoint.Type type, String key) {
+        return Objects.requireNonNull(type, "type").name() + ':' + Objects.requireNonNull(key, "key");
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.store;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A {@link StateStore} that keeps all checkpoints in memory. The checkpoints do not
+ * survive a restart, so it is mainly useful for testing.
+ */
+public class InMemoryStateStore implements StateStore {
+
+    private final ConcurrentMap<String, Checkpoint> checkpoints = new ConcurrentHashMap<>();
+
+    @Override
+    public void put(Checkpoint checkpoint) {
+        Objects.requireNonNull(checkpoint, "checkpoint");
+        checkpoints.put(mapKey(checkpoint.getType(), checkpoint.getKey()), checkpoint);
+    }
+
+    @Override
+    public Checkpoint get(Checkpoint.Type type, String key) {
+        return checkpoints.get(mapKey(type, key));
+    }
+
+    @Override
+    public void remove(Checkpoint.Type type, String key) {
+        checkpoints.remove(mapKey(type, key));
+    }
+
+    @Override
+    public Collection<Checkpoint> getAll() {
+        return Collections.unmodifiableList(new ArrayList<>(checkpoints.values()));
+    }
+
+    private static String mapKey(Checkpoint.Type type, String key) {
+        return Objects.requireNonNull(type, "type").name() + ':' + Objects.requireNonNull(key, "key");
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.store;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Stores {@link Checkpoint} of ACME resources that are used by long running operations,
+ * so the operations can be resumed after a restart instead of creating new resources at
+ * the CA.
+ * <p>
+ * There is one {@link Checkpoint} per {@link Checkpoint.Type} and key. Storing a
+ * checkpoint replaces the previous one.
+ * <p>
+ * Implementations must be thread-safe.
+ */
+public interface StateStore extends AutoCloseable {
+
+    /**
+     * Stores a {@link Checkpoint}, replacing a previous checkpoint of the same type and
+     * key. When this method returns, the checkpoint must survive a restart.
+     *
+     * @param checkpoint
+     *            {@link Checkpoint} to store
+     */
+    void put(Checkpoint checkpoint) throws IOException;
+
+    /**
+     * Gets a {@link Checkpoint}.
+     *
+     * @param type
+     *            {@link Checkpoint.Type} of the resource
+     * @param key
+     *            Key of the resource
+     * @return {@link Checkpoint}, or {@code null} if there is none
+     */
+    Checkpoint get(Checkpoint.Type type, String key);
+
+    /**
+     * Removes a {@link Checkpoint}. Does nothing if there is none.
+     *
+     * @param type
+     *            {@link Checkpoint.Type} of the resource
+     * @param key
+     *            Key of the resource
+     */
+    void remove(Checkpoint.Type type, String key) throws IOException;
+
+    /**
+     * Returns a snapshot of all {@link Checkpoint}.
+     */
+    Collection<Checkpoint> getAll();
+
+    /**
+     * Closes the store. The default implementation does nothing.
+     */
+    @Override
+    default void close() throws IOException {
+        // no-op
+    }
+
+}
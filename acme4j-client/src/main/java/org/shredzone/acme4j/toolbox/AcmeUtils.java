@@ -20,6 +20,9 @@ import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -30,6 +33,7 @@ import org.jose4j.jwk.RsaJsonWebKey;
 import org.jose4j.jws.AlgorithmIdentifiers;
 import org.jose4j.jws.JsonWebSignature;
 import org.shredzone.acme4j.exception.AcmeProtocolException;
+import org.slf4j.LoggerFactory;
 
 /**
  * Contains utility methods that are frequently used for the ACME protocol.
@@ -224,4 +228,24 @@ public final class AcmeUtils {
         }
     }
 
+    /**
+     * Creates an {@link ExecutorService} that starts a new virtual thread for each task.
+     * <p>
+     * Virtual threads are available since Java 21. The executor is looked up at runtime,
+     * so acme4j can still be used on older Java versions.
+     *
+     * @return {@link ExecutorService} using virtual threads, or empty if the JVM does not
+     *         support virtual threads
+     */
+    public static Optional<ExecutorService> newVirtualThreadExecutor() {
+        try {
+            return Optional.of((ExecutorService) Executors.class
+                            .getMethod("newVirtualThreadPerTaskExecutor")
+                            .invoke(null));
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            LoggerFactory.getLogger(AcmeUtils.class).debug("Virtual threads are not supported", ex);
+            return Optional.empty();
+        }
+    }
+
 }
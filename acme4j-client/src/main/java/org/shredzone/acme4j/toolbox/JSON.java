@@ -13,20 +13,22 @@
  */
 package org.shredzone.acme4j.toolbox;
 
-import static java.util.stream.Collectors.joining;
 import static org.shredzone.acme4j.toolbox.AcmeUtils.parseTimestamp;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.Reader;
 import java.io.Serializable;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.Collections;
 import java.util.HashMap;
@@ -40,7 +42,6 @@ import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 import org.jose4j.json.JsonUtil;
-import org.jose4j.lang.JoseException;
 import org.shredzone.acme4j.Problem;
 import org.shredzone.acme4j.exception.AcmeProtocolException;
 
@@ -87,9 +88,8 @@ public final class JSON implements Serializable {
      * @return {@link JSON} of the read content.
      */
     public static JSON parse(InputStream in) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, "utf-8"))) {
-            String json = reader.lines().map(String::trim).collect(joining());
-            return parse(json);
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            return new JSON(JSONParser.parseObject(reader));
         }
     }
 
@@ -102,9 +102,10 @@ public final class JSON implements Serializable {
      */
     public static JSON parse(String json) {
         try {
-            return new JSON(JsonUtil.parseJson(json));
-        } catch (JoseException ex) {
-            throw new AcmeProtocolException("Bad JSON: " + json, ex);
+            return new JSON(JSONParser.parseObject(new StringReader(json)));
+        } catch (IOException ex) {
+            // StringReader does not throw IOException
+            throw new UncheckedIOException(ex);
         }
     }
 
@@ -170,12 +171,8 @@ public final class JSON implements Serializable {
      * Deserialize the JSON representation of the data map.
      */
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
-        try {
-            data = new HashMap<>(JsonUtil.parseJson(in.readUTF()));
-            in.defaultReadObject();
-        } catch (JoseException ex) {
-            throw new AcmeProtocolException("Cannot deserialize", ex);
-        }
+        data = JSONParser.parseObject(new StringReader(in.readUTF()));
+        in.defaultReadObject();
     }
 
     /**
@@ -0,0 +1,406 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.toolbox;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.shredzone.acme4j.exception.AcmeProtocolException;
+
+/**
+ * A small streaming JSON parser.
+ * <p>
+ * The JSON document is decoded directly from a {@link Reader} into the {@link Map} and
+ * {@link List} representation that is used by {@link JSON}. There is no intermediate
+ * copy of the document. Integer numbers are decoded as {@link Long}, all other numbers
+ * as {@link Double}. Duplicate keys are rejected. Like the jose4j parser, unescaped
+ * control characters in strings are accepted and kept as they are.
+ * <p>
+ * A parser instance is not thread safe, and can only be used once.
+ */
+final class JSONParser {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_DEPTH = 256;
+
+    private final Reader reader;
+    private final char[] buffer;
+    private final StringBuilder sb = new StringBuilder();
+    private int pos;
+    private int limit;
+    private long offset;
+    private int depth;
+
+    /**
+     * Creates a new {@link JSONParser}.
+     *
+     * @param reader
+     *            {@link Reader} to read the JSON document from
+     */
+    JSONParser(Reader reader) {
+        this.reader = reader;
+        this.buffer = new char[BUFFER_SIZE];
+    }
+
+    /**
+     * Parses a JSON document containing a single JSON object.
+     *
+     * @param reader
+     *            {@link Reader} to read the JSON document from. It is not closed.
+     * @return Map of the parsed JSON object
+     * @throws AcmeProtocolException
+     *             if the document is not a valid JSON object
+     */
+    static Map<String, Object> parseObject(Reader reader) throws IOException {
+        JSONParser parser = new JSONParser(reader);
+        if (parser.skipWhitespace() != '{') {
+            throw parser.error("JSON object expected");
+        }
+        Map<String, Object> result = parser.readObject();
+        if (parser.skipWhitespace() != -1) {
+            throw parser.error("Unexpected content after JSON object");
+        }
+        return result;
+    }
+
+    /**
+     * Reads the next value. The reader is positioned at the first character of the
+     * value.
+     */
+    private Object readValue() throws IOException {
+        int ch = skipWhitespace();
+        switch (ch) {
+            case '{':
+                return readObject();
+
+            case '[':
+                return readArray();
+
+            case '"':
+                pos++;
+                return readString();
+
+            case 't':
+                expectLiteral("true");
+                return Boolean.TRUE;
+
+            case 'f':
+                expectLiteral("false");
+                return Boolean.FALSE;
+
+            case 'n':
+                expectLiteral("null");
+                return null;
+
+            case -1:
+                throw error("Unexpected end of JSON document");
+
+            default:
+                if (ch == '-' || (ch >= '0' && ch <= '9')) {
+                    return readNumber();
+                }
+                throw error("Unexpected character '" + (char) ch + "'");
+        }
+    }
+
+    /**
+     * Reads a JSON object. The reader is positioned at the opening brace.
+     */
+    private Map<String, Object> readObject() throws IOException {
+        enter();
+        pos++;
+        Map<String, Object> result = new LinkedHashMap<>();
+
+        int ch = skipWhitespace();
+        if (ch == '}') {
+            pos++;
+            depth--;
+            return result;
+        }
+
+        while (true) {
+            if (ch != '"') {
+                throw error("Key expected");
+            }
+            pos++;
+            String key = readString();
+
+            if (skipWhitespace() != ':') {
+                throw error("':' expected");
+            }
+            pos++;
+
+            Object value = readValue();
+            if (result.containsKey(key)) {
+                throw error("Duplicate key '" + key + "'");
+            }
+            result.put(key, value);
+
+            ch = skipWhitespace();
+            pos++;
+            if (ch == '}') {
+                depth--;
+                return result;
+            }
+            if (ch != ',') {
+                pos--;
+                throw error("',' or '}' expected");
+            }
+            ch = skipWhitespace();
+        }
+    }
+
+    /**
+     * Reads a JSON array. The reader is positioned at the opening bracket.
+     */
+    private List<Object> readArray() throws IOException {
+        enter();
+        pos++;
+        List<Object> result = new ArrayList<>();
+
+        if (skipWhitespace() == ']') {
+            pos++;
+            depth--;
+            return result;
+        }
+
+        while (true) {
+            result.add(readValue());
+
+            int ch = skipWhitespace();
+            pos++;
+            if (ch == ']') {
+                depth--;
+                return result;
+            }
+            if (ch != ',') {
+                pos--;
+                throw error("',' or ']' expected");
+            }
+        }
+    }
+
+    /**
+     * Reads a JSON string. The reader is positioned after the opening quote.
+     */
+    private String readString() throws IOException {
+        sb.setLength(0);
+        while (true) {
+            if (pos >= limit && !fill()) {
+                throw error("Unterminated string");
+            }
+
+            // Copy unescaped runs in one go
+            int start = pos;
+            while (pos < limit) {
+                char c = buffer[pos];
+                if (c == '"' || c == '\\') {
+                    break;
+                }
+                pos++;
+            }
+            sb.append(buffer, start, pos - start);
+            if (pos >= limit) {
+                continue;
+            }
+
+            char c = buffer[pos++];
+            if (c == '"') {
+                return sb.toString();
+            }
+            sb.append(readEscape());
+        }
+    }
+
+    /**
+     * Reads an escape sequence. The reader is positioned after the backslash.
+     */
+    private char readEscape() throws IOException {
+        int ch = read();
+        switch (ch) {
+            case '"':  return '"';
+            case '\\': return '\\';
+            case '/':  return '/';
+            case 'b':  return '\b';
+            case 'f':  return '\f';
+            case 'n':  return '\n';
+            case 'r':  return '\r';
+            case 't':  return '\t';
+            case 'u':
+                int result = 0;
+                for (int ix = 0; ix < 4; ix++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw error("Bad unicode escape sequence");
+                    }
+                    result = (result << 4) | digit;
+                }
+                return (char) result;
+            default:
+                throw error("Bad escape sequence");
+        }
+    }
+
+    /**
+     * Reads a JSON number. The reader is positioned at the first character.
+     */
+    private Number readNumber() throws IOException {
+        sb.setLength(0);
+        boolean integer = true;
+
+        if (peek() == '-') {
+            sb.append((char) read());
+        }
+        if (!readDigits()) {
+            throw error("Digit expected");
+        }
+        if (peek() == '.') {
+            integer = false;
+            sb.append((char) read());
+            if (!readDigits()) {
+                throw error("Digit expected");
+            }
+        }
+        int ch = peek();
+        if (ch == 'e' || ch == 'E') {
+            integer = false;
+            sb.append((char) read());
+            ch = peek();
+            if (ch == '+' || ch == '-') {
+                sb.append((char) read());
+            }
+            if (!readDigits()) {
+                throw error("Digit expected");
+            }
+        }
+
+        String number = sb.toString();
+        if (integer) {
+            try {
+                return Long.valueOf(number);
+            } catch (NumberFormatException ex) {
+                // too large for a long, fall back to double
+            }
+        }
+        return Double.valueOf(number);
+    }
+
+    /**
+     * Appends a sequence of digits to the string buffer.
+     *
+     * @return {@code true} if at least one digit was read
+     */
+    private boolean readDigits() throws IOException {
+        boolean found = false;
+        int ch;
+        while ((ch = peek()) >= '0' && ch <= '9') {
+            sb.append((char) read());
+            found = true;
+        }
+        return found;
+    }
+
+    /**
+     * Expects a literal. The reader is positioned at the first character.
+     */
+    private void expectLiteral(String literal) throws IOException {
+        for (int ix = 0; ix < literal.length(); ix++) {
+            if (read() != literal.charAt(ix)) {
+                throw error("'" + literal + "' expected");
+            }
+        }
+    }
+
+    /**
+     * Enters a nested object or array.
+     */
+    private void enter() {
+        if (++depth > MAX_DEPTH) {
+            throw error("JSON structure is nested too deeply");
+        }
+    }
+
+    /**
+     * Skips all whitespaces.
+     *
+     * @return The next non-whitespace character, which is not consumed, or -1 if the
+     *         end of the document was reached
+     */
+    private int skipWhitespace() throws IOException {
+        while (true) {
+            if (pos >= limit && !fill()) {
+                return -1;
+            }
+            char c = buffer[pos];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+            pos++;
+        }
+    }
+
+    /**
+     * Returns the next character without consuming it, or -1 at the end of the
+     * document.
+     */
+    private int peek() throws IOException {
+        if (pos >= limit && !fill()) {
+            return -1;
+        }
+        return buffer[pos];
+    }
+
+    /**
+     * Consumes the next character, or returns -1 at the end of the document.
+     */
+    private int read() throws IOException {
+        if (pos >= limit && !fill()) {
+            return -1;
+        }
+        return buffer[pos++];
+    }
+
+    /**
+     * Refills the buffer.
+     *
+     * @return {@code false} if the end of the document was reached
+     */
+    private boolean fill() throws IOException {
+        offset += limit;
+        pos = 0;
+        limit = 0;
+        int len;
+        do {
+            len = reader.read(buffer, 0, buffer.length);
+        } while (len == 0);
+        if (len < 0) {
+            return false;
+        }
+        limit = len;
+        return true;
+    }
+
+    /**
+     * Creates an {@link AcmeProtocolException} for a parse error at the current
+     * position.
+     */
+    private AcmeProtocolException error(String message) {
+        return new AcmeProtocolException("Bad JSON: " + message + " at position "
+                + (offset + pos));
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.toolbox;
+
+import static org.shredzone.acme4j.toolbox.AcmeUtils.*;
+
+import java.security.KeyPair;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.jose4j.json.JsonUtil;
+import org.jose4j.jwk.JsonWebKey;
+import org.jose4j.jwk.PublicJsonWebKey;
+import org.jose4j.lang.JoseException;
+import org.shredzone.acme4j.exception.AcmeProtocolException;
+
+/**
+ * Contains the JSON Web Key of a {@link KeyPair}, and all values derived from it.
+ * <p>
+ * Computing the JWK and its thumbprint is expensive, so instances are meant to be
+ * created once per {@link KeyPair} and then reused. Instances are immutable and
+ * thread-safe.
+ */
+public final class KeyPairJwk {
+
+    private final KeyPair keyPair;
+    private final PublicJsonWebKey jwk;
+    private final Map<String, Object> params;
+    private final String json;
+    private final String algorithm;
+    private final String thumbprint;
+
+    private KeyPairJwk(KeyPair keyPair) throws JoseException {
+        this.keyPair = keyPair;
+        this.jwk = PublicJsonWebKey.Factory.newPublicJwk(keyPair.getPublic());
+        this.params = Collections.unmodifiableMap(new LinkedHashMap<>(
+                        jwk.toParams(JsonWebKey.OutputControlLevel.PUBLIC_ONLY)));
+        this.json = JsonUtil.toJson(params);
+        this.algorithm = keyAlgorithm(jwk);
+        this.thumbprint = base64UrlEncode(jwk.calculateThumbprint("SHA-256"));
+    }
+
+    /**
+     * Computes the {@link KeyPairJwk} of a {@link KeyPair}.
+     *
+     * @param keyPair
+     *            {@link KeyPair} to compute the JWK of
+     * @return {@link KeyPairJwk}
+     */
+    public static KeyPairJwk of(KeyPair keyPair) {
+        Objects.requireNonNull(keyPair, "keyPair");
+        try {
+            return new KeyPairJwk(keyPair);
+        } catch (JoseException ex) {
+            throw new AcmeProtocolException("Cannot compute JWK of key pair", ex);
+        }
+    }
+
+    /**
+     * Returns the {@link KeyPair} this JWK was computed of.
+     */
+    public KeyPair getKeyPair() {
+        return keyPair;
+    }
+
+    /**
+     * Returns the {@link PublicJsonWebKey} of the public key. It must not be modified.
+     */
+    public PublicJsonWebKey getJwk() {
+        return jwk;
+    }
+
+    /**
+     * Returns the public JWK parameters, as unmodifiable map. It can be used as
+     * {@code jwk} header value of a JWS.
+     */
+    public Map<String, Object> getParams() {
+        return params;
+    }
+
+    /**
+     * Returns the public JWK, serialized as JSON.
+     */
+    public String getJson() {
+        return json;
+    }
+
+    /**
+     * Returns the JWS algorithm identifier to be used for signing with this key.
+     */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Returns the base64url encoded SHA-256 thumbprint of the JWK.
+     */
+    public String getThumbprint() {
+        return thumbprint;
+    }
+
+}
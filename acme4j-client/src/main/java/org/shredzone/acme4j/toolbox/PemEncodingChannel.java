@@ -0,0 +1,128 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.toolbox;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Objects;
+
+/**
+ * A {@link WritableByteChannel} that armors the binary data written to it as PEM, and
+ * writes the result to a target channel. The data is encoded on the fly, without
+ * buffering more than a few lines.
+ * <p>
+ * Lines are 64 characters long and are terminated by {@code "\n"}. The PEM footer is
+ * written when this channel is closed. Closing this channel does not close the target
+ * channel.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class PemEncodingChannel implements WritableByteChannel {
+    private static final int LINE_BYTES = 48;
+    private static final int CHUNK_LINES = 16;
+    private static final byte[] NEWLINE = { '\n' };
+    private static final Base64.Encoder ENCODER = Base64.getMimeEncoder(64, NEWLINE);
+
+    private final WritableByteChannel target;
+    private final String label;
+    private final byte[] chunk = new byte[LINE_BYTES * CHUNK_LINES];
+    private final byte[] encoded = new byte[(LINE_BYTES * CHUNK_LINES / 3) * 4 + CHUNK_LINES];
+    private int chunkLength;
+    private boolean headerWritten;
+    private boolean open = true;
+
+    /**
+     * Creates a new {@link PemEncodingChannel}.
+     *
+     * @param target
+     *            {@link WritableByteChannel} to write the PEM armored data to
+     * @param label
+     *            PEM label, e.g. {@code "CERTIFICATE"}
+     */
+    public PemEncodingChannel(WritableByteChannel target, String label) {
+        this.target = Objects.requireNonNull(target, "target");
+        this.label = Objects.requireNonNull(label, "label");
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+
+        writeHeader();
+
+        int written = src.remaining();
+        while (src.hasRemaining()) {
+            int len = Math.min(src.remaining(), chunk.length - chunkLength);
+            src.get(chunk, chunkLength, len);
+            chunkLength += len;
+            if (chunkLength == chunk.length) {
+                int encodedLength = ENCODER.encode(chunk, encoded);
+                encoded[encodedLength++] = '\n';
+                writeFully(ByteBuffer.wrap(encoded, 0, encodedLength));
+                chunkLength = 0;
+            }
+        }
+        return written;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Writes the remaining data and the PEM footer. The target channel is not closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!open) {
+            return;
+        }
+
+        writeHeader();
+        if (chunkLength > 0) {
+            int encodedLength = ENCODER.encode(Arrays.copyOf(chunk, chunkLength), encoded);
+            encoded[encodedLength++] = '\n';
+            writeFully(ByteBuffer.wrap(encoded, 0, encodedLength));
+            chunkLength = 0;
+        }
+        writeFully(ByteBuffer.wrap(("-----END " + label + "-----\n").getBytes(US_ASCII)));
+        open = false;
+    }
+
+    /**
+     * Writes the PEM header, if it was not written yet.
+     */
+    private void writeHeader() throws IOException {
+        if (!headerWritten) {
+            writeFully(ByteBuffer.wrap(("-----BEGIN " + label + "-----\n").getBytes(US_ASCII)));
+            headerWritten = true;
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+
+}
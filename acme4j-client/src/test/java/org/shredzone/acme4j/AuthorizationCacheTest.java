@@ -0,0 +1,175 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2015 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.shredzone.acme4j.toolbox.JSON;
+import org.shredzone.acme4j.toolbox.TestUtils;
+
+/**
+ * Unit tests for {@link AuthorizationCache}.
+ */
+public class AuthorizationCacheTest {
+
+    private Session session;
+    private int counter;
+
+    @Before
+    public void setup() throws Exception {
+        session = TestUtils.session();
+    }
+
+    /**
+     * Test that valid authorizations are returned.
+     */
+    @Test
+    public void testGet() {
+        AuthorizationCache cache = new AuthorizationCache();
+        assertThat(cache.getMinValidity(), is(Duration.ofHours(1)));
+
+        Authorization valid = createAuthorization("example.org", Status.VALID, Duration.ofDays(30));
+        Authorization pending = createAuthorization("www.example.org", Status.PENDING, Duration.ofDays(7));
+        Authorization idn = createAuthorization("xn--exmle-hra7p.com", Status.VALID, Duration.ofDays(30));
+
+        cache.put(valid);
+        cache.put(pending);
+        cache.put(idn);
+        assertThat(cache.size(), is(3));
+
+        assertThat(cache.get("example.org"), is(sameInstance(valid)));
+        assertThat(cache.get(" Example.ORG "), is(sameInstance(valid)));
+        assertThat(cache.get("www.example.org"), is(nullValue()));
+        assertThat(cache.get("ĥe€lo.example.org"), is(nullValue()));
+        assertThat(cache.get("exämþle.com"), is(sameInstance(idn)));
+        assertThat(cache.size(), is(3));
+
+        cache.remove("example.org");
+        assertThat(cache.get("example.org"), is(nullValue()));
+        assertThat(cache.size(), is(2));
+
+        cache.clear();
+        assertThat(cache.size(), is(0));
+    }
+
+    /**
+     * Test that authorizations are evicted when they expire, and are not returned when
+     * they expire soon.
+     */
+    @Test
+    public void testExpiry() {
+        AuthorizationCache cache = new AuthorizationCache();
+        cache.put(createAuthorization("expired.example.org", Status.VALID, Duration.ofMinutes(-1)));
+        cache.put(createAuthorization("soon.example.org", Status.VALID, Duration.ofMinutes(30)));
+        cache.put(createAuthorization("invalid.example.org", Status.INVALID, Duration.ofDays(1)));
+        cache.put(createAuthorization("later.example.org", Status.VALID, Duration.ofDays(1)));
+        cache.put(new Authorization(session, URI.create("https://example.com/acme/authz/none")) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public String getDomain() {
+                return "none.example.org";
+            }
+
+            @Override
+            public Instant getExpires() {
+                return null;
+            }
+        });
+        assertThat(cache.size(), is(4));
+
+        assertThat(cache.get("expired.example.org"), is(nullValue()));
+        assertThat(cache.get("invalid.example.org"), is(nullValue()));
+        assertThat(cache.size(), is(2));
+
+        assertThat(cache.get("soon.example.org"), is(nullValue()));
+        cache.setMinValidity(Duration.ofMinutes(10));
+        assertThat(cache.get("soon.example.org"), is(notNullValue()));
+
+        cache.put(createAuthorization("expired.example.org", Status.VALID, Duration.ofMinutes(-1)));
+        assertThat(cache.size(), is(3));
+        cache.evictExpired();
+        assertThat(cache.size(), is(2));
+        assertThat(cache.get("later.example.org"), is(notNullValue()));
+
+        try {
+            cache.setMinValidity(Duration.ofSeconds(-1));
+            fail("accepted negative min validity");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that a valid authorization is not replaced by a pending one, and that longer
+     * valid authorizations are kept.
+     */
+    @Test
+    public void testReplace() {
+        AuthorizationCache cache = new AuthorizationCache();
+
+        Authorization valid = createAuthorization("example.org", Status.VALID, Duration.ofDays(30));
+        cache.put(valid);
+        cache.put(createAuthorization("example.org", Status.PENDING, Duration.ofDays(60)));
+        assertThat(cache.get("example.org"), is(sameInstance(valid)));
+
+        cache.put(createAuthorization("example.org", Status.VALID, Duration.ofDays(10)));
+        assertThat(cache.get("example.org"), is(sameInstance(valid)));
+
+        Authorization longer = createAuthorization("example.org", Status.VALID, Duration.ofDays(40));
+        cache.put(longer);
+        assertThat(cache.get("example.org"), is(sameInstance(longer)));
+    }
+
+    /**
+     * Test that only valid authorizations are taken from a list.
+     */
+    @Test
+    public void testPutAll() {
+        AuthorizationCache cache = new AuthorizationCache();
+        int count = cache.putAll(Arrays.asList(
+                createAuthorization("example.org", Status.VALID, Duration.ofDays(30)),
+                createAuthorization("www.example.org", Status.PENDING, Duration.ofDays(7)),
+                createAuthorization("m.example.org", Status.VALID, Duration.ofDays(-1)),
+                createAuthorization("example.com", Status.VALID, Duration.ofDays(1))).iterator());
+
+        assertThat(count, is(2));
+        assertThat(cache.size(), is(2));
+        assertThat(cache.get("example.org"), is(notNullValue()));
+        assertThat(cache.get("example.com"), is(notNullValue()));
+    }
+
+    /**
+     * Creates an {@link Authorization} with the given properties.
+     */
+    private Authorization createAuthorization(String domain, Status status, Duration validity) {
+        Authorization auth = Authorization.bind(session,
+                        URI.create("https://example.com/acme/authz/" + (++counter)));
+        auth.unmarshalAuthorization(JSON.parse("{"
+                        + "\"status\":\"" + status.name().toLowerCase() + "\","
+                        + "\"expires\":\"" + Instant.now().plus(validity) + "\","
+                        + "\"identifier\":{\"type\":\"dns\",\"value\":\"" + domain + "\"},"
+                        + "\"challenges\":[]}"));
+        return auth;
+    }
+
+}
@@ -18,15 +18,27 @@ import static org.junit.Assert.*;
 import static org.shredzone.acme4j.toolbox.TestUtils.*;
 import static uk.co.datumedge.hamcrest.json.SameJSONAs.sameJSONAs;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyPair;
+import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
+import org.shredzone.acme4j.connector.IntermediateCertificateCache;
 import org.shredzone.acme4j.connector.Resource;
 import org.shredzone.acme4j.exception.AcmeException;
 import org.shredzone.acme4j.exception.AcmeRetryAfterException;
@@ -104,6 +116,214 @@ public class CertificateTest {
         provider.close();
     }
 
+    /**
+     * Test that a certificate can be downloaded to a channel.
+     */
+    @Test
+    public void testDownloadToChannel() throws Exception {
+        final X509Certificate originalCert = TestUtils.createCertificate();
+        final List<URI> requests = new ArrayList<>();
+
+        TestableConnectionProvider provider = new TestableConnectionProvider() {
+            @Override
+            public void sendRequest(URI uri, Session session) {
+                requests.add(uri);
+            }
+
+            @Override
+            public int accept(int... httpStatus) throws AcmeException {
+                assertThat(httpStatus, isIntArrayContainingInAnyOrder(
+                        HttpURLConnection.HTTP_OK, HttpURLConnection.HTTP_ACCEPTED));
+                return HttpURLConnection.HTTP_OK;
+            }
+
+            @Override
+            public X509Certificate readCertificate() {
+                return originalCert;
+            }
+
+            @Override
+            public void handleRetryAfter(String message) throws AcmeException {
+                // Just do nothing
+            }
+
+            @Override
+            public URI getLink(String relation) {
+                return "up".equals(relation) ? chainUri : null;
+            }
+        };
+
+        Certificate cert = new Certificate(provider.createSession(), locationUri);
+
+        ByteArrayOutputStream der = new ByteArrayOutputStream();
+        cert.download(Channels.newChannel(der), false);
+        assertThat(der.toByteArray(), is(originalCert.getEncoded()));
+        assertThat(cert.getChainLocation(), is(chainUri));
+        assertThat(requests, contains(locationUri));
+
+        ByteArrayOutputStream pem = new ByteArrayOutputStream();
+        cert.download(Channels.newChannel(pem), true);
+        assertThat(new String(pem.toByteArray(), StandardCharsets.US_ASCII),
+                startsWith("-----BEGIN CERTIFICATE-----\n"));
+        X509Certificate parsed = (X509Certificate) CertificateFactory.getInstance("X.509")
+                .generateCertificate(new ByteArrayInputStream(pem.toByteArray()));
+        assertThat(parsed, is(originalCert));
+        assertThat(requests, contains(locationUri, locationUri));
+
+        // a cached certificate is written and parsed without a request
+        requests.clear();
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        cert.download(Channels.newChannel(first), false, true);
+        assertThat(first.toByteArray(), is(originalCert.getEncoded()));
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        cert.download(Channels.newChannel(second), false, true);
+        assertThat(second.toByteArray(), is(originalCert.getEncoded()));
+        assertThat(cert.download(), is(originalCert));
+        assertThat(requests, contains(locationUri));
+
+        // an already downloaded certificate is written without a request
+        Certificate cert2 = new Certificate(provider.createSession(), locationUri);
+        requests.clear();
+        assertThat(cert2.download(), is(sameInstance(originalCert)));
+        ByteArrayOutputStream cached = new ByteArrayOutputStream();
+        cert2.download(Channels.newChannel(cached), false);
+        assertThat(cached.toByteArray(), is(originalCert.getEncoded()));
+        assertThat(requests, contains(locationUri));
+
+        provider.close();
+    }
+
+    /**
+     * Test that a failing target channel is reported as {@link IOException}, and that
+     * a partially written certificate is not cached.
+     */
+    @Test
+    public void testDownloadToFailingChannel() throws Exception {
+        final X509Certificate originalCert = TestUtils.createCertificate();
+        final AtomicInteger requests = new AtomicInteger();
+
+        TestableConnectionProvider provider = new TestableConnectionProvider() {
+            @Override
+            public void sendRequest(URI uri, Session session) {
+                requests.incrementAndGet();
+            }
+
+            @Override
+            public int accept(int... httpStatus) throws AcmeException {
+                return HttpURLConnection.HTTP_OK;
+            }
+
+            @Override
+            public X509Certificate readCertificate() {
+                return originalCert;
+            }
+
+            @Override
+            public void handleRetryAfter(String message) throws AcmeException {
+                // Just do nothing
+            }
+
+            @Override
+            public URI getLink(String relation) {
+                return null;
+            }
+        };
+
+        Certificate cert = new Certificate(provider.createSession(), locationUri);
+
+        WritableByteChannel failing = Channels.newChannel(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+        });
+
+        try {
+            cert.download(failing, false, true);
+            fail("write error was not reported");
+        } catch (IOException ex) {
+            assertThat(ex.getMessage(), is("disk full"));
+        }
+
+        ByteArrayOutputStream der = new ByteArrayOutputStream();
+        cert.download(Channels.newChannel(der), false, true);
+        assertThat(der.toByteArray(), is(originalCert.getEncoded()));
+        assertThat(requests.get(), is(2));
+
+        provider.close();
+    }
+
+    /**
+     * Test that longer chains are followed, and that intermediate certificates are
+     * cached.
+     */
+    @Test
+    public void testDownloadChainCached() throws AcmeException, IOException {
+        final X509Certificate originalCert = TestUtils.createCertificate();
+        final URI rootUri = URI.create("http://example.com/acme/root");
+        final List<URI> requests = new ArrayList<>();
+
+        TestableConnectionProvider provider = new TestableConnectionProvider() {
+            private URI current;
+
+            @Override
+            public void sendRequest(URI uri, Session session) {
+                requests.add(uri);
+                current = uri;
+            }
+
+            @Override
+            public int accept(int... httpStatus) throws AcmeException {
+                return HttpURLConnection.HTTP_OK;
+            }
+
+            @Override
+            public X509Certificate readCertificate() {
+                return originalCert;
+            }
+
+            @Override
+            public void handleRetryAfter(String message) throws AcmeException {
+                // Just do nothing
+            }
+
+            @Override
+            public URI getLink(String relation) {
+                if (!"up".equals(relation)) {
+                    return null;
+                }
+                if (current.equals(chainUri)) {
+                    return rootUri;
+                }
+                if (current.equals(rootUri)) {
+                    return null;
+                }
+                return chainUri;
+            }
+        };
+
+        Session session = provider.createSession();
+        session.setIntermediateCertificateCache(new IntermediateCertificateCache());
+
+        X509Certificate[] chain1 = new Certificate(session, locationUri).downloadChain();
+        assertThat(chain1.length, is(2));
+        assertThat(requests, contains(locationUri, chainUri, rootUri));
+
+        requests.clear();
+        URI otherUri = URI.create("http://example.com/acme/certificate/2");
+        X509Certificate[] chain2 = new Certificate(session, otherUri).downloadChain();
+        assertThat(chain2.length, is(2));
+        assertThat(requests, contains(otherUri));
+
+        requests.clear();
+        session.setIntermediateCertificateCache(null);
+        X509Certificate[] chain3 = new Certificate(session, otherUri).downloadChain();
+        assertThat(chain3.length, is(2));
+        assertThat(requests, contains(otherUri, chainUri, rootUri));
+
+        provider.close();
+    }
+
     /**
      * Test that a {@link AcmeRetryAfterException} is thrown.
      */
@@ -245,4 +465,56 @@ public class CertificateTest {
         assertThat(RevocationReason.code(1), is(RevocationReason.KEY_COMPROMISE));
     }
 
+    /**
+     * Test that a certificate and its chain can be downloaded asynchronously.
+     */
+    @Test
+    public void testDownloadAsync() throws Exception {
+        final X509Certificate originalCert = TestUtils.createCertificate();
+
+        TestableConnectionProvider provider = new TestableConnectionProvider() {
+            private boolean isLocationUri;
+
+            @Override
+            public void sendRequest(URI uri, Session session) {
+                assertThat(uri, isOneOf(locationUri, chainUri));
+                isLocationUri = uri.equals(locationUri);
+            }
+
+            @Override
+            public int accept(int... httpStatus) throws AcmeException {
+                return HttpURLConnection.HTTP_OK;
+            }
+
+            @Override
+            public X509Certificate readCertificate() {
+                return originalCert;
+            }
+
+            @Override
+            public void handleRetryAfter(String message) throws AcmeException {
+                // Just do nothing
+            }
+
+            @Override
+            public URI getLink(String relation) {
+                return "up".equals(relation) && isLocationUri ? chainUri : null;
+            }
+        };
+
+        Certificate cert = new Certificate(provider.createSession(), locationUri);
+
+        CompletableFuture<X509Certificate[]> chain = cert.downloadAsync()
+                        .thenCompose(downloaded -> {
+                            assertThat(downloaded, is(sameInstance(originalCert)));
+                            return cert.downloadChainAsync();
+                        });
+
+        X509Certificate[] downloadedChain = chain.get();
+        assertThat(downloadedChain.length, is(1));
+        assertThat(downloadedChain[0], is(sameInstance(originalCert)));
+
+        provider.close();
+    }
+
 }
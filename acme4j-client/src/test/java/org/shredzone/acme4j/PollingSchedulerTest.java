@@ -0,0 +1,254 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.shredzone.acme4j.challenge.Challenge;
+import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.exception.AcmeRetryAfterException;
+
+/**
+ * Unit tests for {@link PollingScheduler}.
+ */
+public class PollingSchedulerTest {
+
+    private PollingScheduler scheduler;
+
+    @Before
+    public void setup() {
+        scheduler = new PollingScheduler(Duration.ofMillis(10), Runnable::run);
+        scheduler.setInitialDelay(Duration.ofMillis(20));
+        scheduler.setMaxDelay(Duration.ofMillis(100));
+    }
+
+    @After
+    public void teardown() {
+        scheduler.close();
+    }
+
+    /**
+     * Test getters and setters.
+     */
+    @Test
+    public void testParameters() {
+        try (PollingScheduler ps = new PollingScheduler()) {
+            assertThat(ps.getInitialDelay(), is(Duration.ofSeconds(1)));
+            assertThat(ps.getMaxDelay(), is(Duration.ofSeconds(30)));
+            assertThat(ps.getTimeout(), is(Duration.ofMinutes(5)));
+
+            ps.setInitialDelay(Duration.ofSeconds(2));
+            ps.setMaxDelay(Duration.ofSeconds(10));
+            ps.setTimeout(Duration.ofMinutes(1));
+            assertThat(ps.getInitialDelay(), is(Duration.ofSeconds(2)));
+            assertThat(ps.getMaxDelay(), is(Duration.ofSeconds(10)));
+            assertThat(ps.getTimeout(), is(Duration.ofMinutes(1)));
+
+            try {
+                ps.setTimeout(Duration.ZERO);
+                fail("accepted zero timeout");
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Test that a poll is repeated until it returns a result.
+     */
+    @Test
+    public void testSchedule() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int ix = 0; ix < 100; ix++) {
+            final int result = ix;
+            futures.add(scheduler.schedule(() -> calls.incrementAndGet() % 3 == 0 ? result : null));
+        }
+
+        for (int ix = 0; ix < futures.size(); ix++) {
+            assertThat(futures.get(ix).get(10, TimeUnit.SECONDS), is(ix));
+        }
+        assertThat(calls.get(), is(greaterThanOrEqualTo(100)));
+    }
+
+    /**
+     * Test that the timer is idle without pending polls, and resumes when a poll is
+     * scheduled.
+     */
+    @Test
+    public void testIdle() throws Exception {
+        assertThat(scheduler.schedule(() -> "first").get(10, TimeUnit.SECONDS), is("first"));
+
+        boolean parked = false;
+        for (int ix = 0; ix < 100 && !parked; ix++) {
+            Thread.sleep(10L);
+            parked = Thread.getAllStackTraces().keySet().stream()
+                    .filter(t -> "runTimer".equals(findTimerFrame(t)))
+                    .anyMatch(t -> t.getState() == Thread.State.WAITING);
+        }
+        assertThat(parked, is(true));
+
+        Thread.sleep(200L);
+        assertThat(scheduler.schedule(() -> "second").get(10, TimeUnit.SECONDS), is("second"));
+    }
+
+    /**
+     * Test that a retry-after instant is honored.
+     */
+    @Test
+    public void testRetryAfter() throws Exception {
+        Instant retryAfter = Instant.now().plusMillis(300);
+        AtomicReference<Instant> polled = new AtomicReference<>();
+
+        CompletableFuture<String> future = scheduler.schedule(() -> {
+            if (Instant.now().isBefore(retryAfter)) {
+                throw new AcmeRetryAfterException("not yet", retryAfter);
+            }
+            polled.set(Instant.now());
+            return "done";
+        });
+
+        assertThat(future.get(10, TimeUnit.SECONDS), is("done"));
+        assertThat(polled.get().isBefore(retryAfter), is(false));
+    }
+
+    /**
+     * Test that a failed poll fails the future, and that polls time out.
+     */
+    @Test
+    public void testFailure() throws Exception {
+        CompletableFuture<String> failed = scheduler.schedule(() -> {
+            throw new AcmeException("failed");
+        });
+        try {
+            failed.get(10, TimeUnit.SECONDS);
+            fail("poll did not fail");
+        } catch (ExecutionException ex) {
+            assertThat(ex.getCause().getMessage(), is("failed"));
+        }
+
+        scheduler.setTimeout(Duration.ofMillis(200));
+        CompletableFuture<String> timedOut = scheduler.schedule(() -> null);
+        try {
+            timedOut.get(10, TimeUnit.SECONDS);
+            fail("poll did not time out");
+        } catch (ExecutionException ex) {
+            assertThat(ex.getCause(), is(instanceOf(AcmeException.class)));
+        }
+    }
+
+    /**
+     * Test that pending polls are cancelled on close.
+     */
+    @Test
+    public void testClose() throws Exception {
+        CompletableFuture<String> future = scheduler.schedule(() -> null);
+        scheduler.close();
+
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("poll was not cancelled");
+        } catch (CancellationException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Test polling of a {@link Challenge}.
+     */
+    @Test
+    public void testPollChallenge() throws Exception {
+        AtomicInteger updates = new AtomicInteger();
+        Challenge challenge = mock(Challenge.class);
+        when(challenge.getStatus()).thenAnswer(invocation ->
+                updates.get() >= 2 ? Status.VALID : Status.PENDING);
+        doAnswer(invocation -> {
+            if (updates.incrementAndGet() < 2) {
+                throw new AcmeRetryAfterException("pending", Instant.now().plusMillis(50));
+            }
+            return null;
+        }).when(challenge).update();
+
+        assertThat(scheduler.poll(challenge).get(10, TimeUnit.SECONDS), is(sameInstance(challenge)));
+        assertThat(updates.get(), is(2));
+
+        Challenge invalid = mock(Challenge.class);
+        when(invalid.getStatus()).thenReturn(Status.INVALID);
+        assertThat(scheduler.poll(invalid).isCompletedExceptionally(), is(true));
+        verify(invalid, never()).update();
+    }
+
+    /**
+     * Test polling of an {@link Authorization}.
+     */
+    @Test
+    public void testPollAuthorization() throws Exception {
+        AtomicReference<Status> status = new AtomicReference<>(Status.PENDING);
+        Authorization auth = mock(Authorization.class);
+        when(auth.getStatus()).thenAnswer(invocation -> status.get());
+        doAnswer(invocation -> {
+            status.set(Status.VALID);
+            return null;
+        }).when(auth).update();
+
+        assertThat(scheduler.poll(auth).get(10, TimeUnit.SECONDS), is(sameInstance(auth)));
+        verify(auth).update();
+    }
+
+    /**
+     * Test downloading a {@link Certificate}.
+     */
+    @Test
+    public void testDownload() throws Exception {
+        X509Certificate cert = mock(X509Certificate.class);
+        Certificate certificate = mock(Certificate.class);
+        when(certificate.download())
+                .thenThrow(new AcmeRetryAfterException("not yet", Instant.now().plusMillis(50)))
+                .thenReturn(cert);
+
+        assertThat(scheduler.download(certificate).get(10, TimeUnit.SECONDS), is(sameInstance(cert)));
+        verify(certificate, times(2)).download();
+    }
+
+    /**
+     * Returns the name of the {@link PollingScheduler} method the thread is running in,
+     * or {@code null}.
+     */
+    private static String findTimerFrame(Thread thread) {
+        for (StackTraceElement frame : thread.getStackTrace()) {
+            if (PollingScheduler.class.getName().equals(frame.getClassName())) {
+                return frame.getMethodName();
+            }
+        }
+        return null;
+    }
+
+}
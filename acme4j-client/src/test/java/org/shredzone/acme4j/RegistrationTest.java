@@ -23,11 +23,15 @@ import java.net.HttpURLConnection;
 import java.net.URI;
 import java.security.KeyPair;
 import java.security.cert.X509Certificate;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneId;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jose4j.jws.JsonWebSignature;
 import org.jose4j.jwx.CompactSerializer;
@@ -37,9 +41,11 @@ import org.shredzone.acme4j.Registration.EditableRegistration;
 import org.shredzone.acme4j.challenge.Challenge;
 import org.shredzone.acme4j.challenge.Dns01Challenge;
 import org.shredzone.acme4j.challenge.Http01Challenge;
+import org.shredzone.acme4j.connector.RateLimiter;
 import org.shredzone.acme4j.connector.Resource;
 import org.shredzone.acme4j.exception.AcmeException;
 import org.shredzone.acme4j.exception.AcmeProtocolException;
+import org.shredzone.acme4j.exception.AcmeServerException;
 import org.shredzone.acme4j.provider.AcmeProvider;
 import org.shredzone.acme4j.provider.TestableConnectionProvider;
 import org.shredzone.acme4j.toolbox.JSON;
@@ -142,6 +148,9 @@ public class RegistrationTest {
                         is(URI.create("https://example.com/acme/cert/1")));
         assertThat(certIt.hasNext(), is(false));
 
+        assertThat(registration.fetchAuthorizations().stream().count(), is(1L));
+        assertThat(registration.fetchCertificates().stream().count(), is(1L));
+
         provider.close();
     }
 
@@ -262,6 +271,71 @@ public class RegistrationTest {
         provider.close();
     }
 
+    /**
+     * Test that valid authorizations are cached and reused.
+     */
+    @Test
+    public void testAuthorizationCache() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        String expires = Instant.now().plus(Duration.ofDays(30)).toString();
+
+        TestableConnectionProvider provider = new TestableConnectionProvider() {
+            @Override
+            public void sendSignedRequest(URI uri, JSONBuilder claims, Session session) {
+                assertThat(uri, is(resourceUri));
+                requests.incrementAndGet();
+            }
+
+            @Override
+            public int accept(int... httpStatus) throws AcmeException {
+                return HttpURLConnection.HTTP_CREATED;
+            }
+
+            @Override
+            public JSON readJsonResponse() {
+                return JSON.parse("{\"status\":\"valid\",\"expires\":\"" + expires + "\","
+                        + "\"identifier\":{\"type\":\"dns\",\"value\":\"example.org\"},"
+                        + "\"challenges\":[]}");
+            }
+
+            @Override
+            public URI getLocation() {
+                return locationUri;
+            }
+        };
+
+        Session session = provider.createSession();
+        provider.putTestResource(Resource.NEW_AUTHZ, resourceUri);
+
+        Registration registration = new Registration(session, locationUri);
+        assertThat(registration.getAuthorizationCache(), is(nullValue()));
+
+        try {
+            registration.warmUpAuthorizationCache(1);
+            fail("warm-up without cache");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+
+        registration.authorizeDomain("example.org");
+        registration.authorizeDomain("example.org");
+        assertThat(requests.get(), is(2));
+
+        AuthorizationCache cache = new AuthorizationCache();
+        registration.setAuthorizationCache(cache);
+        assertThat(registration.getAuthorizationCache(), is(sameInstance(cache)));
+
+        Authorization auth = registration.authorizeDomain("example.org");
+        assertThat(requests.get(), is(3));
+        assertThat(cache.size(), is(1));
+
+        assertThat(registration.authorizeDomain("Example.org"), is(sameInstance(auth)));
+        assertThat(registration.authorizeDomainAsync("example.org").get(), is(sameInstance(auth)));
+        assertThat(requests.get(), is(3));
+
+        provider.close();
+    }
+
     /**
      * Test that a bad domain parameter is not accepted.
      */
@@ -288,6 +362,28 @@ public class RegistrationTest {
         provider.close();
     }
 
+    /**
+     * Test that existing authorizations and certificates are bound to the session.
+     */
+    @Test
+    public void testBindResources() throws Exception {
+        TestableConnectionProvider provider = new TestableConnectionProvider();
+        Session session = provider.createSession();
+        Registration registration = Registration.bind(session, locationUri);
+
+        URI authUri = URI.create("http://example.com/acme/authz/1");
+        Authorization auth = registration.bindAuthorization(authUri);
+        assertThat(auth.getLocation(), is(authUri));
+        assertThat(auth.getSession(), is(sameInstance(session)));
+
+        URI certUri = URI.create("http://example.com/acme/cert/1");
+        Certificate cert = registration.bindCertificate(certUri);
+        assertThat(cert.getLocation(), is(certUri));
+        assertThat(cert.getSession(), is(sameInstance(session)));
+
+        provider.close();
+    }
+
     /**
      * Test that a certificate can be requested and is delivered synchronously.
      */
@@ -398,6 +494,64 @@ public class RegistrationTest {
         provider.close();
     }
 
+    /**
+     * Test that only successful certificate requests are recorded by the rate limiter.
+     */
+    @Test
+    public void testRequestCertificateRecordsIssued() throws AcmeException, IOException {
+        final RateLimiter rateLimiter = new RateLimiter();
+        final AtomicBoolean rejected = new AtomicBoolean(true);
+
+        TestableConnectionProvider provider = new TestableConnectionProvider() {
+            @Override
+            public RateLimiter getRateLimiter(URI serverUri) {
+                return rateLimiter;
+            }
+
+            @Override
+            public void sendSignedRequest(URI uri, JSONBuilder claims, Session session) {
+                assertThat(uri, is(resourceUri));
+            }
+
+            @Override
+            public int accept(int... httpStatus) throws AcmeException {
+                if (rejected.get()) {
+                    throw new AcmeServerException("urn:ietf:params:acme:error:malformed", "Rejected");
+                }
+                return HttpURLConnection.HTTP_ACCEPTED;
+            }
+
+            @Override
+            public URI getLink(String relation) {
+                return null;
+            }
+
+            @Override
+            public URI getLocation() {
+                return locationUri;
+            }
+        };
+
+        provider.putTestResource(Resource.NEW_CERT, resourceUri);
+
+        byte[] csr = TestUtils.getResourceAsByteArray("/csr.der");
+        Registration registration = new Registration(provider.createSession(), locationUri);
+
+        try {
+            registration.requestCertificate(csr);
+            fail("request was not rejected");
+        } catch (AcmeServerException ex) {
+            // expected
+        }
+        assertThat(rateLimiter.isRenewal(Arrays.asList("example.com")), is(false));
+
+        rejected.set(false);
+        registration.requestCertificate(csr);
+        assertThat(rateLimiter.isRenewal(Arrays.asList("example.com")), is(true));
+
+        provider.close();
+    }
+
     /**
      * Test that an unparseable certificate can be requested, and at least its location
      * is made available.
@@ -454,6 +608,24 @@ public class RegistrationTest {
         provider.close();
     }
 
+    /**
+     * Test that the registration location is used as key identifier of the session.
+     */
+    @Test
+    public void testKeyIdentifier() throws Exception {
+        TestableConnectionProvider provider = new TestableConnectionProvider();
+        Session session = provider.createSession();
+        assertThat(session.getKeyIdentifier(), is(nullValue()));
+
+        Registration.bind(session, locationUri);
+        assertThat(session.getKeyIdentifier(), is(locationUri));
+
+        session.setKeyPair(TestUtils.createDomainKeyPair());
+        assertThat(session.getKeyIdentifier(), is(nullValue()));
+
+        provider.close();
+    }
+
     /**
      * Test that the account key can be changed.
      */
@@ -526,6 +698,7 @@ public class RegistrationTest {
         registration.changeKey(newKeyPair);
 
         assertThat(session.getKeyPair(), is(sameInstance(newKeyPair)));
+        assertThat(session.getKeyIdentifier(), is(resourceUri));
     }
 
     /**
@@ -630,4 +803,54 @@ public class RegistrationTest {
         provider.close();
     }
 
+    /**
+     * Test that a domain can be authorized asynchronously.
+     */
+    @Test
+    public void testAuthorizeDomainAsync() throws Exception {
+        TestableConnectionProvider provider = new TestableConnectionProvider() {
+            @Override
+            public void sendSignedRequest(URI uri, JSONBuilder claims, Session session) {
+                assertThat(uri, is(resourceUri));
+                assertThat(claims.toString(), sameJSONAs(getJson("newAuthorizationRequest")));
+            }
+
+            @Override
+            public int accept(int... httpStatus) throws AcmeException {
+                return HttpURLConnection.HTTP_CREATED;
+            }
+
+            @Override
+            public JSON readJsonResponse() {
+                return getJsonAsObject("newAuthorizationResponse");
+            }
+
+            @Override
+            public URI getLocation() {
+                return locationUri;
+            }
+        };
+
+        Session session = provider.createSession();
+
+        provider.putTestResource(Resource.NEW_AUTHZ, resourceUri);
+        provider.putTestChallenge(Http01Challenge.TYPE, new Http01Challenge(session));
+        provider.putTestChallenge(Dns01Challenge.TYPE, new Dns01Challenge(session));
+
+        Registration registration = new Registration(session, locationUri);
+        Authorization auth = registration.authorizeDomainAsync("example.org").get();
+
+        assertThat(auth.getDomain(), is("example.org"));
+        assertThat(auth.getLocation(), is(locationUri));
+
+        try {
+            registration.authorizeDomainAsync("").get();
+            fail("empty domain was accepted");
+        } catch (ExecutionException ex) {
+            assertThat(ex.getCause(), is(instanceOf(IllegalArgumentException.class)));
+        }
+
+        provider.close();
+    }
+
 }
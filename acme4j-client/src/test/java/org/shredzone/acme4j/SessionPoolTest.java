@@ -0,0 +1,191 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2015 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.shredzone.acme4j.SessionPool.Account;
+import org.shredzone.acme4j.SessionPool.Lease;
+import org.shredzone.acme4j.toolbox.TestUtils;
+
+/**
+ * Unit tests for {@link SessionPool}.
+ */
+public class SessionPoolTest {
+
+    private URI serverUri;
+    private SessionPool pool;
+
+    @Before
+    public void setup() {
+        serverUri = URI.create(TestUtils.ACME_SERVER_URI);
+        pool = new SessionPool(serverUri);
+    }
+
+    /**
+     * Test that all sessions share the same provider.
+     */
+    @Test
+    public void testSharedProvider() throws IOException {
+        URI location = URI.create("https://example.com/acme/reg/1");
+        pool.setSessionConfigurer(session -> session.setLocale(Locale.GERMAN));
+
+        Account a1 = pool.addAccount(TestUtils.createKeyPair(), location);
+        Account a2 = pool.addAccount(TestUtils.createDomainKeyPair());
+
+        assertThat(pool.getServerUri(), is(serverUri));
+        assertThat(pool.getAccounts(), contains(a1, a2));
+        assertThat(a1.getSession().getServerUri(), is(serverUri));
+        assertThat(a1.getSession().provider(), is(sameInstance(pool.getProvider())));
+        assertThat(a2.getSession().provider(), is(sameInstance(pool.getProvider())));
+        assertThat(a1.getSession().getKeyIdentifier(), is(location));
+        assertThat(a2.getSession().getKeyIdentifier(), is(nullValue()));
+        assertThat(a1.getSession().getLocale(), is(Locale.GERMAN));
+        assertThat(a1.getId(), is(a1.getSession().getKeyPairJwk().getThumbprint()));
+        assertThat(a1.getId(), is(not(a2.getId())));
+    }
+
+    /**
+     * Test that the least-loaded account is leased.
+     */
+    @Test
+    public void testLeastLoaded() throws Exception {
+        Account a1 = pool.addAccount(TestUtils.createKeyPair());
+        Account a2 = pool.addAccount(TestUtils.createDomainKeyPair());
+        a1.setMaxConcurrency(4);
+        a2.setMaxConcurrency(2);
+
+        Lease l1 = pool.acquire();
+        Lease l2 = pool.acquire();
+        assertThat(l1.getAccount(), is(not(sameInstance(l2.getAccount()))));
+        assertThat(a1.getInFlight(), is(1));
+        assertThat(a2.getInFlight(), is(1));
+
+        // a1 is at 1/4, a2 at 1/2 of its limit
+        Lease l3 = pool.acquire();
+        assertThat(l3.getAccount(), is(sameInstance(a1)));
+        assertThat(l3.getSession(), is(sameInstance(a1.getSession())));
+
+        l2.close();
+        l2.close();
+        assertThat(a2.getInFlight(), is(0));
+        assertThat(pool.acquire().getAccount(), is(sameInstance(a2)));
+
+        l1.close();
+        l3.close();
+        assertThat(a1.getLeaseCount(), is(2L));
+    }
+
+    /**
+     * Test that keys are consistently assigned to the same account.
+     */
+    @Test
+    public void testConsistentHash() throws Exception {
+        Account a1 = pool.addAccount(TestUtils.createKeyPair());
+        Account a2 = pool.addAccount(TestUtils.createDomainKeyPair());
+        Account a3 = pool.addAccount(TestUtils.createECKeyPair("secp256r1"));
+
+        Map<String, Account> assignment = new HashMap<>();
+        Set<Account> used = new HashSet<>();
+        for (int ix = 0; ix < 100; ix++) {
+            String domain = "domain" + ix + ".example.org";
+            try (Lease lease = pool.acquire(domain)) {
+                assignment.put(domain, lease.getAccount());
+                used.add(lease.getAccount());
+            }
+            try (Lease lease = pool.acquire(domain)) {
+                assertThat(lease.getAccount(), is(sameInstance(assignment.get(domain))));
+            }
+        }
+        assertThat(used, containsInAnyOrder(a1, a2, a3));
+
+        // Removing an account must only move the keys of that account
+        assertThat(pool.removeAccount(a3), is(true));
+        assertThat(pool.removeAccount(a3), is(false));
+        for (Map.Entry<String, Account> entry : assignment.entrySet()) {
+            try (Lease lease = pool.acquire(entry.getKey())) {
+                if (entry.getValue() != a3) {
+                    assertThat(lease.getAccount(), is(sameInstance(entry.getValue())));
+                } else {
+                    assertThat(lease.getAccount(), is(not(sameInstance(a3))));
+                }
+            }
+        }
+    }
+
+    /**
+     * Test that the concurrency limit of an account blocks further leases.
+     */
+    @Test
+    public void testConcurrencyLimit() throws Exception {
+        pool.setDefaultMaxConcurrency(1);
+        assertThat(pool.getDefaultMaxConcurrency(), is(1));
+        Account account = pool.addAccount(TestUtils.createKeyPair());
+        assertThat(account.getMaxConcurrency(), is(1));
+
+        Lease lease = pool.acquire("example.org");
+
+        CompletableFuture<Lease> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.acquire();
+            } catch (InterruptedException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+
+        try {
+            waiting.get(200, TimeUnit.MILLISECONDS);
+            fail("concurrency limit was exceeded");
+        } catch (TimeoutException ex) {
+            // expected
+        }
+
+        lease.close();
+        Lease lease2 = waiting.get(5, TimeUnit.SECONDS);
+        assertThat(lease2.getAccount(), is(sameInstance(account)));
+        assertThat(account.getInFlight(), is(1));
+        lease2.close();
+    }
+
+    /**
+     * Test that an empty pool cannot be leased.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testEmpty() throws Exception {
+        pool.acquire("example.org");
+    }
+
+    /**
+     * Test that invalid concurrency limits are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLimit() {
+        pool.setDefaultMaxConcurrency(0);
+    }
+
+}
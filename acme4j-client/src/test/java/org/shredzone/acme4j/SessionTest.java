@@ -15,6 +15,7 @@ package org.shredzone.acme4j;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeThat;
 import static org.mockito.Mockito.*;
 import static org.shredzone.acme4j.toolbox.TestUtils.getJsonAsObject;
 
@@ -22,16 +23,28 @@ import java.io.IOException;
 import java.net.URI;
 import java.security.KeyPair;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import org.junit.Test;
 import org.mockito.ArgumentMatchers;
 import org.shredzone.acme4j.challenge.Challenge;
 import org.shredzone.acme4j.challenge.Http01Challenge;
+import org.shredzone.acme4j.connector.Connection;
+import org.shredzone.acme4j.connector.JwsSigner;
 import org.shredzone.acme4j.connector.Resource;
 import org.shredzone.acme4j.exception.AcmeException;
 import org.shredzone.acme4j.provider.AcmeProvider;
 import org.shredzone.acme4j.toolbox.JSON;
 import org.shredzone.acme4j.toolbox.JSONBuilder;
+import org.shredzone.acme4j.toolbox.KeyPairJwk;
 import org.shredzone.acme4j.toolbox.TestUtils;
 
 /**
@@ -86,6 +99,26 @@ public class SessionTest {
         }
     }
 
+    /**
+     * Test that a given provider is used.
+     */
+    @Test
+    public void testProviderConstructor() throws IOException {
+        KeyPair keyPair = TestUtils.createKeyPair();
+        URI serverUri = URI.create(TestUtils.ACME_SERVER_URI);
+        AcmeProvider provider = new Session(serverUri, keyPair).provider();
+
+        Session session = new Session(serverUri, keyPair, provider);
+        assertThat(session.provider(), is(sameInstance(provider)));
+
+        try {
+            new Session(URI.create("acme://example.org"), keyPair, provider);
+            fail("accepted provider that does not accept the server URI");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
     /**
      * Test getters and setters.
      */
@@ -107,6 +140,127 @@ public class SessionTest {
         assertThat(session.getKeyPair(), is(kp2));
 
         assertThat(session.getServerUri(), is(serverUri));
+
+        assertThat(session.getNonceLowWaterMark(), is(0));
+        session.setNonceLowWaterMark(5);
+        assertThat(session.getNonceLowWaterMark(), is(5));
+
+        assertThat(session.getExecutor(), is(notNullValue()));
+        assertThat(session.getExecutor(), is(not(sameInstance(ForkJoinPool.commonPool()))));
+        Executor executor = command -> { };
+        session.setExecutor(executor);
+        assertThat(session.getExecutor(), is(sameInstance(executor)));
+    }
+
+    /**
+     * Test that the default executor does not queue without limit, but lets the
+     * submitting thread run the task when it is saturated.
+     */
+    @Test
+    public void testDefaultExecutorBackPressure() {
+        Executor executor = Session.defaultExecutor();
+        assumeThat(executor, is(instanceOf(ThreadPoolExecutor.class)));
+
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+        assertThat(pool.getQueue().remainingCapacity(), is(lessThan(Integer.MAX_VALUE)));
+        assertThat(pool.getRejectedExecutionHandler(),
+                        is(instanceOf(ThreadPoolExecutor.CallerRunsPolicy.class)));
+    }
+
+    /**
+     * Test that the nonce pool hands out every nonce exactly once.
+     */
+    @Test
+    public void testNoncePool() throws IOException {
+        Session session = TestUtils.session();
+
+        assertThat(session.pollNonce(), is(nullValue()));
+
+        byte[] nonce1 = "nonce-1".getBytes();
+        byte[] nonce2 = "nonce-2".getBytes();
+        session.setNonce(nonce1);
+        session.setNonce(nonce2);
+        assertThat(session.getNonceCount(), is(2));
+
+        assertThat(session.pollNonce(), is(sameInstance(nonce2)));
+        assertThat(session.pollNonce(), is(sameInstance(nonce1)));
+        assertThat(session.pollNonce(), is(nullValue()));
+
+        for (int ix = 0; ix < 100; ix++) {
+            session.setNonce(String.valueOf(ix).getBytes());
+        }
+        assertThat(session.getNonceCount(), is(64));
+        assertThat(session.getNonce(), is("99".getBytes()));
+
+        session.setNonce(null);
+        assertThat(session.getNonceCount(), is(0));
+    }
+
+    /**
+     * Test that nonces are prefetched below the low-water mark.
+     */
+    @Test
+    public void testNoncePrefetch() throws Exception {
+        URI resolvedUri = URI.create("https://example.com/acme/directory");
+
+        final AcmeProvider mockProvider = mock(AcmeProvider.class);
+        final Connection mockConnection = mock(Connection.class);
+        when(mockProvider.connect()).thenReturn(mockConnection);
+        when(mockProvider.resolve(URI.create(TestUtils.ACME_SERVER_URI))).thenReturn(resolvedUri);
+
+        Session session = TestUtils.session(mockProvider);
+        session.setExecutor(Runnable::run);
+
+        doAnswer(invocation -> {
+            session.setNonce("prefetched".getBytes());
+            return null;
+        }).when(mockConnection).fetchNonce(resolvedUri, session);
+
+        session.setNonce("nonce-1".getBytes());
+        session.setNonceLowWaterMark(3);
+
+        assertThat(session.pollNonce(), is("nonce-1".getBytes()));
+        assertThat(session.getNonceCount(), is(3));
+
+        verify(mockConnection, times(3)).fetchNonce(resolvedUri, session);
+        verify(mockConnection).close();
+        verifyNoMoreInteractions(mockConnection);
+    }
+
+    /**
+     * Test that nonce demands are added to the low-water mark.
+     */
+    @Test
+    public void testNonceDemand() throws Exception {
+        URI resolvedUri = URI.create("https://example.com/acme/directory");
+
+        final AcmeProvider mockProvider = mock(AcmeProvider.class);
+        final Connection mockConnection = mock(Connection.class);
+        when(mockProvider.connect()).thenReturn(mockConnection);
+        when(mockProvider.resolve(URI.create(TestUtils.ACME_SERVER_URI))).thenReturn(resolvedUri);
+
+        Session session = TestUtils.session(mockProvider);
+        session.setExecutor(Runnable::run);
+
+        doAnswer(invocation -> {
+            session.setNonce("prefetched".getBytes());
+            return null;
+        }).when(mockConnection).fetchNonce(resolvedUri, session);
+
+        session.setNonceLowWaterMark(1);
+        session.addNonceDemand(2);
+        session.addNonceDemand(1);
+        assertThat(session.getNonceDemand(), is(3));
+
+        assertThat(session.pollNonce(), is(nullValue()));
+        assertThat(session.getNonceCount(), is(4));
+
+        session.releaseNonceDemand(1);
+        session.releaseNonceDemand(2);
+        assertThat(session.getNonceDemand(), is(0));
+        assertThat(session.getNonceLowWaterMark(), is(1));
+
+        verify(mockConnection, times(4)).fetchNonce(resolvedUri, session);
     }
 
     /**
@@ -244,4 +398,87 @@ public class SessionTest {
         assertThat(meta.getJSON(), is(notNullValue()));
     }
 
+    /**
+     * Test that the {@link KeyPairJwk} is cached, and invalidated on key change.
+     */
+    @Test
+    public void testKeyPairJwk() throws Exception {
+        KeyPair keyPair = TestUtils.createKeyPair();
+        KeyPair domainKeyPair = TestUtils.createDomainKeyPair();
+        Session session = new Session(URI.create(TestUtils.ACME_SERVER_URI), keyPair);
+
+        KeyPairJwk jwk = session.getKeyPairJwk();
+        assertThat(jwk.getKeyPair(), is(sameInstance(keyPair)));
+        assertThat(jwk.getThumbprint(), is(TestUtils.THUMBPRINT));
+        assertThat(session.getKeyPairJwk(), is(sameInstance(jwk)));
+
+        session.setKeyPair(domainKeyPair);
+        KeyPairJwk domainJwk = session.getKeyPairJwk();
+        assertThat(domainJwk.getKeyPair(), is(sameInstance(domainKeyPair)));
+        assertThat(domainJwk.getThumbprint(), is(TestUtils.D_THUMBPRINT));
+        assertThat(session.getKeyPairJwk(), is(sameInstance(domainJwk)));
+    }
+
+    /**
+     * Test that the {@link JwsSigner} is cached, and invalidated on key change.
+     */
+    @Test
+    public void testJwsSigner() throws Exception {
+        Session session = new Session(URI.create(TestUtils.ACME_SERVER_URI), TestUtils.createKeyPair());
+
+        JwsSigner signer = session.getJwsSigner();
+        assertThat(signer.getKeyPairJwk(), is(sameInstance(session.getKeyPairJwk())));
+        assertThat(session.getJwsSigner(), is(sameInstance(signer)));
+
+        session.setKeyPair(TestUtils.createDomainKeyPair());
+        JwsSigner domainSigner = session.getJwsSigner();
+        assertThat(domainSigner, is(not(sameInstance(signer))));
+        assertThat(domainSigner.getKeyPairJwk(), is(sameInstance(session.getKeyPairJwk())));
+    }
+
+    /**
+     * Test that the directory is only read once, even if requested concurrently.
+     */
+    @Test
+    public void testConcurrentDirectory() throws Exception {
+        KeyPair keyPair = TestUtils.createKeyPair();
+        URI serverUri = URI.create(TestUtils.ACME_SERVER_URI);
+        CountDownLatch latch = new CountDownLatch(1);
+
+        final AcmeProvider mockProvider = mock(AcmeProvider.class);
+        when(mockProvider.directory(
+                        ArgumentMatchers.any(Session.class),
+                        ArgumentMatchers.eq(serverUri)))
+                .thenAnswer(invocation -> {
+                    latch.await();
+                    return getJsonAsObject("directory");
+                });
+
+        Session session = new Session(serverUri, keyPair) {
+            @Override
+            public AcmeProvider provider() {
+                return mockProvider;
+            };
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(10);
+        try {
+            List<Future<URI>> results = new ArrayList<>();
+            for (int ix = 0; ix < 10; ix++) {
+                results.add(executor.submit(() -> session.resourceUri(Resource.NEW_REG)));
+            }
+            latch.countDown();
+
+            for (Future<URI> result : results) {
+                assertThat(result.get(), is(URI.create("https://example.com/acme/new-reg")));
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        verify(mockProvider, times(1)).directory(
+                        ArgumentMatchers.any(Session.class),
+                        ArgumentMatchers.any(URI.class));
+    }
+
 }
@@ -0,0 +1,406 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.bulk;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+import static org.shredzone.acme4j.toolbox.AcmeUtils.*;
+
+import java.net.URI;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatchers;
+import org.shredzone.acme4j.Authorization;
+import org.shredzone.acme4j.Certificate;
+import org.shredzone.acme4j.Registration;
+import org.shredzone.acme4j.Status;
+import org.shredzone.acme4j.challenge.Challenge;
+import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.exception.AcmeRateLimitExceededException;
+import org.shredzone.acme4j.store.Checkpoint;
+import org.shredzone.acme4j.store.InMemoryStateStore;
+
+/**
+ * Unit tests for {@link BulkIssuer}.
+ */
+public class BulkIssuerTest {
+
+    private final byte[] csr1 = new byte[] { 1 };
+    private final byte[] csr2 = new byte[] { 2 };
+
+    private Registration registration;
+    private ChallengeHandler handler;
+    private AtomicInteger cleanups;
+
+    @Before
+    public void setup() throws AcmeException {
+        registration = mock(Registration.class);
+        when(registration.getLocation()).thenReturn(URI.create("https://example.com/acme/reg/1"));
+        when(registration.authorizeDomain(anyString()))
+                .thenAnswer(invocation -> mockAuthorization(invocation.getArgument(0)));
+        when(registration.requestCertificate(ArgumentMatchers.any(byte[].class)))
+                .thenAnswer(invocation -> mockCertificate());
+
+        cleanups = new AtomicInteger();
+        handler = new ChallengeHandler() {
+            @Override
+            public Challenge prepare(Authorization auth) throws AcmeException {
+                return auth.getChallenges().get(0);
+            }
+
+            @Override
+            public void cleanup(Authorization auth, Challenge challenge) {
+                cleanups.incrementAndGet();
+            }
+        };
+    }
+
+    /**
+     * Test that certificates are issued, and shared domains are only authorized once.
+     */
+    @Test
+    public void testIssue() throws Exception {
+        try (BulkIssuer issuer = new BulkIssuer(registration, handler, 4)) {
+            issuer.getPollingScheduler().setInitialDelay(Duration.ofMillis(10));
+
+            List<IssuanceRequest> requests = Arrays.asList(
+                    new IssuanceRequest(csr1, Arrays.asList("example.org", "www.example.org")),
+                    new IssuanceRequest(csr2, Arrays.asList("example.org", "m.example.org")));
+
+            List<IssuanceResult> results = issuer.issue(requests).get(10, TimeUnit.SECONDS);
+
+            assertThat(results.size(), is(2));
+            for (int ix = 0; ix < results.size(); ix++) {
+                IssuanceResult result = results.get(ix);
+                assertThat(result.getRequest(), is(sameInstance(requests.get(ix))));
+                assertThat(result.isSuccessful(), is(true));
+                assertThat(result.getError(), is(nullValue()));
+                assertThat(result.getCertificate(), is(notNullValue()));
+                assertThat(result.getX509Certificate(), is(notNullValue()));
+                assertThat(result.getChain().length, is(1));
+            }
+        }
+
+        verify(registration, times(1)).authorizeDomain("example.org");
+        verify(registration, times(1)).authorizeDomain("www.example.org");
+        verify(registration, times(1)).authorizeDomain("m.example.org");
+        verify(registration, times(1)).requestCertificate(csr1);
+        verify(registration, times(1)).requestCertificate(csr2);
+        assertThat(cleanups.get(), is(3));
+    }
+
+    /**
+     * Test that domains are deduplicated by their ACE form.
+     */
+    @Test
+    public void testIssueDuplicateDomains() throws Exception {
+        try (BulkIssuer issuer = new BulkIssuer(registration, handler, 4)) {
+            issuer.getPollingScheduler().setInitialDelay(Duration.ofMillis(10));
+
+            List<IssuanceResult> results = issuer.issue(Arrays.asList(
+                    new IssuanceRequest(csr1, Arrays.asList("Example.ORG", "\u00e4-example.org")),
+                    new IssuanceRequest(csr2, Arrays.asList("example.org", "xn---example-zza.org"))))
+                    .get(10, TimeUnit.SECONDS);
+
+            assertThat(results.get(0).isSuccessful(), is(true));
+            assertThat(results.get(1).isSuccessful(), is(true));
+        }
+
+        verify(registration, times(1)).authorizeDomain("example.org");
+        verify(registration, times(1)).authorizeDomain("xn---example-zza.org");
+        assertThat(cleanups.get(), is(2));
+    }
+
+    /**
+     * Test that a failed validation only fails the requests containing the domain.
+     */
+    @Test
+    public void testFailedValidation() throws Exception {
+        try (BulkIssuer issuer = new BulkIssuer(registration, handler, 2)) {
+            issuer.getPollingScheduler().setInitialDelay(Duration.ofMillis(10));
+
+            List<IssuanceRequest> requests = Arrays.asList(
+                    new IssuanceRequest(csr1, Arrays.asList("example.org", "invalid.example.org")),
+                    new IssuanceRequest(csr2, Collections.singletonList("example.org")));
+
+            List<IssuanceResult> results = issuer.issue(requests).get(10, TimeUnit.SECONDS);
+
+            assertThat(results.get(0).isSuccessful(), is(false));
+            assertThat(results.get(0).getError().getMessage(),
+                    containsString("invalid.example.org"));
+            assertThat(results.get(0).getCertificate(), is(nullValue()));
+            assertThat(results.get(0).getChain(), is(nullValue()));
+            assertThat(results.get(1).isSuccessful(), is(true));
+        }
+
+        verify(registration, never()).requestCertificate(csr1);
+        assertThat(cleanups.get(), is(2));
+    }
+
+    /**
+     * Test that operations are retried after a rate limit was exceeded.
+     */
+    @Test
+    public void testRateLimit() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        when(registration.requestCertificate(ArgumentMatchers.any(byte[].class))).thenAnswer(invocation -> {
+            if (calls.getAndIncrement() == 0) {
+                throw new AcmeRateLimitExceededException(
+                        "urn:ietf:params:acme:error:rateLimited", "too many requests",
+                        Instant.now().plusMillis(100), null);
+            }
+            return mockCertificate();
+        });
+
+        try (BulkIssuer issuer = new BulkIssuer(registration, handler, 2)) {
+            issuer.getPollingScheduler().setInitialDelay(Duration.ofMillis(10));
+            List<IssuanceResult> results = issuer.issue(Collections.singletonList(
+                    new IssuanceRequest(csr1, Collections.singletonList("example.org"))))
+                    .get(10, TimeUnit.SECONDS);
+            assertThat(results.get(0).isSuccessful(), is(true));
+        }
+
+        assertThat(calls.get(), is(2));
+
+        calls.set(0);
+        try (BulkIssuer issuer = new BulkIssuer(registration, handler, 2)) {
+            issuer.setMaxRateLimitRetries(0);
+            List<IssuanceResult> results = issuer.issue(Collections.singletonList(
+                    new IssuanceRequest(csr1, Collections.singletonList("example.org"))))
+                    .get(10, TimeUnit.SECONDS);
+            assertThat(results.get(0).isSuccessful(), is(false));
+            assertThat(results.get(0).getError(),
+                    is(instanceOf(AcmeRateLimitExceededException.class)));
+        }
+    }
+
+    /**
+     * Test that a rate limit only pauses the {@link BulkIssuer} that hit it, and not
+     * other issuers using the same CA.
+     */
+    @Test
+    public void testRateLimitPerIssuer() throws Exception {
+        CountDownLatch limited = new CountDownLatch(1);
+        when(registration.requestCertificate(csr1)).thenAnswer(invocation -> {
+            limited.countDown();
+            throw new AcmeRateLimitExceededException(
+                    "urn:ietf:params:acme:error:rateLimited", "too many requests",
+                    Instant.now().plusSeconds(60), null);
+        });
+
+        try (BulkIssuer issuer1 = new BulkIssuer(registration, handler, 2);
+                BulkIssuer issuer2 = new BulkIssuer(registration, handler, 2)) {
+            issuer1.getPollingScheduler().setInitialDelay(Duration.ofMillis(10));
+            issuer2.getPollingScheduler().setInitialDelay(Duration.ofMillis(10));
+
+            CompletableFuture<List<IssuanceResult>> paused = issuer1.issue(Collections.singletonList(
+                    new IssuanceRequest(csr1, Collections.singletonList("example.org"))));
+            assertThat(limited.await(10, TimeUnit.SECONDS), is(true));
+
+            List<IssuanceResult> results = issuer2.issue(Collections.singletonList(
+                    new IssuanceRequest(csr2, Collections.singletonList("example.com"))))
+                    .get(10, TimeUnit.SECONDS);
+            assertThat(results.get(0).isSuccessful(), is(true));
+            assertThat(paused.isDone(), is(false));
+        }
+    }
+
+    /**
+     * Test that the progress is checkpointed in the state store.
+     */
+    @Test
+    public void testCheckpoints() throws Exception {
+        InMemoryStateStore store = new InMemoryStateStore();
+
+        try (BulkIssuer issuer = new BulkIssuer(registration, handler, 2)) {
+            issuer.getPollingScheduler().setInitialDelay(Duration.ofMillis(10));
+            issuer.setStateStore(store);
+            assertThat(issuer.getStateStore(), is(sameInstance(store)));
+
+            List<IssuanceResult> results = issuer.issue(Arrays.asList(
+                    new IssuanceRequest(csr1, Arrays.asList("example.org", "www.example.org")),
+                    new IssuanceRequest(csr2, Collections.singletonList("invalid.example.org"))))
+                    .get(10, TimeUnit.SECONDS);
+            assertThat(results.get(0).isSuccessful(), is(true));
+            assertThat(results.get(1).isSuccessful(), is(false));
+        }
+
+        Checkpoint auth = store.get(Checkpoint.Type.AUTHORIZATION, "example.org");
+        assertThat(auth.getStatus(), is(Status.VALID));
+        assertThat(auth.getLocation(), is(URI.create("https://example.com/acme/authz/example.org")));
+        assertThat(store.get(Checkpoint.Type.AUTHORIZATION, "www.example.org").getStatus(), is(Status.VALID));
+        assertThat(store.get(Checkpoint.Type.AUTHORIZATION, "invalid.example.org"), is(nullValue()));
+        assertThat(store.get(Checkpoint.Type.CHALLENGE, "example.org"), is(nullValue()));
+        assertThat(store.getAll().size(), is(2));
+    }
+
+    /**
+     * Test that the certificate checkpoint is kept if the download fails.
+     */
+    @Test
+    public void testCheckpointKeptOnFailure() throws Exception {
+        String csrKey = hexEncode(sha256hash(base64UrlEncode(csr1)));
+        Certificate certificate = mockCertificate();
+        when(certificate.downloadChain()).thenThrow(new AcmeException("download failed"));
+        when(registration.requestCertificate(csr1)).thenReturn(certificate);
+
+        InMemoryStateStore store = new InMemoryStateStore();
+
+        try (BulkIssuer issuer = new BulkIssuer(registration, handler, 2)) {
+            issuer.getPollingScheduler().setInitialDelay(Duration.ofMillis(10));
+            issuer.setStateStore(store);
+
+            List<IssuanceResult> results = issuer.issue(Collections.singletonList(
+                    new IssuanceRequest(csr1, Collections.singletonList("example.org"))))
+                    .get(10, TimeUnit.SECONDS);
+            assertThat(results.get(0).isSuccessful(), is(false));
+        }
+
+        Checkpoint checkpoint = store.get(Checkpoint.Type.CERTIFICATE, csrKey);
+        assertThat(checkpoint, is(notNullValue()));
+        assertThat(checkpoint.getLocation(), is(certificate.getLocation()));
+    }
+
+    /**
+     * Test that checkpointed authorizations, challenges and certificates are resumed.
+     */
+    @Test
+    public void testResume() throws Exception {
+        URI authUri = URI.create("https://example.com/acme/authz/example.org");
+        URI challengeUri = URI.create("https://example.com/acme/challenge/example.org");
+        URI certUri = URI.create("https://example.com/acme/cert/1");
+        String csrKey = hexEncode(sha256hash(base64UrlEncode(csr1)));
+
+        InMemoryStateStore store = new InMemoryStateStore();
+        store.put(new Checkpoint(Checkpoint.Type.AUTHORIZATION, "example.org", authUri, Status.PENDING, null));
+        store.put(new Checkpoint(Checkpoint.Type.CHALLENGE, "example.org", challengeUri, Status.PENDING, null));
+        store.put(new Checkpoint(Checkpoint.Type.CERTIFICATE, csrKey, certUri, Status.PROCESSING, null));
+        store.put(new Checkpoint(Checkpoint.Type.AUTHORIZATION, "www.example.org",
+                URI.create("https://example.com/acme/authz/old"), Status.VALID,
+                Instant.now().minusSeconds(10)));
+
+        Authorization auth = mockAuthorization("example.org");
+        when(registration.bindAuthorization(authUri)).thenReturn(auth);
+        Certificate certificate = mockCertificate();
+        when(registration.bindCertificate(certUri)).thenReturn(certificate);
+
+        try (BulkIssuer issuer = new BulkIssuer(registration, handler, 2)) {
+            issuer.getPollingScheduler().setInitialDelay(Duration.ofMillis(10));
+            issuer.setStateStore(store);
+
+            List<IssuanceResult> results = issuer.issue(Collections.singletonList(
+                    new IssuanceRequest(csr1, Arrays.asList("example.org", "www.example.org"))))
+                    .get(10, TimeUnit.SECONDS);
+            assertThat(results.get(0).isSuccessful(), is(true));
+            assertThat(results.get(0).getCertificate(), is(sameInstance(certificate)));
+        }
+
+        verify(auth).update();
+        verify(auth.getChallenges().get(0), never()).trigger();
+        verify(registration, never()).authorizeDomain("example.org");
+        verify(registration, times(1)).authorizeDomain("www.example.org");
+        verify(registration, never()).requestCertificate(ArgumentMatchers.any(byte[].class));
+        verify(certificate).downloadChain();
+        assertThat(store.get(Checkpoint.Type.CERTIFICATE, csrKey), is(nullValue()));
+        assertThat(store.get(Checkpoint.Type.AUTHORIZATION, "example.org").getStatus(), is(Status.VALID));
+    }
+
+    /**
+     * Test parameter validation.
+     */
+    @Test
+    public void testParameters() {
+        try (BulkIssuer issuer = new BulkIssuer(registration, handler, 1)) {
+            assertThat(issuer.getPollingScheduler(), is(notNullValue()));
+            assertThat(issuer.getTimeout(), is(Duration.ofMinutes(5)));
+            assertThat(issuer.getMaxRateLimitRetries(), is(3));
+
+            issuer.setTimeout(Duration.ofMinutes(1));
+            assertThat(issuer.getTimeout(), is(Duration.ofMinutes(1)));
+            assertThat(issuer.getPollingScheduler().getTimeout(), is(Duration.ofMinutes(1)));
+
+            try {
+                issuer.setTimeout(Duration.ZERO);
+                fail("accepted zero timeout");
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+
+        try {
+            new BulkIssuer(registration, handler, 0).close();
+            fail("accepted zero concurrency");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+
+        try {
+            new IssuanceRequest(csr1, Collections.emptyList());
+            fail("accepted empty domain list");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Creates a mock {@link Authorization} with a pending challenge. The challenge
+     * becomes valid on the first update, unless the domain starts with "invalid".
+     */
+    private Authorization mockAuthorization(String domain) throws AcmeException {
+        AtomicReference<Status> status = new AtomicReference<>(Status.PENDING);
+
+        Challenge challenge = mock(Challenge.class);
+        when(challenge.getStatus()).thenAnswer(invocation -> status.get());
+        doAnswer(invocation -> {
+            status.set(domain.startsWith("invalid") ? Status.INVALID : Status.VALID);
+            return null;
+        }).when(challenge).update();
+
+        when(challenge.getLocation()).thenReturn(URI.create("https://example.com/acme/challenge/" + domain));
+
+        Authorization auth = mock(Authorization.class);
+        when(auth.getLocation()).thenReturn(URI.create("https://example.com/acme/authz/" + domain));
+        when(auth.getDomain()).thenReturn(domain);
+        when(auth.getStatus()).thenReturn(Status.PENDING);
+        when(auth.getChallenges()).thenReturn(Collections.singletonList(challenge));
+        return auth;
+    }
+
+    /**
+     * Creates a mock {@link Certificate}.
+     */
+    private Certificate mockCertificate() throws AcmeException {
+        Certificate certificate = mock(Certificate.class);
+        when(certificate.getLocation()).thenReturn(URI.create("https://example.com/acme/cert/1"));
+        when(certificate.download()).thenReturn(mock(X509Certificate.class));
+        when(certificate.downloadChain())
+                .thenReturn(new X509Certificate[] { mock(X509Certificate.class) });
+        return certificate;
+    }
+
+}
@@ -0,0 +1,371 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.bulk;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import static org.shredzone.acme4j.toolbox.AcmeUtils.base64UrlEncode;
+import static org.shredzone.acme4j.toolbox.TestUtils.isIntArrayContainingInAnyOrder;
+
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+import org.shredzone.acme4j.RevocationReason;
+import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.connector.Resource;
+import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.exception.AcmeProtocolException;
+import org.shredzone.acme4j.exception.AcmeRateLimitExceededException;
+import org.shredzone.acme4j.exception.AcmeServerException;
+import org.shredzone.acme4j.provider.TestableConnectionProvider;
+import org.shredzone.acme4j.toolbox.JSONBuilder;
+
+/**
+ * Unit tests for {@link BulkRevoker}.
+ */
+public class BulkRevokerTest {
+
+    private URI resourceUri = URI.create("http://example.com/acme/revoke-cert");
+
+    /**
+     * Test that a stream of certificates is revoked in parallel, and that failures are
+     * reported per certificate.
+     */
+    @Test
+    public void testRevoke() throws Exception {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final String failing = base64UrlEncode(new byte[] { 3 });
+
+        TestableConnectionProvider provider = new TestableConnectionProvider() {
+            private final ThreadLocal<Object> certificate = new ThreadLocal<>();
+
+            @Override
+            public void sendSignedRequest(URI uri, JSONBuilder claims, Session session) {
+                assertThat(uri, is(resourceUri));
+                assertThat(claims.toMap().get("reason"), is(1));
+                certificate.set(claims.toMap().get("certificate"));
+            }
+
+            @Override
+            public int accept(int... httpStatus) throws AcmeException {
+                assertThat(httpStatus, isIntArrayContainingInAnyOrder(HttpURLConnection.HTTP_OK));
+                int current = inFlight.incrementAndGet();
+                maxInFlight.accumulateAndGet(current, Math::max);
+                try {
+                    Thread.sleep(10L);
+                } catch (InterruptedException ex) {
+                    throw new AcmeException("interrupted", ex);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+                if (failing.equals(certificate.get())) {
+                    throw new AcmeServerException("urn:acme:error:malformed", "Already revoked");
+                }
+                return HttpURLConnection.HTTP_OK;
+            }
+        };
+        provider.putTestResource(Resource.REVOKE_CERT, resourceUri);
+        Session session = provider.createSession();
+
+        List<RevocationResult> listened = Collections.synchronizedList(new ArrayList<>());
+        RevocationReport report;
+        try (BulkRevoker revoker = new BulkRevoker(session, 4)) {
+            revoker.setResultListener(listened::add);
+            report = revoker.revoke(certificates(20), RevocationReason.KEY_COMPROMISE);
+        }
+
+        assertThat(report.getResults().size(), is(20));
+        assertThat(report.getRevokedCount(), is(19));
+        assertThat(report.getFailedCount(), is(1));
+        assertThat(report.getFailures().get(0).getCertificate().getEncoded(), is(new byte[] { 3 }));
+        assertThat(report.getFailures().get(0).getError(), is(instanceOf(AcmeServerException.class)));
+        assertThat(report.getDuration(), is(greaterThan(Duration.ZERO)));
+        assertThat(report.getThroughput(), is(greaterThan(0.0)));
+        assertThat(listened, containsInAnyOrder(report.getResults().toArray()));
+        assertThat(maxInFlight.get(), is(both(greaterThan(0)).and(lessThanOrEqualTo(4))));
+        assertThat(session.getNonceLowWaterMark(), is(0));
+        assertThat(session.getNonceDemand(), is(0));
+
+        provider.close();
+    }
+
+    /**
+     * Test that a revocation is retried after a rate limit error.
+     */
+    @Test
+    public void testRateLimit() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+
+        TestableConnectionProvider provider = new TestableConnectionProvider() {
+            @Override
+            public void sendSignedRequest(URI uri, JSONBuilder claims, Session session) {
+                requests.incrementAndGet();
+            }
+
+            @Override
+            public int accept(int... httpStatus) throws AcmeException {
+                if (requests.get() == 1) {
+                    throw new AcmeRateLimitExceededException("urn:acme:error:rateLimited",
+                            "Too many requests", Instant.now().plusMillis(100), null);
+                }
+                return HttpURLConnection.HTTP_OK;
+            }
+        };
+        provider.putTestResource(Resource.REVOKE_CERT, resourceUri);
+
+        RevocationReport report;
+        try (BulkRevoker revoker = new BulkRevoker(provider.createSession(), 1)) {
+            report = revoker.revoke(certificates(3), null);
+
+            revoker.setMaxRateLimitRetries(0);
+            requests.set(0);
+            RevocationReport failed = revoker.revoke(certificates(1), null);
+            assertThat(failed.getFailedCount(), is(1));
+            assertThat(failed.getFailures().get(0).getError(),
+                    is(instanceOf(AcmeRateLimitExceededException.class)));
+        }
+
+        assertThat(report.getRevokedCount(), is(3));
+        assertThat(report.getFailedCount(), is(0));
+
+        provider.close();
+    }
+
+    /**
+     * Test that overlapping batches on the same session add up their nonce demands, and
+     * release them afterwards.
+     */
+    @Test
+    public void testOverlapping() throws Exception {
+        final CountDownLatch running = new CountDownLatch(2);
+        final AtomicInteger maxDemand = new AtomicInteger();
+
+        TestableConnectionProvider provider = new TestableConnectionProvider() {
+            @Override
+            public void sendSignedRequest(URI uri, JSONBuilder claims, Session session) {
+                // just accept
+            }
+
+            @Override
+            public int accept(int... httpStatus) throws AcmeException {
+                running.countDown();
+                try {
+                    assertThat(running.await(10, TimeUnit.SECONDS), is(true));
+                } catch (InterruptedException ex) {
+                    throw new AcmeException("interrupted", ex);
+                }
+                return HttpURLConnection.HTTP_OK;
+            }
+        };
+        provider.putTestResource(Resource.REVOKE_CERT, resourceUri);
+        Session session = provider.createSession();
+        session.setNonceLowWaterMark(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try (BulkRevoker revoker1 = new BulkRevoker(session, 2);
+                BulkRevoker revoker2 = new BulkRevoker(session, 3)) {
+            revoker1.setResultListener(r -> maxDemand.accumulateAndGet(session.getNonceDemand(), Math::max));
+            revoker2.setResultListener(r -> maxDemand.accumulateAndGet(session.getNonceDemand(), Math::max));
+
+            Future<RevocationReport> report1 = executor.submit(() -> revoker1.revoke(certificates(1), null));
+            Future<RevocationReport> report2 = executor.submit(() -> revoker2.revoke(certificates(1), null));
+            assertThat(report1.get(10, TimeUnit.SECONDS).getRevokedCount(), is(1));
+            assertThat(report2.get(10, TimeUnit.SECONDS).getRevokedCount(), is(1));
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(maxDemand.get(), is(5));
+        assertThat(session.getNonceDemand(), is(0));
+        assertThat(session.getNonceLowWaterMark(), is(1));
+
+        provider.close();
+    }
+
+    /**
+     * Test that a closed {@link BulkRevoker} does not accept new certificates.
+     */
+    @Test
+    public void testClosed() throws Exception {
+        TestableConnectionProvider provider = new TestableConnectionProvider() {
+            @Override
+            public void sendSignedRequest(URI uri, JSONBuilder claims, Session session) {
+                // just accept
+            }
+
+            @Override
+            public int accept(int... httpStatus) throws AcmeException {
+                return HttpURLConnection.HTTP_OK;
+            }
+        };
+        provider.putTestResource(Resource.REVOKE_CERT, resourceUri);
+        Session session = provider.createSession();
+
+        BulkRevoker revoker = new BulkRevoker(session, 2);
+        Stream<X509Certificate> closing = certificates(10).peek(cert -> {
+            try {
+                if (cert.getEncoded()[0] == 5) {
+                    revoker.close();
+                }
+            } catch (Exception ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+
+        try {
+            revoker.revoke(closing, null);
+            fail("closed revoker accepted certificates");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        assertThat(session.getNonceDemand(), is(0));
+
+        try {
+            revoker.revoke(certificates(1), null);
+            fail("closed revoker accepted certificates");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+
+        provider.close();
+    }
+
+    /**
+     * Test that a failing certificate stream waits for the revocations in progress, so
+     * their results are reported before the nonce demand is released.
+     */
+    @Test
+    public void testFailingStream() throws Exception {
+        TestableConnectionProvider provider = new TestableConnectionProvider() {
+            @Override
+            public void sendSignedRequest(URI uri, JSONBuilder claims, Session session) {
+                // just accept
+            }
+
+            @Override
+            public int accept(int... httpStatus) throws AcmeException {
+                try {
+                    Thread.sleep(50L);
+                } catch (InterruptedException ex) {
+                    throw new AcmeException("interrupted", ex);
+                }
+                return HttpURLConnection.HTTP_OK;
+            }
+        };
+        provider.putTestResource(Resource.REVOKE_CERT, resourceUri);
+        Session session = provider.createSession();
+
+        Stream<X509Certificate> failing = certificates(10).peek(cert -> {
+            try {
+                if (cert.getEncoded()[0] == 3) {
+                    throw new IllegalArgumentException("bad certificate");
+                }
+            } catch (CertificateEncodingException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+
+        List<RevocationResult> listened = Collections.synchronizedList(new ArrayList<>());
+        try (BulkRevoker revoker = new BulkRevoker(session, 4)) {
+            revoker.setResultListener(listened::add);
+            revoker.revoke(failing, null);
+            fail("failing stream was not reported");
+        } catch (IllegalArgumentException ex) {
+            assertThat(ex.getMessage(), is("bad certificate"));
+        }
+
+        assertThat(listened.size(), is(3));
+        assertThat(listened.stream().allMatch(RevocationResult::isSuccessful), is(true));
+        assertThat(session.getNonceDemand(), is(0));
+
+        provider.close();
+    }
+
+    /**
+     * Test that a CA without revocation support is rejected.
+     */
+    @Test(expected = AcmeProtocolException.class)
+    public void testNoRevocation() throws Exception {
+        TestableConnectionProvider provider = new TestableConnectionProvider();
+        provider.putTestResource(Resource.NEW_REG, URI.create("http://example.com/acme/new-reg"));
+
+        try (BulkRevoker revoker = new BulkRevoker(provider.createSession(), 2)) {
+            revoker.revoke(certificates(1), null);
+        }
+    }
+
+    /**
+     * Test that invalid settings are rejected.
+     */
+    @Test
+    public void testSettings() throws Exception {
+        Session session = new TestableConnectionProvider().createSession();
+
+        try {
+            new BulkRevoker(session, 0);
+            fail("accepted zero concurrency");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+
+        try (BulkRevoker revoker = new BulkRevoker(session, 1)) {
+            revoker.setTimeout(Duration.ofSeconds(10));
+            assertThat(revoker.getTimeout(), is(Duration.ofSeconds(10)));
+            revoker.setMaxRateLimitRetries(5);
+            assertThat(revoker.getMaxRateLimitRetries(), is(5));
+
+            try {
+                revoker.setTimeout(Duration.ZERO);
+                fail("accepted zero timeout");
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Creates a stream of mocked certificates. Each certificate is encoded as a single
+     * byte containing its index.
+     */
+    private static Stream<X509Certificate> certificates(int count) {
+        return IntStream.range(0, count).mapToObj(ix -> {
+            try {
+                X509Certificate cert = mock(X509Certificate.class);
+                when(cert.getEncoded()).thenReturn(new byte[] { (byte) ix });
+                return cert;
+            } catch (Exception ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+    }
+
+}
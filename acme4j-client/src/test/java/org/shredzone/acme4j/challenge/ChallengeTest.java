@@ -27,6 +27,7 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.concurrent.ExecutionException;
 
 import org.jose4j.lang.JoseException;
 import org.junit.Before;
@@ -337,4 +338,65 @@ public class ChallengeTest {
         challenge.unmarshall(getJsonAsObject("updateRegistrationResponse"));
     }
 
+    /**
+     * Test that a challenge is triggered and updated asynchronously.
+     */
+    @Test
+    public void testAsync() throws Exception {
+        final Instant retryAfter = Instant.now().plus(Duration.ofSeconds(30));
+
+        TestableConnectionProvider provider = new TestableConnectionProvider() {
+            private boolean triggered = false;
+
+            @Override
+            public void sendSignedRequest(URI uri, JSONBuilder claims, Session session) {
+                assertThat(uri, is(resourceUri));
+                triggered = true;
+            }
+
+            @Override
+            public void sendRequest(URI uri, Session session) {
+                assertThat(uri, is(locationUri));
+                triggered = false;
+            }
+
+            @Override
+            public int accept(int... httpStatus) throws AcmeException {
+                return HttpURLConnection.HTTP_ACCEPTED;
+            }
+
+            @Override
+            public JSON readJsonResponse() {
+                return getJsonAsObject(triggered
+                                ? "triggerHttpChallengeResponse"
+                                : "updateHttpChallengeResponse");
+            }
+
+            @Override
+            public void handleRetryAfter(String message) throws AcmeException {
+                throw new AcmeRetryAfterException(message, retryAfter);
+            }
+        };
+
+        Session session = provider.createSession();
+
+        Http01Challenge challenge = new Http01Challenge(session);
+        challenge.unmarshall(getJsonAsObject("triggerHttpChallenge"));
+
+        challenge.triggerAsync().get();
+        assertThat(challenge.getStatus(), is(Status.PENDING));
+
+        try {
+            challenge.updateAsync().get();
+            fail("Expected AcmeRetryAfterException");
+        } catch (ExecutionException ex) {
+            assertThat(ex.getCause(), is(instanceOf(AcmeRetryAfterException.class)));
+            assertThat(((AcmeRetryAfterException) ex.getCause()).getRetryAfter(), is(retryAfter));
+        }
+
+        assertThat(challenge.getStatus(), is(Status.VALID));
+
+        provider.close();
+    }
+
 }
@@ -0,0 +1,131 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Test;
+import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.toolbox.JSON;
+import org.shredzone.acme4j.toolbox.JSONBuilder;
+import org.shredzone.acme4j.toolbox.TestUtils;
+
+/**
+ * Unit tests for the default methods of {@link Connection}.
+ */
+public class ConnectionTest {
+
+    private final URI uri = URI.create("https://example.com/acme/new-nonce");
+
+    /**
+     * Test that the nonce is fetched by a GET request if the implementation does not
+     * offer anything better.
+     */
+    @Test
+    public void testFetchNonce() throws Exception {
+        Session session = TestUtils.session();
+        LegacyConnection conn = new LegacyConnection();
+
+        conn.fetchNonce(uri, session);
+
+        assertThat(conn.calls, contains("GET " + uri, "updateSession"));
+    }
+
+    /**
+     * Test that conditional requests fall back to unconditional requests, and that
+     * nothing is cached if the implementation does not support it.
+     */
+    @Test
+    public void testConditionalRequest() throws Exception {
+        Session session = TestUtils.session();
+        LegacyConnection conn = new LegacyConnection();
+
+        conn.sendConditionalRequest(uri, session, "\"abc123\"");
+
+        assertThat(conn.calls, contains("GET " + uri));
+        assertThat(conn.getETag(), is(nullValue()));
+        assertThat(conn.getCacheExpiry(), is(nullValue()));
+    }
+
+    /**
+     * A {@link Connection} that only implements the methods that were required by
+     * earlier versions of the interface.
+     */
+    private static class LegacyConnection implements Connection {
+        private final List<String> calls = new ArrayList<>();
+
+        @Override
+        public void sendRequest(URI uri, Session session) {
+            calls.add("GET " + uri);
+        }
+
+        @Override
+        public void sendSignedRequest(URI uri, JSONBuilder claims, Session session) {
+            calls.add("POST " + uri);
+        }
+
+        @Override
+        public int accept(int... httpStatus) {
+            return httpStatus[0];
+        }
+
+        @Override
+        public JSON readJsonResponse() {
+            return JSON.empty();
+        }
+
+        @Override
+        public X509Certificate readCertificate() {
+            return null;
+        }
+
+        @Override
+        public void handleRetryAfter(String message) {
+            // never retry
+        }
+
+        @Override
+        public void updateSession(Session session) {
+            calls.add("updateSession");
+        }
+
+        @Override
+        public URI getLocation() {
+            return null;
+        }
+
+        @Override
+        public URI getLink(String relation) {
+            return null;
+        }
+
+        @Override
+        public Collection<URI> getLinks(String relation) {
+            return null;
+        }
+
+        @Override
+        public void close() {
+            // nothing to close
+        }
+    }
+
+}
@@ -0,0 +1,59 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.shredzone.acme4j.toolbox.TestUtils.getResourceAsByteArray;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link CsrParser}.
+ */
+public class CsrParserTest {
+
+    /**
+     * Test that the common name is found.
+     */
+    @Test
+    public void testCommonName() throws IOException {
+        assertThat(CsrParser.getDomains(getResourceAsByteArray("/csr.der")),
+                contains("example.com"));
+    }
+
+    /**
+     * Test that the common name and the DNS names of the SAN extension are found.
+     */
+    @Test
+    public void testSubjectAltNames() throws IOException {
+        assertThat(CsrParser.getDomains(getResourceAsByteArray("/csr-san.der")),
+                contains("www.example.org", "example.org", "foo.example.com"));
+    }
+
+    /**
+     * Test that garbage does not fail.
+     */
+    @Test
+    public void testGarbage() throws IOException {
+        byte[] csr = getResourceAsByteArray("/csr-san.der");
+        assertThat(CsrParser.getDomains(Arrays.copyOf(csr, csr.length / 2)), is(empty()));
+        assertThat(CsrParser.getDomains(new byte[0]), is(empty()));
+        assertThat(CsrParser.getDomains(new byte[] {0x30, 0x7F, 0x00}), is(empty()));
+    }
+
+}
@@ -21,9 +21,13 @@ import static uk.co.datumedge.hamcrest.json.SameJSONAs.sameJSONAs;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.security.cert.X509Certificate;
 import java.time.Duration;
 import java.time.Instant;
@@ -47,6 +51,9 @@ import org.shredzone.acme4j.exception.AcmeNetworkException;
 import org.shredzone.acme4j.exception.AcmeProtocolException;
 import org.shredzone.acme4j.exception.AcmeRetryAfterException;
 import org.shredzone.acme4j.exception.AcmeServerException;
+import org.shredzone.acme4j.metrics.InMemoryMetricsRecorder;
+import org.shredzone.acme4j.metrics.Metrics;
+import org.shredzone.acme4j.metrics.MetricsRecorder;
 import org.shredzone.acme4j.toolbox.JSON;
 import org.shredzone.acme4j.toolbox.JSONBuilder;
 import org.shredzone.acme4j.toolbox.TestUtils;
@@ -251,6 +258,45 @@ public class DefaultConnectionTest {
         verifyNoMoreInteractions(mockUrlConnection);
     }
 
+    /**
+     * Test that the ETag header is returned.
+     */
+    @Test
+    public void testGetETag() {
+        when(mockUrlConnection.getHeaderField("ETag")).thenReturn("\"abc123\"");
+
+        try (DefaultConnection conn = new DefaultConnection(mockHttpConnection)) {
+            conn.conn = mockUrlConnection;
+            assertThat(conn.getETag(), is("\"abc123\""));
+        }
+
+        verify(mockUrlConnection).getHeaderField("ETag");
+        verifyNoMoreInteractions(mockUrlConnection);
+    }
+
+    /**
+     * Test that the Cache-Control header is parsed.
+     */
+    @Test
+    public void testGetCacheExpiry() {
+        long now = System.currentTimeMillis();
+
+        when(mockUrlConnection.getHeaderField("Cache-Control"))
+                .thenReturn(null, "public, max-age=600", "no-cache", "public");
+        when(mockUrlConnection.getHeaderFieldDate(
+                        ArgumentMatchers.eq("Date"),
+                        ArgumentMatchers.anyLong()))
+                .thenReturn(now);
+
+        try (DefaultConnection conn = new DefaultConnection(mockHttpConnection)) {
+            conn.conn = mockUrlConnection;
+            assertThat(conn.getCacheExpiry(), is(nullValue()));
+            assertThat(conn.getCacheExpiry(), is(Instant.ofEpochMilli(now).plusSeconds(600)));
+            assertThat(conn.getCacheExpiry(), is(Instant.ofEpochMilli(now)));
+            assertThat(conn.getCacheExpiry(), is(nullValue()));
+        }
+    }
+
     /**
      * Test if Retry-After header with absolute date is correctly parsed.
      */
@@ -496,10 +542,59 @@ public class DefaultConnectionTest {
         verify(mockUrlConnection).setRequestProperty("Accept-Language", "ja-JP");
         verify(mockUrlConnection).setDoOutput(false);
         verify(mockUrlConnection).connect();
+        verify(mockUrlConnection).getResponseCode();
+        verify(mockUrlConnection).getHeaderField("Replay-Nonce");
         verify(mockUrlConnection, atLeast(0)).getHeaderFields();
         verifyNoMoreInteractions(mockUrlConnection);
     }
 
+    /**
+     * Test that a conditional GET sends the entity tag.
+     */
+    @Test
+    public void testSendConditionalRequest() throws Exception {
+        try (DefaultConnection conn = new DefaultConnection(mockHttpConnection)) {
+            conn.sendConditionalRequest(requestUri, session, "\"abc123\"");
+        }
+
+        verify(mockUrlConnection).setRequestMethod("GET");
+        verify(mockUrlConnection).setRequestProperty("Accept-Charset", "utf-8");
+        verify(mockUrlConnection).setRequestProperty("Accept-Language", "ja-JP");
+        verify(mockUrlConnection).setRequestProperty("If-None-Match", "\"abc123\"");
+        verify(mockUrlConnection).setDoOutput(false);
+        verify(mockUrlConnection).connect();
+        verify(mockUrlConnection).getResponseCode();
+        verify(mockUrlConnection).getHeaderField("Replay-Nonce");
+        verify(mockUrlConnection, atLeast(0)).getHeaderFields();
+        verifyNoMoreInteractions(mockUrlConnection);
+    }
+
+    /**
+     * Test HEAD requests for fetching a nonce.
+     */
+    @Test
+    public void testFetchNonce() throws Exception {
+        byte[] nonce = "foo-nonce-foo".getBytes();
+
+        when(mockUrlConnection.getHeaderField("Replay-Nonce"))
+                .thenReturn(Base64Url.encode(nonce));
+
+        try (DefaultConnection conn = new DefaultConnection(mockHttpConnection)) {
+            conn.fetchNonce(requestUri, session);
+            assertThat(conn.conn, is(nullValue()));
+        }
+
+        assertThat(session.pollNonce(), is(nonce));
+        assertThat(session.pollNonce(), is(nullValue()));
+
+        verify(mockUrlConnection).setRequestMethod("HEAD");
+        verify(mockUrlConnection).setRequestProperty("Accept-Language", "ja-JP");
+        verify(mockUrlConnection).connect();
+        verify(mockUrlConnection).getResponseCode();
+        verify(mockUrlConnection).getHeaderField("Replay-Nonce");
+        verifyNoMoreInteractions(mockUrlConnection);
+    }
+
     /**
      * Test signed POST requests.
      */
@@ -510,18 +605,15 @@ public class DefaultConnectionTest {
         final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
 
         when(mockUrlConnection.getOutputStream()).thenReturn(outputStream);
+        when(mockUrlConnection.getHeaderField("Replay-Nonce")).thenReturn(Base64Url.encode(nonce1));
 
         try (DefaultConnection conn = new DefaultConnection(mockHttpConnection) {
             @Override
             public void updateSession(Session session) {
                 assertThat(session, is(sameInstance(DefaultConnectionTest.this.session)));
-                if (session.getNonce() == null) {
-                    session.setNonce(nonce1);
-                } else if (session.getNonce() == nonce1) {
-                    session.setNonce(nonce2);
-                } else {
-                    fail("unknown nonce");
-                }
+                // the fetched nonce is used directly, and must not pass the shared pool
+                assertThat(session.getNonce(), is(nullValue()));
+                session.setNonce(nonce2);
             };
         }) {
             JSONBuilder cb = new JSONBuilder();
@@ -530,8 +622,10 @@ public class DefaultConnectionTest {
         }
 
         verify(mockUrlConnection).setRequestMethod("HEAD");
+        verify(mockUrlConnection).getHeaderField("Replay-Nonce");
         verify(mockUrlConnection, times(2)).setRequestProperty("Accept-Language", "ja-JP");
         verify(mockUrlConnection, times(2)).connect();
+        verify(mockUrlConnection, times(2)).getResponseCode();
 
         verify(mockUrlConnection).setRequestMethod("POST");
         verify(mockUrlConnection).setRequestProperty("Accept", "application/json");
@@ -562,6 +656,7 @@ public class DefaultConnectionTest {
         assertThat(Base64Url.decodeToUtf8String(encodedHeader), sameJSONAs(expectedHeader.toString()));
         assertThat(Base64Url.decodeToUtf8String(encodedPayload), sameJSONAs("{\"foo\":123,\"bar\":\"a-string\"}"));
         assertThat(encodedSignature, not(isEmptyOrNullString()));
+        assertThat(session.pollNonce(), is(nonce2));
 
         JsonWebSignature jws = new JsonWebSignature();
         jws.setCompactSerialization(CompactSerializer.serialize(encodedHeader, encodedPayload, encodedSignature));
@@ -569,6 +664,196 @@ public class DefaultConnectionTest {
         assertThat(jws.verifySignature(), is(true));
     }
 
+    /**
+     * Test that signed POST requests use a pooled nonce, and do not send a HEAD request.
+     */
+    @Test
+    public void testSendSignedRequestPooledNonce() throws Exception {
+        final byte[] nonce1 = "foo-nonce-1-foo".getBytes();
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        when(mockUrlConnection.getOutputStream()).thenReturn(outputStream);
+
+        session.setNonce(nonce1);
+
+        try (DefaultConnection conn = new DefaultConnection(mockHttpConnection)) {
+            JSONBuilder cb = new JSONBuilder();
+            cb.put("foo", 123);
+            conn.sendSignedRequest(requestUri, cb, DefaultConnectionTest.this.session);
+        }
+
+        verify(mockUrlConnection, never()).setRequestMethod("HEAD");
+        verify(mockUrlConnection).setRequestMethod("POST");
+        verify(mockUrlConnection).connect();
+        assertThat(session.getNonce(), is(nullValue()));
+
+        JSON data = JSON.parse(new String(outputStream.toByteArray(), "utf-8"));
+        JSON header = JSON.parse(Base64Url.decodeToUtf8String(data.get("protected").asString()));
+        assertThat(header.get("nonce").asString(), is(Base64Url.encode(nonce1)));
+    }
+
+    /**
+     * Test that signed POST requests refer to the key identifier if enabled, unless the
+     * public key is enforced.
+     */
+    @Test
+    public void testSendSignedRequestKeyIdentifier() throws Exception {
+        final URI kid = URI.create("https://example.com/acme/reg/1");
+        final ByteArrayOutputStream kidOutput = new ByteArrayOutputStream();
+        final ByteArrayOutputStream jwkOutput = new ByteArrayOutputStream();
+
+        when(mockUrlConnection.getOutputStream()).thenReturn(kidOutput, jwkOutput);
+
+        session.setKeyIdentifier(kid);
+        session.setKeyIdentifierEnabled(true);
+        session.setNonce("foo-nonce-1-foo".getBytes());
+        session.setNonce("foo-nonce-2-foo".getBytes());
+
+        try (DefaultConnection conn = new DefaultConnection(mockHttpConnection)) {
+            conn.sendSignedRequest(requestUri, new JSONBuilder().put("foo", 123), session);
+        }
+        try (DefaultConnection conn = new DefaultConnection(mockHttpConnection)) {
+            conn.sendSignedRequest(requestUri, new JSONBuilder().put("foo", 123), session, true);
+        }
+
+        JSON kidData = JSON.parse(new String(kidOutput.toByteArray(), "utf-8"));
+        JSON kidHeader = JSON.parse(Base64Url.decodeToUtf8String(kidData.get("protected").asString()));
+        assertThat(kidHeader.get("alg").asString(), is("RS256"));
+        assertThat(kidHeader.get("kid").asURI(), is(kid));
+        assertThat(kidHeader.contains("jwk"), is(false));
+
+        JsonWebSignature jws = new JsonWebSignature();
+        jws.setCompactSerialization(CompactSerializer.serialize(
+                        kidData.get("protected").asString(),
+                        kidData.get("payload").asString(),
+                        kidData.get("signature").asString()));
+        jws.setKey(session.getKeyPair().getPublic());
+        assertThat(jws.verifySignature(), is(true));
+
+        JSON jwkData = JSON.parse(new String(jwkOutput.toByteArray(), "utf-8"));
+        JSON jwkHeader = JSON.parse(Base64Url.decodeToUtf8String(jwkData.get("protected").asString()));
+        assertThat(jwkHeader.contains("jwk"), is(true));
+        assertThat(jwkHeader.contains("kid"), is(false));
+    }
+
+    /**
+     * Test that a request rejected because of a bad nonce is signed again with the
+     * fresh nonce, and resent.
+     */
+    @Test
+    public void testSendSignedRequestBadNonceRetry() throws Exception {
+        final byte[] nonce1 = "foo-nonce-1-foo".getBytes();
+        final byte[] nonce2 = "foo-nonce-2-foo".getBytes();
+        final ByteArrayOutputStream badOutput = new ByteArrayOutputStream();
+        final ByteArrayOutputStream goodOutput = new ByteArrayOutputStream();
+
+        HttpURLConnection badConnection = mockBadNonceConnection(badOutput, nonce2);
+        HttpURLConnection goodConnection = mock(HttpURLConnection.class);
+        when(goodConnection.getOutputStream()).thenReturn(goodOutput);
+        when(goodConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_CREATED);
+        when(mockHttpConnection.openConnection(requestUri)).thenReturn(badConnection, goodConnection);
+
+        session.setNonce(nonce1);
+
+        try (DefaultConnection conn = new DefaultConnection(mockHttpConnection)) {
+            JSONBuilder cb = new JSONBuilder();
+            cb.putResource(Resource.NEW_CERT);
+            conn.sendSignedRequest(requestUri, cb, session);
+            assertThat(conn.accept(HttpURLConnection.HTTP_CREATED), is(HttpURLConnection.HTTP_CREATED));
+        }
+
+        assertThat(getNonce(badOutput), is(Base64Url.encode(nonce1)));
+        assertThat(getNonce(goodOutput), is(Base64Url.encode(nonce2)));
+        verify(mockHttpConnection, times(2)).openConnection(requestUri);
+    }
+
+    /**
+     * Test that bad nonce retries are limited, and the last error is passed to the
+     * caller.
+     */
+    @Test
+    public void testSendSignedRequestBadNonceExhausted() throws Exception {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        HttpURLConnection badConnection = mockBadNonceConnection(output, "foo-nonce-foo".getBytes());
+        when(mockHttpConnection.openConnection(requestUri)).thenReturn(badConnection);
+
+        try (DefaultConnection conn = new DefaultConnection(mockHttpConnection)) {
+            conn.sendSignedRequest(requestUri, new JSONBuilder(), session);
+            conn.accept(HttpURLConnection.HTTP_CREATED);
+            fail("badNonce was not thrown");
+        } catch (AcmeServerException ex) {
+            assertThat(ex.getType(), is("urn:ietf:params:acme:error:badNonce"));
+            assertThat(ex.getMessage(), is("JWS has an invalid anti-replay nonce"));
+        }
+
+        // one HEAD for the initial nonce, then 1 + 3 POST requests
+        verify(badConnection, times(4)).setRequestMethod("POST");
+    }
+
+    /**
+     * Test that other errors are not retried.
+     */
+    @Test
+    public void testSendSignedRequestOtherError() throws Exception {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        when(mockUrlConnection.getOutputStream()).thenReturn(output);
+        when(mockUrlConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_BAD_REQUEST);
+        when(mockUrlConnection.getHeaderField("Content-Type")).thenReturn("application/problem+json");
+        when(mockUrlConnection.getErrorStream()).thenReturn(new ByteArrayInputStream(
+                "{\"type\":\"urn:ietf:params:acme:error:malformed\",\"detail\":\"Oops\"}"
+                .getBytes("utf-8")));
+
+        session.setNonce("foo-nonce-1-foo".getBytes());
+
+        try (DefaultConnection conn = new DefaultConnection(mockHttpConnection)) {
+            conn.sendSignedRequest(requestUri, new JSONBuilder(), session);
+            conn.accept(HttpURLConnection.HTTP_CREATED);
+            fail("malformed was not thrown");
+        } catch (AcmeServerException ex) {
+            assertThat(ex.getType(), is("urn:ietf:params:acme:error:malformed"));
+            assertThat(ex.getMessage(), is("Oops"));
+        }
+
+        verify(mockHttpConnection, times(1)).openConnection(requestUri);
+    }
+
+    /**
+     * Test that requests are recorded by the {@link MetricsRecorder}.
+     */
+    @Test
+    public void testMetrics() throws Exception {
+        InMemoryMetricsRecorder recorder = new InMemoryMetricsRecorder();
+        Metrics.setRecorder(recorder);
+        try {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            when(mockUrlConnection.getOutputStream()).thenReturn(outputStream);
+            when(mockUrlConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_CREATED);
+            when(mockUrlConnection.getHeaderField("Replay-Nonce"))
+                    .thenReturn(Base64Url.encode("foo-nonce-foo".getBytes()));
+            when(mockUrlConnection.getHeaderField("Content-Type")).thenReturn("application/json");
+            when(mockUrlConnection.getInputStream())
+                    .thenReturn(new ByteArrayInputStream("{\"foo\":123}".getBytes("utf-8")));
+
+            try (DefaultConnection conn = new DefaultConnection(mockHttpConnection)) {
+                JSONBuilder cb = new JSONBuilder();
+                cb.putResource(Resource.NEW_CERT);
+                conn.sendSignedRequest(requestUri, cb, session);
+                conn.readJsonResponse();
+            }
+
+            assertThat(recorder.getNonceMisses(), is(greaterThanOrEqualTo(1L)));
+            assertThat(recorder.getLatency("nonce").getCount(), is(greaterThanOrEqualTo(1L)));
+            assertThat(recorder.getLatency("new-cert").getCount(), is(greaterThanOrEqualTo(1L)));
+            assertThat(recorder.getStatusCounts().get(HttpURLConnection.HTTP_CREATED),
+                    is(greaterThanOrEqualTo(2L)));
+            assertThat(recorder.getBytesSent(),
+                    is(greaterThanOrEqualTo((long) outputStream.toByteArray().length)));
+            assertThat(recorder.getBytesReceived(), is(greaterThanOrEqualTo(11L)));
+        } finally {
+            Metrics.setRecorder(null);
+        }
+    }
+
     /**
      * Test signed POST requests if there is no nonce.
      */
@@ -630,6 +915,84 @@ public class DefaultConnectionTest {
         verifyNoMoreInteractions(mockUrlConnection);
     }
 
+    /**
+     * Test that a certificate is streamed to a channel without being parsed.
+     */
+    @Test
+    public void testReadCertificateToChannel() throws Exception {
+        X509Certificate original = TestUtils.createCertificate();
+
+        when(mockUrlConnection.getHeaderField("Content-Type")).thenReturn("application/pkix-cert");
+        when(mockUrlConnection.getInputStream()).thenReturn(new ByteArrayInputStream(original.getEncoded()));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long length;
+        try (DefaultConnection conn = new DefaultConnection(mockHttpConnection)) {
+            conn.conn = mockUrlConnection;
+            length = conn.readCertificate(Channels.newChannel(out));
+        }
+
+        assertThat(length, is((long) original.getEncoded().length));
+        assertThat(out.toByteArray(), is(equalTo(original.getEncoded())));
+
+        verify(mockUrlConnection).getHeaderField("Content-Type");
+        verify(mockUrlConnection).getInputStream();
+        verifyNoMoreInteractions(mockUrlConnection);
+    }
+
+    /**
+     * Test that errors of the target channel are passed on as {@link IOException}, while
+     * errors of the response are thrown as {@link AcmeNetworkException}.
+     */
+    @Test
+    public void testReadCertificateToChannelErrors() throws Exception {
+        X509Certificate original = TestUtils.createCertificate();
+        when(mockUrlConnection.getHeaderField("Content-Type")).thenReturn("application/pkix-cert");
+
+        when(mockUrlConnection.getInputStream()).thenReturn(new ByteArrayInputStream(original.getEncoded()));
+        WritableByteChannel failing = Channels.newChannel(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+        });
+        try (DefaultConnection conn = new DefaultConnection(mockHttpConnection)) {
+            conn.conn = mockUrlConnection;
+            conn.readCertificate(failing);
+            fail("write error was not reported");
+        } catch (IOException ex) {
+            assertThat(ex.getMessage(), is("disk full"));
+        }
+
+        when(mockUrlConnection.getInputStream()).thenReturn(new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("connection reset");
+            }
+        });
+        try (DefaultConnection conn = new DefaultConnection(mockHttpConnection)) {
+            conn.conn = mockUrlConnection;
+            conn.readCertificate(Channels.newChannel(new ByteArrayOutputStream()));
+            fail("read error was not reported");
+        } catch (AcmeNetworkException ex) {
+            assertThat(ex.getCause().getMessage(), is("connection reset"));
+        }
+    }
+
+    /**
+     * Test that an empty certificate response throws an exception when streamed.
+     */
+    @Test(expected = AcmeProtocolException.class)
+    public void testReadEmptyCertificateToChannel() throws Exception {
+        when(mockUrlConnection.getHeaderField("Content-Type")).thenReturn("application/pkix-cert");
+        when(mockUrlConnection.getInputStream()).thenReturn(new ByteArrayInputStream(new byte[0]));
+
+        try (DefaultConnection conn = new DefaultConnection(mockHttpConnection)) {
+            conn.conn = mockUrlConnection;
+            conn.readCertificate(Channels.newChannel(new ByteArrayOutputStream()));
+        }
+    }
+
     /**
      * Test that a bad certificate throws an exception.
      */
@@ -648,4 +1011,36 @@ public class DefaultConnectionTest {
         }
     }
 
+    /**
+     * Creates a mock connection that rejects every request with a badNonce problem.
+     *
+     * @param output
+     *            Output stream that receives the request bodies
+     * @param freshNonce
+     *            Nonce that is returned with the error response
+     * @return Mocked {@link HttpURLConnection}
+     */
+    private HttpURLConnection mockBadNonceConnection(ByteArrayOutputStream output,
+                byte[] freshNonce) throws IOException {
+        HttpURLConnection connection = mock(HttpURLConnection.class);
+        when(connection.getOutputStream()).thenReturn(output);
+        when(connection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_BAD_REQUEST);
+        when(connection.getHeaderField("Content-Type")).thenReturn("application/problem+json");
+        when(connection.getHeaderField("Replay-Nonce")).thenReturn(Base64Url.encode(freshNonce));
+        when(connection.getErrorStream()).thenAnswer(invocation -> new ByteArrayInputStream(
+                "{\"type\":\"urn:ietf:params:acme:error:badNonce\",\"detail\":\"JWS has an invalid anti-replay nonce\"}"
+                .getBytes("utf-8")));
+        return connection;
+    }
+
+    /**
+     * Returns the nonce of the first signed request written to the output stream.
+     */
+    private String getNonce(ByteArrayOutputStream output) throws IOException {
+        String body = new String(output.toByteArray(), "utf-8");
+        JSON data = JSON.parse(body.substring(0, body.indexOf('}') + 1));
+        JSON header = JSON.parse(Base64Url.decodeToUtf8String(data.get("protected").asString()));
+        return header.get("nonce").asString();
+    }
+
 }
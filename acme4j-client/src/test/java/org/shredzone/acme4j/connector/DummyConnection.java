@@ -15,6 +15,7 @@ package org.shredzone.acme4j.connector;
 
 import java.net.URI;
 import java.security.cert.X509Certificate;
+import java.time.Instant;
 import java.util.Collection;
 
 import org.shredzone.acme4j.Session;
@@ -33,6 +34,16 @@ public class DummyConnection implements Connection {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public void sendConditionalRequest(URI uri, Session session, String etag) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void fetchNonce(URI uri, Session session) {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     public void sendSignedRequest(URI uri, JSONBuilder claims, Session session) {
         throw new UnsupportedOperationException();
@@ -78,6 +89,16 @@ public class DummyConnection implements Connection {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public String getETag() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Instant getCacheExpiry() {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     public void close() {
         // closing is always safe
@@ -0,0 +1,197 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.shredzone.acme4j.connector.IntermediateCertificateCache.ChainLink;
+import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.toolbox.TestUtils;
+
+/**
+ * Unit tests for {@link IntermediateCertificateCache}.
+ */
+public class IntermediateCertificateCacheTest {
+
+    private final URI uri1 = URI.create("https://example.com/acme/issuer-cert/1");
+    private final URI uri2 = URI.create("https://example.com/acme/issuer-cert/2");
+    private final URI uri3 = URI.create("https://example.com/acme/issuer-cert/3");
+
+    private X509Certificate certificate;
+    private AtomicInteger fetches;
+    private IntermediateCertificateCache.Fetcher fetcher;
+
+    @Before
+    public void setup() throws IOException {
+        certificate = TestUtils.createCertificate();
+        fetches = new AtomicInteger();
+        fetcher = uri -> {
+            fetches.incrementAndGet();
+            return new ChainLink(certificate, uri.equals(uri1) ? uri2 : null);
+        };
+    }
+
+    /**
+     * Test that certificates are fetched once, and then served from the cache.
+     */
+    @Test
+    public void testGet() throws AcmeException {
+        IntermediateCertificateCache cache = new IntermediateCertificateCache();
+        assertThat(IntermediateCertificateCache.getDefault(), is(notNullValue()));
+
+        ChainLink link1 = cache.get(uri1, fetcher);
+        assertThat(link1.getCertificate(), is(sameInstance(certificate)));
+        assertThat(link1.getUp(), is(uri2));
+        assertThat(cache.get(uri1, fetcher), is(sameInstance(link1)));
+        assertThat(fetches.get(), is(1));
+
+        ChainLink link2 = cache.get(uri2, fetcher);
+        assertThat(link2.getUp(), is(nullValue()));
+        assertThat(fetches.get(), is(2));
+        assertThat(cache.size(), is(2));
+
+        cache.invalidate(uri1);
+        assertThat(cache.get(uri1, fetcher), is(not(sameInstance(link1))));
+        assertThat(fetches.get(), is(3));
+
+        cache.clear();
+        assertThat(cache.size(), is(0));
+    }
+
+    /**
+     * Test that expired certificates are fetched again.
+     */
+    @Test
+    public void testTtl() throws Exception {
+        IntermediateCertificateCache cache = new IntermediateCertificateCache();
+        assertThat(cache.getTtl(), is(Duration.ofHours(24)));
+        cache.setTtl(Duration.ofMillis(50L));
+
+        cache.get(uri1, fetcher);
+        cache.get(uri1, fetcher);
+        assertThat(fetches.get(), is(1));
+
+        Thread.sleep(100L);
+
+        cache.get(uri1, fetcher);
+        assertThat(fetches.get(), is(2));
+    }
+
+    /**
+     * Test that the least recently used certificates are evicted.
+     */
+    @Test
+    public void testMaxSize() throws Exception {
+        IntermediateCertificateCache cache = new IntermediateCertificateCache();
+        assertThat(cache.getMaxSize(), is(100));
+        cache.setMaxSize(2);
+
+        cache.get(uri1, fetcher);
+        Thread.sleep(2L);
+        cache.get(uri2, fetcher);
+        Thread.sleep(2L);
+        cache.get(uri1, fetcher);
+        Thread.sleep(2L);
+        cache.get(uri3, fetcher);
+        assertThat(cache.size(), is(2));
+        assertThat(fetches.get(), is(3));
+
+        cache.get(uri1, fetcher);
+        assertThat(fetches.get(), is(3));
+        cache.get(uri2, fetcher);
+        assertThat(fetches.get(), is(4));
+
+        cache.setMaxSize(0);
+        assertThat(cache.size(), is(0));
+        cache.get(uri1, fetcher);
+        cache.get(uri1, fetcher);
+        assertThat(cache.size(), is(0));
+        assertThat(fetches.get(), is(6));
+    }
+
+    /**
+     * Test that concurrent requests for the same certificate are collapsed.
+     */
+    @Test
+    public void testSingleFetch() throws Exception {
+        IntermediateCertificateCache cache = new IntermediateCertificateCache();
+        CountDownLatch latch = new CountDownLatch(1);
+
+        IntermediateCertificateCache.Fetcher slowFetcher = uri -> {
+            try {
+                latch.await();
+            } catch (InterruptedException ex) {
+                throw new AcmeException("interrupted", ex);
+            }
+            return fetcher.fetch(uri);
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<ChainLink>> results = new ArrayList<>();
+            for (int ix = 0; ix < 8; ix++) {
+                results.add(executor.submit(() -> cache.get(uri1, slowFetcher)));
+            }
+
+            Thread.sleep(100L);
+            latch.countDown();
+
+            ChainLink first = results.get(0).get();
+            for (Future<ChainLink> result : results) {
+                assertThat(result.get(), is(sameInstance(first)));
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(fetches.get(), is(1));
+    }
+
+    /**
+     * Test that failed fetches are not cached.
+     */
+    @Test
+    public void testFailure() throws Exception {
+        IntermediateCertificateCache cache = new IntermediateCertificateCache();
+
+        try {
+            cache.get(uri1, uri -> {
+                throw new AcmeException("failed");
+            });
+            fail("exception was not thrown");
+        } catch (AcmeException ex) {
+            assertThat(ex.getMessage(), is("failed"));
+        }
+
+        assertThat(cache.size(), is(0));
+        cache.get(uri1, fetcher);
+        assertThat(fetches.get(), is(1));
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static uk.co.datumedge.hamcrest.json.SameJSONAs.sameJSONAs;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.jose4j.base64url.Base64Url;
+import org.jose4j.jws.JsonWebSignature;
+import org.jose4j.jwx.CompactSerializer;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.shredzone.acme4j.toolbox.JSON;
+import org.shredzone.acme4j.toolbox.KeyPairJwk;
+import org.shredzone.acme4j.toolbox.TestUtils;
+
+/**
+ * Unit tests for {@link JwsSigner}.
+ */
+public class JwsSignerTest {
+
+    private final URI url = URI.create("https://example.com/acme/new-authz");
+    private final byte[] nonce = "foo-nonce-foo".getBytes(StandardCharsets.UTF_8);
+    private final byte[] payload = "{\"resource\":\"new-authz\",\"foo\":\"bär\"}"
+                    .getBytes(StandardCharsets.UTF_8);
+
+    @BeforeClass
+    public static void setup() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    /**
+     * Test signing with an RSA key.
+     */
+    @Test
+    public void testRsa() throws Exception {
+        KeyPairJwk jwk = KeyPairJwk.of(TestUtils.createKeyPair());
+        JwsSigner signer = new JwsSigner(jwk);
+        assertThat(signer.getKeyPairJwk(), is(sameInstance(jwk)));
+
+        JSON jws = JSON.parse(new String(signer.sign(payload, nonce, url), StandardCharsets.UTF_8));
+        assertThat(jws.keySet(), containsInAnyOrder("protected", "payload", "signature"));
+
+        String header = Base64Url.decodeToUtf8String(jws.get("protected").asString());
+        assertThat(header, sameJSONAs("{\"alg\":\"RS256\",\"jwk\":" + jwk.getJson()
+                        + ",\"nonce\":\"" + Base64Url.encode(nonce) + "\",\"url\":\"" + url + "\"}"));
+        assertThat(Base64Url.decode(jws.get("payload").asString()), is(payload));
+
+        assertVerified(jws, jwk.getKeyPair());
+    }
+
+    /**
+     * Test signing with a key identifier.
+     */
+    @Test
+    public void testKid() throws Exception {
+        KeyPairJwk jwk = KeyPairJwk.of(TestUtils.createKeyPair());
+        JwsSigner signer = new JwsSigner(jwk);
+        URI kid = URI.create("https://example.com/acme/reg/1");
+
+        for (URI k : new URI[] {kid, kid, URI.create("https://example.com/acme/reg/2")}) {
+            JSON jws = JSON.parse(new String(signer.sign(payload, nonce, url, k), StandardCharsets.UTF_8));
+            String header = Base64Url.decodeToUtf8String(jws.get("protected").asString());
+            assertThat(header, sameJSONAs("{\"alg\":\"RS256\",\"kid\":\"" + k
+                            + "\",\"nonce\":\"" + Base64Url.encode(nonce) + "\",\"url\":\"" + url + "\"}"));
+            assertVerified(jws, jwk.getKeyPair());
+        }
+
+        JSON jws = JSON.parse(new String(signer.sign(payload, nonce, url, null), StandardCharsets.UTF_8));
+        JSON header = JSON.parse(Base64Url.decodeToUtf8String(jws.get("protected").asString()));
+        assertThat(header.contains("jwk"), is(true));
+    }
+
+    /**
+     * Test signing with EC keys.
+     */
+    @Test
+    public void testEc() throws Exception {
+        for (String curve : new String[] {"secp256r1", "secp384r1", "secp521r1"}) {
+            KeyPairJwk jwk = KeyPairJwk.of(TestUtils.createECKeyPair(curve));
+            JwsSigner signer = new JwsSigner(jwk);
+
+            // repeat, as the DER encoding of the signature length varies
+            for (int ix = 0; ix < 20; ix++) {
+                JSON jws = JSON.parse(new String(signer.sign(payload, nonce, url), StandardCharsets.UTF_8));
+                String header = Base64Url.decodeToUtf8String(jws.get("protected").asString());
+                assertThat(JSON.parse(header).get("alg").asString(), is(jwk.getAlgorithm()));
+                assertVerified(jws, jwk.getKeyPair());
+            }
+        }
+    }
+
+    /**
+     * Test that URLs are escaped in the header.
+     */
+    @Test
+    public void testEscaping() throws Exception {
+        KeyPairJwk jwk = KeyPairJwk.of(TestUtils.createKeyPair());
+        URI oddUrl = URI.create("https://example.com/acme/a%22b?c=d\\e".replace("\\", "%5C"));
+
+        JSON jws = JSON.parse(new String(new JwsSigner(jwk).sign(payload, nonce, oddUrl),
+                        StandardCharsets.UTF_8));
+        JSON header = JSON.parse(Base64Url.decodeToUtf8String(jws.get("protected").asString()));
+        assertThat(header.get("url").asString(), is(oddUrl.toString()));
+        assertVerified(jws, jwk.getKeyPair());
+    }
+
+    /**
+     * Test that a signer can be used concurrently.
+     */
+    @Test
+    public void testConcurrent() throws Exception {
+        KeyPairJwk jwk = KeyPairJwk.of(TestUtils.createECKeyPair("secp256r1"));
+        JwsSigner signer = new JwsSigner(jwk);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int ix = 0; ix < 100; ix++) {
+                results.add(executor.submit(() -> signer.sign(payload, nonce, url)));
+            }
+            for (Future<byte[]> result : results) {
+                assertVerified(JSON.parse(new String(result.get(), StandardCharsets.UTF_8)),
+                                jwk.getKeyPair());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Test the conversion of DER encoded ECDSA signatures.
+     */
+    @Test
+    public void testDerToConcat() {
+        byte[] der = {0x30, 0x08, 0x02, 0x02, 0x00, (byte) 0x81, 0x02, 0x02, 0x12, 0x34};
+        assertThat(JwsSigner.derToConcat(der, 2), is(new byte[] {0x00, (byte) 0x81, 0x12, 0x34}));
+        assertThat(JwsSigner.derToConcat(der, 3),
+                        is(new byte[] {0x00, 0x00, (byte) 0x81, 0x00, 0x12, 0x34}));
+
+        try {
+            JwsSigner.derToConcat(der, 1);
+            fail("accepted too long INTEGER");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Verifies a flattened JWS with jose4j.
+     */
+    private static void assertVerified(JSON jws, KeyPair keyPair) throws Exception {
+        JsonWebSignature verifier = new JsonWebSignature();
+        verifier.setCompactSerialization(CompactSerializer.serialize(
+                        jws.get("protected").asString(),
+                        jws.get("payload").asString(),
+                        jws.get("signature").asString()));
+        verifier.setKey(keyPair.getPublic());
+        assertThat(verifier.verifySignature(), is(true));
+    }
+
+}
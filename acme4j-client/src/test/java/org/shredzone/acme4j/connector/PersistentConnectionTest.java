@@ -0,0 +1,141 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.toolbox.TestUtils;
+
+/**
+ * Unit tests for {@link PersistentConnection} and {@link PersistentHttpConnector}.
+ */
+public class PersistentConnectionTest {
+
+    private URI requestUri = URI.create("http://example.com/acme/");
+    private HttpURLConnection mockUrlConnection;
+    private HttpConnector mockHttpConnector;
+    private Session session;
+
+    @Before
+    public void setup() throws IOException {
+        mockUrlConnection = mock(HttpURLConnection.class);
+
+        mockHttpConnector = mock(HttpConnector.class);
+        when(mockHttpConnector.openConnection(requestUri)).thenReturn(mockUrlConnection);
+
+        session = TestUtils.session();
+    }
+
+    /**
+     * Test that the response body is consumed and closed on close.
+     */
+    @Test
+    public void testReleaseOnClose() throws Exception {
+        InputStream in = spy(new ByteArrayInputStream(new byte[10000]));
+        when(mockUrlConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_OK);
+        when(mockUrlConnection.getInputStream()).thenReturn(in);
+
+        try (PersistentConnection conn = new PersistentConnection(mockHttpConnector)) {
+            conn.sendRequest(requestUri, session);
+        }
+
+        assertThat(in.available(), is(0));
+        verify(in).close();
+        verify(mockUrlConnection, never()).disconnect();
+    }
+
+    /**
+     * Test that the error body is consumed and closed on close.
+     */
+    @Test
+    public void testReleaseErrorOnClose() throws Exception {
+        InputStream in = spy(new ByteArrayInputStream(new byte[100]));
+        when(mockUrlConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_NOT_FOUND);
+        when(mockUrlConnection.getErrorStream()).thenReturn(in);
+
+        try (PersistentConnection conn = new PersistentConnection(mockHttpConnector)) {
+            conn.sendRequest(requestUri, session);
+        }
+
+        assertThat(in.available(), is(0));
+        verify(in).close();
+        verify(mockUrlConnection, never()).getInputStream();
+        verify(mockUrlConnection, never()).disconnect();
+    }
+
+    /**
+     * Test that large response bodies are not consumed, but disconnected.
+     */
+    @Test
+    public void testDisconnectLargeBody() throws Exception {
+        InputStream in = spy(new ByteArrayInputStream(new byte[1024 * 1024]));
+        when(mockUrlConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_OK);
+        when(mockUrlConnection.getInputStream()).thenReturn(in);
+
+        try (PersistentConnection conn = new PersistentConnection(mockHttpConnector)) {
+            conn.sendRequest(requestUri, session);
+        }
+
+        assertThat(in.available(), is(greaterThan(0)));
+        verify(mockUrlConnection).disconnect();
+    }
+
+    /**
+     * Test that a failed request is disconnected.
+     */
+    @Test
+    public void testDisconnectOnFailure() throws Exception {
+        doThrow(new IOException("connection refused")).when(mockUrlConnection).connect();
+
+        try (PersistentConnection conn = new PersistentConnection(mockHttpConnector)) {
+            conn.sendRequest(requestUri, session);
+        } catch (Exception ex) {
+            // expected
+        }
+
+        verify(mockUrlConnection).disconnect();
+        verify(mockUrlConnection, never()).getResponseCode();
+    }
+
+    /**
+     * Test that the {@link PersistentHttpConnector} uses the shared
+     * {@link SSLSocketFactory}.
+     */
+    @Test
+    public void testPersistentHttpConnector() throws IOException {
+        SSLSocketFactory factory = mock(SSLSocketFactory.class);
+
+        PersistentHttpConnector connector = new PersistentHttpConnector(factory);
+        HttpURLConnection conn = connector.openConnection(URI.create("https://example.com/acme"));
+
+        assertThat(conn, is(instanceOf(HttpsURLConnection.class)));
+        assertThat(((HttpsURLConnection) conn).getSSLSocketFactory(), is(sameInstance(factory)));
+        assertThat(conn.getRequestProperty("User-Agent"), is(HttpConnector.defaultUserAgent()));
+    }
+
+}
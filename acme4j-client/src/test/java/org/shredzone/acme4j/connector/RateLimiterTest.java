@@ -0,0 +1,277 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.connector;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.shredzone.acme4j.toolbox.TestUtils.getResourceAsByteArray;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.shredzone.acme4j.connector.RateLimiter.Scope;
+import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.exception.AcmeRateLimitExceededException;
+import org.shredzone.acme4j.toolbox.JSONBuilder;
+
+/**
+ * Unit tests for {@link RateLimiter}.
+ */
+public class RateLimiterTest {
+
+    private final List<String> noDomains = Collections.emptyList();
+
+    /**
+     * Test that requests without limits are not delayed.
+     */
+    @Test
+    public void testUnlimited() throws AcmeException {
+        RateLimiter limiter = new RateLimiter();
+        long start = System.nanoTime();
+        for (int ix = 0; ix < 1000; ix++) {
+            limiter.acquire(Resource.NEW_AUTHZ, "account", Arrays.asList("example.com"));
+        }
+        assertThat(System.nanoTime() - start, is(lessThan(Duration.ofSeconds(1).toNanos())));
+    }
+
+    /**
+     * Test that bursts are permitted, and further requests are delayed.
+     */
+    @Test
+    public void testEndpointLimit() throws AcmeException {
+        RateLimiter limiter = new RateLimiter()
+                .setLimit(Resource.NEW_AUTHZ, Scope.ENDPOINT, 5, Duration.ofMillis(500))
+                .setMaxWait(Duration.ofSeconds(1));
+
+        long start = System.nanoTime();
+        for (int ix = 0; ix < 5; ix++) {
+            limiter.acquire(Resource.NEW_AUTHZ, null, noDomains);
+        }
+        assertThat(System.nanoTime() - start, is(lessThan(Duration.ofMillis(100).toNanos())));
+
+        // other resources are not affected
+        limiter.acquire(Resource.NEW_CERT, null, noDomains);
+        assertThat(System.nanoTime() - start, is(lessThan(Duration.ofMillis(100).toNanos())));
+
+        // the next two requests must wait for two refills
+        limiter.acquire(Resource.NEW_AUTHZ, null, noDomains);
+        limiter.acquire(Resource.NEW_AUTHZ, null, noDomains);
+        assertThat(System.nanoTime() - start, is(greaterThanOrEqualTo(Duration.ofMillis(190).toNanos())));
+    }
+
+    /**
+     * Test that requests are rejected immediately by default.
+     */
+    @Test
+    public void testFailFast() throws AcmeException {
+        RateLimiter limiter = new RateLimiter()
+                .setLimit(Resource.NEW_AUTHZ, Scope.ENDPOINT, 1, Duration.ofMillis(500));
+
+        limiter.acquire(Resource.NEW_AUTHZ, null, noDomains);
+        long start = System.nanoTime();
+        assertRateLimited(limiter, Resource.NEW_AUTHZ, null, noDomains);
+        assertThat(System.nanoTime() - start, is(lessThan(Duration.ofMillis(100).toNanos())));
+    }
+
+    /**
+     * Test that account and domain limits are separated by account and registered
+     * domain.
+     */
+    @Test
+    public void testScopes() throws AcmeException {
+        RateLimiter limiter = new RateLimiter()
+                .setLimit(Resource.NEW_AUTHZ, Scope.ACCOUNT, 1, Duration.ofDays(1))
+                .setLimit(Resource.NEW_CERT, Scope.DOMAIN, 2, Duration.ofDays(1));
+
+        limiter.acquire(Resource.NEW_AUTHZ, "account1", noDomains);
+        limiter.acquire(Resource.NEW_AUTHZ, "account2", noDomains);
+        assertRateLimited(limiter, Resource.NEW_AUTHZ, "account1", noDomains);
+
+        limiter.acquire(Resource.NEW_CERT, "account1", Arrays.asList("www.example.com", "example.com"));
+        limiter.acquire(Resource.NEW_CERT, "account1", Arrays.asList("foo.example.com", "example.org"));
+        limiter.acquire(Resource.NEW_CERT, "account1", Arrays.asList("example.org"));
+        assertRateLimited(limiter, Resource.NEW_CERT, "account2", Arrays.asList("bar.example.com"));
+        assertRateLimited(limiter, Resource.NEW_CERT, "account2", Arrays.asList("www.example.org"));
+        limiter.acquire(Resource.NEW_CERT, "account1", Arrays.asList("example.net"));
+
+        // a rejected request must not consume tokens of other buckets
+        assertRateLimited(limiter, Resource.NEW_CERT, "account2",
+                Arrays.asList("www.example.net", "example.com"));
+        limiter.acquire(Resource.NEW_CERT, "account1", Arrays.asList("www.example.net"));
+
+        limiter.removeLimit(Resource.NEW_CERT, Scope.DOMAIN);
+        limiter.acquire(Resource.NEW_CERT, "account1", Arrays.asList("example.com"));
+    }
+
+    /**
+     * Test that renewals are exempt from the domain limit of certificate requests.
+     */
+    @Test
+    public void testRenewal() throws Exception {
+        RateLimiter limiter = new RateLimiter()
+                .setLimit(Resource.NEW_CERT, Scope.DOMAIN, 1, Duration.ofDays(1))
+                .setMaxWait(Duration.ZERO);
+
+        // a permitted request is not recorded as issued certificate
+        assertThat(limiter.isRenewal(Arrays.asList("example.com", "www.example.com")), is(false));
+        limiter.acquire(Resource.NEW_CERT, "account", Arrays.asList("example.com", "www.example.com"));
+        assertThat(limiter.isRenewal(Arrays.asList("example.com", "www.example.com")), is(false));
+        assertRateLimited(limiter, Resource.NEW_CERT, "account", Arrays.asList("example.com", "www.example.com"));
+
+        // same set of domains is a renewal after issuance, other sets are limited
+        limiter.addIssued(Arrays.asList("example.com", "www.example.com"));
+        assertThat(limiter.isRenewal(Arrays.asList("WWW.example.com", "example.com")), is(true));
+        limiter.acquire(Resource.NEW_CERT, "account", Arrays.asList("www.example.com", "example.com"));
+        assertRateLimited(limiter, Resource.NEW_CERT, "account", Arrays.asList("example.com"));
+        assertThat(limiter.isRenewal(Arrays.asList("example.com")), is(false));
+
+        // domains of a CSR can be added
+        limiter.addIssued(getResourceAsByteArray("/csr.der"));
+        limiter.acquire(Resource.NEW_CERT, "account", Arrays.asList("example.com"));
+        assertThat(limiter.isRenewal(Collections.<String>emptyList()), is(false));
+    }
+
+    /**
+     * Test that issued certificates are forgotten after the retention period.
+     */
+    @Test
+    public void testIssuedRetention() throws Exception {
+        RateLimiter limiter = new RateLimiter();
+        assertThat(limiter.getIssuedRetention(), is(Duration.ofDays(90)));
+
+        limiter.setIssuedRetention(Duration.ofMillis(50));
+        assertThat(limiter.getIssuedRetention(), is(Duration.ofMillis(50)));
+        limiter.addIssued(Arrays.asList("example.com"));
+        assertThat(limiter.isRenewal(Arrays.asList("example.com")), is(true));
+
+        Thread.sleep(100L);
+        assertThat(limiter.isRenewal(Arrays.asList("example.com")), is(false));
+
+        try {
+            limiter.setIssuedRetention(Duration.ZERO);
+            fail("accepted zero retention");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that the resource and domains are taken from the claims.
+     */
+    @Test
+    public void testClaims() throws AcmeException, IOException {
+        RateLimiter limiter = new RateLimiter()
+                .setLimit(Resource.NEW_AUTHZ, Scope.DOMAIN, 1, Duration.ofDays(1))
+                .setLimit(Resource.NEW_CERT, Scope.DOMAIN, 1, Duration.ofDays(1))
+                .setMaxWait(Duration.ZERO);
+
+        JSONBuilder authz = new JSONBuilder();
+        authz.putResource(Resource.NEW_AUTHZ);
+        authz.object("identifier").put("type", "dns").put("value", "www.example.com");
+        limiter.acquire(authz.toMap(), "account");
+        try {
+            limiter.acquire(authz.toMap(), "account");
+            fail("rate limit was not applied");
+        } catch (AcmeRateLimitExceededException ex) {
+            // expected
+        }
+
+        JSONBuilder cert = new JSONBuilder();
+        cert.putResource(Resource.NEW_CERT);
+        cert.putBase64("csr", getResourceAsByteArray("/csr.der"));
+        limiter.acquire(cert.toMap(), "account");
+        assertRateLimited(limiter, Resource.NEW_CERT, "account", Arrays.asList("www.example.com"));
+
+        JSONBuilder reg = new JSONBuilder();
+        reg.putResource("reg");
+        limiter.acquire(reg.toMap(), "account");
+    }
+
+    /**
+     * Test the registered domain heuristic.
+     */
+    @Test
+    public void testGetRegisteredDomain() {
+        RateLimiter limiter = new RateLimiter();
+        assertThat(limiter.getRegisteredDomain("www.example.com"), is("example.com"));
+        assertThat(limiter.getRegisteredDomain("a.b.example.com"), is("example.com"));
+        assertThat(limiter.getRegisteredDomain("example.com"), is("example.com"));
+        assertThat(limiter.getRegisteredDomain("localhost"), is("localhost"));
+        assertThat(limiter.getRegisteredDomain("www.example.de"), is("example.de"));
+        assertThat(limiter.getRegisteredDomain("www.example.co"), is("example.co"));
+        assertThat(limiter.getRegisteredDomain("www.example.co.uk"), is(nullValue()));
+        assertThat(limiter.getRegisteredDomain("example.com.au"), is(nullValue()));
+    }
+
+    /**
+     * Test that domains below a multi-label public suffix do not share a limit.
+     */
+    @Test
+    public void testMultiLabelSuffix() throws AcmeException {
+        RateLimiter limiter = new RateLimiter()
+                .setLimit(Resource.NEW_CERT, Scope.DOMAIN, 1, Duration.ofDays(1))
+                .setMaxWait(Duration.ZERO);
+
+        limiter.acquire(Resource.NEW_CERT, "account", Arrays.asList("example.co.uk"));
+        limiter.acquire(Resource.NEW_CERT, "account", Arrays.asList("other.co.uk"));
+        limiter.acquire(Resource.NEW_CERT, "account", Arrays.asList("example.co.uk"));
+    }
+
+    /**
+     * Test parameter validation.
+     */
+    @Test
+    public void testBadParameters() {
+        RateLimiter limiter = new RateLimiter();
+        assertThat(limiter.getMaxWait(), is(Duration.ZERO));
+
+        try {
+            limiter.setLimit(Resource.NEW_REG, Scope.ENDPOINT, 0, Duration.ofDays(1));
+            fail("accepted count 0");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+
+        try {
+            limiter.setLimit(Resource.NEW_REG, Scope.ENDPOINT, 1, Duration.ZERO);
+            fail("accepted empty period");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+
+        try {
+            limiter.setMaxWait(Duration.ofSeconds(-1));
+            fail("accepted negative maxWait");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    private static void assertRateLimited(RateLimiter limiter, Resource resource,
+                String account, List<String> domains) throws AcmeException {
+        try {
+            limiter.acquire(resource, account, domains);
+            fail("rate limit was not applied");
+        } catch (AcmeRateLimitExceededException ex) {
+            assertThat(ex.getType(), is("urn:ietf:params:acme:error:rateLimited"));
+            assertThat(ex.getRetryAfter(), is(greaterThan(Instant.now())));
+        }
+    }
+
+}
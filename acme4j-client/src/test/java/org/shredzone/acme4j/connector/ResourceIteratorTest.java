@@ -14,7 +14,7 @@
 package org.shredzone.acme4j.connector;
 
 import static org.hamcrest.Matchers.*;
-import static org.junit.Assert.assertThat;
+import static org.junit.Assert.*;
 import static org.shredzone.acme4j.toolbox.TestUtils.isIntArrayContainingInAnyOrder;
 
 import java.io.IOException;
@@ -24,12 +24,19 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.shredzone.acme4j.Authorization;
 import org.shredzone.acme4j.Session;
 import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.exception.AcmeProtocolException;
 import org.shredzone.acme4j.provider.TestableConnectionProvider;
 import org.shredzone.acme4j.toolbox.JSON;
 import org.shredzone.acme4j.toolbox.JSONBuilder;
@@ -120,14 +127,117 @@ public class ResourceIteratorTest {
         it.remove(); // throws UnsupportedOperationException
     }
 
+    /**
+     * Test that prefetching returns all objects in the correct order.
+     */
+    @Test
+    public void prefetchTest() throws IOException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            List<URI> result = new ArrayList<>();
+
+            Iterator<Authorization> it = createIterator(pageURIs.get(0)).prefetch(executor);
+            while (it.hasNext()) {
+                result.add(it.next().getLocation());
+            }
+
+            assertThat(result, is(equalTo(resourceURIs)));
+            assertThat(it.hasNext(), is(false));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Test that resources are hydrated concurrently, and still returned in order.
+     */
+    @Test
+    public void hydrateTest() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger maxRunning = new AtomicInteger();
+            Set<URI> hydrated = ConcurrentHashMap.newKeySet();
+
+            ResourceIterator<Authorization> it = createIterator(pageURIs.get(0))
+                    .prefetch(executor)
+                    .hydrate(auth -> {
+                        int now = running.incrementAndGet();
+                        maxRunning.accumulateAndGet(now, Math::max);
+                        try {
+                            Thread.sleep(20L);
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        }
+                        hydrated.add(auth.getLocation());
+                        running.decrementAndGet();
+                    }, 3);
+
+            List<URI> result = new ArrayList<>();
+            while (it.hasNext()) {
+                Authorization auth = it.next();
+                assertThat(hydrated, hasItem(auth.getLocation()));
+                result.add(auth.getLocation());
+            }
+
+            assertThat(result, is(equalTo(resourceURIs)));
+            assertThat(maxRunning.get(), is(both(greaterThan(1)).and(lessThanOrEqualTo(3))));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Test that hydration failures are passed to the caller.
+     */
+    @Test
+    public void hydrateFailureTest() throws IOException {
+        URI failing = resourceURIs.get(7);
+
+        ResourceIterator<Authorization> it = createIterator(pageURIs.get(0))
+                .prefetch(Runnable::run)
+                .hydrate(auth -> {
+                    if (auth.getLocation().equals(failing)) {
+                        throw new AcmeException("hydration failed");
+                    }
+                }, 2);
+
+        int count = 0;
+        try {
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+            fail("hydration failure was not passed");
+        } catch (AcmeProtocolException ex) {
+            assertThat(ex.getCause().getMessage(), is("hydration failed"));
+        }
+        assertThat(count, is(7));
+    }
+
+    /**
+     * Test the {@link java.util.stream.Stream} support.
+     */
+    @Test
+    public void streamTest() throws IOException {
+        List<URI> result = createIterator(pageURIs.get(0))
+                .prefetch(Runnable::run)
+                .stream()
+                .map(Authorization::getLocation)
+                .collect(Collectors.toList());
+
+        assertThat(result, is(equalTo(resourceURIs)));
+        assertThat(createIterator(null).stream().count(), is(0L));
+    }
+
     /**
      * Creates a new {@link Iterator} of {@link Authorization} objects.
      *
      * @param first
      *            URI of the first page
-     * @return Created {@link Iterator}
+     * @return Created {@link ResourceIterator}
      */
-    private Iterator<Authorization> createIterator(URI first) throws IOException {
+    private ResourceIterator<Authorization> createIterator(URI first) throws IOException {
         TestableConnectionProvider provider = new TestableConnectionProvider() {
             private int ix;
 
@@ -0,0 +1,119 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.metrics;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link Histogram}.
+ */
+public class HistogramTest {
+
+    /**
+     * Test that bucket indexes are continuous and precise.
+     */
+    @Test
+    public void testBuckets() {
+        int lastIndex = -1;
+        for (long value = 0; value < 100000; value++) {
+            int index = Histogram.indexOf(value);
+            assertThat(index, is(either(equalTo(lastIndex)).or(equalTo(lastIndex + 1))));
+            long highest = Histogram.highestEquivalentValue(index);
+            assertThat(highest, is(greaterThanOrEqualTo(value)));
+            assertThat((double) (highest - value), is(lessThanOrEqualTo(value / 64.0)));
+            lastIndex = index;
+        }
+
+        int maxIndex = Histogram.indexOf(Long.MAX_VALUE);
+        assertThat(Histogram.highestEquivalentValue(maxIndex), is(Long.MAX_VALUE));
+    }
+
+    /**
+     * Test statistics and percentiles.
+     */
+    @Test
+    public void testPercentiles() {
+        Histogram histogram = new Histogram();
+        assertThat(histogram.getCount(), is(0L));
+        assertThat(histogram.getValueAtPercentile(99.0), is(0L));
+        assertThat(histogram.getMin(), is(0L));
+        assertThat(histogram.getMax(), is(0L));
+
+        for (long ix = 1; ix <= 10000; ix++) {
+            histogram.record(ix * 1000L);
+        }
+
+        assertThat(histogram.getCount(), is(10000L));
+        assertThat(histogram.getMin(), is(1000L));
+        assertThat(histogram.getMax(), is(10000000L));
+        assertThat(histogram.getMean(), is(closeTo(5000500.0, 0.1)));
+        assertThat((double) histogram.getValueAtPercentile(50.0), is(closeTo(5000000.0, 5000000.0 / 64)));
+        assertThat((double) histogram.getValueAtPercentile(99.0), is(closeTo(9900000.0, 9900000.0 / 64)));
+        assertThat((double) histogram.getValueAtPercentile(99.9), is(closeTo(9990000.0, 9990000.0 / 64)));
+        assertThat(histogram.getValueAtPercentile(100.0), is(10000000L));
+        assertThat(histogram.getValueAtPercentile(0.0), is(greaterThanOrEqualTo(1000L)));
+        assertThat(histogram.toString(), startsWith("count=10000, min=1000, "));
+
+        histogram.record(-5L);
+        assertThat(histogram.getMin(), is(0L));
+
+        histogram.reset();
+        assertThat(histogram.getCount(), is(0L));
+        assertThat(histogram.getValueAtPercentile(50.0), is(0L));
+
+        try {
+            histogram.getValueAtPercentile(100.1);
+            fail("accepted bad percentile");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Test concurrent recording.
+     */
+    @Test
+    public void testConcurrent() throws Exception {
+        Histogram histogram = new Histogram();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int ix = 0; ix < 10000; ix++) {
+                        histogram.record(ix);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(histogram.getCount(), is(40000L));
+        assertThat(histogram.getMax(), is(9999L));
+    }
+
+}
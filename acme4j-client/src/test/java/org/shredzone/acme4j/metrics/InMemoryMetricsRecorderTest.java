@@ -0,0 +1,73 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.metrics;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.time.Duration;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link InMemoryMetricsRecorder}.
+ */
+public class InMemoryMetricsRecorderTest {
+
+    /**
+     * Test that all metrics are recorded.
+     */
+    @Test
+    public void testRecord() {
+        InMemoryMetricsRecorder recorder = new InMemoryMetricsRecorder();
+        assertThat(recorder.getLatency("new-cert"), is(nullValue()));
+        assertThat(recorder.getLatencies().isEmpty(), is(true));
+
+        recorder.request("new-cert", 201, 5000L);
+        recorder.request("new-cert", 429, 7000L);
+        recorder.request("get", 200, 1000L);
+        recorder.request("get", -1, 2000L);
+        recorder.nonceHit();
+        recorder.nonceHit();
+        recorder.nonceMiss();
+        recorder.badNonceRetry();
+        recorder.retryAfter(Duration.ofSeconds(10));
+        recorder.retryAfter(Duration.ofSeconds(20));
+        recorder.bytesSent(100L);
+        recorder.bytesSent(50L);
+        recorder.bytesReceived(1000L);
+
+        assertThat(recorder.getLatencies().keySet(), contains("get", "new-cert"));
+        assertThat(recorder.getLatency("new-cert").getCount(), is(2L));
+        assertThat(recorder.getLatency("new-cert").getMax(), is(7000L));
+        assertThat(recorder.getLatency("get").getMin(), is(1000L));
+        assertThat(recorder.getStatusCounts().keySet(), contains(-1, 200, 201, 429));
+        assertThat(recorder.getStatusCounts().get(201), is(1L));
+        assertThat(recorder.getNonceHits(), is(2L));
+        assertThat(recorder.getNonceMisses(), is(1L));
+        assertThat(recorder.getBadNonceRetries(), is(1L));
+        assertThat(recorder.getRetryAfterDelays().getCount(), is(2L));
+        assertThat(recorder.getRetryAfterDelays().getMax(), is(20000L));
+        assertThat(recorder.getBytesSent(), is(150L));
+        assertThat(recorder.getBytesReceived(), is(1000L));
+
+        recorder.reset();
+        assertThat(recorder.getLatencies().isEmpty(), is(true));
+        assertThat(recorder.getStatusCounts().isEmpty(), is(true));
+        assertThat(recorder.getNonceHits(), is(0L));
+        assertThat(recorder.getBytesSent(), is(0L));
+        assertThat(recorder.getRetryAfterDelays().getCount(), is(0L));
+    }
+
+}
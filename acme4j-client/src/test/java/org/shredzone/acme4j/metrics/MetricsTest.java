@@ -0,0 +1,92 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.metrics;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link Metrics}.
+ */
+public class MetricsTest {
+
+    /**
+     * Test that the no-op recorder is used if no recorder was found.
+     */
+    @Test
+    public void testNoRecorder() {
+        assertThat(Metrics.combine(Collections.emptyList()),
+                is(sameInstance(NoOpMetricsRecorder.INSTANCE)));
+    }
+
+    /**
+     * Test that a single recorder is used directly.
+     */
+    @Test
+    public void testSingleRecorder() {
+        InMemoryMetricsRecorder recorder = new InMemoryMetricsRecorder();
+        assertThat(Metrics.combine(Arrays.asList(recorder)), is(sameInstance(recorder)));
+    }
+
+    /**
+     * Test that multiple recorders receive all metrics.
+     */
+    @Test
+    public void testMultipleRecorders() {
+        InMemoryMetricsRecorder r1 = new InMemoryMetricsRecorder();
+        InMemoryMetricsRecorder r2 = new InMemoryMetricsRecorder();
+        MetricsRecorder combined = Metrics.combine(Arrays.asList(r1, r2));
+
+        combined.request("new-cert", 201, 1000L);
+        combined.nonceHit();
+        combined.nonceMiss();
+        combined.badNonceRetry();
+        combined.retryAfter(Duration.ofSeconds(3));
+        combined.bytesSent(100L);
+        combined.bytesReceived(200L);
+
+        for (InMemoryMetricsRecorder r : Arrays.asList(r1, r2)) {
+            assertThat(r.getLatency("new-cert").getCount(), is(1L));
+            assertThat(r.getStatusCounts().get(201), is(1L));
+            assertThat(r.getNonceHits(), is(1L));
+            assertThat(r.getNonceMisses(), is(1L));
+            assertThat(r.getBadNonceRetries(), is(1L));
+            assertThat(r.getRetryAfterDelays().getMax(), is(3000L));
+            assertThat(r.getBytesSent(), is(100L));
+            assertThat(r.getBytesReceived(), is(200L));
+        }
+    }
+
+    /**
+     * Test that the no-op recorder accepts all metrics.
+     */
+    @Test
+    public void testNoOp() {
+        MetricsRecorder noop = NoOpMetricsRecorder.INSTANCE;
+        noop.request("get", 200, 1L);
+        noop.nonceHit();
+        noop.nonceMiss();
+        noop.badNonceRetry();
+        noop.retryAfter(Duration.ZERO);
+        noop.bytesSent(1L);
+        noop.bytesReceived(1L);
+    }
+
+}
@@ -15,14 +15,15 @@ package org.shredzone.acme4j.provider;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
-import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 import static org.shredzone.acme4j.toolbox.TestUtils.getJsonAsObject;
 import static uk.co.datumedge.hamcrest.json.SameJSONAs.sameJSONAs;
 
 import java.net.HttpURLConnection;
 import java.net.URI;
+import java.time.Instant;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 import org.shredzone.acme4j.Session;
@@ -34,6 +35,7 @@ import org.shredzone.acme4j.challenge.TlsSni02Challenge;
 import org.shredzone.acme4j.connector.Connection;
 import org.shredzone.acme4j.connector.DefaultConnection;
 import org.shredzone.acme4j.connector.HttpConnector;
+import org.shredzone.acme4j.connector.PersistentConnection;
 import org.shredzone.acme4j.toolbox.JSON;
 import org.shredzone.acme4j.toolbox.TestUtils;
 
@@ -73,6 +75,43 @@ public class AbstractAcmeProviderTest {
         assertThat(invoked.get(), is(true));
     }
 
+    /**
+     * Test that connect returns persistent connections sharing one connector.
+     */
+    @Test
+    public void testConnectPersistent() {
+        final AtomicInteger invoked = new AtomicInteger();
+
+        AbstractAcmeProvider provider = new AbstractAcmeProvider() {
+            @Override
+            public boolean accepts(URI serverUri) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public URI resolve(URI serverUri) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            protected boolean isPersistent() {
+                return true;
+            }
+
+            @Override
+            protected HttpConnector createPersistentHttpConnector() {
+                invoked.incrementAndGet();
+                return super.createPersistentHttpConnector();
+            }
+        };
+
+        Connection connection1 = provider.connect();
+        assertThat(connection1, instanceOf(PersistentConnection.class));
+        Connection connection2 = provider.connect();
+        assertThat(connection2, instanceOf(PersistentConnection.class));
+        assertThat(invoked.get(), is(1));
+    }
+
     /**
      * Verify that the resources directory is read.
      */
@@ -82,8 +121,10 @@ public class AbstractAcmeProviderTest {
         final URI testResolvedUri = new URI("http://example.com/acme/directory");
         final Connection connection = mock(Connection.class);
         final Session session = mock(Session.class);
+        final DirectoryCache cache = new DirectoryCache();
 
-        when(connection.accept(any(Integer.class))).thenReturn(HttpURLConnection.HTTP_OK);
+        when(connection.accept(HttpURLConnection.HTTP_OK, HttpURLConnection.HTTP_NOT_MODIFIED))
+                .thenReturn(HttpURLConnection.HTTP_OK);
         when(connection.readJsonResponse()).thenReturn(getJsonAsObject("directory"));
 
         AbstractAcmeProvider provider = new AbstractAcmeProvider() {
@@ -103,17 +144,76 @@ public class AbstractAcmeProviderTest {
                 assertThat(serverUri, is(testServerUri));
                 return testResolvedUri;
             }
+
+            @Override
+            protected DirectoryCache getDirectoryCache() {
+                return cache;
+            }
         };
 
         JSON map = provider.directory(session, testServerUri);
         assertThat(map.toString(), sameJSONAs(TestUtils.getJson("directory")));
 
-        verify(connection).sendRequest(testResolvedUri, session);
-        verify(connection).accept(any(Integer.class));
-        verify(connection).updateSession(any(Session.class));
+        verify(connection).sendConditionalRequest(testResolvedUri, session, null);
+        verify(connection).accept(HttpURLConnection.HTTP_OK, HttpURLConnection.HTTP_NOT_MODIFIED);
         verify(connection).readJsonResponse();
+        verify(connection).getETag();
+        verify(connection).getCacheExpiry();
         verify(connection).close();
         verifyNoMoreInteractions(connection);
+
+        // Second invocation is served from the cache
+        assertThat(provider.directory(session, testServerUri), is(sameInstance(map)));
+        assertThat(provider.getDirectoryExpiry(testServerUri), is(notNullValue()));
+        verifyNoMoreInteractions(connection);
+    }
+
+    /**
+     * Verify that an expired directory is revalidated by a conditional request.
+     */
+    @Test
+    public void testResourcesRevalidation() throws Exception {
+        final URI testServerUri = new URI("http://example.com/acme");
+        final URI testResolvedUri = new URI("http://example.com/acme/directory");
+        final Connection connection = mock(Connection.class);
+        final Session session = mock(Session.class);
+        final DirectoryCache cache = new DirectoryCache();
+
+        when(connection.accept(HttpURLConnection.HTTP_OK, HttpURLConnection.HTTP_NOT_MODIFIED))
+                .thenReturn(HttpURLConnection.HTTP_OK, HttpURLConnection.HTTP_NOT_MODIFIED);
+        when(connection.readJsonResponse()).thenReturn(getJsonAsObject("directory"));
+        when(connection.getETag()).thenReturn("\"abc123\"", (String) null);
+        when(connection.getCacheExpiry()).thenReturn(Instant.now());
+
+        AbstractAcmeProvider provider = new AbstractAcmeProvider() {
+            @Override
+            public Connection connect() {
+                return connection;
+            }
+
+            @Override
+            public boolean accepts(URI serverUri) {
+                return true;
+            }
+
+            @Override
+            public URI resolve(URI serverUri) {
+                return testResolvedUri;
+            }
+
+            @Override
+            protected DirectoryCache getDirectoryCache() {
+                return cache;
+            }
+        };
+
+        JSON map1 = provider.directory(session, testServerUri);
+        JSON map2 = provider.directory(session, testServerUri);
+        assertThat(map2, is(sameInstance(map1)));
+
+        verify(connection).sendConditionalRequest(testResolvedUri, session, null);
+        verify(connection).sendConditionalRequest(testResolvedUri, session, "\"abc123\"");
+        verify(connection, times(1)).readJsonResponse();
     }
 
     /**
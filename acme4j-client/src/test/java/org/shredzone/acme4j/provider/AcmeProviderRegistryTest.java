@@ -0,0 +1,105 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.provider;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.net.URI;
+
+import org.junit.Test;
+import org.shredzone.acme4j.connector.SessionProviderTest;
+import org.shredzone.acme4j.provider.letsencrypt.LetsEncryptAcmeProvider;
+
+/**
+ * Unit tests for {@link AcmeProviderRegistry}. Uses the providers that are registered
+ * for {@link SessionProviderTest}.
+ */
+public class AcmeProviderRegistryTest {
+
+    /**
+     * Test that providers are found and reused.
+     */
+    @Test
+    public void testFind() {
+        AcmeProviderRegistry registry = new AcmeProviderRegistry(getClass().getClassLoader());
+
+        assertThat(registry.getProviders(), hasItem(instanceOf(GenericAcmeProvider.class)));
+        assertThat(registry.getProviders(), hasItem(instanceOf(LetsEncryptAcmeProvider.class)));
+
+        AcmeProvider generic = registry.find(URI.create("https://example.com/acme"));
+        assertThat(generic, is(instanceOf(GenericAcmeProvider.class)));
+        assertThat(registry.find(URI.create("https://example.com/other")), is(sameInstance(generic)));
+        assertThat(registry.find(URI.create("http://example.org/")), is(sameInstance(generic)));
+
+        AcmeProvider le = registry.find(URI.create("acme://letsencrypt.org/staging"));
+        assertThat(le, is(instanceOf(LetsEncryptAcmeProvider.class)));
+        assertThat(registry.find(URI.create("acme://letsencrypt.org")), is(sameInstance(le)));
+
+        AcmeProvider test = registry.find(URI.create("acme://example.com"));
+        assertThat(test, is(instanceOf(SessionProviderTest.Provider1.class)));
+        assertThat(registry.getProviders(), hasItem(sameInstance(test)));
+    }
+
+    /**
+     * Test that unknown and ambiguous URIs are rejected, also on repeated lookups.
+     */
+    @Test
+    public void testNotFound() {
+        AcmeProviderRegistry registry = new AcmeProviderRegistry(getClass().getClassLoader());
+
+        for (int ix = 0; ix < 2; ix++) {
+            try {
+                registry.find(URI.create("acme://example.org"));
+                fail("found a provider for unknown URI");
+            } catch (IllegalArgumentException ex) {
+                assertThat(ex.getMessage(), containsString("No ACME provider"));
+            }
+
+            try {
+                registry.find(URI.create("acme://example.net"));
+                fail("found a provider for ambiguous URI");
+            } catch (IllegalArgumentException ex) {
+                assertThat(ex.getMessage(), containsString("Please check your classpath"));
+            }
+        }
+    }
+
+    /**
+     * Test that a refresh creates new provider instances.
+     */
+    @Test
+    public void testRefresh() {
+        AcmeProviderRegistry registry = new AcmeProviderRegistry(null);
+        URI serverUri = URI.create("https://example.com/acme");
+
+        AcmeProvider provider = registry.find(serverUri);
+        assertThat(registry.find(serverUri), is(sameInstance(provider)));
+
+        registry.refresh();
+        AcmeProvider refreshed = registry.find(serverUri);
+        assertThat(refreshed, is(instanceOf(GenericAcmeProvider.class)));
+        assertThat(refreshed, is(not(sameInstance(provider))));
+    }
+
+    /**
+     * Test that there is a default registry.
+     */
+    @Test
+    public void testDefault() {
+        assertThat(AcmeProviderRegistry.getDefault(), is(notNullValue()));
+        assertThat(AcmeProviderRegistry.getDefault(), is(sameInstance(AcmeProviderRegistry.getDefault())));
+    }
+
+}
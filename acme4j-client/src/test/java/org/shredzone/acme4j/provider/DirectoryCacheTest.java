@@ -0,0 +1,200 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.provider;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.shredzone.acme4j.provider.DirectoryCache.FetchResult;
+import org.shredzone.acme4j.toolbox.JSON;
+import org.shredzone.acme4j.toolbox.TestUtils;
+
+/**
+ * Unit tests for {@link DirectoryCache}.
+ */
+public class DirectoryCacheTest {
+
+    private final URI directoryUri = URI.create("https://example.com/acme/directory");
+
+    /**
+     * Test that directories are cached, and fetched again after invalidation.
+     */
+    @Test
+    public void testCache() throws Exception {
+        DirectoryCache cache = new DirectoryCache();
+        AtomicInteger fetches = new AtomicInteger();
+
+        assertThat(cache.getTtl(), is(Duration.ofHours(1)));
+        assertThat(cache.getExpiry(directoryUri), is(nullValue()));
+
+        DirectoryCache.Fetcher fetcher = etag -> {
+            fetches.incrementAndGet();
+            return new FetchResult(TestUtils.getJsonAsObject("directory"), null, null);
+        };
+
+        JSON json1 = cache.get(directoryUri, fetcher, null);
+        JSON json2 = cache.get(directoryUri, fetcher, null);
+        assertThat(json2, is(sameInstance(json1)));
+        assertThat(fetches.get(), is(1));
+
+        Instant expiry = cache.getExpiry(directoryUri);
+        assertThat(expiry, is(notNullValue()));
+        assertThat(expiry.isAfter(Instant.now().plus(Duration.ofMinutes(59))), is(true));
+
+        cache.invalidate(directoryUri);
+        assertThat(cache.get(directoryUri, fetcher, null), is(not(sameInstance(json1))));
+        assertThat(fetches.get(), is(2));
+
+        cache.clear();
+        assertThat(cache.getExpiry(directoryUri), is(nullValue()));
+    }
+
+    /**
+     * Test that the server's max-age is honored, but limited by the TTL.
+     */
+    @Test
+    public void testExpiry() throws Exception {
+        DirectoryCache cache = new DirectoryCache();
+        cache.setTtl(Duration.ofMinutes(10));
+
+        Instant serverExpiry = Instant.now().plus(Duration.ofMinutes(5));
+        cache.get(directoryUri, etag -> new FetchResult(JSON.empty(), null, serverExpiry), null);
+        assertThat(cache.getExpiry(directoryUri), is(serverExpiry));
+
+        Instant lateExpiry = Instant.now().plus(Duration.ofDays(1));
+        cache.invalidate(directoryUri);
+        cache.get(directoryUri, etag -> new FetchResult(JSON.empty(), null, lateExpiry), null);
+        assertThat(cache.getExpiry(directoryUri).isBefore(lateExpiry), is(true));
+
+        try {
+            cache.setTtl(Duration.ofSeconds(-1));
+            fail("accepted negative TTL");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that expired directories are revalidated with the entity tag.
+     */
+    @Test
+    public void testRevalidation() throws Exception {
+        DirectoryCache cache = new DirectoryCache();
+        List<String> etags = new ArrayList<>();
+
+        JSON json1 = cache.get(directoryUri, etag -> {
+            etags.add(etag);
+            return new FetchResult(JSON.empty(), "\"v1\"", Instant.now());
+        }, null);
+
+        JSON json2 = cache.get(directoryUri, etag -> {
+            etags.add(etag);
+            return new FetchResult(null, null, Instant.now());
+        }, null);
+
+        assertThat(json2, is(sameInstance(json1)));
+        assertThat(etags, contains(null, "\"v1\""));
+
+        cache.clear();
+        try {
+            cache.get(directoryUri, etag -> new FetchResult(null, null, null), null);
+            fail("accepted not modified response without cached directory");
+        } catch (RuntimeException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that concurrent requests are collapsed into a single fetch.
+     */
+    @Test
+    public void testConcurrentFetch() throws Exception {
+        DirectoryCache cache = new DirectoryCache();
+        AtomicInteger fetches = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(1);
+
+        DirectoryCache.Fetcher fetcher = etag -> {
+            fetches.incrementAndGet();
+            try {
+                latch.await();
+            } catch (InterruptedException ex) {
+                throw new IllegalStateException(ex);
+            }
+            return new FetchResult(JSON.empty(), null, null);
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<JSON>> results = new ArrayList<>();
+            for (int ix = 0; ix < 8; ix++) {
+                results.add(executor.submit(() -> cache.get(directoryUri, fetcher, null)));
+            }
+
+            Thread.sleep(100L);
+            latch.countDown();
+
+            JSON first = results.get(0).get();
+            for (Future<JSON> result : results) {
+                assertThat(result.get(), is(sameInstance(first)));
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(fetches.get(), is(1));
+    }
+
+    /**
+     * Test that directories are refreshed in the background before they expire.
+     */
+    @Test
+    public void testBackgroundRefresh() throws Exception {
+        DirectoryCache cache = new DirectoryCache();
+        AtomicInteger fetches = new AtomicInteger();
+        List<Runnable> tasks = new ArrayList<>();
+
+        DirectoryCache.Fetcher fetcher = etag -> {
+            fetches.incrementAndGet();
+            return new FetchResult(TestUtils.getJsonAsObject("directory"), null,
+                    Instant.now().plusMillis(2000L));
+        };
+
+        JSON json1 = cache.get(directoryUri, fetcher, tasks::add);
+        assertThat(tasks, is(empty()));
+
+        Thread.sleep(1700L);
+
+        JSON json2 = cache.get(directoryUri, fetcher, tasks::add);
+        assertThat(json2, is(sameInstance(json1)));
+        assertThat(tasks.size(), is(1));
+        assertThat(fetches.get(), is(1));
+
+        tasks.get(0).run();
+        assertThat(fetches.get(), is(2));
+        assertThat(cache.get(directoryUri, fetcher, tasks::add), is(not(sameInstance(json1))));
+    }
+
+}
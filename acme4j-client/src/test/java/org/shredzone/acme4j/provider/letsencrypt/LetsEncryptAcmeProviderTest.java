@@ -13,13 +13,16 @@
  */
 package org.shredzone.acme4j.provider.letsencrypt;
 
-import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
 
 import java.net.URI;
 import java.net.URISyntaxException;
 
 import org.junit.Test;
+import org.shredzone.acme4j.connector.HttpConnector;
+import org.shredzone.acme4j.connector.PersistentHttpConnector;
+import org.shredzone.acme4j.connector.RateLimiter;
 
 /**
  * Unit tests for {@link LetsEncryptAcmeProvider}.
@@ -65,4 +68,58 @@ public class LetsEncryptAcmeProviderTest {
         }
     }
 
+    /**
+     * Tests that the rate limiter is disabled by default, and that production and staging
+     * servers have separate rate limiters per provider instance.
+     */
+    @Test
+    public void testRateLimiter() throws URISyntaxException {
+        LetsEncryptAcmeProvider provider = new LetsEncryptAcmeProvider();
+        assertThat(provider.isRateLimited(), is(false));
+        assertThat(provider.getRateLimiter(new URI("acme://letsencrypt.org")), is(nullValue()));
+
+        provider.setRateLimited(true);
+        assertThat(provider.isRateLimited(), is(true));
+
+        RateLimiter production = provider.getRateLimiter(new URI("acme://letsencrypt.org"));
+        RateLimiter staging = provider.getRateLimiter(new URI("acme://letsencrypt.org/staging"));
+
+        assertThat(production, is(notNullValue()));
+        assertThat(staging, is(notNullValue()));
+        assertThat(staging, is(not(sameInstance(production))));
+        assertThat(provider.getRateLimiter(new URI("acme://letsencrypt.org/v01")),
+                        is(sameInstance(production)));
+
+        LetsEncryptAcmeProvider other = new LetsEncryptAcmeProvider();
+        other.setRateLimited(true);
+        assertThat(other.getRateLimiter(new URI("acme://letsencrypt.org")),
+                        is(not(sameInstance(production))));
+
+        provider.setRateLimited(false);
+        assertThat(provider.getRateLimiter(new URI("acme://letsencrypt.org")), is(nullValue()));
+        provider.setRateLimited(true);
+        assertThat(provider.getRateLimiter(new URI("acme://letsencrypt.org")),
+                        is(sameInstance(production)));
+    }
+
+    /**
+     * Tests that persistent connections use the pinned connector if the certificate fix
+     * is enabled.
+     */
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testPersistentHttpConnector() {
+        LetsEncryptAcmeProvider provider = new LetsEncryptAcmeProvider();
+        assertThat(provider.createPersistentHttpConnector(),
+                        is(instanceOf(PersistentHttpConnector.class)));
+
+        System.setProperty("acme4j.le.certfix", "true");
+        try {
+            HttpConnector connector = provider.createPersistentHttpConnector();
+            assertThat(connector, is(instanceOf(LetsEncryptHttpConnector.class)));
+        } finally {
+            System.clearProperty("acme4j.le.certfix");
+        }
+    }
+
 }
@@ -0,0 +1,220 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.store;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.shredzone.acme4j.Status;
+
+/**
+ * Unit tests for {@link FileStateStore}.
+ */
+public class FileStateStoreTest {
+
+    private final URI location = URI.create("https://example.com/acme/authz/1");
+    private Path file;
+
+    @Before
+    public void setup() throws IOException {
+        file = Files.createTempFile("acme4j-state", ".log");
+        Files.delete(file);
+    }
+
+    @After
+    public void teardown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Test that checkpoints survive reopening the store.
+     */
+    @Test
+    public void testPersistence() throws IOException {
+        Instant expires = Instant.parse("2017-12-24T10:00:00Z");
+        Checkpoint cp1 = new Checkpoint(Checkpoint.Type.AUTHORIZATION, "example.org",
+                        location, Status.PENDING, null);
+        Checkpoint cp2 = new Checkpoint(Checkpoint.Type.AUTHORIZATION, "example.org",
+                        location, Status.VALID, expires);
+        Checkpoint cp3 = new Checkpoint(Checkpoint.Type.CERTIFICATE, "odd\tkey\n%",
+                        URI.create("https://example.com/acme/cert/1"), Status.PROCESSING, null);
+        Checkpoint cp4 = new Checkpoint(Checkpoint.Type.CHALLENGE, "example.org",
+                        URI.create("https://example.com/acme/challenge/1"), Status.PENDING, null);
+
+        try (FileStateStore store = new FileStateStore(file)) {
+            assertThat(store.getFile(), is(file));
+            assertThat(store.isSync(), is(true));
+            assertThat(store.getAll(), is(empty()));
+
+            store.put(cp1);
+            store.put(cp2);
+            store.put(cp3);
+            store.put(cp4);
+            store.remove(Checkpoint.Type.CHALLENGE, "example.org");
+            store.remove(Checkpoint.Type.CHALLENGE, "unknown.example.org");
+
+            assertThat(store.get(Checkpoint.Type.AUTHORIZATION, "example.org"), is(cp2));
+            assertThat(store.get(Checkpoint.Type.CHALLENGE, "example.org"), is(nullValue()));
+        }
+
+        try (FileStateStore store = new FileStateStore(file)) {
+            assertThat(store.getAll(), containsInAnyOrder(cp2, cp3));
+            assertThat(store.get(Checkpoint.Type.AUTHORIZATION, "example.org").getExpires(), is(expires));
+            assertThat(store.get(Checkpoint.Type.CERTIFICATE, "odd\tkey\n%"), is(cp3));
+            assertThat(store.get(Checkpoint.Type.CHALLENGE, "example.org"), is(nullValue()));
+        }
+
+        assertThat(Files.readAllLines(file, UTF_8).size(), is(5));
+    }
+
+    /**
+     * Test that an incomplete or corrupted record is discarded.
+     */
+    @Test
+    public void testCorruption() throws IOException {
+        Checkpoint cp1 = new Checkpoint(Checkpoint.Type.AUTHORIZATION, "example.org",
+                        location, Status.PENDING, null);
+        try (FileStateStore store = new FileStateStore(file)) {
+            store.put(cp1);
+        }
+
+        // simulate a crash while writing
+        Files.write(file, "0badc0de\tP\tAUTHORIZATION\tw".getBytes(UTF_8), StandardOpenOption.APPEND);
+
+        Checkpoint cp2 = new Checkpoint(Checkpoint.Type.AUTHORIZATION, "www.example.org",
+                        location, Status.VALID, null);
+        try (FileStateStore store = new FileStateStore(file)) {
+            assertThat(store.getAll(), contains(cp1));
+            store.put(cp2);
+        }
+
+        // simulate a corrupted record
+        List<String> lines = Files.readAllLines(file, UTF_8);
+        Files.write(file, (lines.get(0) + "\n" + lines.get(1).replace("VALID", "INVALID") + "\n")
+                        .getBytes(UTF_8));
+
+        try (FileStateStore store = new FileStateStore(file)) {
+            assertThat(store.getAll(), contains(cp1));
+        }
+        assertThat(Files.readAllLines(file, UTF_8).size(), is(1));
+    }
+
+    /**
+     * Test that the file is compacted.
+     */
+    @Test
+    public void testCompaction() throws IOException {
+        try (FileStateStore store = new FileStateStore(file)) {
+            store.setSync(false);
+            assertThat(store.isSync(), is(false));
+            for (int ix = 0; ix < 100; ix++) {
+                store.put(new Checkpoint(Checkpoint.Type.AUTHORIZATION, "example.org",
+                                location, Status.PENDING, null));
+            }
+        }
+        assertThat(Files.readAllLines(file, UTF_8).size(), is(100));
+
+        try (FileStateStore store = new FileStateStore(file)) {
+            assertThat(store.getAll().size(), is(1));
+            assertThat(Files.readAllLines(file, UTF_8).size(), is(1));
+
+            store.put(new Checkpoint(Checkpoint.Type.AUTHORIZATION, "www.example.org",
+                            location, Status.PENDING, null));
+            store.remove(Checkpoint.Type.AUTHORIZATION, "example.org");
+            assertThat(Files.readAllLines(file, UTF_8).size(), is(3));
+
+            store.compact();
+            assertThat(Files.readAllLines(file, UTF_8).size(), is(1));
+
+            store.put(new Checkpoint(Checkpoint.Type.AUTHORIZATION, "m.example.org",
+                            location, Status.PENDING, null));
+        }
+
+        try (FileStateStore store = new FileStateStore(file)) {
+            assertThat(store.getAll().size(), is(2));
+            assertThat(store.get(Checkpoint.Type.AUTHORIZATION, "example.org"), is(nullValue()));
+        }
+    }
+
+    /**
+     * Test that a record that failed to be written is removed from the file, so the
+     * following records are not lost.
+     */
+    @Test
+    public void testTornWrite() throws IOException {
+        final AtomicBoolean fail = new AtomicBoolean();
+
+        try (FileStateStore store = new FileStateStore(file) {
+            @Override
+            void write(FileChannel out, String payload) throws IOException {
+                if (fail.get()) {
+                    // write a part of the record, then fail like a full disk
+                    out.write(ByteBuffer.wrap(payload.substring(0, 10).getBytes(UTF_8)));
+                    throw new IOException("No space left on device");
+                }
+                super.write(out, payload);
+            }
+        }) {
+            store.put(new Checkpoint(Checkpoint.Type.AUTHORIZATION, "example.org",
+                            location, Status.PENDING, null));
+
+            fail.set(true);
+            try {
+                store.put(new Checkpoint(Checkpoint.Type.AUTHORIZATION, "www.example.org",
+                                location, Status.PENDING, null));
+                fail("write did not fail");
+            } catch (IOException ex) {
+                // expected
+            }
+            assertThat(store.get(Checkpoint.Type.AUTHORIZATION, "www.example.org"), is(nullValue()));
+
+            fail.set(false);
+            store.put(new Checkpoint(Checkpoint.Type.AUTHORIZATION, "m.example.org",
+                            location, Status.PENDING, null));
+            assertThat(Files.readAllLines(file, UTF_8).size(), is(2));
+        }
+
+        try (FileStateStore store = new FileStateStore(file)) {
+            assertThat(store.getAll().size(), is(2));
+            assertThat(store.get(Checkpoint.Type.AUTHORIZATION, "m.example.org"), is(notNullValue()));
+        }
+    }
+
+    /**
+     * Test that a closed store cannot be written to.
+     */
+    @Test(expected = IOException.class)
+    public void testClosed() throws IOException {
+        FileStateStore store = new FileStateStore(file);
+        store.close();
+        store.put(new Checkpoint(Checkpoint.Type.AUTHORIZATION, "example.org",
+                        location, Status.PENDING, null));
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.store;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.time.Instant;
+
+import org.junit.Test;
+import org.shredzone.acme4j.Status;
+
+/**
+ * Unit tests for {@link InMemoryStateStore} and {@link Checkpoint}.
+ */
+public class InMemoryStateStoreTest {
+
+    /**
+     * Test storing and removing checkpoints.
+     */
+    @Test
+    public void testStore() {
+        URI location = URI.create("https://example.com/acme/authz/1");
+        Checkpoint auth = new Checkpoint(Checkpoint.Type.AUTHORIZATION, "example.org",
+                        location, Status.PENDING, null);
+        Checkpoint challenge = new Checkpoint(Checkpoint.Type.CHALLENGE, "example.org",
+                        location, Status.PENDING, null);
+
+        InMemoryStateStore store = new InMemoryStateStore();
+        store.put(auth);
+        store.put(challenge);
+        assertThat(store.get(Checkpoint.Type.AUTHORIZATION, "example.org"), is(sameInstance(auth)));
+        assertThat(store.get(Checkpoint.Type.CHALLENGE, "example.org"), is(sameInstance(challenge)));
+        assertThat(store.getAll(), containsInAnyOrder(auth, challenge));
+
+        store.remove(Checkpoint.Type.CHALLENGE, "example.org");
+        assertThat(store.get(Checkpoint.Type.CHALLENGE, "example.org"), is(nullValue()));
+        assertThat(store.getAll(), contains(auth));
+    }
+
+    /**
+     * Test the {@link Checkpoint} properties.
+     */
+    @Test
+    public void testCheckpoint() {
+        URI location = URI.create("https://example.com/acme/authz/1");
+        Instant expires = Instant.parse("2017-12-24T10:00:00Z");
+        Instant timestamp = Instant.parse("2017-12-01T10:00:00Z");
+
+        Checkpoint cp = new Checkpoint(Checkpoint.Type.AUTHORIZATION, "example.org",
+                        location, Status.VALID, expires, timestamp);
+        assertThat(cp.getType(), is(Checkpoint.Type.AUTHORIZATION));
+        assertThat(cp.getKey(), is("example.org"));
+        assertThat(cp.getLocation(), is(location));
+        assertThat(cp.getStatus(), is(Status.VALID));
+        assertThat(cp.getExpires(), is(expires));
+        assertThat(cp.getTimestamp(), is(timestamp));
+        assertThat(cp.isExpired(expires.minusSeconds(1)), is(false));
+        assertThat(cp.isExpired(expires), is(true));
+        assertThat(cp, is(new Checkpoint(Checkpoint.Type.AUTHORIZATION, "example.org",
+                        location, Status.VALID, expires, timestamp)));
+
+        Checkpoint noExpiry = new Checkpoint(Checkpoint.Type.CHALLENGE, "example.org",
+                        location, Status.PENDING, null);
+        assertThat(noExpiry.isExpired(Instant.MAX), is(false));
+        assertThat(noExpiry.getTimestamp().getNano() % 1_000_000, is(0));
+    }
+
+}
@@ -25,6 +25,8 @@ import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
 
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.hamcrest.BaseMatcher;
@@ -286,4 +288,29 @@ public class AcmeUtilsTest {
         }
     }
 
+    /**
+     * Test that a virtual thread executor is returned if the JVM supports it.
+     */
+    @Test
+    public void testNewVirtualThreadExecutor() throws Exception {
+        Optional<ExecutorService> executor = newVirtualThreadExecutor();
+
+        boolean supported;
+        try {
+            Thread.class.getMethod("ofVirtual");
+            supported = true;
+        } catch (NoSuchMethodException ex) {
+            supported = false;
+        }
+
+        assertThat(executor.isPresent(), is(supported));
+        if (executor.isPresent()) {
+            try {
+                assertThat(executor.get().submit(() -> "ok").get(), is("ok"));
+            } finally {
+                executor.get().shutdown();
+            }
+        }
+    }
+
 }
@@ -0,0 +1,148 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.toolbox;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.shredzone.acme4j.exception.AcmeProtocolException;
+
+/**
+ * Unit tests for {@link JSONParser}.
+ */
+@SuppressWarnings("unchecked")
+public class JSONParserTest {
+
+    /**
+     * Test parsing of all JSON value types.
+     */
+    @Test
+    public void testParse() throws IOException {
+        Map<String, Object> map = parse("{ \"str\": \"foo\", \"int\": -123, \"big\": 12345678901234,"
+                + " \"dbl\": 1.5e2, \"t\": true, \"f\": false, \"nul\": null,"
+                + " \"arr\": [1, \"two\", [], {}], \"obj\": {\"a\": {\"b\": []}} }");
+
+        assertThat(map.keySet(), contains("str", "int", "big", "dbl", "t", "f", "nul", "arr", "obj"));
+        assertThat(map.get("str"), is((Object) "foo"));
+        assertThat(map.get("int"), is((Object) Long.valueOf(-123L)));
+        assertThat(map.get("big"), is((Object) Long.valueOf(12345678901234L)));
+        assertThat(map.get("dbl"), is((Object) Double.valueOf(150.0)));
+        assertThat(map.get("t"), is((Object) Boolean.TRUE));
+        assertThat(map.get("f"), is((Object) Boolean.FALSE));
+        assertThat(map.containsKey("nul"), is(true));
+        assertThat(map.get("nul"), is(nullValue()));
+
+        List<Object> arr = (List<Object>) map.get("arr");
+        assertThat(arr.size(), is(4));
+        assertThat(arr.get(0), is((Object) 1L));
+        assertThat(arr.get(1), is((Object) "two"));
+        assertThat(((List<Object>) arr.get(2)).isEmpty(), is(true));
+        assertThat(((Map<String, Object>) arr.get(3)).isEmpty(), is(true));
+
+        Map<String, Object> obj = (Map<String, Object>) map.get("obj");
+        assertThat(((Map<String, Object>) obj.get("a")).get("b"), is((Object) Arrays.asList()));
+    }
+
+    /**
+     * Test string escapes and line breaks.
+     */
+    @Test
+    public void testStrings() throws IOException {
+        Map<String, Object> map = parse("{\"esc\": \"\\\"\\\\\\/\\b\\f\\n\\r\\t\\u00e4\\u20AC\","
+                + " \"raw\": \"line 1\n  line 2\", \"utf\": \"\u00e4\u20ac\"}");
+        assertThat(map.get("esc"), is((Object) "\"\\/\b\f\n\r\t\u00e4\u20ac"));
+        assertThat(map.get("raw"), is((Object) "line 1\n  line 2"));
+        assertThat(map.get("utf"), is((Object) "\u00e4\u20ac"));
+    }
+
+    /**
+     * Test that documents larger than the internal buffer are parsed, even if the
+     * reader only returns a few characters at a time.
+     */
+    @Test
+    public void testLargeDocument() throws IOException {
+        StringBuilder sb = new StringBuilder("{\"list\": [");
+        for (int ix = 0; ix < 5000; ix++) {
+            if (ix > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"uri\": \"https://example.com/acme/authz/").append(ix)
+                    .append("\", \"n\": ").append(ix).append('}');
+        }
+        sb.append("], \"tail\": \"").append(new String(new char[20000]).replace('\0', 'x'))
+                .append("\"}");
+
+        Reader reader = new StringReader(sb.toString()) {
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                return super.read(cbuf, off, Math.min(len, 7));
+            }
+        };
+
+        Map<String, Object> map = JSONParser.parseObject(reader);
+        List<Object> list = (List<Object>) map.get("list");
+        assertThat(list.size(), is(5000));
+        Map<String, Object> last = (Map<String, Object>) list.get(4999);
+        assertThat(last.get("uri"), is((Object) "https://example.com/acme/authz/4999"));
+        assertThat(last.get("n"), is((Object) 4999L));
+        assertThat(((String) map.get("tail")).length(), is(20000));
+    }
+
+    /**
+     * Test that invalid documents are rejected.
+     */
+    @Test
+    public void testBadJson() throws IOException {
+        String[] bad = {
+            "", "  ", "[]", "\"foo\"", "{", "{\"a\"}", "{\"a\":}", "{\"a\":1,}",
+            "{\"a\":1 \"b\":2}", "{a:1}", "{\"a\":[1,]}", "{\"a\":[1 2]}", "{\"a\":tru}",
+            "{\"a\":\"x}", "{\"a\":\"\\x\"}", "{\"a\":\"\\u12g4\"}", "{\"a\":-}",
+            "{\"a\":1.}", "{\"a\":1e}", "{\"a\":1}x", "{\"a\":1,\"a\":2}",
+        };
+
+        for (String json : bad) {
+            try {
+                parse(json);
+                fail("accepted bad JSON: " + json);
+            } catch (AcmeProtocolException ex) {
+                assertThat(ex.getMessage(), startsWith("Bad JSON: "));
+            }
+        }
+    }
+
+    /**
+     * Test that deeply nested structures are rejected.
+     */
+    @Test(expected = AcmeProtocolException.class)
+    public void testTooDeep() throws IOException {
+        StringBuilder sb = new StringBuilder("{\"a\":");
+        for (int ix = 0; ix < 1000; ix++) {
+            sb.append('[');
+        }
+        parse(sb.toString());
+    }
+
+    private static Map<String, Object> parse(String json) throws IOException {
+        return JSONParser.parseObject(new StringReader(json));
+    }
+
+}
@@ -69,6 +69,20 @@ public class JSONTest {
         }
     }
 
+    /**
+     * Test that line breaks and indentation in string values survive stream parsing.
+     */
+    @Test
+    public void testParseStreamMultiLine() throws IOException {
+        String json = "{\n  \"detail\": \"first line\n    indented line\",\n  \"n\": 1\n}";
+
+        try (InputStream in = new ByteArrayInputStream(json.getBytes("utf-8"))) {
+            JSON fromStream = JSON.parse(in);
+            assertThat(fromStream.get("detail").asString(), is("first line\n    indented line"));
+            assertThat(fromStream.get("n").asInt(), is(1));
+        }
+    }
+
     /**
      * Test that bad JSON fails.
      */
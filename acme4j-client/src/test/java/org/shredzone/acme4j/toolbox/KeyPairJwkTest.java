@@ -0,0 +1,83 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.toolbox;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static uk.co.datumedge.hamcrest.json.SameJSONAs.sameJSONAs;
+
+import java.security.KeyPair;
+import java.security.Security;
+import java.util.Map;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.jose4j.jws.AlgorithmIdentifiers;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link KeyPairJwk}.
+ */
+public class KeyPairJwkTest {
+
+    @BeforeClass
+    public static void setup() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    /**
+     * Test the JWK of an RSA key pair.
+     */
+    @Test
+    public void testRsaKeyPair() throws Exception {
+        KeyPair keyPair = TestUtils.createKeyPair();
+        KeyPairJwk jwk = KeyPairJwk.of(keyPair);
+
+        assertThat(jwk.getKeyPair(), is(sameInstance(keyPair)));
+        assertThat(jwk.getJwk().getPublicKey(), is(keyPair.getPublic()));
+        assertThat(jwk.getAlgorithm(), is(AlgorithmIdentifiers.RSA_USING_SHA256));
+        assertThat(jwk.getThumbprint(), is(TestUtils.THUMBPRINT));
+
+        Map<String, Object> params = jwk.getParams();
+        assertThat(params.get("kty"), is((Object) TestUtils.KTY));
+        assertThat(params.get("n"), is((Object) TestUtils.N));
+        assertThat(params.get("e"), is((Object) TestUtils.E));
+        assertThat(params.containsKey("d"), is(false));
+
+        assertThat(jwk.getJson(), sameJSONAs(new JSONBuilder()
+                        .put("kty", TestUtils.KTY)
+                        .put("n", TestUtils.N)
+                        .put("e", TestUtils.E)
+                        .toString()));
+
+        try {
+            params.put("kid", "foo");
+            fail("params are modifiable");
+        } catch (UnsupportedOperationException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Test the algorithm of EC key pairs.
+     */
+    @Test
+    public void testEcKeyPair() throws Exception {
+        assertThat(KeyPairJwk.of(TestUtils.createECKeyPair("secp256r1")).getAlgorithm(),
+                        is(AlgorithmIdentifiers.ECDSA_USING_P256_CURVE_AND_SHA256));
+        assertThat(KeyPairJwk.of(TestUtils.createECKeyPair("secp384r1")).getAlgorithm(),
+                        is(AlgorithmIdentifiers.ECDSA_USING_P384_CURVE_AND_SHA384));
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.toolbox;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Base64;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link PemEncodingChannel}.
+ */
+public class PemEncodingChannelTest {
+
+    /**
+     * Test that data of various lengths is correctly PEM armored, regardless of the
+     * size of the written chunks.
+     */
+    @Test
+    public void testEncode() throws IOException {
+        Random random = new Random(4711);
+        for (int size : new int[] { 1, 2, 3, 47, 48, 49, 767, 768, 769, 2000 }) {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+
+            for (int step : new int[] { 1, 7, 100, size }) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                WritableByteChannel target = Channels.newChannel(out);
+                try (PemEncodingChannel pem = new PemEncodingChannel(target, "CERTIFICATE")) {
+                    for (int ix = 0; ix < size; ix += step) {
+                        int len = Math.min(step, size - ix);
+                        assertThat(pem.write(ByteBuffer.wrap(data, ix, len)), is(len));
+                    }
+                }
+
+                assertThat("size " + size + ", step " + step,
+                        new String(out.toByteArray(), US_ASCII), is(expectedPem(data)));
+                assertThat(target.isOpen(), is(true));
+            }
+        }
+    }
+
+    /**
+     * Test that an empty channel still writes header and footer.
+     */
+    @Test
+    public void testEmpty() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PemEncodingChannel pem = new PemEncodingChannel(Channels.newChannel(out), "TEST");
+        assertThat(pem.isOpen(), is(true));
+        pem.close();
+        assertThat(pem.isOpen(), is(false));
+
+        assertThat(new String(out.toByteArray(), US_ASCII),
+                is("-----BEGIN TEST-----\n-----END TEST-----\n"));
+
+        // closing again does not write another footer
+        pem.close();
+        assertThat(out.size(), is(40));
+    }
+
+    /**
+     * Test that nothing can be written to a closed channel.
+     */
+    @Test(expected = ClosedChannelException.class)
+    public void testClosed() throws IOException {
+        PemEncodingChannel pem = new PemEncodingChannel(
+                Channels.newChannel(new ByteArrayOutputStream()), "TEST");
+        pem.close();
+        pem.write(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+    }
+
+    /**
+     * Returns the PEM armored representation of the given data.
+     */
+    private static String expectedPem(byte[] data) {
+        return "-----BEGIN CERTIFICATE-----\n"
+                + Base64.getMimeEncoder(64, new byte[] { '\n' }).encodeToString(data)
+                + "\n-----END CERTIFICATE-----\n";
+    }
+
+}
@@ -0,0 +1,399 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.loadtest;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.security.KeyPair;
+import java.security.Security;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.shredzone.acme4j.Authorization;
+import org.shredzone.acme4j.Certificate;
+import org.shredzone.acme4j.Registration;
+import org.shredzone.acme4j.RegistrationBuilder;
+import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.Status;
+import org.shredzone.acme4j.challenge.Http01Challenge;
+import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.testserver.AcmeTestServer;
+import org.shredzone.acme4j.util.CSRBuilder;
+import org.shredzone.acme4j.util.KeyPairUtils;
+
+/**
+ * Drives a number of accounts through the complete certificate issuance workflow, and
+ * measures the throughput and the latency of each {@link Stage}.
+ * <p>
+ * Each account is registered, and then requests a certificate for each of its domains:
+ * the domain is authorized, the http-01 challenge is triggered, a CSR is built, and the
+ * certificate and its chain are downloaded. The accounts are processed concurrently by
+ * a fixed number of threads.
+ * <p>
+ * The load test is meant to be run against a local test server, like
+ * {@link AcmeTestServer}. Never run it against a public ACME server!
+ * <p>
+ * The key pairs are generated by {@link KeyPairUtils}, so the BouncyCastle security
+ * provider must be registered.
+ */
+public class LoadTest {
+    private static final String KEY_CURVE = "secp256r1";
+    private static final long POLL_INTERVAL_MS = 50L;
+    private static final int MAX_POLLS = 200;
+
+    private static final ThreadMXBean THREAD_MX = ManagementFactory.getThreadMXBean();
+
+    private final URI serverUri;
+    private int accounts = 10;
+    private int domains = 5;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int warmupAccounts = 0;
+
+    /**
+     * Creates a new {@link LoadTest}.
+     *
+     * @param serverUri
+     *            Directory {@link URI} of the ACME server
+     */
+    public LoadTest(URI serverUri) {
+        this.serverUri = Objects.requireNonNull(serverUri, "serverUri");
+    }
+
+    /**
+     * Sets the number of accounts to be registered. Default is 10.
+     */
+    public void setAccounts(int accounts) {
+        this.accounts = requirePositive(accounts, "accounts");
+    }
+
+    /**
+     * Sets the number of domains that each account requests a certificate for. Default
+     * is 5.
+     */
+    public void setDomains(int domains) {
+        this.domains = requirePositive(domains, "domains");
+    }
+
+    /**
+     * Sets the number of threads that process the accounts concurrently. Default is the
+     * number of available processors.
+     */
+    public void setThreads(int threads) {
+        this.threads = requirePositive(threads, "threads");
+    }
+
+    /**
+     * Sets the number of accounts that are processed before the measurement starts, to
+     * warm up the JVM. Default is 0.
+     */
+    public void setWarmupAccounts(int warmupAccounts) {
+        if (warmupAccounts < 0) {
+            throw new IllegalArgumentException("warmupAccounts must not be negative");
+        }
+        this.warmupAccounts = warmupAccounts;
+    }
+
+    /**
+     * Runs the load test.
+     *
+     * @return {@link LoadTestResult} with the measurements
+     */
+    public LoadTestResult run() throws InterruptedException {
+        if (warmupAccounts > 0) {
+            new Run(warmupAccounts).execute();
+        }
+
+        THREAD_MX.resetPeakThreadCount();
+        Run run = new Run(accounts);
+        long start = System.nanoTime();
+        int threadCount = run.execute();
+        Duration duration = Duration.ofNanos(System.nanoTime() - start);
+
+        return new LoadTestResult(serverUri, accounts, domains, threads, duration,
+                        run.stats, isAllocationSupported() ? run.allocatedBytes.sum() : -1L,
+                        THREAD_MX.getPeakThreadCount(), threadCount, run.firstError.get());
+    }
+
+    /**
+     * A single run of the load test.
+     */
+    private class Run {
+        private final int count;
+        private final Map<Stage, StageStatistics> stats = new EnumMap<>(Stage.class);
+        private final LongAdder allocatedBytes = new LongAdder();
+        private final AtomicReference<String> firstError = new AtomicReference<>();
+
+        private Run(int count) {
+            this.count = count;
+            for (Stage stage : Stage.values()) {
+                stats.put(stage, new StageStatistics());
+            }
+        }
+
+        /**
+         * Processes all accounts, and waits until they are completed.
+         *
+         * @return Number of live threads when all accounts are completed
+         */
+        private int execute() throws InterruptedException {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<?>> futures = new ArrayList<>(count);
+                for (int ix = 0; ix < count; ix++) {
+                    final int account = ix;
+                    futures.add(executor.submit(() -> processAccount(account)));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+                return THREAD_MX.getThreadCount();
+            } catch (ExecutionException ex) {
+                throw new IllegalStateException("Load test failed", ex.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        /**
+         * Registers an account, and issues a certificate for each of its domains.
+         */
+        private void processAccount(int account) {
+            long allocationStart = currentThreadAllocatedBytes();
+            try {
+                KeyPair accountKeyPair = KeyPairUtils.createECKeyPair(KEY_CURVE);
+                KeyPair domainKeyPair = KeyPairUtils.createECKeyPair(KEY_CURVE);
+                Session session = new Session(serverUri, accountKeyPair);
+
+                Registration registration;
+                try {
+                    registration = measure(Stage.REGISTER,
+                                    () -> new RegistrationBuilder().create(session));
+                } catch (Exception ex) {
+                    for (int ix = 0; ix < domains; ix++) {
+                        stats.get(Stage.ISSUANCE).error();
+                    }
+                    return;
+                }
+
+                for (int ix = 0; ix < domains; ix++) {
+                    String domain = "d" + ix + ".a" + account + ".example.org";
+                    issue(registration, domain, domainKeyPair);
+                }
+            } finally {
+                allocatedBytes.add(currentThreadAllocatedBytes() - allocationStart);
+            }
+        }
+
+        /**
+         * Issues a certificate for a domain.
+         */
+        private void issue(Registration registration, String domain, KeyPair domainKeyPair) {
+            long start = System.nanoTime();
+            try {
+                Authorization auth = measure(Stage.AUTHORIZE,
+                                () -> registration.authorizeDomain(domain));
+
+                measure(Stage.CHALLENGE, () -> {
+                    validate(auth);
+                    return null;
+                });
+
+                byte[] csr = measure(Stage.CSR, () -> {
+                    CSRBuilder csrb = new CSRBuilder();
+                    csrb.addDomain(domain);
+                    csrb.sign(domainKeyPair);
+                    return csrb.getEncoded();
+                });
+
+                Certificate certificate = measure(Stage.CERTIFICATE,
+                                () -> registration.requestCertificate(csr));
+
+                measure(Stage.DOWNLOAD, certificate::downloadChain);
+
+                stats.get(Stage.ISSUANCE).record(System.nanoTime() - start);
+            } catch (Exception ex) {
+                stats.get(Stage.ISSUANCE).error();
+            }
+        }
+
+        /**
+         * Executes and measures a stage. If the stage fails, an error is recorded and
+         * the exception is rethrown.
+         */
+        private <T> T measure(Stage stage, StageAction<T> action) throws Exception {
+            long start = System.nanoTime();
+            try {
+                T result = action.run();
+                stats.get(stage).record(System.nanoTime() - start);
+                return result;
+            } catch (Exception ex) {
+                stats.get(stage).error();
+                firstError.compareAndSet(null, stage.getName() + ": " + ex);
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Triggers the http-01 challenge of the authorization, and waits until it is valid.
+     */
+    private static void validate(Authorization auth) throws AcmeException, InterruptedException {
+        Http01Challenge challenge = auth.findChallenge(Http01Challenge.TYPE);
+        if (challenge == null) {
+            throw new AcmeException("No http-01 challenge offered");
+        }
+
+        challenge.trigger();
+
+        for (int polls = 0; challenge.getStatus() == Status.PENDING; polls++) {
+            if (polls >= MAX_POLLS) {
+                throw new AcmeException("Challenge is still pending");
+            }
+            Thread.sleep(POLL_INTERVAL_MS);
+            challenge.update();
+        }
+
+        if (challenge.getStatus() != Status.VALID) {
+            throw new AcmeException("Challenge failed: " + challenge.getStatus());
+        }
+    }
+
+    private static boolean isAllocationSupported() {
+        return THREAD_MX instanceof com.sun.management.ThreadMXBean
+                        && ((com.sun.management.ThreadMXBean) THREAD_MX).isThreadAllocatedMemorySupported()
+                        && ((com.sun.management.ThreadMXBean) THREAD_MX).isThreadAllocatedMemoryEnabled();
+    }
+
+    private static long currentThreadAllocatedBytes() {
+        if (!isAllocationSupported()) {
+            return 0L;
+        }
+        return ((com.sun.management.ThreadMXBean) THREAD_MX)
+                        .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static int requirePositive(int value, String name) {
+        if (value <= 0) {
+            throw new IllegalArgumentException(name + " must be positive");
+        }
+        return value;
+    }
+
+    /**
+     * A stage of the issuance workflow.
+     *
+     * @param <T>
+     *            Result type
+     */
+    @FunctionalInterface
+    private interface StageAction<T> {
+        T run() throws Exception;
+    }
+
+    /**
+     * Runs a load test and prints the report.
+     * <p>
+     * Options:
+     * <ul>
+     * <li>{@code -a <n>}: number of accounts (default 10)</li>
+     * <li>{@code -d <n>}: number of domains per account (default 5)</li>
+     * <li>{@code -t <n>}: number of threads (default: number of processors)</li>
+     * <li>{@code -w <n>}: number of warm-up accounts (default 0)</li>
+     * <li>{@code -s <uri>}: directory URI of the ACME server. If omitted, an
+     * {@link AcmeTestServer} is started in-process.</li>
+     * <li>{@code -l <ms>}: latency of the in-process test server (default 0)</li>
+     * </ul>
+     *
+     * @param args
+     *            Command line options
+     */
+    public static void main(String... args) throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+
+        Map<String, String> options;
+        try {
+            options = parseOptions(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println("Usage: LoadTest [-a accounts] [-d domains] [-t threads] "
+                            + "[-w warmup-accounts] [-s server-uri | -l latency-ms]");
+            System.exit(1);
+            return;
+        }
+
+        AcmeTestServer server = null;
+        URI serverUri;
+        if (options.containsKey("-s")) {
+            serverUri = URI.create(options.get("-s"));
+        } else {
+            server = new AcmeTestServer();
+            server.setLatency(Duration.ofMillis(Long.parseLong(options.getOrDefault("-l", "0"))));
+            serverUri = server.getDirectoryUri();
+        }
+
+        try {
+            LoadTest loadTest = new LoadTest(serverUri);
+            if (options.containsKey("-a")) {
+                loadTest.setAccounts(Integer.parseInt(options.get("-a")));
+            }
+            if (options.containsKey("-d")) {
+                loadTest.setDomains(Integer.parseInt(options.get("-d")));
+            }
+            if (options.containsKey("-t")) {
+                loadTest.setThreads(Integer.parseInt(options.get("-t")));
+            }
+            if (options.containsKey("-w")) {
+                loadTest.setWarmupAccounts(Integer.parseInt(options.get("-w")));
+            }
+
+            loadTest.run().print(System.out);
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    /**
+     * Parses the command line options.
+     */
+    static Map<String, String> parseOptions(String... args) {
+        Map<String, String> options = new HashMap<>();
+        for (int ix = 0; ix < args.length; ix++) {
+            String option = args[ix];
+            if (!option.matches("-[adtwsl]")) {
+                throw new IllegalArgumentException("Unknown option: " + option);
+            }
+            if (ix + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value of option " + option);
+            }
+            options.put(option, args[++ix]);
+        }
+        return options;
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.loadtest;
+
+import java.io.PrintStream;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+
+import org.shredzone.acme4j.metrics.Histogram;
+
+/**
+ * The result of a {@link LoadTest} run.
+ */
+public class LoadTestResult {
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+    private static final double BYTES_PER_MB = 1024.0 * 1024.0;
+
+    private final URI serverUri;
+    private final int accounts;
+    private final int domains;
+    private final int threads;
+    private final Duration duration;
+    private final Map<Stage, StageStatistics> stages;
+    private final long allocatedBytes;
+    private final int peakThreadCount;
+    private final int threadCount;
+    private final String firstError;
+
+    LoadTestResult(URI serverUri, int accounts, int domains, int threads, Duration duration,
+                Map<Stage, StageStatistics> stages, long allocatedBytes, int peakThreadCount,
+                int threadCount, String firstError) {
+        this.serverUri = serverUri;
+        this.accounts = accounts;
+        this.domains = domains;
+        this.threads = threads;
+        this.duration = duration;
+        this.stages = Collections.unmodifiableMap(stages);
+        this.allocatedBytes = allocatedBytes;
+        this.peakThreadCount = peakThreadCount;
+        this.threadCount = threadCount;
+        this.firstError = firstError;
+    }
+
+    /**
+     * Returns the wall-clock duration of the load test.
+     */
+    public Duration getDuration() {
+        return duration;
+    }
+
+    /**
+     * Returns the statistics of all stages.
+     */
+    public Map<Stage, StageStatistics> getStages() {
+        return stages;
+    }
+
+    /**
+     * Returns the statistics of a stage.
+     */
+    public StageStatistics getStage(Stage stage) {
+        return stages.get(stage);
+    }
+
+    /**
+     * Returns the number of certificates that have been issued.
+     */
+    public long getIssuances() {
+        return stages.get(Stage.ISSUANCE).getCount();
+    }
+
+    /**
+     * Returns the number of issuances that have failed.
+     */
+    public long getErrors() {
+        return stages.get(Stage.ISSUANCE).getErrors();
+    }
+
+    /**
+     * Returns the number of certificates that have been issued per second.
+     */
+    public double getThroughput() {
+        return getIssuances() / seconds(duration);
+    }
+
+    /**
+     * Returns the number of bytes that have been allocated by the load test threads, or
+     * -1 if the JVM does not support measuring allocations.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Returns the number of bytes that have been allocated per second by the load test
+     * threads, or -1 if the JVM does not support measuring allocations.
+     */
+    public double getAllocationRate() {
+        return allocatedBytes >= 0 ? allocatedBytes / seconds(duration) : -1.0;
+    }
+
+    /**
+     * Returns the peak number of live threads in the JVM during the load test.
+     */
+    public int getPeakThreadCount() {
+        return peakThreadCount;
+    }
+
+    /**
+     * Returns the number of live threads in the JVM at the end of the load test.
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Returns the message of the first error that occured, or {@code null} if there
+     * were no errors.
+     */
+    public String getFirstError() {
+        return firstError;
+    }
+
+    /**
+     * Prints a report of this result.
+     *
+     * @param out
+     *            {@link PrintStream} to print to
+     */
+    public void print(PrintStream out) {
+        out.printf("Load test: %d accounts x %d domains, %d threads, server %s%n",
+                        accounts, domains, threads, serverUri);
+        out.printf("Issued %d certificates in %.2f s: %.1f issuances/s, %d errors%n",
+                        getIssuances(), seconds(duration), getThroughput(), getErrors());
+        if (firstError != null) {
+            out.printf("First error: %s%n", firstError);
+        }
+        out.println();
+
+        out.printf("%-12s %8s %7s %10s %10s %10s %10s %10s%n",
+                        "Stage", "Count", "Errors", "Mean ms", "p50 ms", "p99 ms", "p999 ms", "Max ms");
+        for (Map.Entry<Stage, StageStatistics> entry : stages.entrySet()) {
+            StageStatistics stats = entry.getValue();
+            Histogram latency = stats.getLatency();
+            out.printf("%-12s %8d %7d %10.2f %10.2f %10.2f %10.2f %10.2f%n",
+                            entry.getKey().getName(),
+                            stats.getCount(),
+                            stats.getErrors(),
+                            latency.getMean() / NANOS_PER_MILLI,
+                            latency.getValueAtPercentile(50.0) / NANOS_PER_MILLI,
+                            latency.getValueAtPercentile(99.0) / NANOS_PER_MILLI,
+                            latency.getValueAtPercentile(99.9) / NANOS_PER_MILLI,
+                            latency.getMax() / NANOS_PER_MILLI);
+        }
+        out.println();
+
+        if (allocatedBytes >= 0) {
+            long issuances = getIssuances();
+            out.printf("Allocation: %.1f MB/s, %.1f KB per issuance (load test threads only)%n",
+                            getAllocationRate() / BYTES_PER_MB,
+                            issuances > 0 ? allocatedBytes / 1024.0 / issuances : 0.0);
+        } else {
+            out.println("Allocation: not supported by this JVM");
+        }
+        out.printf("Threads: %d peak, %d at end%n", peakThreadCount, threadCount);
+    }
+
+    private static double seconds(Duration duration) {
+        return Math.max(duration.toNanos(), 1L) / 1_000_000_000.0;
+    }
+
+}
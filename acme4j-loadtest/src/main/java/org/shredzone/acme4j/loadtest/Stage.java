@@ -0,0 +1,65 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.loadtest;
+
+import java.util.Locale;
+
+/**
+ * Stages of a certificate issuance that are measured by the {@link LoadTest}.
+ */
+public enum Stage {
+
+    /**
+     * Creating a new registration.
+     */
+    REGISTER,
+
+    /**
+     * Requesting the authorization of a domain.
+     */
+    AUTHORIZE,
+
+    /**
+     * Triggering the challenge, and waiting until it is valid.
+     */
+    CHALLENGE,
+
+    /**
+     * Building and signing the CSR.
+     */
+    CSR,
+
+    /**
+     * Requesting the certificate.
+     */
+    CERTIFICATE,
+
+    /**
+     * Downloading the certificate chain.
+     */
+    DOWNLOAD,
+
+    /**
+     * The complete issuance of a domain's certificate, from authorization to download.
+     */
+    ISSUANCE;
+
+    /**
+     * Returns the stage name as shown in reports.
+     */
+    public String getName() {
+        return name().toLowerCase(Locale.ENGLISH);
+    }
+
+}
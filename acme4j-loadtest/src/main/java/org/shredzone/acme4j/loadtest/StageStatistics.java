@@ -0,0 +1,68 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.loadtest;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.shredzone.acme4j.metrics.Histogram;
+
+/**
+ * Latencies and errors of a {@link Stage}.
+ * <p>
+ * This class is thread-safe.
+ */
+public class StageStatistics {
+
+    private final Histogram latency = new Histogram();
+    private final LongAdder errors = new LongAdder();
+
+    /**
+     * Records a successful execution of the stage.
+     *
+     * @param nanos
+     *            Duration of the execution, in nanoseconds
+     */
+    void record(long nanos) {
+        latency.record(nanos);
+    }
+
+    /**
+     * Records a failed execution of the stage.
+     */
+    void error() {
+        errors.increment();
+    }
+
+    /**
+     * Returns the {@link Histogram} of the successful executions, in nanoseconds.
+     */
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Returns the number of successful executions.
+     */
+    public long getCount() {
+        return latency.getCount();
+    }
+
+    /**
+     * Returns the number of failed executions.
+     */
+    public long getErrors() {
+        return errors.sum();
+    }
+
+}
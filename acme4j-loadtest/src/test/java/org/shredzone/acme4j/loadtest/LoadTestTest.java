@@ -0,0 +1,136 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.loadtest;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.security.Security;
+import java.util.Map;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.shredzone.acme4j.testserver.AcmeTestServer;
+
+/**
+ * Unit tests for {@link LoadTest}.
+ */
+public class LoadTestTest {
+
+    private AcmeTestServer server;
+
+    @BeforeClass
+    public static void setupClass() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @Before
+    public void setup() throws Exception {
+        server = new AcmeTestServer();
+    }
+
+    @After
+    public void teardown() {
+        server.close();
+    }
+
+    /**
+     * Test a short load test run against the test server.
+     */
+    @Test
+    public void testRun() throws Exception {
+        LoadTest loadTest = new LoadTest(server.getDirectoryUri());
+        loadTest.setAccounts(2);
+        loadTest.setDomains(2);
+        loadTest.setThreads(2);
+
+        LoadTestResult result = loadTest.run();
+
+        assertThat(result.getFirstError(), is(nullValue()));
+        assertThat(result.getIssuances(), is(4L));
+        assertThat(result.getErrors(), is(0L));
+        assertThat(result.getStage(Stage.REGISTER).getCount(), is(2L));
+        for (Stage stage : new Stage[] {Stage.AUTHORIZE, Stage.CHALLENGE, Stage.CSR,
+                        Stage.CERTIFICATE, Stage.DOWNLOAD}) {
+            assertThat(stage.getName(), result.getStage(stage).getCount(), is(4L));
+            assertThat(stage.getName(), result.getStage(stage).getErrors(), is(0L));
+        }
+        assertThat(result.getThroughput(), is(greaterThan(0.0)));
+        assertThat(result.getPeakThreadCount(), is(greaterThanOrEqualTo(2)));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        result.print(new PrintStream(out, true, "utf-8"));
+        String report = out.toString("utf-8");
+        assertThat(report, containsString("issuances/s"));
+        assertThat(report, containsString(Stage.CERTIFICATE.getName()));
+    }
+
+    /**
+     * Test that failing issuances are counted as errors.
+     */
+    @Test
+    public void testErrors() throws Exception {
+        server.setErrorRate(1.0);
+
+        LoadTest loadTest = new LoadTest(server.getDirectoryUri());
+        loadTest.setAccounts(1);
+        loadTest.setDomains(3);
+        loadTest.setThreads(1);
+
+        LoadTestResult result = loadTest.run();
+
+        assertThat(result.getIssuances(), is(0L));
+        assertThat(result.getStage(Stage.ISSUANCE).getErrors(), is(3L));
+        assertThat(result.getFirstError(), startsWith(Stage.REGISTER.getName()));
+    }
+
+    /**
+     * Test parsing of the command line options.
+     */
+    @Test
+    public void testParseOptions() {
+        Map<String, String> options = LoadTest.parseOptions("-a", "4", "-s", "http://localhost/");
+        assertThat(options.size(), is(2));
+        assertThat(options.get("-a"), is("4"));
+        assertThat(options.get("-s"), is("http://localhost/"));
+
+        try {
+            LoadTest.parseOptions("-x", "1");
+            fail("accepted unknown option");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+
+        try {
+            LoadTest.parseOptions("-a");
+            fail("accepted missing value");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that invalid settings are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidAccounts() {
+        new LoadTest(server.getDirectoryUri()).setAccounts(0);
+    }
+
+}
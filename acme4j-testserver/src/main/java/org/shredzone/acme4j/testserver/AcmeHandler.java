@@ -0,0 +1,762 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.testserver;
+
+import static java.util.stream.Collectors.toList;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.bouncycastle.asn1.DERIA5String;
+import org.bouncycastle.asn1.pkcs.Attribute;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x500.RDN;
+import org.bouncycastle.asn1.x500.style.BCStyle;
+import org.bouncycastle.asn1.x500.style.IETFUtils;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+import org.bouncycastle.pkcs.PKCSException;
+import org.bouncycastle.pkcs.jcajce.JcaPKCS10CertificationRequest;
+import org.jose4j.jwk.PublicJsonWebKey;
+import org.jose4j.lang.JoseException;
+import org.shredzone.acme4j.toolbox.AcmeUtils;
+import org.shredzone.acme4j.toolbox.JSON;
+import org.shredzone.acme4j.toolbox.JSONBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implements the ACME protocol of the test server. It keeps all registrations,
+ * authorizations and certificates in memory.
+ * <p>
+ * Challenges are validated immediately when they are triggered. The only thing that is
+ * checked is that the key authorization matches the token and the account key.
+ * <p>
+ * This class is thread-safe.
+ */
+class AcmeHandler {
+    private static final Logger LOG = LoggerFactory.getLogger(AcmeHandler.class);
+
+    static final String DIRECTORY_PATH = "/directory";
+
+    private static final String NEW_REG_PATH = "/acme/new-reg";
+    private static final String NEW_AUTHZ_PATH = "/acme/new-authz";
+    private static final String NEW_CERT_PATH = "/acme/new-cert";
+    private static final String REVOKE_CERT_PATH = "/acme/revoke-cert";
+    private static final String KEY_CHANGE_PATH = "/acme/key-change";
+    private static final String TERMS_PATH = "/acme/terms";
+    private static final String ISSUER_CERT_PATH = "/acme/issuer-cert";
+
+    private static final Pattern RESOURCE_PATTERN =
+                    Pattern.compile("/acme/(reg|authz|challenge|cert)/(\\d+)(/authz|/cert)?");
+
+    private static final Duration PENDING_LIFETIME = Duration.ofDays(7);
+    private static final Duration VALID_LIFETIME = Duration.ofDays(30);
+
+    private final URI baseUri;
+    private final CertificateAuthority ca;
+    private final NonceRegistry nonces;
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<Long, Account> accounts = new ConcurrentHashMap<>();
+    private final Map<String, Account> accountsByThumbprint = new ConcurrentHashMap<>();
+    private final Map<Long, Authz> authorizations = new ConcurrentHashMap<>();
+    private final Map<Long, Chall> challenges = new ConcurrentHashMap<>();
+    private final Map<Long, Issued> certificates = new ConcurrentHashMap<>();
+    private final Map<BigInteger, Issued> certificatesBySerial = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new {@link AcmeHandler}.
+     *
+     * @param baseUri
+     *            Base {@link URI} of the server
+     * @param ca
+     *            {@link CertificateAuthority} that issues the certificates
+     * @param nonces
+     *            {@link NonceRegistry} for replay nonces
+     */
+    AcmeHandler(URI baseUri, CertificateAuthority ca, NonceRegistry nonces) {
+        this.baseUri = baseUri;
+        this.ca = ca;
+        this.nonces = nonces;
+    }
+
+    /**
+     * Handles a GET request.
+     *
+     * @param path
+     *            Request path
+     * @return {@link Response} to be sent
+     */
+    Response get(String path) throws AcmeProblemException {
+        switch (path) {
+            case DIRECTORY_PATH:
+                return directory();
+
+            case TERMS_PATH:
+                return Response.text(HttpURLConnection.HTTP_OK, "Test server, no terms of service.");
+
+            case ISSUER_CERT_PATH:
+                return Response.certificate(HttpURLConnection.HTTP_OK, ca.getRootCertificate());
+
+            default:
+                break;
+        }
+
+        Matcher m = RESOURCE_PATTERN.matcher(path);
+        if (!m.matches()) {
+            throw notFound();
+        }
+
+        long id = Long.parseLong(m.group(2));
+        switch (m.group(1)) {
+            case "reg":
+                if ("/authz".equals(m.group(3))) {
+                    return resourceList("authorizations", find(accounts, id).authzIds, "authz");
+                } else if ("/cert".equals(m.group(3))) {
+                    return resourceList("certificates", find(accounts, id).certIds, "cert");
+                }
+                throw new AcmeProblemException(HttpURLConnection.HTTP_BAD_METHOD, "malformed",
+                                "Registrations must be fetched by POST");
+
+            case "authz":
+                return Response.json(HttpURLConnection.HTTP_OK, authzJson(find(authorizations, id)));
+
+            case "challenge":
+                return Response.json(HttpURLConnection.HTTP_OK, challengeJson(find(challenges, id)));
+
+            case "cert":
+                if (m.group(3) != null) {
+                    throw notFound();
+                }
+                return Response.certificate(HttpURLConnection.HTTP_OK, find(certificates, id).cert)
+                                .link(uri(ISSUER_CERT_PATH), "up");
+
+            default:
+                throw notFound();
+        }
+    }
+
+    /**
+     * Handles a signed POST request.
+     *
+     * @param path
+     *            Request path
+     * @param body
+     *            Request body
+     * @return {@link Response} to be sent
+     */
+    Response post(String path, String body) throws AcmeProblemException {
+        SignedRequest request = SignedRequest.verify(body, this::findAccountKey);
+
+        if (!nonces.consume(request.getNonce())) {
+            throw new AcmeProblemException(HttpURLConnection.HTTP_BAD_REQUEST, "badNonce",
+                            "JWS has an invalid anti-replay nonce");
+        }
+
+        if (!path.equals(pathOf(request.getUrl()))) {
+            throw malformed("JWS url header does not match the request URL");
+        }
+
+        JSON payload = request.getPayload();
+
+        switch (path) {
+            case NEW_REG_PATH:
+                return newRegistration(request, payload);
+
+            case NEW_AUTHZ_PATH:
+                return newAuthorization(request, payload);
+
+            case NEW_CERT_PATH:
+                return newCertificate(request, payload);
+
+            case REVOKE_CERT_PATH:
+                return revokeCertificate(request, payload);
+
+            case KEY_CHANGE_PATH:
+                return keyChange(request, payload);
+
+            default:
+                break;
+        }
+
+        Matcher m = RESOURCE_PATTERN.matcher(path);
+        if (!m.matches() || m.group(3) != null) {
+            throw notFound();
+        }
+
+        long id = Long.parseLong(m.group(2));
+        switch (m.group(1)) {
+            case "reg":
+                return updateRegistration(request, payload, find(accounts, id));
+
+            case "authz":
+                return updateAuthorization(request, payload, find(authorizations, id));
+
+            case "challenge":
+                return triggerChallenge(request, payload, find(challenges, id));
+
+            default:
+                throw new AcmeProblemException(HttpURLConnection.HTTP_BAD_METHOD, "malformed",
+                                "Method not allowed");
+        }
+    }
+
+    /**
+     * Creates a new replay nonce.
+     */
+    String createNonce() {
+        return nonces.create();
+    }
+
+    private Response directory() {
+        JSONBuilder json = new JSONBuilder();
+        json.put("new-reg", uri(NEW_REG_PATH));
+        json.put("new-authz", uri(NEW_AUTHZ_PATH));
+        json.put("new-cert", uri(NEW_CERT_PATH));
+        json.put("revoke-cert", uri(REVOKE_CERT_PATH));
+        json.put("key-change", uri(KEY_CHANGE_PATH));
+        json.object("meta")
+                .put("terms-of-service", uri(TERMS_PATH))
+                .put("website", baseUri);
+        return Response.json(HttpURLConnection.HTTP_OK, json);
+    }
+
+    private Response newRegistration(SignedRequest request, JSON payload) throws AcmeProblemException {
+        if (request.getJwk() == null) {
+            throw malformed("new-reg requires a jwk header");
+        }
+
+        String thumbprint = thumbprint(request.getJwk());
+        Account account = new Account(ids.incrementAndGet(), request.getPublicKey(), thumbprint);
+        Account existing = accountsByThumbprint.putIfAbsent(thumbprint, account);
+        if (existing != null) {
+            throw new AcmeProblemException(HttpURLConnection.HTTP_CONFLICT, "malformed",
+                            "Registration key is already in use", uri("/acme/reg/" + existing.id));
+        }
+
+        updateContacts(account, payload);
+        accounts.put(account.id, account);
+        LOG.debug("new-reg {}", account.id);
+        return registration(HttpURLConnection.HTTP_CREATED, account);
+    }
+
+    private Response updateRegistration(SignedRequest request, JSON payload, Account account)
+                throws AcmeProblemException {
+        if (authenticate(request) != account) {
+            throw unauthorized("Request signed by another account");
+        }
+
+        synchronized (account) {
+            updateContacts(account, payload);
+            if ("deactivated".equals(payload.get("status").asString())) {
+                account.status = "deactivated";
+            }
+        }
+        return registration(HttpURLConnection.HTTP_ACCEPTED, account);
+    }
+
+    private void updateContacts(Account account, JSON payload) {
+        if (payload.contains("contact")) {
+            account.contacts = payload.get("contact").asArray().stream()
+                            .map(JSON.Value::asString)
+                            .collect(toList());
+        }
+        if (payload.contains("agreement")) {
+            account.agreement = payload.get("agreement").asURI();
+        }
+    }
+
+    private Response registration(int status, Account account) {
+        JSONBuilder json = new JSONBuilder();
+        json.putKey("key", account.publicKey);
+        json.put("contact", account.contacts);
+        if (account.agreement != null) {
+            json.put("agreement", account.agreement);
+        }
+        json.put("authorizations", uri("/acme/reg/" + account.id + "/authz"));
+        json.put("certificates", uri("/acme/reg/" + account.id + "/cert"));
+        json.put("status", account.status);
+        return Response.json(status, json)
+                        .location(uri("/acme/reg/" + account.id))
+                        .link(uri(TERMS_PATH), "terms-of-service");
+    }
+
+    private Response newAuthorization(SignedRequest request, JSON payload) throws AcmeProblemException {
+        Account account = authenticate(request);
+
+        JSON identifier = payload.get("identifier").asObject();
+        if (identifier == null || !"dns".equals(identifier.get("type").asString())
+                        || identifier.get("value").asString() == null) {
+            throw malformed("Invalid identifier");
+        }
+
+        Authz authz = new Authz(ids.incrementAndGet(), account.id,
+                        identifier.get("value").asString(), Instant.now().plus(PENDING_LIFETIME));
+        for (String type : Arrays.asList("http-01", "dns-01")) {
+            Chall challenge = new Chall(ids.incrementAndGet(), authz.id, type, createToken());
+            authz.challenges.add(challenge);
+            challenges.put(challenge.id, challenge);
+        }
+        authorizations.put(authz.id, authz);
+        account.authzIds.add(authz.id);
+
+        LOG.debug("new-authz {} for {}", authz.id, authz.domain);
+        return Response.json(HttpURLConnection.HTTP_CREATED, authzJson(authz))
+                        .location(uri("/acme/authz/" + authz.id));
+    }
+
+    private Response updateAuthorization(SignedRequest request, JSON payload, Authz authz)
+                throws AcmeProblemException {
+        if (authenticate(request).id != authz.accountId) {
+            throw unauthorized("Authorization belongs to another account");
+        }
+
+        if ("deactivated".equals(payload.get("status").asString())) {
+            synchronized (authz) {
+                authz.status = "deactivated";
+                accounts.get(authz.accountId).validDomains.remove(authz.domain, authz);
+            }
+        }
+        return Response.json(HttpURLConnection.HTTP_OK, authzJson(authz));
+    }
+
+    private Response triggerChallenge(SignedRequest request, JSON payload, Chall challenge)
+                throws AcmeProblemException {
+        Account account = authenticate(request);
+        Authz authz = authorizations.get(challenge.authzId);
+        if (account.id != authz.accountId) {
+            throw unauthorized("Challenge belongs to another account");
+        }
+
+        String keyAuthorization = payload.get("keyAuthorization").asString();
+        String expected = challenge.token + '.' + account.thumbprint;
+
+        synchronized (authz) {
+            if ("pending".equals(challenge.status) && "pending".equals(authz.status)) {
+                Instant now = Instant.now();
+                challenge.keyAuthorization = keyAuthorization;
+                if (expected.equals(keyAuthorization)) {
+                    challenge.status = "valid";
+                    challenge.validated = now;
+                    authz.status = "valid";
+                    authz.expires = now.plus(VALID_LIFETIME);
+                    account.validDomains.put(authz.domain, authz);
+                } else {
+                    challenge.status = "invalid";
+                    challenge.error = "The key authorization does not match";
+                    authz.status = "invalid";
+                }
+                LOG.debug("challenge {} of authz {} is {}", challenge.id, authz.id, challenge.status);
+            }
+        }
+
+        return Response.json(HttpURLConnection.HTTP_ACCEPTED, challengeJson(challenge));
+    }
+
+    private JSONBuilder authzJson(Authz authz) {
+        JSONBuilder json = new JSONBuilder();
+        json.object("identifier")
+                .put("type", "dns")
+                .put("value", authz.domain);
+        synchronized (authz) {
+            json.put("status", authz.status);
+            json.put("expires", authz.expires);
+            json.put("challenges", authz.challenges.stream()
+                            .map(ch -> challengeJson(ch).toMap())
+                            .collect(toList()));
+        }
+        List<List<Integer>> combinations = new ArrayList<>();
+        for (int ix = 0; ix < authz.challenges.size(); ix++) {
+            combinations.add(Collections.singletonList(ix));
+        }
+        json.put("combinations", combinations);
+        return json;
+    }
+
+    private JSONBuilder challengeJson(Chall challenge) {
+        JSONBuilder json = new JSONBuilder();
+        json.put("type", challenge.type);
+        json.put("uri", uri("/acme/challenge/" + challenge.id));
+        json.put("token", challenge.token);
+        json.put("status", challenge.status);
+        if (challenge.keyAuthorization != null) {
+            json.put("keyAuthorization", challenge.keyAuthorization);
+        }
+        if (challenge.validated != null) {
+            json.put("validated", challenge.validated);
+        }
+        if (challenge.error != null) {
+            json.object("error")
+                    .put("type", "urn:acme:error:unauthorized")
+                    .put("detail", challenge.error);
+        }
+        return json;
+    }
+
+    private Response newCertificate(SignedRequest request, JSON payload) throws AcmeProblemException {
+        Account account = authenticate(request);
+
+        String csr = payload.get("csr").asString();
+        if (csr == null) {
+            throw malformed("Missing CSR");
+        }
+
+        JcaPKCS10CertificationRequest pkcs10;
+        PublicKey publicKey;
+        Set<String> domains;
+        try {
+            pkcs10 = new JcaPKCS10CertificationRequest(Base64.getUrlDecoder().decode(csr));
+            publicKey = pkcs10.getPublicKey();
+            if (!pkcs10.isSignatureValid(new JcaContentVerifierProviderBuilder().build(publicKey))) {
+                throw badCsr("Invalid CSR signature");
+            }
+            domains = getDomains(pkcs10);
+        } catch (IOException | IllegalArgumentException | GeneralSecurityException
+                        | OperatorCreationException | PKCSException ex) {
+            throw badCsr("Invalid CSR: " + ex.getMessage());
+        }
+
+        if (domains.isEmpty()) {
+            throw badCsr("CSR does not contain any domain names");
+        }
+
+        Instant now = Instant.now();
+        List<String> unauthorized = domains.stream()
+                        .filter(domain -> !account.isAuthorized(domain, now))
+                        .collect(toList());
+        if (!unauthorized.isEmpty()) {
+            throw unauthorized("Authorizations for these names not found or expired: "
+                            + String.join(", ", unauthorized));
+        }
+
+        String notBefore = payload.get("notBefore").asString();
+        String notAfter = payload.get("notAfter").asString();
+        X509Certificate cert = ca.issue(publicKey, domains,
+                        notBefore != null ? AcmeUtils.parseTimestamp(notBefore) : null,
+                        notAfter != null ? AcmeUtils.parseTimestamp(notAfter) : null);
+
+        Issued issued = new Issued(ids.incrementAndGet(), account.id, cert);
+        certificates.put(issued.id, issued);
+        certificatesBySerial.put(cert.getSerialNumber(), issued);
+        account.certIds.add(issued.id);
+
+        LOG.debug("new-cert {} for {}", issued.id, domains);
+        return Response.certificate(HttpURLConnection.HTTP_CREATED, cert)
+                        .location(uri("/acme/cert/" + issued.id))
+                        .link(uri(ISSUER_CERT_PATH), "up");
+    }
+
+    private Response revokeCertificate(SignedRequest request, JSON payload) throws AcmeProblemException {
+        String encoded = payload.get("certificate").asString();
+        if (encoded == null) {
+            throw malformed("Missing certificate");
+        }
+
+        X509Certificate cert;
+        try {
+            CertificateFactory cf = CertificateFactory.getInstance("X.509");
+            cert = (X509Certificate) cf.generateCertificate(
+                            new ByteArrayInputStream(Base64.getUrlDecoder().decode(encoded)));
+        } catch (CertificateException | IllegalArgumentException ex) {
+            throw malformed("Invalid certificate: " + ex.getMessage());
+        }
+
+        Issued issued = certificatesBySerial.get(cert.getSerialNumber());
+        if (issued == null || !issued.cert.equals(cert)) {
+            throw new AcmeProblemException(HttpURLConnection.HTTP_NOT_FOUND, "malformed",
+                            "Certificate was not issued by this server");
+        }
+
+        boolean signedByCertKey = request.getJwk() != null
+                        && cert.getPublicKey().equals(request.getPublicKey());
+        if (!signedByCertKey && authenticate(request).id != issued.accountId) {
+            throw unauthorized("Certificate belongs to another account");
+        }
+
+        synchronized (issued) {
+            if (issued.revoked) {
+                throw malformed("Certificate is already revoked");
+            }
+            issued.revoked = true;
+        }
+
+        LOG.debug("revoke-cert {}", issued.id);
+        return Response.empty(HttpURLConnection.HTTP_OK);
+    }
+
+    private Response keyChange(SignedRequest request, JSON payload) throws AcmeProblemException {
+        Account account = authenticate(request);
+
+        SignedRequest inner = SignedRequest.verify(payload, kid -> null);
+        if (inner.getJwk() == null) {
+            throw malformed("Inner JWS requires a jwk header");
+        }
+        if (!KEY_CHANGE_PATH.equals(pathOf(inner.getUrl()))) {
+            throw malformed("Inner JWS url header does not match the request URL");
+        }
+
+        JSON innerPayload = inner.getPayload();
+        URI accountUri = uri("/acme/reg/" + account.id);
+        if (!accountUri.equals(innerPayload.get("account").asURI())) {
+            throw malformed("Inner JWS refers to another account");
+        }
+
+        String newThumbprint = thumbprint(inner.getJwk());
+        JSON newKey = innerPayload.get("newKey").asObject();
+        try {
+            if (newKey == null || !newThumbprint.equals(
+                            thumbprint(PublicJsonWebKey.Factory.newPublicJwk(newKey.toString())))) {
+                throw malformed("newKey does not match the inner JWS key");
+            }
+        } catch (JoseException ex) {
+            throw malformed("Invalid newKey: " + ex.getMessage());
+        }
+
+        synchronized (account) {
+            if (accountsByThumbprint.putIfAbsent(newThumbprint, account) != null) {
+                throw new AcmeProblemException(HttpURLConnection.HTTP_CONFLICT, "malformed",
+                                "New key is already in use");
+            }
+            accountsByThumbprint.remove(account.thumbprint, account);
+            account.publicKey = inner.getPublicKey();
+            account.thumbprint = newThumbprint;
+        }
+
+        LOG.debug("key-change {}", account.id);
+        return registration(HttpURLConnection.HTTP_OK, account);
+    }
+
+    /**
+     * Finds the account that has signed the request.
+     *
+     * @return {@link Account} that is active
+     * @throws AcmeProblemException
+     *             if there is no such account, or it was deactivated
+     */
+    private Account authenticate(SignedRequest request) throws AcmeProblemException {
+        Account account;
+        if (request.getKid() != null) {
+            account = findAccount(request.getKid());
+        } else {
+            account = accountsByThumbprint.get(thumbprint(request.getJwk()));
+        }
+
+        if (account == null) {
+            throw unauthorized("No registration exists matching provided key");
+        }
+        if (!"valid".equals(account.status)) {
+            throw unauthorized("Registration is " + account.status);
+        }
+        return account;
+    }
+
+    private Account findAccount(URI kid) {
+        Matcher m = RESOURCE_PATTERN.matcher(pathOf(kid.toString()));
+        if (!m.matches() || !"reg".equals(m.group(1)) || m.group(3) != null) {
+            return null;
+        }
+        return accounts.get(Long.parseLong(m.group(2)));
+    }
+
+    private PublicKey findAccountKey(URI kid) {
+        Account account = findAccount(kid);
+        return account != null ? account.publicKey : null;
+    }
+
+    private Response resourceList(String key, List<Long> ids, String type) {
+        JSONBuilder json = new JSONBuilder();
+        json.put(key, ids.stream().map(id -> uri("/acme/" + type + "/" + id)).collect(toList()));
+        return Response.json(HttpURLConnection.HTTP_OK, json);
+    }
+
+    private static <T> T find(Map<Long, T> map, long id) throws AcmeProblemException {
+        T result = map.get(id);
+        if (result == null) {
+            throw notFound();
+        }
+        return result;
+    }
+
+    private static Set<String> getDomains(JcaPKCS10CertificationRequest csr) {
+        Set<String> domains = new LinkedHashSet<>();
+
+        for (RDN rdn : csr.getSubject().getRDNs(BCStyle.CN)) {
+            domains.add(IETFUtils.valueToString(rdn.getFirst().getValue()));
+        }
+
+        for (Attribute attr : csr.getAttributes(PKCSObjectIdentifiers.pkcs_9_at_extensionRequest)) {
+            Extensions extensions = Extensions.getInstance(attr.getAttrValues().getObjectAt(0));
+            GeneralNames names = GeneralNames.fromExtensions(extensions, Extension.subjectAlternativeName);
+            if (names != null) {
+                for (GeneralName name : names.getNames()) {
+                    if (name.getTagNo() == GeneralName.dNSName) {
+                        domains.add(DERIA5String.getInstance(name.getName()).getString());
+                    }
+                }
+            }
+        }
+
+        return domains;
+    }
+
+    private static String thumbprint(PublicJsonWebKey jwk) {
+        return AcmeUtils.base64UrlEncode(jwk.calculateThumbprint("SHA-256"));
+    }
+
+    private static String pathOf(String url) {
+        try {
+            return url != null ? URI.create(url).getPath() : null;
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    private static String createToken() {
+        byte[] token = new byte[32];
+        ThreadLocalRandom.current().nextBytes(token);
+        return AcmeUtils.base64UrlEncode(token);
+    }
+
+    private URI uri(String path) {
+        return baseUri.resolve(path);
+    }
+
+    private static AcmeProblemException notFound() {
+        return new AcmeProblemException(HttpURLConnection.HTTP_NOT_FOUND, "malformed",
+                        "Resource not found");
+    }
+
+    private static AcmeProblemException malformed(String detail) {
+        return new AcmeProblemException(HttpURLConnection.HTTP_BAD_REQUEST, "malformed", detail);
+    }
+
+    private static AcmeProblemException unauthorized(String detail) {
+        return new AcmeProblemException(HttpURLConnection.HTTP_FORBIDDEN, "unauthorized", detail);
+    }
+
+    private static AcmeProblemException badCsr(String detail) {
+        return new AcmeProblemException(HttpURLConnection.HTTP_BAD_REQUEST, "badCSR", detail);
+    }
+
+    /**
+     * A registered account.
+     */
+    private static final class Account {
+        private final long id;
+        private final List<Long> authzIds = new CopyOnWriteArrayList<>();
+        private final List<Long> certIds = new CopyOnWriteArrayList<>();
+        private final Map<String, Authz> validDomains = new ConcurrentHashMap<>();
+        private volatile PublicKey publicKey;
+        private volatile String thumbprint;
+        private volatile List<String> contacts = Collections.emptyList();
+        private volatile URI agreement;
+        private volatile String status = "valid";
+
+        private Account(long id, PublicKey publicKey, String thumbprint) {
+            this.id = id;
+            this.publicKey = publicKey;
+            this.thumbprint = thumbprint;
+        }
+
+        private boolean isAuthorized(String domain, Instant now) {
+            Authz authz = validDomains.get(domain);
+            return authz != null && "valid".equals(authz.status) && authz.expires.isAfter(now);
+        }
+    }
+
+    /**
+     * An authorization of a domain.
+     */
+    private static final class Authz {
+        private final long id;
+        private final long accountId;
+        private final String domain;
+        private final List<Chall> challenges = new ArrayList<>();
+        private volatile String status = "pending";
+        private volatile Instant expires;
+
+        private Authz(long id, long accountId, String domain, Instant expires) {
+            this.id = id;
+            this.accountId = accountId;
+            this.domain = domain;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * A challenge of an authorization.
+     */
+    private static final class Chall {
+        private final long id;
+        private final long authzId;
+        private final String type;
+        private final String token;
+        private volatile String status = "pending";
+        private volatile String keyAuthorization;
+        private volatile Instant validated;
+        private volatile String error;
+
+        private Chall(long id, long authzId, String type, String token) {
+            this.id = id;
+            this.authzId = authzId;
+            this.type = type;
+            this.token = token;
+        }
+    }
+
+    /**
+     * An issued certificate.
+     */
+    private static final class Issued {
+        private final long id;
+        private final long accountId;
+        private final X509Certificate cert;
+        private volatile boolean revoked;
+
+        private Issued(long id, long accountId, X509Certificate cert) {
+            this.id = id;
+            this.accountId = accountId;
+            this.cert = cert;
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.testserver;
+
+import java.net.URI;
+
+/**
+ * An exception that is sent to the client as ACME problem document.
+ */
+class AcmeProblemException extends Exception {
+    private static final long serialVersionUID = 2712463025385296185L;
+
+    private static final String ERROR_PREFIX = "urn:acme:error:";
+
+    private final int status;
+    private final String type;
+    private final URI location;
+
+    /**
+     * Creates a new {@link AcmeProblemException}.
+     *
+     * @param status
+     *            HTTP status code of the response
+     * @param type
+     *            ACME error type, without prefix (e.g. "malformed")
+     * @param detail
+     *            Human readable error message
+     */
+    AcmeProblemException(int status, String type, String detail) {
+        this(status, type, detail, null);
+    }
+
+    /**
+     * Creates a new {@link AcmeProblemException} with a location.
+     *
+     * @param status
+     *            HTTP status code of the response
+     * @param type
+     *            ACME error type, without prefix (e.g. "malformed")
+     * @param detail
+     *            Human readable error message
+     * @param location
+     *            Location of a related resource, or {@code null}
+     */
+    AcmeProblemException(int status, String type, String detail, URI location) {
+        super(detail);
+        this.status = status;
+        this.type = type;
+        this.location = location;
+    }
+
+    /**
+     * Returns the HTTP status code of the response.
+     */
+    int getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns the full ACME error type URN.
+     */
+    String getType() {
+        return ERROR_PREFIX + type;
+    }
+
+    /**
+     * Returns the location of a related resource, or {@code null}.
+     */
+    URI getLocation() {
+        return location;
+    }
+
+}
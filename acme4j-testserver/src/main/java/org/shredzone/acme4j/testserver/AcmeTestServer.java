@@ -0,0 +1,344 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.testserver;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process ACME server for integration and load tests.
+ * <p>
+ * The server listens on the loopback interface only, and speaks the ACME protocol that
+ * is implemented by acme4j ({@code new-reg}, {@code new-authz}, challenges,
+ * {@code new-cert}, {@code revoke-cert} and {@code key-change}). Signatures and
+ * replay nonces are verified like on a real server. Challenges are validated
+ * immediately when they are triggered, and certificates are issued by a throwaway
+ * {@link CertificateAuthority}. All state is kept in memory.
+ * <p>
+ * For testing how clients cope with slow or unreliable servers, a latency and error
+ * rates can be configured. They can be changed while the server is running.
+ * <p>
+ * Never use this server for anything else than testing.
+ */
+public class AcmeTestServer implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(AcmeTestServer.class);
+    private static final int MAX_NONCES = 100_000;
+    private static final int DEFAULT_PORT = 14000;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final CertificateAuthority ca = new CertificateAuthority();
+    private final AcmeHandler handler;
+    private final AtomicLong requestCount = new AtomicLong();
+    private volatile Duration latency = Duration.ZERO;
+    private volatile Duration latencyJitter = Duration.ZERO;
+    private volatile double errorRate = 0.0;
+    private volatile double badNonceRate = 0.0;
+
+    /**
+     * Starts a new {@link AcmeTestServer} on a random local port.
+     */
+    public AcmeTestServer() throws IOException {
+        this(0);
+    }
+
+    /**
+     * Starts a new {@link AcmeTestServer} on the given local port.
+     *
+     * @param port
+     *            Port to listen on, or 0 for a random port
+     */
+    public AcmeTestServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        handler = new AcmeHandler(getBaseUri(), ca, new NonceRegistry(MAX_NONCES));
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "acme4j-testserver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Returns the base {@link URI} of the server.
+     */
+    public URI getBaseUri() {
+        InetSocketAddress address = server.getAddress();
+        String host = address.getHostString();
+        if (host.indexOf(':') >= 0) {
+            host = '[' + host + ']';
+        }
+        return URI.create("http://" + host + ":" + address.getPort() + "/");
+    }
+
+    /**
+     * Returns the {@link URI} of the directory. Use it as server URI of a session.
+     */
+    public URI getDirectoryUri() {
+        return getBaseUri().resolve(AcmeHandler.DIRECTORY_PATH);
+    }
+
+    /**
+     * Returns the {@link CertificateAuthority} that issues the certificates.
+     */
+    public CertificateAuthority getCertificateAuthority() {
+        return ca;
+    }
+
+    /**
+     * Returns the number of requests that have been received so far.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Gets the fixed latency that is added to each response.
+     */
+    public Duration getLatency() {
+        return latency;
+    }
+
+    /**
+     * Sets a fixed latency that is added to each response. The default is zero.
+     */
+    public void setLatency(Duration latency) {
+        this.latency = checkDuration(latency, "latency");
+    }
+
+    /**
+     * Gets the maximum random latency that is added to each response.
+     */
+    public Duration getLatencyJitter() {
+        return latencyJitter;
+    }
+
+    /**
+     * Sets a maximum random latency. A uniformly distributed duration between zero and
+     * this value is added to each response, in addition to the fixed latency. The
+     * default is zero.
+     */
+    public void setLatencyJitter(Duration latencyJitter) {
+        this.latencyJitter = checkDuration(latencyJitter, "latencyJitter");
+    }
+
+    /**
+     * Gets the rate of requests that are answered with a {@code serverInternal} error.
+     */
+    public double getErrorRate() {
+        return errorRate;
+    }
+
+    /**
+     * Sets the rate of requests that are answered with a {@code serverInternal} error,
+     * between 0.0 (never, the default) and 1.0 (always). Requests to the directory and
+     * nonce requests are exempt, so sessions can always be set up.
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = checkRate(errorRate, "errorRate");
+    }
+
+    /**
+     * Gets the rate of signed requests that are rejected with a {@code badNonce} error.
+     */
+    public double getBadNonceRate() {
+        return badNonceRate;
+    }
+
+    /**
+     * Sets the rate of signed requests that are rejected with a {@code badNonce} error,
+     * even though the nonce was valid. It is between 0.0 (never, the default) and 1.0
+     * (always).
+     */
+    public void setBadNonceRate(double badNonceRate) {
+        this.badNonceRate = checkRate(badNonceRate, "badNonceRate");
+    }
+
+    /**
+     * Stops the server. All state is lost.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Handles a HTTP request.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            requestCount.incrementAndGet();
+            byte[] body = readFully(exchange.getRequestBody());
+            delay();
+            send(exchange, process(exchange.getRequestMethod(),
+                            exchange.getRequestURI().getPath(), body));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Processes a request and returns the {@link Response} to be sent.
+     */
+    private Response process(String method, String path, byte[] body) {
+        try {
+            if ("HEAD".equals(method)) {
+                return Response.empty(HttpURLConnection.HTTP_OK);
+            }
+
+            if (!AcmeHandler.DIRECTORY_PATH.equals(path) && inject(errorRate)) {
+                throw new AcmeProblemException(HttpURLConnection.HTTP_INTERNAL_ERROR,
+                                "serverInternal", "Injected error");
+            }
+
+            switch (method) {
+                case "GET":
+                    return handler.get(path);
+
+                case "POST":
+                    if (inject(badNonceRate)) {
+                        throw new AcmeProblemException(HttpURLConnection.HTTP_BAD_REQUEST,
+                                        "badNonce", "Injected bad nonce");
+                    }
+                    return handler.post(path, new String(body, UTF_8));
+
+                default:
+                    throw new AcmeProblemException(HttpURLConnection.HTTP_BAD_METHOD,
+                                    "malformed", "Method not allowed");
+            }
+        } catch (AcmeProblemException ex) {
+            LOG.debug("{} {}: {}", method, path, ex.getMessage());
+            return Response.problem(ex);
+        } catch (RuntimeException ex) {
+            LOG.warn("{} {} failed", method, path, ex);
+            return Response.problem(new AcmeProblemException(HttpURLConnection.HTTP_INTERNAL_ERROR,
+                            "serverInternal", String.valueOf(ex.getMessage())));
+        }
+    }
+
+    /**
+     * Sends the {@link Response}. Every response carries a fresh replay nonce.
+     */
+    private void send(HttpExchange exchange, Response response) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.add("Replay-Nonce", handler.createNonce());
+        if (response.getContentType() != null) {
+            headers.add("Content-Type", response.getContentType());
+        }
+        if (response.getLocation() != null) {
+            headers.add("Location", response.getLocation().toString());
+        }
+        for (String link : response.getLinks()) {
+            headers.add("Link", link);
+        }
+
+        byte[] body = response.getBody();
+        if (body.length == 0 || "HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(response.getStatus(), -1);
+            return;
+        }
+
+        exchange.sendResponseHeaders(response.getStatus(), body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Waits for the configured latency.
+     */
+    private void delay() {
+        long nanos = latency.toNanos();
+        long jitter = latencyJitter.toNanos();
+        if (jitter > 0) {
+            nanos += ThreadLocalRandom.current().nextLong(jitter + 1);
+        }
+        if (nanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(nanos);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static boolean inject(double rate) {
+        return rate > 0.0 && ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try (InputStream input = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int len;
+            while ((len = input.read(buffer)) >= 0) {
+                out.write(buffer, 0, len);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static Duration checkDuration(Duration duration, String name) {
+        Objects.requireNonNull(duration, name);
+        if (duration.isNegative()) {
+            throw new IllegalArgumentException(name + " must not be negative");
+        }
+        return duration;
+    }
+
+    private static double checkRate(double rate, String name) {
+        if (!(rate >= 0.0 && rate <= 1.0)) {
+            throw new IllegalArgumentException(name + " must be between 0.0 and 1.0");
+        }
+        return rate;
+    }
+
+    /**
+     * Starts a test server and keeps it running until the process is terminated.
+     *
+     * @param args
+     *            Optional port number, default is 14000
+     */
+    public static void main(String... args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        AcmeTestServer server = new AcmeTestServer(port);
+        System.out.println("ACME test server is running, directory: " + server.getDirectoryUri());
+    }
+
+}
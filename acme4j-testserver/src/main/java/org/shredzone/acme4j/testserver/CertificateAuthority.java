@@ -0,0 +1,175 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.testserver;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x500.X500NameBuilder;
+import org.bouncycastle.asn1.x500.style.BCStyle;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.CertIOException;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+/**
+ * A throwaway certificate authority. It generates a new EC key pair and a self-signed
+ * root certificate when it is created, and issues end-entity certificates that are
+ * directly signed by the root.
+ * <p>
+ * The key pair is only kept in memory. Certificates issued by this CA must never be
+ * trusted outside of tests.
+ * <p>
+ * This class is thread-safe.
+ */
+public class CertificateAuthority {
+
+    private static final String SIGNATURE_ALGORITHM = "SHA256withECDSA";
+    private static final Duration ROOT_VALIDITY = Duration.ofDays(3650);
+    private static final Duration DEFAULT_VALIDITY = Duration.ofDays(90);
+
+    private final KeyPair keyPair;
+    private final X500Name name;
+    private final X509Certificate rootCertificate;
+    private final AtomicLong serial = new AtomicLong(System.currentTimeMillis() << 16);
+
+    /**
+     * Creates a new {@link CertificateAuthority} with a fresh root certificate.
+     */
+    public CertificateAuthority() {
+        try {
+            KeyPairGenerator keyGen = KeyPairGenerator.getInstance("EC");
+            keyGen.initialize(new ECGenParameterSpec("secp256r1"));
+            keyPair = keyGen.generateKeyPair();
+
+            name = new X500NameBuilder(BCStyle.INSTANCE)
+                            .addRDN(BCStyle.O, "acme4j")
+                            .addRDN(BCStyle.CN, "acme4j Test Server Root " + serial.get())
+                            .build();
+
+            Instant now = Instant.now();
+            X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+                            name, nextSerial(), Date.from(now.minus(Duration.ofHours(1))),
+                            Date.from(now.plus(ROOT_VALIDITY)), name, keyPair.getPublic());
+            builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(true));
+            builder.addExtension(Extension.keyUsage, true,
+                            new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign));
+
+            rootCertificate = sign(builder);
+        } catch (GeneralSecurityException | CertIOException ex) {
+            throw new IllegalStateException("Could not create CA", ex);
+        }
+    }
+
+    /**
+     * Returns the self-signed root certificate of this CA.
+     */
+    public X509Certificate getRootCertificate() {
+        return rootCertificate;
+    }
+
+    /**
+     * Issues a new end-entity certificate.
+     *
+     * @param publicKey
+     *            {@link PublicKey} of the certificate
+     * @param domains
+     *            Domain names of the certificate. The first domain is used as common
+     *            name. Must not be empty.
+     * @param notBefore
+     *            Start of the validity period, or {@code null} for now
+     * @param notAfter
+     *            End of the validity period, or {@code null} for 90 days after
+     *            {@code notBefore}
+     * @return Issued {@link X509Certificate}
+     */
+    public X509Certificate issue(PublicKey publicKey, Collection<String> domains,
+                Instant notBefore, Instant notAfter) {
+        Objects.requireNonNull(publicKey, "publicKey");
+        Objects.requireNonNull(domains, "domains");
+        if (domains.isEmpty()) {
+            throw new IllegalArgumentException("domains must not be empty");
+        }
+
+        Instant start = notBefore != null ? notBefore : Instant.now();
+        Instant end = notAfter != null ? notAfter : start.plus(DEFAULT_VALIDITY);
+
+        try {
+            X500Name subject = new X500NameBuilder(BCStyle.INSTANCE)
+                            .addRDN(BCStyle.CN, domains.iterator().next())
+                            .build();
+
+            GeneralName[] sans = domains.stream()
+                            .map(domain -> new GeneralName(GeneralName.dNSName, domain))
+                            .toArray(GeneralName[]::new);
+
+            X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+                            name, nextSerial(), Date.from(start), Date.from(end),
+                            subject, publicKey);
+            builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(false));
+            builder.addExtension(Extension.keyUsage, true,
+                            new KeyUsage(KeyUsage.digitalSignature | KeyUsage.keyEncipherment));
+            builder.addExtension(Extension.extendedKeyUsage, false,
+                            new ExtendedKeyUsage(KeyPurposeId.id_kp_serverAuth));
+            builder.addExtension(Extension.subjectAlternativeName, false, new GeneralNames(sans));
+
+            return sign(builder);
+        } catch (GeneralSecurityException | CertIOException ex) {
+            throw new IllegalStateException("Could not issue certificate", ex);
+        }
+    }
+
+    /**
+     * Returns a new, unique serial number.
+     */
+    private BigInteger nextSerial() {
+        return BigInteger.valueOf(serial.incrementAndGet());
+    }
+
+    /**
+     * Signs a certificate with the CA's private key.
+     */
+    private X509Certificate sign(X509v3CertificateBuilder builder) throws GeneralSecurityException {
+        try {
+            ContentSigner signer = new JcaContentSignerBuilder(SIGNATURE_ALGORITHM)
+                            .build(keyPair.getPrivate());
+            return new JcaX509CertificateConverter().getCertificate(builder.build(signer));
+        } catch (OperatorCreationException ex) {
+            throw new GeneralSecurityException(ex);
+        }
+    }
+
+}
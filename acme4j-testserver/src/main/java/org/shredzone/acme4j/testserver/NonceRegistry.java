@@ -0,0 +1,98 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.testserver;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.shredzone.acme4j.toolbox.AcmeUtils;
+
+/**
+ * Issues replay nonces and checks that each nonce is only used once.
+ * <p>
+ * If more nonces are outstanding than the registry can hold, the oldest nonces are
+ * forgotten and will be rejected.
+ * <p>
+ * This class is thread-safe.
+ */
+class NonceRegistry {
+
+    private final Set<String> nonces = ConcurrentHashMap.newKeySet();
+    private final Queue<String> order = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger count = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+    private final int maxNonces;
+
+    /**
+     * Creates a new {@link NonceRegistry}.
+     *
+     * @param maxNonces
+     *            Maximum number of outstanding nonces
+     */
+    NonceRegistry(int maxNonces) {
+        if (maxNonces <= 0) {
+            throw new IllegalArgumentException("maxNonces must be positive");
+        }
+        this.maxNonces = maxNonces;
+    }
+
+    /**
+     * Creates a new nonce.
+     *
+     * @return Base64url encoded nonce
+     */
+    String create() {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.putLong(sequence.incrementAndGet());
+        buffer.putLong(ThreadLocalRandom.current().nextLong());
+        String nonce = AcmeUtils.base64UrlEncode(buffer.array());
+
+        nonces.add(nonce);
+        order.add(nonce);
+        if (count.incrementAndGet() > maxNonces) {
+            String eldest = order.poll();
+            if (eldest != null) {
+                count.decrementAndGet();
+                nonces.remove(eldest);
+            }
+        }
+        return nonce;
+    }
+
+    /**
+     * Consumes a nonce.
+     *
+     * @param nonce
+     *            Base64url encoded nonce
+     * @return {@code true} if the nonce was issued by this registry and has not been
+     *         used before
+     */
+    boolean consume(String nonce) {
+        return nonce != null && nonces.remove(nonce);
+    }
+
+    /**
+     * Returns the number of nonces that are still valid.
+     */
+    int size() {
+        return nonces.size();
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.testserver;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.net.URI;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.shredzone.acme4j.toolbox.JSONBuilder;
+
+/**
+ * A response of the test server.
+ */
+final class Response {
+    private static final byte[] EMPTY = new byte[0];
+
+    private final int status;
+    private final String contentType;
+    private final byte[] body;
+    private final List<String> links = new ArrayList<>();
+    private URI location;
+
+    private Response(int status, String contentType, byte[] body) {
+        this.status = status;
+        this.contentType = contentType;
+        this.body = body;
+    }
+
+    /**
+     * Creates a response with a JSON body.
+     */
+    static Response json(int status, JSONBuilder json) {
+        return new Response(status, "application/json", json.toString().getBytes(UTF_8));
+    }
+
+    /**
+     * Creates a response with a DER encoded certificate body.
+     */
+    static Response certificate(int status, X509Certificate cert) {
+        try {
+            return new Response(status, "application/pkix-cert", cert.getEncoded());
+        } catch (CertificateEncodingException ex) {
+            throw new IllegalStateException("Cannot encode certificate", ex);
+        }
+    }
+
+    /**
+     * Creates a plain text response.
+     */
+    static Response text(int status, String text) {
+        return new Response(status, "text/plain", text.getBytes(UTF_8));
+    }
+
+    /**
+     * Creates a response without body.
+     */
+    static Response empty(int status) {
+        return new Response(status, null, EMPTY);
+    }
+
+    /**
+     * Creates a problem document response.
+     */
+    static Response problem(AcmeProblemException ex) {
+        JSONBuilder json = new JSONBuilder();
+        json.put("type", ex.getType());
+        json.put("detail", ex.getMessage());
+        json.put("status", ex.getStatus());
+
+        Response response = new Response(ex.getStatus(), "application/problem+json",
+                        json.toString().getBytes(UTF_8));
+        response.location = ex.getLocation();
+        return response;
+    }
+
+    /**
+     * Sets the {@code Location} header.
+     */
+    Response location(URI location) {
+        this.location = location;
+        return this;
+    }
+
+    /**
+     * Adds a {@code Link} header.
+     */
+    Response link(URI uri, String relation) {
+        links.add("<" + uri + ">;rel=\"" + relation + "\"");
+        return this;
+    }
+
+    int getStatus() {
+        return status;
+    }
+
+    String getContentType() {
+        return contentType;
+    }
+
+    byte[] getBody() {
+        return body;
+    }
+
+    URI getLocation() {
+        return location;
+    }
+
+    List<String> getLinks() {
+        return Collections.unmodifiableList(links);
+    }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.testserver;
+
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.security.PublicKey;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.jose4j.jwa.AlgorithmConstraints;
+import org.jose4j.jwa.AlgorithmConstraints.ConstraintType;
+import org.jose4j.jwk.PublicJsonWebKey;
+import org.jose4j.jws.AlgorithmIdentifiers;
+import org.jose4j.jws.JsonWebSignature;
+import org.jose4j.jwx.CompactSerializer;
+import org.jose4j.lang.JoseException;
+import org.shredzone.acme4j.exception.AcmeProtocolException;
+import org.shredzone.acme4j.toolbox.JSON;
+
+/**
+ * A JWS signed request that has been verified.
+ */
+final class SignedRequest {
+
+    private static final AlgorithmConstraints ALGORITHMS = new AlgorithmConstraints(
+                    ConstraintType.WHITELIST,
+                    AlgorithmIdentifiers.RSA_USING_SHA256,
+                    AlgorithmIdentifiers.ECDSA_USING_P256_CURVE_AND_SHA256,
+                    AlgorithmIdentifiers.ECDSA_USING_P384_CURVE_AND_SHA384,
+                    AlgorithmIdentifiers.ECDSA_USING_P521_CURVE_AND_SHA512);
+
+    private final JSON payload;
+    private final PublicJsonWebKey jwk;
+    private final URI kid;
+    private final PublicKey publicKey;
+    private final String nonce;
+    private final String url;
+
+    private SignedRequest(JSON payload, PublicJsonWebKey jwk, URI kid, PublicKey publicKey,
+                String nonce, String url) {
+        this.payload = payload;
+        this.jwk = jwk;
+        this.kid = kid;
+        this.publicKey = publicKey;
+        this.nonce = nonce;
+        this.url = url;
+    }
+
+    /**
+     * Parses and verifies a flattened JWS JSON serialization.
+     *
+     * @param body
+     *            Request body
+     * @param kidResolver
+     *            Resolves a {@code kid} header to the public key of the account. It
+     *            returns {@code null} if there is no such account.
+     * @return Verified {@link SignedRequest}
+     * @throws AcmeProblemException
+     *             if the request is malformed, or the signature is invalid
+     */
+    static SignedRequest verify(String body, Function<URI, PublicKey> kidResolver)
+                throws AcmeProblemException {
+        JSON json;
+        try {
+            json = JSON.parse(body);
+        } catch (AcmeProtocolException ex) {
+            throw malformed("Request is not a JSON object");
+        }
+        return verify(json, kidResolver);
+    }
+
+    /**
+     * Verifies a flattened JWS JSON structure.
+     *
+     * @param json
+     *            JWS {@link JSON} structure
+     * @param kidResolver
+     *            Resolves a {@code kid} header to the public key of the account. It
+     *            returns {@code null} if there is no such account.
+     * @return Verified {@link SignedRequest}
+     * @throws AcmeProblemException
+     *             if the request is malformed, or the signature is invalid
+     */
+    static SignedRequest verify(JSON json, Function<URI, PublicKey> kidResolver)
+                throws AcmeProblemException {
+        String encodedHeader = json.get("protected").asString();
+        String encodedPayload = json.get("payload").asString();
+        String encodedSignature = json.get("signature").asString();
+        if (encodedHeader == null || encodedPayload == null || encodedSignature == null) {
+            throw malformed("Request is not a flattened JWS");
+        }
+
+        try {
+            JsonWebSignature jws = new JsonWebSignature();
+            jws.setAlgorithmConstraints(ALGORITHMS);
+            jws.setCompactSerialization(
+                            CompactSerializer.serialize(encodedHeader, encodedPayload, encodedSignature));
+
+            Object jwkHeader = jws.getHeaders().getObjectHeaderValue("jwk");
+            String kidHeader = jws.getKeyIdHeaderValue();
+            if ((jwkHeader == null) == (kidHeader == null)) {
+                throw malformed("Exactly one of jwk and kid headers is required");
+            }
+
+            PublicJsonWebKey jwk = null;
+            URI kid = null;
+            PublicKey publicKey;
+            if (jwkHeader != null) {
+                if (!(jwkHeader instanceof Map)) {
+                    throw malformed("Invalid jwk header");
+                }
+                @SuppressWarnings("unchecked")
+                Map<String, Object> jwkParams = (Map<String, Object>) jwkHeader;
+                jwk = PublicJsonWebKey.Factory.newPublicJwk(jwkParams);
+                publicKey = jwk.getPublicKey();
+            } else {
+                kid = URI.create(kidHeader);
+                publicKey = kidResolver.apply(kid);
+                if (publicKey == null) {
+                    throw new AcmeProblemException(HttpURLConnection.HTTP_FORBIDDEN,
+                                    "unauthorized", "No account found for kid " + kid);
+                }
+            }
+
+            jws.setKey(publicKey);
+            if (!jws.verifySignature()) {
+                throw malformed("JWS verification error");
+            }
+
+            return new SignedRequest(JSON.parse(jws.getPayload()), jwk, kid, publicKey,
+                            jws.getHeader("nonce"), jws.getHeader("url"));
+        } catch (JoseException | IllegalArgumentException | AcmeProtocolException ex) {
+            throw malformed("Invalid JWS: " + ex.getMessage());
+        }
+    }
+
+    private static AcmeProblemException malformed(String detail) {
+        return new AcmeProblemException(HttpURLConnection.HTTP_BAD_REQUEST, "malformed", detail);
+    }
+
+    /**
+     * Returns the verified payload.
+     */
+    JSON getPayload() {
+        return payload;
+    }
+
+    /**
+     * Returns the public key in the {@code jwk} header, or {@code null} if the request
+     * was signed with a {@code kid} header.
+     */
+    PublicJsonWebKey getJwk() {
+        return jwk;
+    }
+
+    /**
+     * Returns the {@code kid} header, or {@code null} if the request was signed with a
+     * {@code jwk} header.
+     */
+    URI getKid() {
+        return kid;
+    }
+
+    /**
+     * Returns the public key the request was signed with.
+     */
+    PublicKey getPublicKey() {
+        return publicKey;
+    }
+
+    /**
+     * Returns the {@code nonce} header, or {@code null} if there was none.
+     */
+    String getNonce() {
+        return nonce;
+    }
+
+    /**
+     * Returns the {@code url} header, or {@code null} if there was none.
+     */
+    String getUrl() {
+        return url;
+    }
+
+}
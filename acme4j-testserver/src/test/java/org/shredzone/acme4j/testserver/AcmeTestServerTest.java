@@ -0,0 +1,305 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.testserver;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.shredzone.acme4j.Authorization;
+import org.shredzone.acme4j.Certificate;
+import org.shredzone.acme4j.Registration;
+import org.shredzone.acme4j.RegistrationBuilder;
+import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.Status;
+import org.shredzone.acme4j.challenge.Dns01Challenge;
+import org.shredzone.acme4j.challenge.Http01Challenge;
+import org.shredzone.acme4j.exception.AcmeConflictException;
+import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.exception.AcmeServerException;
+import org.shredzone.acme4j.exception.AcmeUnauthorizedException;
+import org.shredzone.acme4j.toolbox.JSONBuilder;
+import org.shredzone.acme4j.util.CSRBuilder;
+import org.shredzone.acme4j.util.KeyPairUtils;
+
+/**
+ * Unit tests for {@link AcmeTestServer}, using the acme4j client.
+ */
+public class AcmeTestServerTest {
+
+    private AcmeTestServer server;
+
+    @Before
+    public void setup() throws Exception {
+        server = new AcmeTestServer();
+    }
+
+    @After
+    public void teardown() {
+        server.close();
+    }
+
+    /**
+     * Test the complete workflow, from registration to revocation.
+     */
+    @Test
+    public void testWorkflow() throws Exception {
+        Session session = new Session(server.getDirectoryUri(), KeyPairUtils.createKeyPair(2048));
+
+        Registration registration = new RegistrationBuilder()
+                        .addContact("mailto:acme@example.com")
+                        .create(session);
+        assertThat(registration.getLocation(), is(notNullValue()));
+
+        URI tos = session.getMetadata().getTermsOfService();
+        registration.modify().setAgreement(tos).commit();
+        assertThat(registration.getAgreement(), is(tos));
+        assertThat(registration.getContacts(), contains(URI.create("mailto:acme@example.com")));
+        assertThat(registration.getStatus(), is(Status.VALID));
+
+        Authorization auth = registration.authorizeDomain("example.org");
+        assertThat(auth.getDomain(), is("example.org"));
+        assertThat(auth.getStatus(), is(Status.PENDING));
+
+        Http01Challenge challenge = auth.findChallenge(Http01Challenge.TYPE);
+        challenge.trigger();
+        assertThat(challenge.getStatus(), is(Status.VALID));
+
+        auth.update();
+        assertThat(auth.getStatus(), is(Status.VALID));
+
+        Authorization auth2 = registration.authorizeDomain("www.example.org");
+        Dns01Challenge challenge2 = auth2.findChallenge(Dns01Challenge.TYPE);
+        challenge2.trigger();
+        assertThat(challenge2.getStatus(), is(Status.VALID));
+
+        KeyPair domainKeyPair = KeyPairUtils.createKeyPair(2048);
+        CSRBuilder csrb = new CSRBuilder();
+        csrb.addDomains("example.org", "www.example.org");
+        csrb.sign(domainKeyPair);
+
+        Certificate certificate = registration.requestCertificate(csrb.getEncoded());
+        X509Certificate cert = certificate.download();
+        assertThat(cert.getPublicKey(), is(domainKeyPair.getPublic()));
+        assertThat(cert.getSubjectX500Principal().getName(), is("CN=example.org"));
+
+        X509Certificate[] chain = certificate.downloadChain();
+        assertThat(chain.length, is(1));
+        assertThat(chain[0], is(server.getCertificateAuthority().getRootCertificate()));
+        cert.verify(chain[0].getPublicKey());
+
+        assertThat(registration.fetchAuthorizations().stream().count(), is(2L));
+        assertThat(registration.fetchCertificates().stream().count(), is(1L));
+
+        certificate.revoke();
+        try {
+            certificate.revoke();
+            fail("certificate was revoked twice");
+        } catch (AcmeServerException ex) {
+            assertThat(ex.getType(), is("urn:acme:error:malformed"));
+        }
+
+        registration.deactivate();
+        try {
+            registration.authorizeDomain("example.com");
+            fail("deactivated registration was accepted");
+        } catch (AcmeUnauthorizedException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that a wrong key authorization invalidates the challenge.
+     */
+    @Test
+    public void testInvalidChallenge() throws Exception {
+        Session session = new Session(server.getDirectoryUri(), KeyPairUtils.createKeyPair(2048));
+        Registration registration = new RegistrationBuilder().create(session);
+        Authorization auth = registration.authorizeDomain("example.org");
+        Http01Challenge original = auth.findChallenge(Http01Challenge.TYPE);
+
+        Http01Challenge challenge = new Http01Challenge(session) {
+            @Override
+            protected void respond(JSONBuilder cb) {
+                super.respond(cb);
+                cb.put("keyAuthorization", getToken() + ".invalid");
+            }
+        };
+        challenge.unmarshall(new JSONBuilder()
+                        .put("type", Http01Challenge.TYPE)
+                        .put("uri", original.getLocation())
+                        .put("token", original.getToken())
+                        .toJSON());
+        challenge.trigger();
+        assertThat(challenge.getStatus(), is(Status.INVALID));
+        assertThat(challenge.getError(), is(notNullValue()));
+
+        auth.update();
+        assertThat(auth.getStatus(), is(Status.INVALID));
+    }
+
+    /**
+     * Test that a certificate is only issued for authorized domains.
+     */
+    @Test(expected = AcmeUnauthorizedException.class)
+    public void testUnauthorizedDomain() throws Exception {
+        Session session = new Session(server.getDirectoryUri(), KeyPairUtils.createKeyPair(2048));
+        Registration registration = new RegistrationBuilder().create(session);
+
+        CSRBuilder csrb = new CSRBuilder();
+        csrb.addDomain("example.org");
+        csrb.sign(KeyPairUtils.createKeyPair(2048));
+        registration.requestCertificate(csrb.getEncoded());
+    }
+
+    /**
+     * Test that a key can only be registered once.
+     */
+    @Test
+    public void testConflict() throws Exception {
+        KeyPair keyPair = KeyPairUtils.createKeyPair(2048);
+        Registration registration = new RegistrationBuilder()
+                        .create(new Session(server.getDirectoryUri(), keyPair));
+
+        try {
+            new RegistrationBuilder().create(new Session(server.getDirectoryUri(), keyPair));
+            fail("key was registered twice");
+        } catch (AcmeConflictException ex) {
+            assertThat(ex.getLocation(), is(registration.getLocation()));
+        }
+    }
+
+    /**
+     * Test signed requests with a key identifier.
+     */
+    @Test
+    public void testKeyIdentifier() throws Exception {
+        Session session = new Session(server.getDirectoryUri(), KeyPairUtils.createKeyPair(2048));
+        session.setKeyIdentifierEnabled(true);
+
+        Registration registration = new RegistrationBuilder().create(session);
+        assertThat(session.getKeyIdentifier(), is(registration.getLocation()));
+
+        Authorization auth = registration.authorizeDomain("example.org");
+        Http01Challenge challenge = auth.findChallenge(Http01Challenge.TYPE);
+        challenge.trigger();
+        assertThat(challenge.getStatus(), is(Status.VALID));
+    }
+
+    /**
+     * Test that the account key can be changed.
+     */
+    @Test
+    public void testKeyChange() throws Exception {
+        KeyPair oldKeyPair = KeyPairUtils.createKeyPair(2048);
+        KeyPair newKeyPair = KeyPairUtils.createKeyPair(2048);
+
+        Session session = new Session(server.getDirectoryUri(), oldKeyPair);
+        session.setKeyIdentifierEnabled(true);
+        Registration registration = new RegistrationBuilder().create(session);
+
+        registration.changeKey(newKeyPair);
+        assertThat(session.getKeyPair(), is(sameInstance(newKeyPair)));
+
+        Authorization auth = registration.authorizeDomain("example.org");
+        assertThat(auth.getStatus(), is(Status.PENDING));
+
+        // the old key is free again
+        Registration other = new RegistrationBuilder()
+                        .create(new Session(server.getDirectoryUri(), oldKeyPair));
+        assertThat(other.getLocation(), is(not(registration.getLocation())));
+    }
+
+    /**
+     * Test that injected errors are sent to the client.
+     */
+    @Test
+    public void testErrorInjection() throws Exception {
+        Session session = new Session(server.getDirectoryUri(), KeyPairUtils.createKeyPair(2048));
+        Registration registration = new RegistrationBuilder().create(session);
+
+        server.setErrorRate(1.0);
+        try {
+            registration.authorizeDomain("example.org");
+            fail("injected error was not sent");
+        } catch (AcmeServerException ex) {
+            assertThat(ex.getType(), is("urn:acme:error:serverInternal"));
+        }
+
+        server.setErrorRate(0.0);
+        server.setBadNonceRate(1.0);
+        long requests = server.getRequestCount();
+        try {
+            registration.authorizeDomain("example.org");
+            fail("injected bad nonce was not sent");
+        } catch (AcmeException ex) {
+            // expected, after the client has retried
+            assertThat(server.getRequestCount() - requests, is(greaterThan(1L)));
+        }
+
+        server.setBadNonceRate(0.0);
+        assertThat(registration.authorizeDomain("example.org"), is(notNullValue()));
+    }
+
+    /**
+     * Test that the configured latency is added.
+     */
+    @Test
+    public void testLatency() throws Exception {
+        Session session = new Session(server.getDirectoryUri(), KeyPairUtils.createKeyPair(2048));
+        session.getMetadata();
+
+        server.setLatency(Duration.ofMillis(200));
+        server.setLatencyJitter(Duration.ofMillis(50));
+        assertThat(server.getLatency(), is(Duration.ofMillis(200)));
+        assertThat(server.getLatencyJitter(), is(Duration.ofMillis(50)));
+
+        long start = System.nanoTime();
+        new RegistrationBuilder().create(session);
+        assertThat(System.nanoTime() - start, is(greaterThanOrEqualTo(200_000_000L)));
+    }
+
+    /**
+     * Test that invalid settings are rejected.
+     */
+    @Test
+    public void testSettings() {
+        try {
+            server.setErrorRate(1.5);
+            fail("accepted error rate > 1");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+
+        try {
+            server.setLatency(Duration.ofSeconds(-1));
+            fail("accepted negative latency");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+
+        assertThat(server.getErrorRate(), is(0.0));
+        assertThat(server.getBadNonceRate(), is(0.0));
+        assertThat(server.getDirectoryUri().toString(), startsWith("http://"));
+        assertThat(server.getDirectoryUri().getPath(), is("/directory"));
+    }
+
+}
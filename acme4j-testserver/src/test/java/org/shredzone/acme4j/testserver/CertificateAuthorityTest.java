@@ -0,0 +1,95 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.testserver;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link CertificateAuthority}.
+ */
+public class CertificateAuthorityTest {
+
+    /**
+     * Test the root certificate.
+     */
+    @Test
+    public void testRootCertificate() throws Exception {
+        CertificateAuthority ca = new CertificateAuthority();
+        X509Certificate root = ca.getRootCertificate();
+
+        assertThat(root.getSubjectX500Principal(), is(root.getIssuerX500Principal()));
+        assertThat(root.getBasicConstraints(), is(greaterThanOrEqualTo(0)));
+        root.verify(root.getPublicKey());
+        root.checkValidity();
+
+        CertificateAuthority other = new CertificateAuthority();
+        assertThat(other.getRootCertificate().getPublicKey(), is(not(root.getPublicKey())));
+    }
+
+    /**
+     * Test issuing certificates.
+     */
+    @Test
+    public void testIssue() throws Exception {
+        CertificateAuthority ca = new CertificateAuthority();
+        KeyPair keyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+
+        Instant notBefore = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        Instant notAfter = notBefore.plus(10, ChronoUnit.DAYS);
+
+        X509Certificate cert = ca.issue(keyPair.getPublic(),
+                        Arrays.asList("example.org", "www.example.org"), notBefore, notAfter);
+
+        cert.verify(ca.getRootCertificate().getPublicKey());
+        assertThat(cert.getPublicKey(), is(keyPair.getPublic()));
+        assertThat(cert.getIssuerX500Principal(), is(ca.getRootCertificate().getSubjectX500Principal()));
+        assertThat(cert.getSubjectX500Principal().getName(), is("CN=example.org"));
+        assertThat(cert.getBasicConstraints(), is(-1));
+        assertThat(cert.getNotBefore().toInstant(), is(notBefore));
+        assertThat(cert.getNotAfter().toInstant(), is(notAfter));
+
+        List<String> sans = cert.getSubjectAlternativeNames().stream()
+                        .map(san -> (String) san.get(1))
+                        .collect(Collectors.toList());
+        assertThat(sans, contains("example.org", "www.example.org"));
+
+        X509Certificate cert2 = ca.issue(keyPair.getPublic(),
+                        Collections.singletonList("example.com"), null, null);
+        assertThat(cert2.getSerialNumber(), is(not(cert.getSerialNumber())));
+        cert2.checkValidity();
+    }
+
+    /**
+     * Test that certificates without domains are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testIssueNoDomains() throws Exception {
+        KeyPair keyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        new CertificateAuthority().issue(keyPair.getPublic(), Collections.emptyList(), null, null);
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * acme4j - Java ACME client
+ *
+ * Copyright (C) 2017 Richard "Shred" Körber
+ *   http://acme4j.shredzone.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package org.shredzone.acme4j.testserver;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link NonceRegistry}.
+ */
+public class NonceRegistryTest {
+
+    /**
+     * Test that nonces are unique and can only be consumed once.
+     */
+    @Test
+    public void testConsume() {
+        NonceRegistry registry = new NonceRegistry(100);
+
+        Set<String> nonces = new HashSet<>();
+        for (int ix = 0; ix < 50; ix++) {
+            nonces.add(registry.create());
+        }
+        assertThat(nonces.size(), is(50));
+        assertThat(registry.size(), is(50));
+
+        for (String nonce : nonces) {
+            assertThat(nonce, not(containsString("=")));
+            assertThat(registry.consume(nonce), is(true));
+            assertThat(registry.consume(nonce), is(false));
+        }
+        assertThat(registry.size(), is(0));
+
+        assertThat(registry.consume(null), is(false));
+        assertThat(registry.consume("unknown"), is(false));
+    }
+
+    /**
+     * Test that the oldest nonces are forgotten.
+     */
+    @Test
+    public void testEviction() {
+        NonceRegistry registry = new NonceRegistry(10);
+
+        String first = registry.create();
+        for (int ix = 0; ix < 10; ix++) {
+            registry.create();
+        }
+        String last = registry.create();
+
+        assertThat(registry.size(), is(10));
+        assertThat(registry.consume(first), is(false));
+        assertThat(registry.consume(last), is(true));
+    }
+
+}